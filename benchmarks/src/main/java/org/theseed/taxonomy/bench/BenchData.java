@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.theseed.taxonomy.Rank;
+import org.theseed.taxonomy.SyntheticTree;
+import org.theseed.taxonomy.TreeOfLife;
+import org.theseed.taxonomy.TreeOfLife.Taxon;
+
+/**
+ * This class provides the synthetic data shared by the benchmarks.  Trees are generated once per size and
+ * cached, so that benchmarks in the same JVM do not pay for generation more than once.
+ *
+ * @author Bruce Parrello
+ *
+ */
+final class BenchData {
+
+    /** seed for all random data */
+    static final long SEED = 20191105L;
+    /** cache of generated trees, keyed by size */
+    private static final Map<Integer, TreeOfLife> TREES = new HashMap<Integer, TreeOfLife>();
+
+    private BenchData() { }
+
+    /**
+     * @return a synthetic tree of the specified size
+     *
+     * @param size	approximate number of taxonomic groupings
+     */
+    static synchronized TreeOfLife tree(int size) {
+        TreeOfLife retVal = TREES.get(size);
+        if (retVal == null) {
+            retVal = new SyntheticTree(size, SEED).build();
+            retVal.buildLineageIndex();
+            TREES.put(size, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Choose taxonomic IDs for registration.  Shallow IDs are at the class level, a few steps from the
+     * root.  Deep IDs are strain-level groupings below a species.
+     *
+     * @param tree	tree from which to choose
+     * @param deep	TRUE for deep IDs, FALSE for shallow ones
+     * @param n		number of IDs to return
+     *
+     * @return an array of randomly-chosen IDs of the specified depth
+     */
+    static int[] taxa(TreeOfLife tree, boolean deep, int n) {
+        int[] pool = new int[tree.size()];
+        int poolSize = 0;
+        for (Taxon taxon : tree) {
+            boolean wanted;
+            if (deep)
+                wanted = (taxon.getRank() == Rank.OTHER && tree.getAncestor(taxon.getId(), Rank.SPECIES) >= 0);
+            else
+                wanted = (taxon.getRank() == Rank.CLASS);
+            if (wanted)
+                pool[poolSize++] = taxon.getId();
+        }
+        Random rand = new Random(SEED);
+        int[] retVal = new int[n];
+        for (int i = 0; i < n; i++)
+            retVal[i] = pool[rand.nextInt(poolSize)];
+        return retVal;
+    }
+
+    /**
+     * @return an array of group keys for registration, with a skewed distribution
+     *
+     * @param nGroups	number of distinct groups
+     * @param n			number of keys to return
+     */
+    static String[] groups(int nGroups, int n) {
+        String[] names = new String[nGroups];
+        for (int i = 0; i < nGroups; i++)
+            names[i] = "group" + i;
+        Random rand = new Random(SEED);
+        String[] retVal = new String[n];
+        for (int i = 0; i < n; i++) {
+            // Squaring a uniform value favors the low-numbered groups.
+            double r = rand.nextDouble();
+            retVal[i] = names[(int) (r * r * nGroups)];
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.taxonomy.TreeOfLife;
+import org.theseed.taxonomy.analyze.TaxonomyCounter;
+
+/**
+ * Benchmarks for registering taxonomic IDs in a single taxonomy counter.  Shallow IDs are class-level
+ * groupings near the root, and deep IDs are strain-level groupings.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CounterBenchmark {
+
+    /** approximate number of taxonomic groupings in the tree */
+    @Param({ "2500000" })
+    int size;
+
+    /** depth of the registered IDs */
+    @Param({ "shallow", "deep" })
+    String depth;
+
+    /** tree for counting */
+    private TreeOfLife tree;
+    /** IDs to register */
+    private int[] taxIds;
+
+    @Setup
+    public void setup() {
+        this.tree = BenchData.tree(this.size);
+        this.taxIds = BenchData.taxa(this.tree, this.depth.equals("deep"), 1000000);
+    }
+
+    @Benchmark
+    public TaxonomyCounter register() {
+        TaxonomyCounter retVal = new TaxonomyCounter("bench", this.tree);
+        for (int taxId : this.taxIds)
+            retVal.register(taxId);
+        return retVal;
+    }
+
+}
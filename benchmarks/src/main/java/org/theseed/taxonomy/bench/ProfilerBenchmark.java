@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.taxonomy.TreeOfLife;
+import org.theseed.taxonomy.analyze.TaxonomyCounter;
+import org.theseed.taxonomy.analyze.TaxonomyProfiler;
+
+/**
+ * Benchmarks for the taxonomy profiler:  registering genomes in groups and sorting the profiles for the
+ * report.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProfilerBenchmark {
+
+    /** approximate number of taxonomic groupings in the tree */
+    @Param({ "2500000" })
+    int size;
+
+    /** number of distinct groups */
+    @Param({ "10", "1000", "100000" })
+    int groups;
+
+    /** number of genomes to register */
+    private static final int ROWS = 1000000;
+
+    /** tree for counting */
+    private TreeOfLife tree;
+    /** IDs to register */
+    private int[] taxIds;
+    /** group keys to register */
+    private String[] keys;
+    /** profiler filled for the sort benchmark */
+    private TaxonomyProfiler filled;
+
+    @Setup
+    public void setup() {
+        this.tree = BenchData.tree(this.size);
+        this.taxIds = BenchData.taxa(this.tree, true, ROWS);
+        this.keys = BenchData.groups(this.groups, ROWS);
+        this.filled = this.register();
+    }
+
+    @Benchmark
+    public TaxonomyProfiler register() {
+        TaxonomyProfiler retVal = new TaxonomyProfiler(this.tree);
+        for (int i = 0; i < ROWS; i++)
+            retVal.register(this.keys[i], this.taxIds[i]);
+        return retVal;
+    }
+
+    @Benchmark
+    public List<TaxonomyCounter> sortedProfiles() {
+        return this.filled.sortedProfiles();
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.theseed.taxonomy.SyntheticTree;
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * Benchmarks for loading and searching the taxonomy tree.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TreeBenchmark {
+
+    /** approximate number of taxonomic groupings in the tree */
+    @Param({ "100000", "2500000" })
+    int size;
+
+    /** synthetic load file */
+    private File dtxFile;
+    /** synthetic snapshot file */
+    private File snapFile;
+    /** tree for searching */
+    private TreeOfLife tree;
+    /** IDs to search for, including some not in the tree */
+    private int[] searchIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dtxFile = File.createTempFile("bench", ".dtx");
+        new SyntheticTree(this.size, BenchData.SEED).write(this.dtxFile);
+        this.tree = BenchData.tree(this.size);
+        this.snapFile = File.createTempFile("bench", ".snap");
+        this.tree.save(this.snapFile);
+        // Search IDs are spread over the whole ID range, so some will be missing.
+        Random rand = new Random(BenchData.SEED);
+        this.searchIds = new int[100000];
+        int limit = (int) (this.size * 1.25);
+        for (int i = 0; i < this.searchIds.length; i++)
+            this.searchIds[i] = rand.nextInt(limit);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        this.dtxFile.delete();
+        this.snapFile.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TreeOfLife load() throws IOException {
+        return TreeOfLife.load(this.dtxFile);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TreeOfLife loadSnapshot() throws IOException {
+        return TreeOfLife.loadSnapshot(this.snapFile);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void find(Blackhole bh) {
+        for (int taxId : this.searchIds)
+            bh.consume(this.tree.find(taxId));
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the downward links of a taxonomy tree, which itself only stores parent links.  It is
+ * built from the tree's parent array, and works entirely on internal indices.
+ *
+ * The child lists are in compressed sparse row form:  the children of grouping i are in the child array
+ * from offset starts[i] up to (but not including) starts[i + 1], so the whole index costs two integers per
+ * grouping.
+ *
+ * The index also lays out the groupings in depth-first preorder, with the depth of each position and the
+ * last position in each subtree.  Each subtree occupies a contiguous interval of the preorder, and every
+ * grouping in a subtree except its root has its parent inside the interval.  This layout is the basis of
+ * both the lowest-common-ancestor index and the subtree aggregations.
+ *
+ * The tree may be a forest.  Groupings in a parent cycle are attached below the first member of the cycle
+ * encountered, which is treated as a root, and the child lists are rebuilt to match, so the child lists,
+ * the parent array, and the preorder always describe the same forest.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class ChildIndex {
+
+    // FIELDS
+    /** number of groupings */
+    final int size;
+    /** parent index for each internal index, or -1 for a root (including cycle roots) */
+    final int[] parents;
+    /** offset of each grouping's first child in the child array, plus a final entry for the end */
+    final int[] starts;
+    /** internal indices of the children, grouped by parent */
+    final int[] children;
+    /** preorder position of each internal index */
+    final int[] positions;
+    /** internal index at each preorder position */
+    final int[] order;
+    /** depth at each preorder position */
+    final int[] depths;
+    /** last preorder position in the subtree of each internal index */
+    final int[] ends;
+
+    /**
+     * Build the index for a tree.
+     *
+     * @param parents	array of parent indices, with -1 for a root
+     * @param n			number of groupings in the tree
+     */
+    ChildIndex(int[] parents, int n) {
+        this.size = n;
+        int[][] lists = buildLists(parents, n);
+        int[] childStarts = lists[0];
+        int[] childList = lists[1];
+        // Lay out the trees in preorder, starting with the real roots.
+        this.positions = new int[n];
+        Arrays.fill(this.positions, -1);
+        this.order = new int[n];
+        this.depths = new int[n];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            if (parents[i] < 0)
+                pos = this.traverse(i, pos, childStarts, childList);
+        }
+        int[] fixedParents = Arrays.copyOf(parents, n);
+        if (pos < n) {
+            // Everything left is in a cycle or below one.  Find a cycle member and traverse from there.
+            int[] stamps = new int[n];
+            for (int i = 0; i < n; i++) {
+                if (this.positions[i] < 0) {
+                    int idx = i;
+                    while (stamps[idx] != i + 1) {
+                        stamps[idx] = i + 1;
+                        idx = parents[idx];
+                    }
+                    pos = this.traverse(idx, pos, childStarts, childList);
+                }
+            }
+            // The cycle roots are roots in the preorder, so the parents and child lists must match.
+            for (int p = 0; p < n; p++) {
+                if (this.depths[p] == 0) fixedParents[this.order[p]] = -1;
+            }
+            lists = buildLists(fixedParents, n);
+            childStarts = lists[0];
+            childList = lists[1];
+        }
+        this.parents = fixedParents;
+        this.starts = childStarts;
+        this.children = childList;
+        // Compute the subtree intervals.  Processing the preorder backward insures each grouping is
+        // finished before its parent.
+        this.ends = new int[n];
+        for (int p = n - 1; p >= 0; p--) {
+            int idx = this.order[p];
+            if (this.ends[idx] < p) this.ends[idx] = p;
+            int parent = this.parents[idx];
+            if (parent >= 0 && this.ends[parent] < this.ends[idx])
+                this.ends[parent] = this.ends[idx];
+        }
+    }
+
+    /**
+     * @return the child lists for a parent array:  the start offsets followed by the child array
+     *
+     * @param parents	array of parent indices, with -1 for a root
+     * @param n			number of groupings in the tree
+     */
+    private static int[][] buildLists(int[] parents, int n) {
+        int[] childStarts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int p = parents[i];
+            if (p >= 0) childStarts[p + 1]++;
+        }
+        for (int i = 0; i < n; i++)
+            childStarts[i + 1] += childStarts[i];
+        int[] childList = new int[childStarts[n]];
+        int[] fill = Arrays.copyOf(childStarts, n);
+        for (int i = 0; i < n; i++) {
+            int p = parents[i];
+            if (p >= 0) childList[fill[p]++] = i;
+        }
+        return new int[][] { childStarts, childList };
+    }
+
+    /**
+     * Traverse a subtree in preorder, assigning positions.  Groupings that already have positions are
+     * skipped, which breaks any cycles.
+     *
+     * @param root			internal index of the subtree root, which is given a depth of 0
+     * @param pos			next preorder position
+     * @param childStarts	start of each grouping's children in the child list
+     * @param childList		child list
+     *
+     * @return the next preorder position after the traversal
+     */
+    private int traverse(int root, int pos, int[] childStarts, int[] childList) {
+        // The stack contains pairs of (index, depth).
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = root;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int depth = stack[--sp];
+            int idx = stack[--sp];
+            if (this.positions[idx] < 0) {
+                this.positions[idx] = pos;
+                this.order[pos] = idx;
+                this.depths[pos] = depth;
+                pos++;
+                // Push the children in reverse, so they come off the stack in order.
+                int needed = sp + (childStarts[idx + 1] - childStarts[idx]) * 2;
+                if (needed > stack.length)
+                    stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+                for (int c = childStarts[idx + 1] - 1; c >= childStarts[idx]; c--) {
+                    stack[sp++] = childList[c];
+                    stack[sp++] = depth + 1;
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the number of children of a grouping
+     *
+     * @param idx	internal index of the grouping of interest
+     */
+    int childCount(int idx) {
+        return this.starts[idx + 1] - this.starts[idx];
+    }
+
+    /**
+     * @return the number of groupings in the subtree of a grouping, including the grouping itself
+     *
+     * @param idx	internal index of the grouping of interest
+     */
+    int subtreeSize(int idx) {
+        return this.ends[idx] - this.positions[idx] + 1;
+    }
+
+    /**
+     * @return the internal indices of the roots, in preorder
+     */
+    int[] roots() {
+        int count = 0;
+        for (int p = 0; p < this.size; p++) {
+            if (this.depths[p] == 0) count++;
+        }
+        int[] retVal = new int[count];
+        count = 0;
+        for (int p = 0; p < this.size; p = this.ends[this.order[p]] + 1)
+            retVal[count++] = this.order[p];
+        return retVal;
+    }
+
+}
@@ -0,0 +1,240 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads a tab-delimited taxonomy load file one field at a time.  It works directly on a large
+ * byte buffer, parsing integers and locating field boundaries by hand, so that no regular expressions
+ * or intermediate line strings are involved.  Lines may end with either a new-line or a carriage-return
+ * / new-line pair.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class DtxReader implements Closeable {
+
+    // FIELDS
+    /** default size of the input buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** underlying input stream */
+    private InputStream stream;
+    /** input buffer */
+    private byte[] buffer;
+    /** position of the next unread byte in the buffer */
+    private int pos;
+    /** position after the last valid byte in the buffer */
+    private int end;
+    /** TRUE if the input stream is exhausted */
+    private boolean eof;
+    /** number of the current line (1-based) */
+    private int lineNum;
+
+    /**
+     * Open a taxonomy load file for reading.
+     *
+     * @param inFile	file to read
+     *
+     * @throws IOException
+     */
+    public DtxReader(File inFile) throws IOException {
+        this.stream = new FileInputStream(inFile);
+        this.buffer = new byte[BUFFER_SIZE];
+        this.pos = 0;
+        this.end = 0;
+        this.eof = false;
+        this.lineNum = 0;
+    }
+
+    /**
+     * @return TRUE if there is another record in the file, positioning at its first field
+     *
+     * @throws IOException
+     */
+    public boolean hasNext() throws IOException {
+        boolean found = false;
+        while (! found && this.fill()) {
+            byte c = this.buffer[this.pos];
+            if (c == '\n') {
+                this.pos++;
+            } else if (c == '\r') {
+                this.pos++;
+            } else {
+                found = true;
+            }
+        }
+        if (found) this.lineNum++;
+        return found;
+    }
+
+    /**
+     * @return the next field as an integer
+     *
+     * @throws IOException if the field is missing, is not a number, or does not fit in an int
+     */
+    public int nextInt() throws IOException {
+        int fieldEnd = this.scanField();
+        int i = this.pos;
+        boolean negative = false;
+        if (i < fieldEnd && this.buffer[i] == '-') {
+            negative = true;
+            i++;
+        }
+        if (i >= fieldEnd)
+            throw new IOException("Missing numeric field in line " + this.lineNum + ".");
+        // Accumulate in a long, so we can tell when the value no longer fits in an int.
+        long limit = (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE);
+        long retVal = 0;
+        while (i < fieldEnd) {
+            int digit = this.buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new IOException("Invalid numeric field in line " + this.lineNum + ".");
+            retVal = retVal * 10 + digit;
+            if (retVal > limit)
+                throw new IOException("Numeric field out of range in line " + this.lineNum + ".");
+            i++;
+        }
+        this.consume(fieldEnd);
+        return (int) (negative ? -retVal : retVal);
+    }
+
+    /**
+     * @return the next field as a string
+     *
+     * @throws IOException
+     */
+    public String next() throws IOException {
+        int fieldEnd = this.scanField();
+        String retVal = new String(this.buffer, this.pos, fieldEnd - this.pos, StandardCharsets.UTF_8);
+        this.consume(fieldEnd);
+        return retVal;
+    }
+
+    /**
+     * Skip any remaining fields in the current line.
+     *
+     * @throws IOException
+     */
+    public void skipLine() throws IOException {
+        boolean done = false;
+        while (! done && this.fill()) {
+            byte c = this.buffer[this.pos];
+            if (c == '\n' || c == '\r') {
+                done = true;
+            } else {
+                this.pos++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of records read so far
+     */
+    public int getLineNum() {
+        return this.lineNum;
+    }
+
+    /**
+     * Find the end of the current field.  On exit, the entire field will be in the buffer, starting at
+     * the current position.
+     *
+     * @return the buffer position of the delimiter (or end of data) that terminates the current field
+     *
+     * @throws IOException
+     */
+    private int scanField() throws IOException {
+        int i = this.pos;
+        boolean found = false;
+        while (! found) {
+            if (i >= this.end) {
+                // We need more data.  Remember our offset in the field, since filling moves it.
+                int offset = i - this.pos;
+                if (! this.refill()) {
+                    // End of file terminates the field.
+                    i = this.end;
+                    found = true;
+                } else {
+                    i = this.pos + offset;
+                }
+            } else {
+                byte c = this.buffer[i];
+                if (c == '\t' || c == '\n' || c == '\r') {
+                    found = true;
+                } else {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Move past a field.  A tab delimiter is consumed, but line ends are left for {@link #hasNext()}.
+     *
+     * @param fieldEnd	buffer position of the field's delimiter
+     */
+    private void consume(int fieldEnd) {
+        this.pos = fieldEnd;
+        if (fieldEnd < this.end && this.buffer[fieldEnd] == '\t')
+            this.pos++;
+    }
+
+    /**
+     * Insure there is at least one unread byte in the buffer.
+     *
+     * @return TRUE if there is data available, FALSE at end of file
+     *
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        boolean retVal = (this.pos < this.end);
+        if (! retVal)
+            retVal = this.refill();
+        return retVal;
+    }
+
+    /**
+     * Read more data into the buffer, keeping the unread bytes.  The unread bytes are shifted to the
+     * front of the buffer, and the buffer is enlarged if it is full.
+     *
+     * @return TRUE if more data was read, FALSE at end of file
+     *
+     * @throws IOException
+     */
+    private boolean refill() throws IOException {
+        boolean retVal = false;
+        if (! this.eof) {
+            int remaining = this.end - this.pos;
+            if (remaining >= this.buffer.length) {
+                byte[] newBuffer = new byte[this.buffer.length * 2];
+                System.arraycopy(this.buffer, this.pos, newBuffer, 0, remaining);
+                this.buffer = newBuffer;
+            } else if (remaining > 0) {
+                System.arraycopy(this.buffer, this.pos, this.buffer, 0, remaining);
+            }
+            this.pos = 0;
+            this.end = remaining;
+            int n = this.stream.read(this.buffer, this.end, this.buffer.length - this.end);
+            if (n < 0) {
+                this.eof = true;
+            } else {
+                this.end += n;
+                retVal = true;
+            }
+        }
+        return retVal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+
+}
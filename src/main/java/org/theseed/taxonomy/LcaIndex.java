@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+/**
+ * This class answers lowest-common-ancestor and descendant queries for a taxonomy tree in constant time.
+ * It is built from the tree's {@link ChildIndex}, and works entirely on internal indices.
+ *
+ * The groupings are taken in the depth-first preorder of the child index.  For two groupings u and v with
+ * u preceding v, the lowest common ancestor is the parent of the shallowest grouping in the preorder range
+ * after u up through v.  (This is the usual Euler-tour reduction, but the preorder needs only one slot per
+ * grouping instead of two.)  The range-minimum queries use a sparse table over blocks of {@link #BLOCK_SIZE}
+ * positions, with a linear scan inside the partial blocks at each end, so the table is small even for
+ * millions of groupings.
+ *
+ * Each subtree occupies a contiguous interval of the preorder, from the position of its root through
+ * the position of its last descendant.  A grouping is a descendant of another if its position falls in
+ * the other's interval, which takes two comparisons.
+ *
+ * The tree may be a forest.  Each tree occupies a contiguous range of the preorder, so a query range
+ * that spans two trees contains a root, whose parent is -1.  Groupings in a parent cycle are handled by
+ * the child index, which treats one member of each cycle as a root.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class LcaIndex {
+
+    // FIELDS
+    /** parent index for each internal index, or -1 for a root */
+    private final int[] parents;
+    /** preorder position of each internal index */
+    private final int[] positions;
+    /** last preorder position in the subtree of each internal index */
+    private final int[] ends;
+    /** internal index at each preorder position */
+    private final int[] order;
+    /** depth at each preorder position */
+    private final int[] depths;
+    /** sparse table:  level k holds, for each block b, the position of the shallowest grouping in blocks
+     *  b through b + 2^k - 1 */
+    private final int[][] table;
+    /** number of bits in the block size */
+    private static final int BLOCK_BITS = 5;
+    /** number of preorder positions in a block */
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    /**
+     * Build the index for a tree.
+     *
+     * @param children	child index for the tree
+     */
+    public LcaIndex(ChildIndex children) {
+        int n = children.size;
+        this.parents = children.parents;
+        this.positions = children.positions;
+        this.ends = children.ends;
+        this.order = children.order;
+        this.depths = children.depths;
+        // Build the sparse table.
+        int nBlocks = (n + BLOCK_SIZE - 1) >> BLOCK_BITS;
+        int levels = 1;
+        while ((1 << levels) <= nBlocks) levels++;
+        this.table = new int[levels][];
+        int[] level0 = new int[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            int start = b << BLOCK_BITS;
+            level0[b] = this.scan(start, Math.min(n, start + BLOCK_SIZE) - 1);
+        }
+        this.table[0] = level0;
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int len = nBlocks - (1 << k) + 1;
+            int[] prev = this.table[k - 1];
+            int[] level = new int[len];
+            for (int b = 0; b < len; b++)
+                level[b] = this.shallower(prev[b], prev[b + half]);
+            this.table[k] = level;
+        }
+    }
+
+    /**
+     * @return the internal index of the lowest common ancestor of two groupings, or -1 if they are in
+     * 		   different trees
+     *
+     * @param idx1		internal index of the first grouping
+     * @param idx2		internal index of the second grouping
+     */
+    public int lca(int idx1, int idx2) {
+        int retVal = idx1;
+        if (idx1 != idx2) {
+            int p1 = this.positions[idx1];
+            int p2 = this.positions[idx2];
+            if (p1 > p2) {
+                int temp = p1;
+                p1 = p2;
+                p2 = temp;
+            }
+            retVal = this.parents[this.order[this.shallowest(p1 + 1, p2)]];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the internal index of the lowest common ancestor of a set of groupings, or -1 if they are in
+     * 		   different trees or the set is empty
+     *
+     * @param idxs		array of internal indices for the groupings
+     * @param len		number of indices in the array to use
+     */
+    public int lca(int[] idxs, int len) {
+        int retVal = -1;
+        if (len > 0) {
+            // The common ancestor of the first and last groupings in preorder contains all the others.
+            int min = Integer.MAX_VALUE;
+            int max = -1;
+            for (int i = 0; i < len; i++) {
+                int p = this.positions[idxs[i]];
+                if (p < min) min = p;
+                if (p > max) max = p;
+            }
+            retVal = this.lca(this.order[min], this.order[max]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a grouping is the same as or a descendant of another grouping
+     *
+     * @param idx			internal index of the possible descendant
+     * @param ancestorIdx	internal index of the possible ancestor
+     */
+    public boolean isDescendant(int idx, int ancestorIdx) {
+        int p = this.positions[idx];
+        return (p >= this.positions[ancestorIdx] && p <= this.ends[ancestorIdx]);
+    }
+
+    /**
+     * @return the position of the shallowest grouping in a range of preorder positions
+     *
+     * @param lo	first position in the range
+     * @param hi	last position in the range
+     */
+    private int shallowest(int lo, int hi) {
+        int retVal;
+        int loBlock = lo >> BLOCK_BITS;
+        int hiBlock = hi >> BLOCK_BITS;
+        if (loBlock == hiBlock) {
+            retVal = this.scan(lo, hi);
+        } else {
+            retVal = this.shallower(this.scan(lo, ((loBlock + 1) << BLOCK_BITS) - 1),
+                    this.scan(hiBlock << BLOCK_BITS, hi));
+            if (hiBlock - loBlock > 1) {
+                int first = loBlock + 1;
+                int count = hiBlock - first;
+                int k = 31 - Integer.numberOfLeadingZeros(count);
+                int[] level = this.table[k];
+                retVal = this.shallower(retVal, this.shallower(level[first], level[hiBlock - (1 << k)]));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the position of the shallowest grouping in a range of preorder positions, found by scanning
+     *
+     * @param lo	first position in the range
+     * @param hi	last position in the range
+     */
+    private int scan(int lo, int hi) {
+        int retVal = lo;
+        for (int p = lo + 1; p <= hi; p++) {
+            if (this.depths[p] < this.depths[retVal])
+                retVal = p;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return whichever of two preorder positions holds the shallower grouping
+     *
+     * @param p1	first position
+     * @param p2	second position
+     */
+    private int shallower(int p1, int p2) {
+        return (this.depths[p2] < this.depths[p1] ? p2 : p1);
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * This class renders taxonomy strings for a {@link TreeOfLife}.  A taxonomy string lists the names of a
+ * grouping's ancestors, from the root down to the grouping itself, separated by a delimiter.  Hidden
+ * groupings are always left out, and the renderer can also be restricted to a set of ranks.
+ *
+ * Rendered strings are kept in a fixed-size cache keyed by internal index.  A grouping's string is built by
+ * appending its name to the string of its nearest included ancestor, and that ancestor's string is cached
+ * as well, so the shared upper levels of the tree are rendered once and reused for all their descendants.
+ * A cache miss only walks up the tree as far as the nearest cached ancestor.
+ *
+ * The cache is direct-mapped, with each slot holding an immutable entry, so a renderer can be used by
+ * several threads at once without locking.  A renderer must not be used after the tree changes.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LineageRenderer {
+
+    // FIELDS
+    /** tree whose lineages are rendered */
+    private final TreeOfLife tree;
+    /** TRUE for each rank ordinal included in the strings */
+    private final boolean[] rankFilter;
+    /** delimiter between names */
+    private final String separator;
+    /** cache of rendered strings */
+    private final Entry[] cache;
+    /** mask for converting an internal index into a cache slot */
+    private final int cacheMask;
+    /** default number of cache slots */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    /**
+     * This class is an immutable cache entry.
+     */
+    private static class Entry {
+
+        /** internal index of the grouping */
+        private final int idx;
+        /** rendered string for the grouping, or NULL if nothing in its lineage is included */
+        private final String text;
+
+        /**
+         * Create a cache entry.
+         *
+         * @param idx	internal index of the grouping
+         * @param text	rendered string
+         */
+        private Entry(int idx, String text) {
+            this.idx = idx;
+            this.text = text;
+        }
+
+    }
+
+    /**
+     * Create a renderer that includes every grouping that is not hidden.
+     *
+     * @param tree		tree whose lineages are to be rendered
+     */
+    public LineageRenderer(TreeOfLife tree) {
+        this(tree, null, "; ", DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create a renderer.
+     *
+     * @param tree			tree whose lineages are to be rendered
+     * @param ranks			set of ranks to include, or NULL to include all ranks; use OTHER to include
+     * 						unranked groupings
+     * @param separator		delimiter to put between names
+     * @param cacheSize		number of cache slots (rounded up to a power of 2)
+     */
+    public LineageRenderer(TreeOfLife tree, Set<Rank> ranks, String separator, int cacheSize) {
+        this.tree = tree;
+        Rank[] allRanks = Rank.values();
+        this.rankFilter = new boolean[allRanks.length];
+        for (Rank rank : allRanks)
+            this.rankFilter[rank.ordinal()] = (ranks == null || ranks.contains(rank));
+        this.separator = separator;
+        int slots = Integer.highestOneBit(Math.max(cacheSize, 2) * 2 - 1);
+        this.cache = new Entry[slots];
+        this.cacheMask = slots - 1;
+    }
+
+    /**
+     * @return the taxonomy string for a grouping, an empty string if none of its lineage is included, or
+     * 		   NULL if the grouping is not in the tree
+     *
+     * @param taxId		ID of the grouping of interest
+     */
+    public String render(int taxId) {
+        String retVal = null;
+        int idx = this.tree.indexOfId(taxId);
+        if (idx >= 0) {
+            retVal = this.renderIdx(idx);
+            if (retVal == null) retVal = "";
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the taxonomy string for an internal index, or NULL if nothing in its lineage is included
+     *
+     * @param idx	internal index of the grouping of interest
+     */
+    private String renderIdx(int idx) {
+        String retVal;
+        Entry entry = this.cache[idx & this.cacheMask];
+        if (entry != null && entry.idx == idx) {
+            retVal = entry.text;
+        } else {
+            // Collect the included groupings up to the nearest cached ancestor.  The step limit protects
+            // us from cycles.
+            int[] path = new int[16];
+            int n = 0;
+            String prefix = null;
+            boolean found = false;
+            int limit = this.tree.size();
+            for (int i = idx; i >= 0 && ! found && limit > 0; i = this.tree.parentIdx(i), limit--) {
+                Entry cached = (i == idx ? null : this.cache[i & this.cacheMask]);
+                if (cached != null && cached.idx == i) {
+                    prefix = cached.text;
+                    found = true;
+                } else if (this.includes(i)) {
+                    if (n >= path.length)
+                        path = Arrays.copyOf(path, n * 2);
+                    path[n++] = i;
+                }
+            }
+            // Build the strings from the top down, caching each one.
+            retVal = prefix;
+            for (int k = n - 1; k >= 0; k--) {
+                String name = this.tree.nameAt(path[k]);
+                retVal = (retVal == null || retVal.isEmpty() ? name : retVal + this.separator + name);
+                this.cache[path[k] & this.cacheMask] = new Entry(path[k], retVal);
+            }
+            if (n == 0 || path[0] != idx)
+                this.cache[idx & this.cacheMask] = new Entry(idx, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the grouping at an internal index belongs in taxonomy strings
+     *
+     * @param idx	internal index of the grouping of interest
+     */
+    private boolean includes(int idx) {
+        return ! this.tree.isHiddenAt(idx) && this.rankFilter[this.tree.rankAt(idx).ordinal()];
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * This class is a search index over the names of the groupings in a taxonomy tree.  It is a single array of
+ * internal indices, sorted by case-folded name, with ties broken by the exact name and then by the taxonomic
+ * ID.  The names themselves stay in the tree's name pool, so the index costs one integer per grouping.
+ *
+ * A lookup is a binary search that decodes one name per probe.  Because the names are sorted case-folded,
+ * all the groupings whose names differ only in case are adjacent, and all the names with a given prefix form
+ * a contiguous range.  Case-sensitive lookups scan the case-folded range and keep only the exact matches.
+ *
+ * The sort order depends only on the names and IDs, so it is the same however the tree was loaded, and it
+ * can be stored in a snapshot as a list of taxonomic IDs.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class NameIndex {
+
+    // FIELDS
+    /** internal indices of the groupings, in name order */
+    final int[] order;
+
+    /**
+     * This class is used to sort the groupings when the index is built.
+     */
+    private static class Entry {
+
+        /** case-folded name */
+        private final String key;
+        /** exact name */
+        private final String name;
+        /** taxonomic ID */
+        private final int taxId;
+        /** internal index */
+        private final int idx;
+
+        /**
+         * Create a sort entry.
+         *
+         * @param name		name of the grouping
+         * @param taxId		taxonomic ID of the grouping
+         * @param idx		internal index of the grouping
+         */
+        private Entry(String name, int taxId, int idx) {
+            this.key = fold(name);
+            this.name = name;
+            this.taxId = taxId;
+            this.idx = idx;
+        }
+
+    }
+
+    /**
+     * This comparator puts the sort entries in index order.
+     */
+    private static class EntryComparator implements Comparator<Entry> {
+
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            int retVal = o1.key.compareTo(o2.key);
+            if (retVal == 0) {
+                retVal = o1.name.compareTo(o2.name);
+                if (retVal == 0)
+                    retVal = Integer.compare(o1.taxId, o2.taxId);
+            }
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Build the index for a tree.
+     *
+     * @param tree	tree whose names are to be indexed
+     * @param n		number of groupings in the tree
+     */
+    NameIndex(TreeOfLife tree, int n) {
+        Entry[] entries = new Entry[n];
+        for (int idx = 0; idx < n; idx++)
+            entries[idx] = new Entry(tree.nameAt(idx), tree.idAt(idx), idx);
+        Arrays.sort(entries, new EntryComparator());
+        this.order = new int[n];
+        for (int i = 0; i < n; i++)
+            this.order[i] = entries[i].idx;
+    }
+
+    /**
+     * Create an index from an existing name order.
+     *
+     * @param order		internal indices of the groupings, in name order
+     */
+    NameIndex(int[] order) {
+        this.order = order;
+    }
+
+    /**
+     * @return the case-folded form of a name
+     *
+     * @param name	name to fold
+     */
+    static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the first position in the index whose case-folded name is not less than a key
+     *
+     * @param tree	tree containing the names
+     * @param key	case-folded search key
+     */
+    private int lowerBound(TreeOfLife tree, String key) {
+        int lo = 0;
+        int hi = this.order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (fold(tree.nameAt(this.order[mid])).compareTo(key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Find the groupings with a specified name.
+     *
+     * @param tree			tree containing the names
+     * @param name			name to find
+     * @param ignoreCase	TRUE to ignore case differences
+     *
+     * @return the internal indices of the matching groupings, in index order
+     */
+    int[] find(TreeOfLife tree, String name, boolean ignoreCase) {
+        String key = fold(name);
+        int[] retVal = new int[4];
+        int count = 0;
+        for (int p = this.lowerBound(tree, key); p < this.order.length; p++) {
+            int idx = this.order[p];
+            String found = tree.nameAt(idx);
+            if (! fold(found).equals(key)) break;
+            if (ignoreCase || found.equals(name)) {
+                if (count >= retVal.length)
+                    retVal = Arrays.copyOf(retVal, count * 2);
+                retVal[count++] = idx;
+            }
+        }
+        return Arrays.copyOf(retVal, count);
+    }
+
+    /**
+     * Find the groupings whose names begin with a specified prefix.
+     *
+     * @param tree			tree containing the names
+     * @param prefix		prefix to find
+     * @param ignoreCase	TRUE to ignore case differences
+     * @param limit			maximum number of groupings to return
+     *
+     * @return the internal indices of the matching groupings, in index order
+     */
+    int[] findPrefix(TreeOfLife tree, String prefix, boolean ignoreCase, int limit) {
+        String key = fold(prefix);
+        int[] retVal = new int[Math.max(1, Math.min(limit, 64))];
+        int count = 0;
+        for (int p = this.lowerBound(tree, key); p < this.order.length && count < limit; p++) {
+            int idx = this.order[p];
+            String found = tree.nameAt(idx);
+            if (! fold(found).startsWith(key)) break;
+            if (ignoreCase || found.startsWith(prefix)) {
+                if (count >= retVal.length)
+                    retVal = Arrays.copyOf(retVal, count * 2);
+                retVal[count++] = idx;
+            }
+        }
+        return Arrays.copyOf(retVal, count);
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class stores the names of the taxonomic groupings as UTF-8 bytes in a single buffer.  Each name is
+ * preceded by a two-byte length, so a name is identified by a single integer offset.  The buffer is either
+ * a growable heap buffer or a read-only section of a memory-mapped snapshot file.  In the latter case, it
+ * is copied to the heap the first time a name is added.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class NamePool {
+
+    // FIELDS
+    /** buffer containing the names */
+    private ByteBuffer pool;
+    /** number of bytes in use */
+    private int used;
+    /** maximum length of a name, in bytes */
+    private static final int MAX_NAME_LEN = 0xFFFF;
+
+    /**
+     * Create an empty name pool.
+     *
+     * @param capacity	initial capacity in bytes
+     */
+    public NamePool(int capacity) {
+        this.pool = ByteBuffer.allocate(Math.max(capacity, 64));
+        this.used = 0;
+    }
+
+    /**
+     * Create a name pool from an existing buffer.
+     *
+     * @param buffer	buffer containing the names, from its start to its limit
+     */
+    public NamePool(ByteBuffer buffer) {
+        this.pool = buffer;
+        this.used = buffer.limit();
+    }
+
+    /**
+     * Add a name to the pool.
+     *
+     * @param name	name to add
+     *
+     * @return the offset of the new name
+     */
+    public int add(String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int len = nameBytes.length;
+        if (len > MAX_NAME_LEN)
+            throw new IllegalArgumentException("Taxonomic name is too long: " + name.substring(0, 40) + "...");
+        this.ensureRoom(len + 2);
+        int retVal = this.used;
+        this.pool.put(retVal, (byte) (len >> 8));
+        this.pool.put(retVal + 1, (byte) len);
+        for (int i = 0; i < len; i++)
+            this.pool.put(retVal + 2 + i, nameBytes[i]);
+        this.used += len + 2;
+        return retVal;
+    }
+
+    /**
+     * @return the name at the specified offset
+     *
+     * @param offset	offset of the desired name
+     */
+    public String get(int offset) {
+        int len = ((this.pool.get(offset) & 0xFF) << 8) | (this.pool.get(offset + 1) & 0xFF);
+        String retVal;
+        if (this.pool.hasArray()) {
+            retVal = new String(this.pool.array(), this.pool.arrayOffset() + offset + 2, len, StandardCharsets.UTF_8);
+        } else {
+            byte[] nameBytes = new byte[len];
+            for (int i = 0; i < len; i++)
+                nameBytes[i] = this.pool.get(offset + 2 + i);
+            retVal = new String(nameBytes, StandardCharsets.UTF_8);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of bytes in use
+     */
+    public int size() {
+        return this.used;
+    }
+
+    /**
+     * Write the used portion of the pool to an output stream.
+     *
+     * @param outStream		output stream to receive the pool
+     *
+     * @throws IOException
+     */
+    public void write(DataOutputStream outStream) throws IOException {
+        if (this.pool.hasArray()) {
+            outStream.write(this.pool.array(), this.pool.arrayOffset(), this.used);
+        } else {
+            byte[] chunk = new byte[8192];
+            for (int pos = 0; pos < this.used; pos += chunk.length) {
+                int len = Math.min(chunk.length, this.used - pos);
+                for (int i = 0; i < len; i++)
+                    chunk[i] = this.pool.get(pos + i);
+                outStream.write(chunk, 0, len);
+            }
+        }
+    }
+
+    /**
+     * Insure there is room in the pool for the specified number of additional bytes.  The pool is
+     * moved to a larger heap buffer if it is full or read-only.
+     *
+     * @param len	number of bytes required
+     */
+    private void ensureRoom(int len) {
+        int needed = this.used + len;
+        if (needed > this.pool.capacity() || this.pool.isReadOnly()) {
+            int newCapacity = Math.max(needed, this.pool.capacity() * 2);
+            ByteBuffer newPool = ByteBuffer.allocate(newCapacity);
+            if (this.pool.hasArray()) {
+                System.arraycopy(this.pool.array(), this.pool.arrayOffset(), newPool.array(), 0, this.used);
+            } else {
+                for (int i = 0; i < this.used; i++)
+                    newPool.put(i, this.pool.get(i));
+            }
+            this.pool = newPool;
+        }
+    }
+
+}
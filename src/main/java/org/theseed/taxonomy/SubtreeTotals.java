@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class accumulates counts over the subtrees of a {@link TreeOfLife}.  Counts are added to individual
+ * groupings, and then {@link #rollup()} adds each grouping's count into all of its ancestors, so that the
+ * total for a grouping covers its whole subtree.  For example, adding one for each genome at the genome's
+ * taxonomic grouping and rolling up gives the number of genomes under every order, family, and so on,
+ * while {@link #addLeaves()} followed by a rollup gives the number of leaves in every clade.
+ *
+ * The counts are kept in a flat array indexed by the tree's internal index.  The rollup uses the tree's
+ * child index, in which each subtree is a contiguous range of a depth-first preorder.  A small subtree is
+ * rolled up by a single backward pass over its range, since every grouping in the range except the root
+ * has its parent in the range.  A large subtree is split at its root, and its children are rolled up as
+ * separate fork/join tasks before being added to the root.  Each task writes only inside its own subtrees,
+ * so no synchronization is needed.
+ *
+ * The tree must not change while the totals are in use.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubtreeTotals {
+
+    // FIELDS
+    /** tree whose subtrees are being totaled */
+    private final TreeOfLife tree;
+    /** child index for the tree */
+    private final ChildIndex index;
+    /** count for each internal index */
+    private final long[] counts;
+    /** TRUE if the counts have been rolled up */
+    private boolean rolledUp;
+    /** maximum number of groupings processed by a single task */
+    private static final int GRAIN = 1 << 14;
+
+    /**
+     * Create a set of empty totals for a tree.  The tree's child index is built if it does not already
+     * exist.
+     *
+     * @param tree		tree whose subtrees are to be totaled
+     */
+    public SubtreeTotals(TreeOfLife tree) {
+        this.tree = tree;
+        this.index = tree.childTable();
+        this.counts = new long[this.index.size];
+        this.rolledUp = false;
+    }
+
+    /**
+     * Add to the count for a grouping.
+     *
+     * @param taxId		ID of the grouping
+     * @param count		amount to add
+     *
+     * @return TRUE if the grouping was found, FALSE if it is not in the tree
+     */
+    public boolean add(int taxId, long count) {
+        this.checkOpen();
+        int idx = this.tree.indexOfId(taxId);
+        boolean retVal = (idx >= 0);
+        if (retVal)
+            this.counts[idx] += count;
+        return retVal;
+    }
+
+    /**
+     * Add one to the count of each grouping that has no children.
+     */
+    public void addLeaves() {
+        this.checkOpen();
+        for (int idx = 0; idx < this.counts.length; idx++) {
+            if (this.index.childCount(idx) == 0)
+                this.counts[idx]++;
+        }
+    }
+
+    /**
+     * Insure the counts have not been rolled up yet.
+     *
+     * @throws IllegalStateException if the counts have already been rolled up
+     */
+    private void checkOpen() {
+        if (this.rolledUp)
+            throw new IllegalStateException("Cannot add counts after a rollup.");
+    }
+
+    /**
+     * Roll up the counts using one thread per processor.
+     */
+    public void rollup() {
+        this.rollup(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Roll up the counts, so that each grouping's total includes all of its descendants.  This can only be
+     * done once.
+     *
+     * @param threads	number of threads to use
+     */
+    public void rollup(int threads) {
+        this.checkOpen();
+        this.rolledUp = true;
+        if (threads <= 1 || this.counts.length <= GRAIN) {
+            // Process the whole preorder backward, so each grouping is finished before its parent.
+            int[] order = this.index.order;
+            int[] parents = this.index.parents;
+            for (int p = order.length - 1; p >= 0; p--) {
+                int idx = order[p];
+                int parent = parents[idx];
+                if (parent >= 0)
+                    this.counts[parent] += this.counts[idx];
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new RollupTask(this.index.roots()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the total for a grouping, or 0 if it is not in the tree
+     *
+     * @param taxId		ID of the grouping of interest
+     */
+    public long get(int taxId) {
+        int idx = this.tree.indexOfId(taxId);
+        return (idx < 0 ? 0 : this.counts[idx]);
+    }
+
+    /**
+     * @return TRUE if the counts have been rolled up
+     */
+    public boolean isRolledUp() {
+        return this.rolledUp;
+    }
+
+    /**
+     * Roll up a subtree with a single backward pass over its preorder range.
+     *
+     * @param root	internal index of the subtree root
+     */
+    private void rollupRange(int root) {
+        int[] order = this.index.order;
+        int[] parents = this.index.parents;
+        long[] totals = this.counts;
+        int start = this.index.positions[root];
+        for (int p = this.index.ends[root]; p > start; p--) {
+            int idx = order[p];
+            totals[parents[idx]] += totals[idx];
+        }
+    }
+
+    /**
+     * This task rolls up a list of sibling subtrees.  A list whose subtrees are small in total is done in a
+     * single task.  A longer list is split in half, and a single large subtree is split at its root.
+     */
+    private class RollupTask extends RecursiveAction {
+
+        /** serialization ID */
+        private static final long serialVersionUID = 1L;
+        /** internal indices of the subtree roots */
+        private final int[] roots;
+        /** position of the first root to process */
+        private final int lo;
+        /** position past the last root to process */
+        private final int hi;
+
+        /**
+         * Create a task for a whole list of subtrees.
+         *
+         * @param roots		internal indices of the subtree roots
+         */
+        private RollupTask(int[] roots) {
+            this(roots, 0, roots.length);
+        }
+
+        /**
+         * Create a task for part of a list of subtrees.
+         *
+         * @param roots		internal indices of the subtree roots
+         * @param lo		position of the first root to process
+         * @param hi		position past the last root to process
+         */
+        private RollupTask(int[] roots, int lo, int hi) {
+            this.roots = roots;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo == 1) {
+                int root = this.roots[this.lo];
+                if (index.subtreeSize(root) <= GRAIN) {
+                    rollupRange(root);
+                } else {
+                    // Roll up the children in parallel, then add them to the root.
+                    int first = index.starts[root];
+                    int last = index.starts[root + 1];
+                    if (last > first)
+                        new RollupTask(index.children, first, last).compute();
+                    long total = counts[root];
+                    for (int i = first; i < last; i++)
+                        total += counts[index.children[i]];
+                    counts[root] = total;
+                }
+            } else if (this.hi > this.lo) {
+                long size = 0;
+                for (int i = this.lo; i < this.hi && size <= GRAIN; i++)
+                    size += index.subtreeSize(this.roots[i]);
+                if (size <= GRAIN) {
+                    for (int i = this.lo; i < this.hi; i++)
+                        rollupRange(this.roots[i]);
+                } else {
+                    int mid = (this.lo + this.hi) >>> 1;
+                    invokeAll(new RollupTask(this.roots, this.lo, mid), new RollupTask(this.roots, mid, this.hi));
+                }
+            }
+        }
+
+    }
+
+}
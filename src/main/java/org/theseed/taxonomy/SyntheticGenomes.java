@@ -0,0 +1,191 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.theseed.taxonomy.TreeOfLife.Taxon;
+
+/**
+ * This class generates a random genome input file for a taxonomy tree.  It is used with {@link SyntheticTree}
+ * to test and benchmark the taxonomy profiler on large workloads.
+ *
+ * The output file is tab-delimited with a header line, and has the columns "genome_id", "group_id", and
+ * "taxon_id".  The group sizes follow a Zipf distribution, so a few groups are very large and most are
+ * small.  Each group has a home genus, and most of its genomes belong to species or strains under that
+ * genus; the rest are chosen from anywhere in the tree.  A small fraction of the genomes can be given
+ * taxonomic IDs that are not in the tree, to exercise the invalid-ID handling.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SyntheticGenomes {
+
+    // FIELDS
+    /** taxonomy tree for the genomes */
+    private TreeOfLife tree;
+    /** seed for the random number generator */
+    private long seed;
+    /** number of groups to generate */
+    private int groups;
+    /** exponent of the Zipf distribution of group sizes */
+    private double skew;
+    /** fraction of genomes with invalid taxonomic IDs */
+    private double invalidFraction;
+    /** probability that a genome belongs to the home genus of its group */
+    private double homeFraction;
+
+    /**
+     * Create a genome generator for a taxonomy tree.
+     *
+     * @param tree	taxonomy tree containing the genomes
+     * @param seed	seed for the random number generator
+     */
+    public SyntheticGenomes(TreeOfLife tree, long seed) {
+        this.tree = tree;
+        this.seed = seed;
+        this.groups = 10000;
+        this.skew = 1.1;
+        this.invalidFraction = 0.001;
+        this.homeFraction = 0.9;
+    }
+
+    /**
+     * Specify the number of groups.
+     *
+     * @param groups	number of groups to generate (at least 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticGenomes setGroups(int groups) {
+        if (groups < 1)
+            throw new IllegalArgumentException("Number of groups must be at least 1.");
+        this.groups = groups;
+        return this;
+    }
+
+    /**
+     * Specify the exponent of the Zipf distribution of group sizes.  An exponent of 0 gives groups of
+     * roughly equal size, and higher exponents concentrate more of the genomes in the largest groups.
+     *
+     * @param skew	Zipf exponent (0 or more)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticGenomes setSkew(double skew) {
+        if (skew < 0.0)
+            throw new IllegalArgumentException("Skew exponent cannot be negative.");
+        this.skew = skew;
+        return this;
+    }
+
+    /**
+     * Specify the fraction of genomes to be given invalid taxonomic IDs.
+     *
+     * @param invalidFraction	fraction of invalid genomes (0 to 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticGenomes setInvalidFraction(double invalidFraction) {
+        if (invalidFraction < 0.0 || invalidFraction > 1.0)
+            throw new IllegalArgumentException("Invalid-genome fraction must be between 0 and 1.");
+        this.invalidFraction = invalidFraction;
+        return this;
+    }
+
+    /**
+     * Specify the probability that a genome belongs to the home genus of its group.
+     *
+     * @param homeFraction	probability of a home-genus genome (0 to 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticGenomes setHomeFraction(double homeFraction) {
+        if (homeFraction < 0.0 || homeFraction > 1.0)
+            throw new IllegalArgumentException("Home-genus fraction must be between 0 and 1.");
+        this.homeFraction = homeFraction;
+        return this;
+    }
+
+    /**
+     * Write the genome file.
+     *
+     * @param outFile	output file to receive the genomes
+     * @param rows		number of genomes to write
+     *
+     * @throws IOException
+     */
+    public void write(File outFile, long rows) throws IOException {
+        Random rand = new Random(this.seed);
+        // Organize the candidate taxa by genus.  The candidates are the groupings below the genus level,
+        // sorted by genus, and each genus has a range of candidates.
+        this.tree.buildLineageIndex();
+        long[] pairs = new long[this.tree.size()];
+        int nPairs = 0;
+        int maxId = 0;
+        for (Taxon taxon : this.tree) {
+            int taxId = taxon.getId();
+            maxId = Math.max(maxId, taxId);
+            int genusId = this.tree.getAncestor(taxId, Rank.GENUS);
+            if (genusId >= 0 && genusId != taxId)
+                pairs[nPairs++] = ((long) genusId << 32) | taxId;
+        }
+        if (nPairs == 0)
+            throw new IllegalArgumentException("Taxonomy tree has no groupings below the genus level.");
+        Arrays.sort(pairs, 0, nPairs);
+        int[] candidates = new int[nPairs];
+        int[] genusStarts = new int[nPairs + 1];
+        int nGenera = 0;
+        long lastGenus = -1;
+        for (int i = 0; i < nPairs; i++) {
+            long genusId = pairs[i] >>> 32;
+            if (genusId != lastGenus) {
+                genusStarts[nGenera++] = i;
+                lastGenus = genusId;
+            }
+            candidates[i] = (int) pairs[i];
+        }
+        genusStarts[nGenera] = nPairs;
+        pairs = null;
+        // Assign a home genus to each group and compute the cumulative Zipf distribution.
+        int[] homes = new int[this.groups];
+        double[] cdf = new double[this.groups];
+        double total = 0.0;
+        for (int g = 0; g < this.groups; g++) {
+            homes[g] = rand.nextInt(nGenera);
+            total += 1.0 / Math.pow(g + 1, this.skew);
+            cdf[g] = total;
+        }
+        // Now write the genomes.
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile),
+                StandardCharsets.UTF_8), 1 << 20)) {
+            writer.write("genome_id\tgroup_id\ttaxon_id\n");
+            for (long r = 0; r < rows; r++) {
+                int g = Arrays.binarySearch(cdf, rand.nextDouble() * total);
+                if (g < 0) g = -g - 1;
+                if (g >= this.groups) g = this.groups - 1;
+                int taxId;
+                if (rand.nextDouble() < this.invalidFraction) {
+                    // IDs past the end of the tree are never valid.
+                    taxId = maxId + 1 + rand.nextInt(1000000);
+                } else if (rand.nextDouble() < this.homeFraction) {
+                    int start = genusStarts[homes[g]];
+                    taxId = candidates[start + rand.nextInt(genusStarts[homes[g] + 1] - start)];
+                } else {
+                    taxId = candidates[rand.nextInt(nPairs)];
+                }
+                writer.write(taxId + "." + r + "\tG" + (g + 1) + "\t" + taxId + "\n");
+            }
+        }
+    }
+
+}
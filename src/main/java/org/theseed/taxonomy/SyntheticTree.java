@@ -0,0 +1,359 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class generates a random taxonomy tree with roughly the shape of the NCBI taxonomy.  It is used to
+ * test and benchmark the taxonomy tools without real NCBI data.
+ *
+ * The tree starts with a root and a hidden "cellular organisms" grouping.  Below that are the ranked
+ * levels from domain through species, and below each species are one or more layers of unranked
+ * strain-level groupings.  Each grouping has a random number of children.  Unless a fan-out is specified,
+ * the mean is chosen so that the tree comes out close to the requested size; in any case, generation
+ * stops when the requested size is reached.  Runs of unranked groupings can be inserted between the
+ * levels, and the taxonomic IDs are assigned with random gaps, so that only a fraction of the ID space
+ * is used.  Unranked, species, and strain groupings are always hidden.  Higher-level groupings are hidden
+ * at random with a specified probability.
+ *
+ * The tree can be written as a load file or built directly in memory.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SyntheticTree {
+
+    // FIELDS
+    /** approximate number of taxonomic groupings to generate */
+    private int size;
+    /** random number generator */
+    private Random rand;
+    /** seed for the random number generator */
+    private long seed;
+    /** probability of inserting unranked groupings above a ranked one */
+    private double noRankFraction;
+    /** maximum number of unranked groupings in a run */
+    private int noRankRun;
+    /** number of unranked strain levels below the species */
+    private int strainLevels;
+    /** probability that a grouping above the species level is hidden */
+    private double hiddenFraction;
+    /** fraction of the ID space to use */
+    private double idDensity;
+    /** requested mean number of children per grouping, or 0 to compute it from the size */
+    private double requestedFanOut;
+    /** mean number of children per grouping */
+    private double fanOut;
+    /** ranked levels of the tree below the root, from top to bottom */
+    private static final Rank[] RANKED_LEVELS = new Rank[] { Rank.DOMAIN, Rank.PHYLUM, Rank.CLASS, Rank.ORDER,
+            Rank.FAMILY, Rank.GENUS, Rank.SPECIES };
+    /** name prefix for each ranked level */
+    private static final String[] LEVEL_NAMES = new String[] { "Domain", "Phylum", "Class", "Order",
+            "Family", "Genus", "Species" };
+
+    /**
+     * This interface receives the generated taxonomic groupings.
+     */
+    private interface Sink {
+
+        /**
+         * Accept a generated grouping.
+         *
+         * @param taxId			ID of the grouping
+         * @param parentId		ID of its parent (the same as the ID for the root)
+         * @param domainFlag	TRUE if this is at or above the domain level
+         * @param hidden		TRUE if this grouping is hidden in taxonomy strings
+         * @param rank			rank label of the grouping
+         * @param name			name of the grouping
+         *
+         * @throws IOException
+         */
+        void accept(int taxId, int parentId, boolean domainFlag, boolean hidden, String rank, String name)
+                throws IOException;
+
+    }
+
+    /**
+     * Create a generator for a synthetic tree.
+     *
+     * @param size	approximate number of taxonomic groupings to generate
+     * @param seed	seed for the random number generator
+     */
+    public SyntheticTree(int size, long seed) {
+        this.size = size;
+        this.seed = seed;
+        this.noRankFraction = 0.1;
+        this.noRankRun = 1;
+        this.strainLevels = 1;
+        this.hiddenFraction = 0.0;
+        this.idDensity = 0.82;
+        this.requestedFanOut = 0.0;
+        this.fanOut = computeFanOut();
+    }
+
+    /**
+     * Specify the probability of inserting unranked groupings above each ranked grouping.
+     *
+     * @param noRankFraction	probability of unranked groupings (0 to less than 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticTree setNoRankFraction(double noRankFraction) {
+        if (noRankFraction < 0.0 || noRankFraction >= 1.0)
+            throw new IllegalArgumentException("No-rank fraction must be at least 0 and less than 1.");
+        this.noRankFraction = noRankFraction;
+        this.fanOut = computeFanOut();
+        return this;
+    }
+
+    /**
+     * Specify the maximum length of a run of unranked groupings.  Each time unranked groupings are
+     * inserted, the length of the run is chosen at random from 1 to this maximum.
+     *
+     * @param noRankRun		maximum number of consecutive unranked groupings (at least 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticTree setNoRankRun(int noRankRun) {
+        if (noRankRun < 1)
+            throw new IllegalArgumentException("No-rank run length must be at least 1.");
+        this.noRankRun = noRankRun;
+        this.fanOut = computeFanOut();
+        return this;
+    }
+
+    /**
+     * Specify the number of unranked strain levels below each species.
+     *
+     * @param strainLevels	number of strain levels (0 or more)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticTree setStrainLevels(int strainLevels) {
+        if (strainLevels < 0)
+            throw new IllegalArgumentException("Number of strain levels cannot be negative.");
+        this.strainLevels = strainLevels;
+        this.fanOut = computeFanOut();
+        return this;
+    }
+
+    /**
+     * Specify the probability that a grouping above the species level is hidden.
+     *
+     * @param hiddenFraction	probability of a hidden grouping (0 to 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticTree setHiddenFraction(double hiddenFraction) {
+        if (hiddenFraction < 0.0 || hiddenFraction > 1.0)
+            throw new IllegalArgumentException("Hidden fraction must be between 0 and 1.");
+        this.hiddenFraction = hiddenFraction;
+        return this;
+    }
+
+    /**
+     * Specify the mean number of children per grouping.  If this is not specified, it is computed from
+     * the requested size.
+     *
+     * @param fanOut	mean number of children (at least 1), or 0 to compute it from the size
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticTree setFanOut(double fanOut) {
+        if (fanOut != 0.0 && fanOut < 1.0)
+            throw new IllegalArgumentException("Fan-out must be at least 1.");
+        this.requestedFanOut = fanOut;
+        this.fanOut = computeFanOut();
+        return this;
+    }
+
+    /**
+     * Specify the fraction of the ID space to use.
+     *
+     * @param idDensity		fraction of possible IDs to use (greater than 0, up to 1)
+     *
+     * @return this object, for chaining
+     */
+    public SyntheticTree setIdDensity(double idDensity) {
+        if (idDensity <= 0.0 || idDensity > 1.0)
+            throw new IllegalArgumentException("ID density must be greater than 0 and no more than 1.");
+        this.idDensity = idDensity;
+        return this;
+    }
+
+    /**
+     * @return the number of levels below the root
+     */
+    private int levelCount() {
+        return RANKED_LEVELS.length + this.strainLevels;
+    }
+
+    /**
+     * @return the mean fan-out that gives a tree of the requested size
+     */
+    private double computeFanOut() {
+        double retVal = this.requestedFanOut;
+        if (retVal == 0.0)
+            retVal = this.sizeFanOut();
+        return retVal;
+    }
+
+    /**
+     * @return the mean fan-out that gives a tree of the requested size
+     */
+    private double sizeFanOut() {
+        // Each grouping may have unranked groupings over it, so we need fewer of the main groupings.
+        double target = this.size / (1.0 + this.noRankFraction * (1 + this.noRankRun) / 2.0);
+        int levels = this.levelCount();
+        double low = 1.0;
+        double high = Math.max(2.0, target);
+        for (int i = 0; i < 100; i++) {
+            double mid = (low + high) / 2;
+            double total = 0.0;
+            double levelSize = 1.0;
+            for (int l = 0; l < levels; l++) {
+                levelSize *= mid;
+                total += levelSize;
+            }
+            if (total > target)
+                high = mid;
+            else
+                low = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Build the synthetic tree in memory.
+     *
+     * @return the generated tree
+     */
+    public TreeOfLife build() {
+        final TreeOfLife retVal = new TreeOfLife(Math.max(100, (int) (this.size / this.idDensity) + 10));
+        try {
+            this.generate(new Sink() {
+                @Override
+                public void accept(int taxId, int parentId, boolean domainFlag, boolean hidden, String rank,
+                        String name) {
+                    retVal.findOrInsert(taxId, parentId, rank, name, hidden);
+                }
+            });
+        } catch (IOException e) {
+            // Building in memory does no I/O.
+            throw new IllegalStateException(e);
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the synthetic tree to a load file.
+     *
+     * @param outFile	file to which the tree should be written
+     *
+     * @throws IOException
+     */
+    public void write(File outFile) throws IOException {
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile),
+                StandardCharsets.UTF_8), 1 << 20)) {
+            this.generate(new Sink() {
+                @Override
+                public void accept(int taxId, int parentId, boolean domainFlag, boolean hidden, String rank,
+                        String name) throws IOException {
+                    writer.write(taxId + "\t" + parentId + "\t" + (domainFlag ? "1" : "0") + "\t" +
+                            (hidden ? "1" : "0") + "\t" + rank + "\t" + name + "\n");
+                }
+            });
+        }
+    }
+
+    /**
+     * Generate the tree.  The groupings are produced in breadth-first order, so every parent is produced
+     * before its children.
+     *
+     * @param sink	object to receive the generated groupings
+     *
+     * @throws IOException
+     */
+    private void generate(Sink sink) throws IOException {
+        this.rand = new Random(this.seed);
+        int levels = this.levelCount();
+        int count = 0;
+        sink.accept(1, 1, true, false, "no rank", "root");
+        int lastId = this.nextId(1);
+        int cellular = lastId;
+        sink.accept(cellular, 1, true, true, "no rank", "cellular organisms");
+        count += 2;
+        // The queue contains pairs of (ID, level of children).  Processing the groupings breadth-first
+        // insures that, when the size limit is reached, the tree is only truncated at the lowest levels.
+        int[] queue = new int[64];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = cellular;
+        queue[tail++] = 0;
+        while (head < tail && count < this.size) {
+            int parentId = queue[head++];
+            int level = queue[head++];
+            int nKids = this.childCount();
+            boolean domainFlag = (level == 0);
+            for (int i = 0; i < nKids && count < this.size; i++) {
+                int kidParent = parentId;
+                if (this.rand.nextDouble() < this.noRankFraction) {
+                    // Insert a run of unranked groupings.
+                    int runLength = Math.min(1 + this.rand.nextInt(this.noRankRun), this.size - count - 1);
+                    for (int j = 0; j < runLength; j++) {
+                        lastId = this.nextId(lastId);
+                        sink.accept(lastId, kidParent, domainFlag, true, "no rank", "Group " + lastId);
+                        kidParent = lastId;
+                        count++;
+                    }
+                }
+                lastId = this.nextId(lastId);
+                if (level < RANKED_LEVELS.length) {
+                    Rank rank = RANKED_LEVELS[level];
+                    String rankLabel = (rank == Rank.DOMAIN ? "superkingdom" : rank.toString());
+                    boolean hidden = (rank == Rank.SPECIES || this.rand.nextDouble() < this.hiddenFraction);
+                    sink.accept(lastId, kidParent, domainFlag, hidden, rankLabel, LEVEL_NAMES[level] + " " + lastId);
+                } else {
+                    sink.accept(lastId, kidParent, false, true, "no rank", "Strain " + lastId);
+                }
+                count++;
+                if (level + 1 < levels) {
+                    if (tail + 2 > queue.length)
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    queue[tail++] = lastId;
+                    queue[tail++] = level + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a random number of children, averaging the mean fan-out
+     */
+    private int childCount() {
+        return 1 + (int) (this.rand.nextDouble() * 2 * (this.fanOut - 1) + 0.5);
+    }
+
+    /**
+     * @return the next taxonomic ID to use, skipping IDs at random to achieve the desired density
+     *
+     * @param lastId	last ID used
+     */
+    private int nextId(int lastId) {
+        int retVal = lastId + 1;
+        while (this.rand.nextDouble() >= this.idDensity)
+            retVal++;
+        return retVal;
+    }
+
+}
@@ -3,129 +3,177 @@
  */
 package org.theseed.taxonomy;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
-import org.clapper.util.misc.SparseArrayList;
-
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * This class represents the full taxonomy tree. It is loaded from the dtx load file for the Shrub.
  * Every taxonomic grouping is in here, along with its rank and other information.  Access via ID
  * is provided, along with the ability to traverse the tree upward.
  *
+ * The tree is stored as a set of parallel primitive arrays indexed by a dense internal index, rather
+ * than as one object per taxonomic grouping.  The {@link Taxon} objects returned by the query methods
+ * are lightweight views on these arrays:  two views are equal if they have the same ID, but they are
+ * not necessarily the same object.
+ *
+ * The tree can also be saved to a binary snapshot file.  A snapshot contains the taxon IDs, the parent IDs,
+ * the ranks, the hidden flags as a bit set, and the name pool with an offset table.  Snapshots are
+ * memory-mapped on load, and the names are only decoded when they are requested.
+ *
+ * For counting, the tree can build a lineage index.  This contains, for each taxonomic grouping, the IDs
+ * of its nearest ancestors at each of the good ranks (domain through species), so that the ranked lineage
+ * of a grouping can be found without walking up the tree.  The lineage index is built on first use, and
+ * can be saved in the snapshot.
+ *
+ * The tree can also build a lowest-common-ancestor index, which finds the smallest grouping containing
+ * any two groupings (or any set of groupings) in constant time.  Like the lineage index, it is built on
+ * first use.  It is not saved in the snapshot, since it is rebuilt from the parent array in linear time.
+ * The same index numbers each subtree with a depth-first interval, so that checking whether one grouping
+ * is inside another takes two comparisons.
+ *
+ * The lowest-common-ancestor index is built on a child index, which stores the tree's downward links as one
+ * compact array of children grouped by parent, along with the depth-first layout.  The child index is also
+ * built on first use.  It answers child and subtree queries, and it lets a {@link SubtreeTotals} roll
+ * per-grouping counts up the whole tree in parallel.
+ *
+ * The tree can also build a name index, which finds groupings by exact name, by name prefix, or by name
+ * ignoring case, using a binary search over the grouping indices sorted by name.  It is built on first use,
+ * and can be saved in the snapshot, since sorting the names of a full tree takes a few seconds.
+ *
+ * Finally, the tree can render taxonomy strings:  the names of a grouping's ancestors that are not hidden,
+ * from the root down.  These are produced by a {@link LineageRenderer}, which caches the rendered strings
+ * so that the upper levels shared by many groupings are only built once.
+ *
  * @author Bruce Parrello
  *
  */
-public class TreeOfLife {
+public class TreeOfLife implements Iterable<TreeOfLife.Taxon> {
 
     // FIELDS
-    /** set of all taxons; we currently do this with a sparse array list, since the taxonomy numbers
-     * are very dense (82%) */
-    private SparseArrayList<Taxon> taxMap;
+    /** map from taxonomic ID to internal index, or -1 if the ID is not in the tree; the taxonomy numbers
+     * are very dense (82%), so a flat array is the most compact mapping */
+    private int[] idxMap;
+    /** taxonomic ID for each internal index */
+    private int[] taxIds;
+    /** internal index of the parent for each internal index, or -1 for a root */
+    private int[] parents;
+    /** rank ordinal for each internal index */
+    private byte[] ranks;
+    /** hidden flag for each internal index */
+    private BitSet hidden;
+    /** name pool offset for each internal index */
+    private int[] nameOffsets;
+    /** pool of taxonomic group names */
+    private NamePool names;
+    /** pool offset of the name used for taxonomic groups that are referenced but not defined, or -1 if
+     *  it has not been added yet */
+    private int unknownName;
+    /** lineage index:  for each internal index, a block of {@link #LINEAGE_WIDTH} slots containing the ID
+     *  of the nearest ancestor-or-self at each good rank, or -1 if there is none; NULL if not built */
+    private volatile int[] lineage;
+    /** child index, or NULL if not built */
+    private volatile ChildIndex childIndex;
+    /** lowest-common-ancestor index, or NULL if not built */
+    private volatile LcaIndex lcaIndex;
+    /** default taxonomy string renderer, or NULL if not created */
+    private volatile LineageRenderer renderer;
+    /** name search index, or NULL if not built */
+    private volatile NameIndex nameIndex;
+    /** number of taxonomic groupings in the tree */
+    private int taxCount;
+    /** number of records read when the tree was loaded */
+    private int loadRows;
+    /** number of milliseconds taken to load the tree */
+    private long loadTime;
+    /** array of all the rank values, for converting ordinals */
+    private static final Rank[] RANKS = Rank.values();
+    /** marker at the start of a snapshot file */
+    private static final int SNAPSHOT_MAGIC = 0x544F4C53;
+    /** version number of the snapshot format */
+    private static final int SNAPSHOT_VERSION = 4;
+    /** oldest snapshot version that can still be read */
+    private static final int MIN_SNAPSHOT_VERSION = 3;
+    /** number of slots per taxonomic grouping in the lineage index */
+    public static final int LINEAGE_WIDTH = Rank.nGood();
 
     /**
-     * This class represents a single taxonomic grouping in the taxonomy tree.
+     * This class represents a single taxonomic grouping in the taxonomy tree.  It is a view on the
+     * tree's internal arrays.
      */
     public class Taxon implements Comparable<Taxon> {
 
         // FIELDS
-        /** taxonomic ID */
-        private int id;
-        /** taxonomic rank */
-        private Rank rank;
-        /** scientific name */
-        private String name;
-        /** parent taxon */
-        private Taxon parent;
-        /** TRUE if this is a hidden group */
-        private boolean hidden;
+        /** internal index of this taxonomic grouping */
+        private final int idx;
 
         /**
-         * Construct a blank taxon from its ID.
+         * Construct a view of the taxonomic grouping at the specified internal index.
+         *
+         * @param idx	internal index of the grouping
          */
-        private Taxon(int taxId) {
-            storeTaxId(taxId);
-            this.rank = Rank.OTHER;
-            this.name = "<unknown>";
-            this.parent = null;
-            this.hidden = true;
-        }
-
-        private void storeTaxId(int taxId) {
-            this.id = taxId;
-            taxMap.set(taxId, this);
+        private Taxon(int idx) {
+            this.idx = idx;
         }
 
         @Override
         public int compareTo(Taxon arg0) {
-            return this.id - arg0.id;
+            return this.getId() - arg0.getId();
         }
 
         /**
          * @return the ID of this taxonomic grouping
          */
         public int getId() {
-            return this.id;
+            return taxIds[this.idx];
         }
 
         /**
          * @return the rank of this taxonomic grouping
          */
         public Rank getRank() {
-            return this.rank;
+            return RANKS[ranks[this.idx]];
         }
 
         /**
          * @return the name of this taxonomic grouping
          */
         public String getName() {
-            return this.name;
+            return names.get(nameOffsets[this.idx]);
         }
 
         /**
          * @return the parent taxonomic grouping
          */
         public Taxon getParent() {
-            return this.parent;
+            int parentIdx = parents[this.idx];
+            return (parentIdx < 0 ? null : new Taxon(parentIdx));
         }
 
         /**
          * @return TRUE if this taxonomic grouping is hidden in taxonomy strings
          */
         public boolean isHidden() {
-            return this.hidden;
-        }
-
-
-        /**
-         * Store the data about this taxonomic grouping.
-         *
-         * @param newParent		ID of the parent group
-         * @param newRank		label for this group's rank
-         * @param newName		name of this group
-         * @param newHiddenFlag	TRUE if this group should be hidden in taxonomy lists
-         */
-        private void storeTaxData(int newParent, String newRank, String newName, boolean newHiddenFlag) {
-            // First find the parent.
-            if (newParent == this.id) {
-                this.parent = null;
-            } else {
-                Taxon parentO = find(newParent);
-                if (parentO == null) {
-                    parentO = new Taxon(newParent);
-                }
-                this.parent = parentO;
-            }
-            this.name = newName;
-            this.rank = Rank.rankOf(newRank);
-            this.hidden = newHiddenFlag;
+            return hidden.get(this.idx);
         }
 
         @Override
         public int hashCode() {
-            return this.id;
+            return this.getId();
         }
 
         @Override
@@ -137,14 +185,14 @@ public class TreeOfLife {
             if (getClass() != obj.getClass())
                 return false;
             Taxon other = (Taxon) obj;
-            if (this.id != other.id)
+            if (this.getId() != other.getId())
                 return false;
             return true;
         }
 
         @Override
         public String toString() {
-            return this.id + " " + this.name;
+            return this.getId() + " " + this.getName();
         }
 
     }
@@ -155,8 +203,72 @@ public class TreeOfLife {
      * @param capacity	number of slots to allocate for the taxonomic groupings
      */
     public TreeOfLife(int capacity) {
-        // Create the main hash.
-        this.taxMap = new SparseArrayList<Taxon>(capacity);
+        this.idxMap = new int[capacity];
+        Arrays.fill(this.idxMap, -1);
+        this.taxIds = new int[capacity];
+        this.parents = new int[capacity];
+        this.ranks = new byte[capacity];
+        this.hidden = new BitSet(capacity);
+        this.nameOffsets = new int[capacity];
+        this.names = new NamePool(capacity * 24);
+        this.unknownName = -1;
+        this.lineage = null;
+        this.childIndex = null;
+        this.lcaIndex = null;
+        this.renderer = null;
+        this.nameIndex = null;
+        this.taxCount = 0;
+        this.loadRows = 0;
+        this.loadTime = 0;
+    }
+
+    /**
+     * @return the internal index of the specified taxonomic ID, or -1 if it is not in the tree
+     *
+     * @param taxId		ID of the group desired
+     */
+    private int indexOf(int taxId) {
+        int retVal = -1;
+        if (taxId >= 0 && taxId < this.idxMap.length)
+            retVal = this.idxMap[taxId];
+        return retVal;
+    }
+
+    /**
+     * @return the internal index of the specified taxonomic ID, creating a blank grouping if it is not
+     * 		   in the tree
+     *
+     * @param taxId		ID of the group desired
+     */
+    private int indexOrCreate(int taxId) {
+        int retVal = this.indexOf(taxId);
+        if (retVal < 0) {
+            if (taxId < 0)
+                throw new IllegalArgumentException("Invalid negative taxonomic ID " + taxId + ".");
+            if (taxId >= this.idxMap.length) {
+                int oldLen = this.idxMap.length;
+                this.idxMap = Arrays.copyOf(this.idxMap, Math.max(taxId + 1, oldLen * 2));
+                Arrays.fill(this.idxMap, oldLen, this.idxMap.length, -1);
+            }
+            retVal = this.taxCount;
+            if (retVal >= this.taxIds.length) {
+                int newLen = Math.max(16, retVal * 2);
+                this.taxIds = Arrays.copyOf(this.taxIds, newLen);
+                this.parents = Arrays.copyOf(this.parents, newLen);
+                this.ranks = Arrays.copyOf(this.ranks, newLen);
+                this.nameOffsets = Arrays.copyOf(this.nameOffsets, newLen);
+            }
+            this.idxMap[taxId] = retVal;
+            this.taxIds[retVal] = taxId;
+            this.parents[retVal] = -1;
+            this.ranks[retVal] = (byte) Rank.OTHER.ordinal();
+            this.hidden.set(retVal);
+            if (this.unknownName < 0)
+                this.unknownName = this.names.add("<unknown>");
+            this.nameOffsets[retVal] = this.unknownName;
+            this.taxCount++;
+        }
+        return retVal;
     }
 
     /**
@@ -166,12 +278,52 @@ public class TreeOfLife {
      */
     public Taxon find(int taxId) {
         Taxon retVal = null;
-        if (taxId < this.taxMap.size()) {
-            retVal = this.taxMap.get(taxId);
+        int idx = this.indexOf(taxId);
+        if (idx >= 0) {
+            retVal = new Taxon(idx);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified taxonomic ID is in the tree
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public boolean contains(int taxId) {
+        return this.indexOf(taxId) >= 0;
+    }
+
+    /**
+     * @return the ID of the parent of the specified taxonomic grouping, or -1 if it is a root or is not
+     * 		   in the tree
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public int getParentId(int taxId) {
+        int retVal = -1;
+        int idx = this.indexOf(taxId);
+        if (idx >= 0) {
+            int parentIdx = this.parents[idx];
+            if (parentIdx >= 0)
+                retVal = this.taxIds[parentIdx];
         }
         return retVal;
     }
 
+    /**
+     * @return the rank of the specified taxonomic grouping, or NULL if it is not in the tree
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public Rank getRank(int taxId) {
+        Rank retVal = null;
+        int idx = this.indexOf(taxId);
+        if (idx >= 0)
+            retVal = RANKS[this.ranks[idx]];
+        return retVal;
+    }
+
     /**
      * Insert a new taxonomic grouping in the tree and return it.  If the grouping already exists,
      * its data will be overwritten.
@@ -183,29 +335,558 @@ public class TreeOfLife {
      * @param newHiddenFlag	TRUE if this group should be hidden in taxonomy lists
      */
     public Taxon findOrInsert(int taxId, int newParent, String newRank, String newName, boolean newHiddenFlag) {
-        // Get the appropriate taxon object.
-        Taxon retVal = find(taxId);
+        int idx = this.indexOrCreate(taxId);
+        // Find the parent, creating it if necessary.
+        if (newParent == taxId) {
+            this.parents[idx] = -1;
+        } else {
+            this.parents[idx] = this.indexOrCreate(newParent);
+        }
+        this.nameOffsets[idx] = this.names.add(newName);
+        this.ranks[idx] = (byte) Rank.rankOf(newRank).ordinal();
+        this.hidden.set(idx, newHiddenFlag);
+        // The tree has changed, so the indexes are no longer valid.
+        this.lineage = null;
+        this.childIndex = null;
+        this.lcaIndex = null;
+        this.renderer = null;
+        this.nameIndex = null;
+        return new Taxon(idx);
+    }
+
+    /**
+     * Fill a buffer with the ranked lineage of a taxonomic grouping.  On exit, the buffer will contain the
+     * ID of the nearest ancestor-or-self at each good rank, indexed by rank, or -1 if there is no such
+     * ancestor.  The lineage index is built if it does not exist.
+     *
+     * @param taxId		ID of the group of interest
+     * @param buffer	buffer of at least {@link #LINEAGE_WIDTH} slots to receive the lineage
+     *
+     * @return TRUE if the group was found, FALSE if it is not in the tree
+     */
+    public boolean getLineage(int taxId, int[] buffer) {
+        int idx = this.indexOf(taxId);
+        boolean retVal = (idx >= 0);
+        if (retVal) {
+            int[] table = this.lineageTable();
+            System.arraycopy(table, idx * LINEAGE_WIDTH, buffer, 0, LINEAGE_WIDTH);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID of the nearest ancestor-or-self of a taxonomic grouping at the specified rank, or -1
+     * 		   if there is none, the grouping is not in the tree, or the rank is OTHER
+     *
+     * @param taxId		ID of the group of interest
+     * @param rank		desired rank
+     */
+    public int getAncestor(int taxId, Rank rank) {
+        int retVal = -1;
+        // OTHER has no column in the lineage table.
+        int idx = (rank == Rank.OTHER ? -1 : this.indexOf(taxId));
+        if (idx >= 0)
+            retVal = this.lineageTable()[idx * LINEAGE_WIDTH + rank.ordinal()];
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the lineage index has been built
+     */
+    public boolean hasLineageIndex() {
+        return this.lineage != null;
+    }
+
+    /**
+     * @return the lineage index, building it if necessary
+     */
+    private int[] lineageTable() {
+        int[] retVal = this.lineage;
+        if (retVal == null)
+            retVal = this.buildLineageIndex();
+        return retVal;
+    }
+
+    /**
+     * Build the lineage index.  Each grouping's lineage is its parent's lineage with its own rank slot
+     * filled in, so the groupings are processed with an explicit stack to insure each parent is done
+     * before its children.
+     *
+     * @return the new lineage index
+     */
+    public synchronized int[] buildLineageIndex() {
+        int[] retVal = this.lineage;
+        if (retVal == null) {
+            int n = this.taxCount;
+            retVal = new int[n * LINEAGE_WIDTH];
+            // Each grouping is 0 (not started), 1 (waiting on its parent) or 2 (done).
+            byte[] status = new byte[n];
+            int[] stack = new int[64];
+            for (int i = 0; i < n; i++) {
+                int sp = 0;
+                int idx = i;
+                // Push ancestors until we reach one that is done or a root.
+                while (idx >= 0 && status[idx] == 0) {
+                    status[idx] = 1;
+                    if (sp >= stack.length)
+                        stack = Arrays.copyOf(stack, sp * 2);
+                    stack[sp++] = idx;
+                    idx = this.parents[idx];
+                }
+                // If we stopped on a grouping in progress, the tree has a cycle, and we treat that
+                // grouping's parent as a root.
+                int parentBase = (idx >= 0 && status[idx] == 2 ? idx * LINEAGE_WIDTH : -1);
+                // Pop the stack, computing each lineage from its parent's.
+                while (sp > 0) {
+                    idx = stack[--sp];
+                    int base = idx * LINEAGE_WIDTH;
+                    if (parentBase < 0)
+                        Arrays.fill(retVal, base, base + LINEAGE_WIDTH, -1);
+                    else
+                        System.arraycopy(retVal, parentBase, retVal, base, LINEAGE_WIDTH);
+                    int rankIdx = this.ranks[idx];
+                    if (rankIdx < LINEAGE_WIDTH)
+                        retVal[base + rankIdx] = this.taxIds[idx];
+                    status[idx] = 2;
+                    parentBase = base;
+                }
+            }
+            this.lineage = retVal;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID of the lowest common ancestor of two taxonomic groupings, or -1 if they have no common
+     * 		   ancestor or either is not in the tree; if one grouping contains the other, the containing
+     * 		   grouping is returned
+     *
+     * @param taxId1	ID of the first group of interest
+     * @param taxId2	ID of the second group of interest
+     */
+    public int getLca(int taxId1, int taxId2) {
+        int retVal = -1;
+        int idx1 = this.indexOf(taxId1);
+        int idx2 = this.indexOf(taxId2);
+        if (idx1 >= 0 && idx2 >= 0) {
+            int lcaIdx = this.lcaTable().lca(idx1, idx2);
+            if (lcaIdx >= 0)
+                retVal = this.taxIds[lcaIdx];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID of the lowest common ancestor of a set of taxonomic groupings, or -1 if they have no
+     * 		   common ancestor; IDs not in the tree are ignored, and if none of the IDs are in the tree, the
+     * 		   return is -1
+     *
+     * @param taxIds	array of IDs for the groups of interest
+     */
+    public int getLca(int[] taxIds) {
+        int retVal = -1;
+        int[] idxs = new int[taxIds.length];
+        int n = 0;
+        for (int taxId : taxIds) {
+            int idx = this.indexOf(taxId);
+            if (idx >= 0)
+                idxs[n++] = idx;
+        }
+        int lcaIdx = this.lcaTable().lca(idxs, n);
+        if (lcaIdx >= 0)
+            retVal = this.taxIds[lcaIdx];
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a taxonomic grouping is the same as or a descendant of another grouping, FALSE if it
+     * 		   is not or either grouping is not in the tree
+     *
+     * @param taxId			ID of the possible descendant
+     * @param ancestorId	ID of the possible ancestor
+     */
+    public boolean isDescendant(int taxId, int ancestorId) {
+        boolean retVal = false;
+        int idx = this.indexOf(taxId);
+        int ancestorIdx = this.indexOf(ancestorId);
+        if (idx >= 0 && ancestorIdx >= 0)
+            retVal = this.lcaTable().isDescendant(idx, ancestorIdx);
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the lowest-common-ancestor index has been built
+     */
+    public boolean hasLcaIndex() {
+        return this.lcaIndex != null;
+    }
+
+    /**
+     * @return the lowest-common-ancestor index, building it if necessary
+     */
+    private LcaIndex lcaTable() {
+        LcaIndex retVal = this.lcaIndex;
+        if (retVal == null) {
+            this.buildLcaIndex();
+            retVal = this.lcaIndex;
+        }
+        return retVal;
+    }
+
+    /**
+     * Build the lowest-common-ancestor index if it does not already exist.  This takes time proportional
+     * to the size of the tree.  The index is also used for descendant checks.
+     */
+    public synchronized void buildLcaIndex() {
+        if (this.lcaIndex == null)
+            this.lcaIndex = new LcaIndex(this.childTable());
+    }
+
+    /**
+     * @return the IDs of the children of a taxonomic grouping, or NULL if the grouping is not in the tree;
+     * 		   the child index is built if it does not exist
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public int[] getChildren(int taxId) {
+        int[] retVal = null;
+        int idx = this.indexOf(taxId);
+        if (idx >= 0) {
+            ChildIndex index = this.childTable();
+            int start = index.starts[idx];
+            retVal = new int[index.childCount(idx)];
+            for (int i = 0; i < retVal.length; i++)
+                retVal[i] = this.taxIds[index.children[start + i]];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of children of a taxonomic grouping, or 0 if the grouping is not in the tree;
+     * 		   the child index is built if it does not exist
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public int getChildCount(int taxId) {
+        int retVal = 0;
+        int idx = this.indexOf(taxId);
+        if (idx >= 0)
+            retVal = this.childTable().childCount(idx);
+        return retVal;
+    }
+
+    /**
+     * @return the number of groupings in the subtree of a taxonomic grouping, including the grouping
+     * 		   itself, or 0 if the grouping is not in the tree; the child index is built if it does not exist
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public int getSubtreeSize(int taxId) {
+        int retVal = 0;
+        int idx = this.indexOf(taxId);
+        if (idx >= 0)
+            retVal = this.childTable().subtreeSize(idx);
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the child index has been built
+     */
+    public boolean hasChildIndex() {
+        return this.childIndex != null;
+    }
+
+    /**
+     * @return the child index, building it if necessary
+     */
+    ChildIndex childTable() {
+        ChildIndex retVal = this.childIndex;
+        if (retVal == null) {
+            this.buildChildIndex();
+            retVal = this.childIndex;
+        }
+        return retVal;
+    }
+
+    /**
+     * Build the child index if it does not already exist.  This takes time proportional to the size of the
+     * tree.  The index is used for downward traversal, subtree totals, and the lowest-common-ancestor index.
+     */
+    public synchronized void buildChildIndex() {
+        if (this.childIndex == null)
+            this.childIndex = new ChildIndex(this.parents, this.taxCount);
+    }
+
+    /**
+     * @return the IDs of the groupings with the specified name, in ascending order; the name index is built
+     * 		   if it does not exist
+     *
+     * @param name		name of interest, which must match exactly
+     */
+    public int[] findByName(String name) {
+        return this.toIds(this.nameTable().find(this, name, false));
+    }
+
+    /**
+     * @return the IDs of the groupings with the specified name, ignoring case, in name order; the name
+     * 		   index is built if it does not exist
+     *
+     * @param name		name of interest
+     */
+    public int[] findByNameIgnoreCase(String name) {
+        return this.toIds(this.nameTable().find(this, name, true));
+    }
+
+    /**
+     * @return the IDs of the groupings whose names begin with the specified prefix, in name order; the
+     * 		   name index is built if it does not exist
+     *
+     * @param prefix		prefix of interest
+     * @param ignoreCase	TRUE to ignore case differences
+     * @param limit			maximum number of IDs to return
+     */
+    public int[] findByNamePrefix(String prefix, boolean ignoreCase, int limit) {
+        return this.toIds(this.nameTable().findPrefix(this, prefix, ignoreCase, limit));
+    }
+
+    /**
+     * Convert an array of internal indices to taxonomic IDs in place.
+     *
+     * @param indices	array of internal indices
+     *
+     * @return the same array, containing the corresponding IDs
+     */
+    private int[] toIds(int[] indices) {
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = this.taxIds[indices[i]];
+        return indices;
+    }
+
+    /**
+     * @return TRUE if the name index has been built
+     */
+    public boolean hasNameIndex() {
+        return this.nameIndex != null;
+    }
+
+    /**
+     * @return the name index, building it if necessary
+     */
+    private NameIndex nameTable() {
+        NameIndex retVal = this.nameIndex;
         if (retVal == null) {
-            retVal = new Taxon(taxId);
+            this.buildNameIndex();
+            retVal = this.nameIndex;
         }
-        retVal.storeTaxData(newParent, newRank, newName, newHiddenFlag);
         return retVal;
     }
 
+    /**
+     * Build the name index if it does not already exist.  This requires sorting all the names in the tree.
+     */
+    public synchronized void buildNameIndex() {
+        if (this.nameIndex == null)
+            this.nameIndex = new NameIndex(this, this.taxCount);
+    }
+
+    /**
+     * @return the taxonomy string for a grouping:  the names of the groupings in its lineage that are not
+     * 		   hidden, from the root down, separated by semicolons; an empty string if all of them are hidden,
+     * 		   or NULL if the grouping is not in the tree
+     *
+     * @param taxId		ID of the group of interest
+     */
+    public String lineageString(int taxId) {
+        LineageRenderer retVal = this.renderer;
+        if (retVal == null) {
+            retVal = new LineageRenderer(this);
+            this.renderer = retVal;
+        }
+        return retVal.render(taxId);
+    }
+
+    /**
+     * @return the internal index of a taxonomic ID, or -1 if it is not in the tree
+     *
+     * @param taxId		ID of the group of interest
+     */
+    int indexOfId(int taxId) {
+        return this.indexOf(taxId);
+    }
+
+    /**
+     * @return the taxonomic ID of the grouping at an internal index
+     *
+     * @param idx		internal index of the group of interest
+     */
+    int idAt(int idx) {
+        return this.taxIds[idx];
+    }
+
+    /**
+     * @return the internal index of a grouping's parent, or -1 if it is a root
+     *
+     * @param idx		internal index of the group of interest
+     */
+    int parentIdx(int idx) {
+        return this.parents[idx];
+    }
+
+    /**
+     * @return the name of the grouping at an internal index
+     *
+     * @param idx		internal index of the group of interest
+     */
+    String nameAt(int idx) {
+        return this.names.get(this.nameOffsets[idx]);
+    }
+
+    /**
+     * @return the rank of the grouping at an internal index
+     *
+     * @param idx		internal index of the group of interest
+     */
+    Rank rankAt(int idx) {
+        return RANKS[this.ranks[idx]];
+    }
+
+    /**
+     * @return TRUE if the grouping at an internal index is hidden in taxonomy strings
+     *
+     * @param idx		internal index of the group of interest
+     */
+    boolean isHiddenAt(int idx) {
+        return this.hidden.get(idx);
+    }
+
+    /**
+     * @return the number of taxonomic groupings in the tree
+     */
+    public int size() {
+        return this.taxCount;
+    }
+
+    /**
+     * @return the number of records read when this tree was loaded
+     */
+    public int getLoadRows() {
+        return this.loadRows;
+    }
+
+    /**
+     * @return the number of milliseconds taken to load this tree
+     */
+    public long getLoadTime() {
+        return this.loadTime;
+    }
+
+    /**
+     * @return an iterator through all the taxonomic groupings in the tree, in ID order
+     */
+    @Override
+    public Iterator<Taxon> iterator() {
+        return new TaxonIterator();
+    }
+
+    /**
+     * This class iterates through the taxonomic groupings, skipping the unused IDs.
+     */
+    private class TaxonIterator implements Iterator<Taxon> {
+
+        /** next taxonomic ID to examine */
+        private int nextId;
+
+        private TaxonIterator() {
+            this.nextId = 0;
+            this.skipEmpty();
+        }
+
+        /**
+         * Position on the next ID in use.
+         */
+        private void skipEmpty() {
+            int n = idxMap.length;
+            while (this.nextId < n && idxMap[this.nextId] < 0)
+                this.nextId++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextId < idxMap.length;
+        }
+
+        @Override
+        public Taxon next() {
+            if (! this.hasNext())
+                throw new NoSuchElementException();
+            Taxon retVal = new Taxon(idxMap[this.nextId]);
+            this.nextId++;
+            this.skipEmpty();
+            return retVal;
+        }
+
+    }
+
     /**
      * Load the tree of life from a database load file.  Such files have six tab-delimited fields:  (0) ID,
      * (1) parent ID, (2) domain flag [ignored], (3) hidden flag, (5) rank, (6) name.
      *
+     * The file is parsed directly from a large byte buffer, without regular expressions.
+     *
      * @param taxonFile	file from which the taxonomy tree is to be loaded
      *
      * @return	the new tree of life
      * @throws IOException
      */
     public static TreeOfLife load(File taxonFile) throws IOException {
+        long start = System.currentTimeMillis();
+        TreeOfLife retVal = new TreeOfLife(estimateCapacity(taxonFile));
+        try (DtxReader reader = new DtxReader(taxonFile)) {
+            while (reader.hasNext()) {
+                // Get the next record.  Start with the ID and the parent ID.
+                int taxId = reader.nextInt();
+                int parentId = reader.nextInt();
+                // Skip the domain flag.
+                reader.nextInt();
+                // Get the hidden flag.
+                boolean hiddenFlag = (reader.nextInt() != 0);
+                // Get the rank and name.
+                String rankLabel = reader.next();
+                String taxName = reader.next();
+                reader.skipLine();
+                // Insert the taxonomic group.
+                retVal.findOrInsert(taxId, parentId, rankLabel, taxName, hiddenFlag);
+            }
+            retVal.loadRows = reader.getLineNum();
+        }
+        retVal.loadTime = System.currentTimeMillis() - start;
+        return retVal;
+    }
+
+    /**
+     * @return the initial capacity to use for a tree loaded from the specified file
+     *
+     * @param taxonFile	load file for the tree
+     */
+    private static int estimateCapacity(File taxonFile) {
+        int retVal = (int) taxonFile.length() / 40;
+        if (retVal < 100) retVal = 100;
+        return retVal;
+    }
+
+    /**
+     * Load the tree of life from a database load file using a token scanner.  This is the original
+     * loader.  It is much slower than {@link #load(File)}, and is retained as a reference implementation.
+     *
+     * @param taxonFile	file from which the taxonomy tree is to be loaded
+     *
+     * @return	the new tree of life
+     * @throws IOException
+     */
+    public static TreeOfLife loadScanner(File taxonFile) throws IOException {
+        long start = System.currentTimeMillis();
         // Create a blank tree.
-        int capacity = (int) taxonFile.length() / 40;
-        if (capacity < 100) capacity = 100;
-        TreeOfLife retVal = new TreeOfLife(capacity);
+        TreeOfLife retVal = new TreeOfLife(estimateCapacity(taxonFile));
         // Set up a scanner to read the tokens in the file.
         Scanner reader = new Scanner(taxonFile);
         reader.useDelimiter("\\t|\\r*\\n");
@@ -222,10 +903,254 @@ public class TreeOfLife {
             String taxName = reader.next();
             // Insert the taxonomic group.
             retVal.findOrInsert(taxId, parentId, rankLabel, taxName, hiddenFlag);
+            retVal.loadRows++;
         }
         reader.close();
+        retVal.loadTime = System.currentTimeMillis() - start;
+        return retVal;
+
+    }
+
+    /**
+     * Load a tree of life from either a binary snapshot or a database load file.  The file type is
+     * determined from its content.
+     *
+     * @param taxonFile	snapshot or load file containing the tree
+     *
+     * @return	the new tree of life
+     * @throws IOException
+     */
+    public static TreeOfLife open(File taxonFile) throws IOException {
+        TreeOfLife retVal;
+        if (isSnapshot(taxonFile)) {
+            retVal = loadSnapshot(taxonFile);
+        } else {
+            retVal = load(taxonFile);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified file is a tree-of-life snapshot
+     *
+     * @param taxonFile	file to check
+     *
+     * @throws IOException
+     */
+    public static boolean isSnapshot(File taxonFile) throws IOException {
+        boolean retVal = false;
+        if (taxonFile.length() >= 4) {
+            try (DataInputStream inStream = new DataInputStream(new FileInputStream(taxonFile))) {
+                retVal = (inStream.readInt() == SNAPSHOT_MAGIC);
+            }
+        }
         return retVal;
+    }
 
+    /**
+     * Save this tree to a binary snapshot file.  The snapshot contains (0) a magic number, (1) the format
+     * version, (2) the number of taxonomic groupings N, (3) N taxon IDs in ascending order, (4) N parent IDs,
+     * with -1 for a root, (5) N rank ordinals as bytes, (6) the hidden flags as a bit set of 64-bit words,
+     * (7) N name pool offsets, (8) the size of the name pool in bytes, (9) the name pool itself, in
+     * which each UTF-8 name is preceded by a two-byte length, (10) the number of lineage index entries,
+     * which is 0 if the lineage index has not been built, (11) the lineage index entries, in ID order,
+     * (12) the number of name index entries, which is 0 if the name index has not been built, and (13) the
+     * taxon IDs in name index order.
+     *
+     * @param outFile	file to which the snapshot should be written
+     *
+     * @throws IOException
+     */
+    public void save(File outFile) throws IOException {
+        int n = this.taxCount;
+        // Compute the internal indices in ID order.
+        int[] order = new int[n];
+        int pos = 0;
+        for (int taxId = 0; taxId < this.idxMap.length; taxId++) {
+            int idx = this.idxMap[taxId];
+            if (idx >= 0)
+                order[pos++] = idx;
+        }
+        try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(outFile), 1 << 20))) {
+            outStream.writeInt(SNAPSHOT_MAGIC);
+            outStream.writeInt(SNAPSHOT_VERSION);
+            outStream.writeInt(n);
+            for (int idx : order)
+                outStream.writeInt(this.taxIds[idx]);
+            for (int idx : order) {
+                int parentIdx = this.parents[idx];
+                outStream.writeInt(parentIdx < 0 ? -1 : this.taxIds[parentIdx]);
+            }
+            for (int idx : order)
+                outStream.writeByte(this.ranks[idx]);
+            BitSet hiddenBits = new BitSet(n);
+            for (int i = 0; i < n; i++)
+                hiddenBits.set(i, this.hidden.get(order[i]));
+            long[] words = Arrays.copyOf(hiddenBits.toLongArray(), (n + 63) / 64);
+            for (long word : words)
+                outStream.writeLong(word);
+            for (int idx : order)
+                outStream.writeInt(this.nameOffsets[idx]);
+            outStream.writeInt(this.names.size());
+            this.names.write(outStream);
+            int[] table = this.lineage;
+            if (table == null) {
+                outStream.writeInt(0);
+            } else {
+                outStream.writeInt(n * LINEAGE_WIDTH);
+                for (int idx : order) {
+                    int base = idx * LINEAGE_WIDTH;
+                    for (int i = 0; i < LINEAGE_WIDTH; i++)
+                        outStream.writeInt(table[base + i]);
+                }
+            }
+            NameIndex nameTable = this.nameIndex;
+            if (nameTable == null) {
+                outStream.writeInt(0);
+            } else {
+                outStream.writeInt(n);
+                for (int idx : nameTable.order)
+                    outStream.writeInt(this.taxIds[idx]);
+            }
+        }
+    }
+
+    /**
+     * Load a tree of life from a binary snapshot file.  The file is memory-mapped.  The arrays are copied
+     * out in bulk, and the name pool is left in the mapped buffer, so names are only decoded when requested.
+     * The sizes and IDs are checked as they are read, so a truncated or damaged file causes an IOException.
+     *
+     * @param snapFile	snapshot file created by {@link #save(File)}
+     *
+     * @return the new tree of life
+     *
+     * @throws IOException
+     */
+    public static TreeOfLife loadSnapshot(File snapFile) throws IOException {
+        long start = System.currentTimeMillis();
+        MappedByteBuffer buffer;
+        try (RandomAccessFile inFile = new RandomAccessFile(snapFile, "r")) {
+            FileChannel channel = inFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Taxonomy snapshot " + snapFile + " is too large to map.");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 4 || buffer.getInt() != SNAPSHOT_MAGIC)
+            throw new IOException(snapFile + " is not a taxonomy snapshot file.");
+        int version = readInt(buffer);
+        if (version < MIN_SNAPSHOT_VERSION || version > SNAPSHOT_VERSION)
+            throw new IOException("Unsupported version " + version + " in taxonomy snapshot " + snapFile + ".");
+        int n = readInt(buffer);
+        // Each grouping takes at least an ID, a parent ID, a rank, and a name offset.
+        if (n < 0 || n > buffer.remaining() / 13)
+            throw new IOException("Invalid taxonomy size " + n + " in snapshot " + snapFile + ".");
+        // Create the tree and read the IDs.  They are in ascending order, so the largest ID is the last one.
+        TreeOfLife retVal = new TreeOfLife(0);
+        retVal.taxIds = new int[n];
+        sliceBuffer(buffer, 4L * n).asIntBuffer().get(retVal.taxIds);
+        for (int i = 0; i < n; i++) {
+            int taxId = retVal.taxIds[i];
+            if (taxId < 0 || taxId == Integer.MAX_VALUE || (i > 0 && taxId <= retVal.taxIds[i - 1]))
+                throw new IOException("Invalid or out-of-order ID " + taxId + " in taxonomy snapshot " + snapFile
+                        + ".");
+        }
+        int maxId = (n == 0 ? 0 : retVal.taxIds[n - 1]);
+        retVal.idxMap = new int[maxId + 1];
+        Arrays.fill(retVal.idxMap, -1);
+        for (int i = 0; i < n; i++)
+            retVal.idxMap[retVal.taxIds[i]] = i;
+        // Convert the parent IDs to internal indices.
+        retVal.parents = new int[n];
+        sliceBuffer(buffer, 4L * n).asIntBuffer().get(retVal.parents);
+        for (int i = 0; i < n; i++) {
+            int parentId = retVal.parents[i];
+            retVal.parents[i] = (parentId < 0 ? -1 : retVal.indexOf(parentId));
+        }
+        retVal.ranks = new byte[n];
+        sliceBuffer(buffer, n).get(retVal.ranks);
+        for (int i = 0; i < n; i++) {
+            if (retVal.ranks[i] < 0 || retVal.ranks[i] >= RANKS.length)
+                throw new IOException("Invalid rank code " + retVal.ranks[i] + " in taxonomy snapshot " + snapFile
+                        + ".");
+        }
+        retVal.hidden = BitSet.valueOf(sliceBuffer(buffer, ((n + 63) / 64) * 8L).asLongBuffer());
+        retVal.nameOffsets = new int[n];
+        sliceBuffer(buffer, 4L * n).asIntBuffer().get(retVal.nameOffsets);
+        // The name pool stays in the mapped buffer.
+        int poolSize = readInt(buffer);
+        if (poolSize < 0)
+            throw new IOException("Invalid name pool size in taxonomy snapshot " + snapFile + ".");
+        retVal.names = new NamePool(sliceBuffer(buffer, poolSize));
+        for (int i = 0; i < n; i++) {
+            if (retVal.nameOffsets[i] < 0 || retVal.nameOffsets[i] > poolSize - 2)
+                throw new IOException("Invalid name offset in taxonomy snapshot " + snapFile + ".");
+        }
+        // Read the lineage index if it is present.
+        int lineageSize = readInt(buffer);
+        if (lineageSize != 0) {
+            if (lineageSize != n * LINEAGE_WIDTH)
+                throw new IOException("Invalid lineage index size in taxonomy snapshot " + snapFile + ".");
+            int[] table = new int[lineageSize];
+            sliceBuffer(buffer, 4L * lineageSize).asIntBuffer().get(table);
+            retVal.lineage = table;
+        }
+        // Read the name index if it is present.  Older snapshots do not have one.
+        if (version >= 4) {
+            int nameCount = readInt(buffer);
+            if (nameCount != 0) {
+                if (nameCount != n)
+                    throw new IOException("Invalid name index size in taxonomy snapshot " + snapFile + ".");
+                int[] order = new int[n];
+                sliceBuffer(buffer, 4L * n).asIntBuffer().get(order);
+                for (int i = 0; i < n; i++) {
+                    int idx = retVal.indexOf(order[i]);
+                    if (idx < 0)
+                        throw new IOException("Invalid ID " + order[i] + " in name index of taxonomy snapshot "
+                                + snapFile + ".");
+                    order[i] = idx;
+                }
+                retVal.nameIndex = new NameIndex(order);
+            }
+        }
+        retVal.taxCount = n;
+        retVal.loadRows = n;
+        retVal.loadTime = System.currentTimeMillis() - start;
+        return retVal;
+    }
+
+    /**
+     * Extract a section from a snapshot buffer and advance past it.
+     *
+     * @param buffer	snapshot buffer, positioned at the start of the section
+     * @param len		length of the section in bytes
+     *
+     * @return a buffer containing the section
+     *
+     * @throws IOException if the section runs past the end of the buffer
+     */
+    private static ByteBuffer sliceBuffer(ByteBuffer buffer, long len) throws IOException {
+        if (len < 0 || len > buffer.remaining())
+            throw new IOException("Taxonomy snapshot file is truncated.");
+        ByteBuffer retVal = buffer.slice();
+        retVal.limit((int) len);
+        buffer.position(buffer.position() + (int) len);
+        return retVal;
+    }
+
+    /**
+     * Read an integer from a snapshot buffer and advance past it.
+     *
+     * @param buffer	snapshot buffer, positioned at the integer
+     *
+     * @return the integer read
+     *
+     * @throws IOException if the buffer is exhausted
+     */
+    private static int readInt(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4)
+            throw new IOException("Taxonomy snapshot file is truncated.");
+        return buffer.getInt();
     }
 
 }
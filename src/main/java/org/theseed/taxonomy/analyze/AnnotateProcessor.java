@@ -0,0 +1,259 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.theseed.taxonomy.Rank;
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This command annotates a genome table with lineage information.  The standard input is copied to the
+ * standard output, with columns added to each line for the ancestor of the line's taxonomic grouping at
+ * each selected rank.  The input must be tab-delimited, with a header line.  Blank lines are dropped.
+ *
+ * The positional parameter is the name of the load file (or binary snapshot) for the taxonomy tree.
+ *
+ * The following command-line options are supported.
+ *
+ * -t	the index (1-based) or name of the input column containing the taxonomy ID; the default is "taxon_id"
+ * -v	display progress on STDERR
+ *
+ * --rank		rank to annotate; may be repeated, and the default is all the ranks from domain to species
+ * --format		"id" to add an ID column for each rank, "name" to add a name column, or "both" (the default)
+ * 				to add both; the columns are named "<rank>_id" and "<rank>_name"
+ * --threads	number of worker threads for annotating the input; the default is 1, which processes the
+ * 				input on the main thread
+ *
+ * In multi-threaded mode, the main thread reads the input in batches of lines and hands each batch to the
+ * worker pool.  The annotated batches are written in the order they were read, so the output is the same
+ * as in single-threaded mode.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class AnnotateProcessor {
+
+    // FIELDS
+    /** main taxonomy tree */
+    TreeOfLife taxTree;
+    /** lineage annotator */
+    LineageAnnotator annotator;
+    /** number of bytes of input in each batch */
+    private static final int CHUNK_SIZE = 1 << 19;
+
+    // COMMAND LINE
+
+    /** help option */
+    @Option(name="-h", aliases={"--help"}, help=true)
+    private boolean help;
+
+    /** tax ID column spec */
+    @Option(name="-t", aliases={"--taxCol"}, metaVar="taxon_id", usage="column containing taxonomy ID")
+    String taxCol;
+
+    /** tracing display */
+    @Option(name="-v", aliases={"--debug", "verbose"}, usage="display progress messages on STDERR")
+    boolean debug;
+
+    /** ranks to annotate */
+    @Option(name="--rank", metaVar="genus", usage="rank to annotate (may be repeated)")
+    List<String> rankNames;
+
+    /** output column format */
+    @Option(name="--format", metaVar="both", usage="columns to add for each rank (id, name, or both)")
+    String format;
+
+    /** number of worker threads */
+    @Option(name="--threads", metaVar="1", usage="number of worker threads for processing the input")
+    int threads;
+
+    /** tree of life input file */
+    @Argument(index=0, metaVar="taxonomy_file.dtx", usage="file containing full taxonomy tree", required=true)
+    File taxFile;
+
+    /** Parse the command line parameters and options. */
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        // Set the defaults.
+        this.help = false;
+        this.taxCol = "taxon_id";
+        this.debug = false;
+        this.rankNames = new ArrayList<String>();
+        this.format = "both";
+        this.threads = 1;
+        this.taxFile = null;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.help) {
+                parser.printUsage(System.err);
+            } else {
+                if (this.threads < 1)
+                    throw UsageMessage.error(parser, "Number of threads must be at least 1.");
+                EnumSet<Rank> ranks;
+                if (this.rankNames.isEmpty()) {
+                    ranks = EnumSet.complementOf(EnumSet.of(Rank.OTHER));
+                } else {
+                    ranks = EnumSet.noneOf(Rank.class);
+                    for (String rankName : this.rankNames) {
+                        Rank rank = Rank.rankOf(rankName);
+                        if (rank == Rank.OTHER)
+                            throw UsageMessage.error(parser, "Invalid rank \"" + rankName + "\".");
+                        ranks.add(rank);
+                    }
+                }
+                boolean ids = (this.format.equals("id") || this.format.equals("both"));
+                boolean names = (this.format.equals("name") || this.format.equals("both"));
+                if (! ids && ! names)
+                    throw UsageMessage.error(parser, "Format must be \"id\", \"name\", or \"both\".");
+                // Read in the taxonomy file.
+                if (debug) System.err.println("Reading taxonomy tree from " + this.taxFile + ".");
+                this.taxTree = TreeOfLife.open(this.taxFile);
+                if (debug) System.err.println("Taxonomy tree read in " + this.taxTree.getLoadTime() +
+                        " milliseconds from " + this.taxTree.getLoadRows() + " records.");
+                this.annotator = new LineageAnnotator(this.taxTree, ranks, ids, names);
+                retVal = true;
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        return retVal;
+    }
+
+    public void run() {
+        try {
+            long start = System.currentTimeMillis();
+            IngestReader reader = new IngestReader(System.in, this.taxCol);
+            OutputStream out = System.out;
+            try {
+                String header = reader.getHeader() + this.annotator.getHeaderSuffix() + "\n";
+                out.write(header.getBytes(StandardCharsets.UTF_8));
+                if (this.threads > 1)
+                    this.annotateParallel(reader, out);
+                else
+                    this.annotateSerial(reader, out);
+            } finally {
+                out.flush();
+                reader.close();
+            }
+            if (debug)
+                System.err.println(reader.getLinesRead() + " total lines annotated in " +
+                        (System.currentTimeMillis() - start) + " milliseconds.");
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Annotate the input on the main thread.
+     *
+     * @param reader	reader for the input, positioned after the header
+     * @param out		output stream for the annotated lines
+     *
+     * @throws IOException
+     */
+    private void annotateSerial(IngestReader reader, OutputStream out) throws IOException {
+        long linesBefore = reader.getLinesRead();
+        long nextReport = 1000000;
+        for (byte[] chunk = reader.readChunk(CHUNK_SIZE); chunk != null; chunk = reader.readChunk(CHUNK_SIZE)) {
+            out.write(this.annotator.annotate(chunk, chunk.length, reader.getTaxColIdx(), linesBefore));
+            linesBefore = reader.getLinesRead();
+            if (debug && linesBefore >= nextReport) {
+                System.err.println(linesBefore + " lines annotated.");
+                nextReport += 1000000;
+            }
+        }
+    }
+
+    /**
+     * Annotate the input using a pool of worker threads.  Each batch is submitted as a separate task, and
+     * the results are written in submission order.  At most two batches per thread are in flight, so memory
+     * use is bounded no matter how far the writing falls behind.
+     *
+     * @param reader	reader for the input, positioned after the header
+     * @param out		output stream for the annotated lines
+     *
+     * @throws IOException
+     */
+    private void annotateParallel(IngestReader reader, OutputStream out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>(this.threads * 2);
+        try {
+            long linesBefore = reader.getLinesRead();
+            long nextReport = 1000000;
+            int taxColIdx = reader.getTaxColIdx();
+            for (byte[] chunk = reader.readChunk(CHUNK_SIZE); chunk != null; chunk = reader.readChunk(CHUNK_SIZE)) {
+                if (pending.size() >= this.threads * 2)
+                    out.write(pending.removeFirst().get());
+                pending.addLast(executor.submit(new AnnotateTask(chunk, taxColIdx, linesBefore)));
+                linesBefore = reader.getLinesRead();
+                if (debug && linesBefore >= nextReport) {
+                    System.err.println(linesBefore + " lines read.");
+                    nextReport += 1000000;
+                }
+            }
+            while (! pending.isEmpty())
+                out.write(pending.removeFirst().get());
+        } catch (InterruptedException e) {
+            throw new IOException("Input processing interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error processing input: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * This class annotates a single batch of input lines.
+     */
+    private class AnnotateTask implements Callable<byte[]> {
+
+        /** input lines */
+        private byte[] chunk;
+        /** index of the taxonomic ID column */
+        private int taxColIdx;
+        /** number of input lines before the chunk */
+        private long linesBefore;
+
+        /**
+         * Create a task.
+         *
+         * @param chunk			input lines
+         * @param taxColIdx		index of the taxonomic ID column
+         * @param linesBefore	number of input lines before the chunk
+         */
+        private AnnotateTask(byte[] chunk, int taxColIdx, long linesBefore) {
+            this.chunk = chunk;
+            this.taxColIdx = taxColIdx;
+            this.linesBefore = linesBefore;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            return annotator.annotate(this.chunk, this.chunk.length, this.taxColIdx, this.linesBefore);
+        }
+
+    }
+
+}
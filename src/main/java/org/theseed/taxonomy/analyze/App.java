@@ -1,14 +1,71 @@
 package org.theseed.taxonomy.analyze;
 
+import java.util.Arrays;
 
 /**
- * Hello world!
+ * Main entry point for the taxonomy analysis tools.  If the first parameter is a command name, the
+ * remaining parameters are passed to that command.  Otherwise, all the parameters are passed to the
+ * taxonomy profile command.
+ *
+ * profile		create a taxonomic profile of genome groups (default)
+ * snapshot		convert a taxonomy load file to a binary snapshot
+ * merge		merge partial profile files into a single profile
+ * generate		generate a synthetic taxonomy tree and genome file for testing
+ * annotate		add lineage columns to a genome table
+ * cache		convert a genome table to a columnar binary cache for the profile command
  *
  */
 public class App
 {
     public static void main( String[] args )
     {
+        String command = (args.length > 0 ? args[0] : "");
+        String[] commandArgs = (args.length > 0 ? Arrays.copyOfRange(args, 1, args.length) : args);
+        switch (command) {
+        case "snapshot" :
+            SnapshotProcessor snapObject = new SnapshotProcessor();
+            if (snapObject.parseCommand(commandArgs)) {
+                snapObject.run();
+            }
+            break;
+        case "merge" :
+            MergeProcessor mergeObject = new MergeProcessor();
+            if (mergeObject.parseCommand(commandArgs)) {
+                mergeObject.run();
+            }
+            break;
+        case "generate" :
+            GenerateProcessor genObject = new GenerateProcessor();
+            if (genObject.parseCommand(commandArgs)) {
+                genObject.run();
+            }
+            break;
+        case "annotate" :
+            AnnotateProcessor annotateObject = new AnnotateProcessor();
+            if (annotateObject.parseCommand(commandArgs)) {
+                annotateObject.run();
+            }
+            break;
+        case "cache" :
+            CacheProcessor cacheObject = new CacheProcessor();
+            if (cacheObject.parseCommand(commandArgs)) {
+                cacheObject.run();
+            }
+            break;
+        case "profile" :
+            runProfile(commandArgs);
+            break;
+        default :
+            runProfile(args);
+        }
+    }
+
+    /**
+     * Run the taxonomy profile command.
+     *
+     * @param args	command-line parameters
+     */
+    private static void runProfile(String[] args) {
         TaxonomyProfileProcessor runObject = new TaxonomyProfileProcessor();
         boolean ok = runObject.parseCommand(args);
         if (ok) {
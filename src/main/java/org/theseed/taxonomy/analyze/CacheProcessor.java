@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * This command converts a genome table into a columnar binary cache.  The cache holds the taxonomic ID
+ * column and one or more group ID columns, and can be profiled with the "--cache" option of the profile
+ * command many times without parsing the table again.
+ *
+ * The first positional parameter is the name of the cache file to create.  The remaining positional
+ * parameters are the genome input files, which may be glob patterns and may be compressed, as for the
+ * profile command.  If there are no input files, the genomes are read from the standard input.  The input
+ * must be tab-delimited, with a header line.  Each input file must contain the cached columns, found by
+ * their names in the first file's header.  Blank lines are skipped.
+ *
+ * The following command-line options are supported.
+ *
+ * -c	the index (1-based) or name of an input column containing group IDs; may be repeated, and the
+ * 		default is "group_id"
+ * -t	the index (1-based) or name of the input column containing the taxonomy ID; the default is "taxon_id"
+ * -v	display progress on STDERR
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CacheProcessor {
+
+    // FIELDS
+    /** list of input files; if empty, the standard input is read */
+    List<File> inFiles;
+    /** cache builder, or NULL if the first header has not been read */
+    GenomeCache.Builder builder;
+    /** names of the cached columns, with the taxonomic ID column first */
+    String[] colNames;
+
+    // COMMAND LINE
+
+    /** help option */
+    @Option(name="-h", aliases={"--help"}, help=true)
+    private boolean help;
+
+    /** group ID column specs */
+    @Option(name="-c", aliases={"--col", "--groupCol"}, metaVar="group_id", usage="column containing group IDs (may repeat)")
+    List<String> groupCols;
+
+    /** tax ID column spec */
+    @Option(name="-t", aliases={"--taxCol"}, metaVar="taxon_id", usage="column containing taxonomy ID")
+    String taxCol;
+
+    /** tracing display */
+    @Option(name="-v", aliases={"--debug", "verbose"}, usage="display progress messages on STDERR")
+    boolean debug;
+
+    /** cache output file */
+    @Argument(index=0, metaVar="genomes.cache", usage="output file for the genome cache", required=true)
+    File cacheFile;
+
+    /** genome input files */
+    @Argument(index=1, metaVar="genomes.tbl ...", usage="genome input files or glob patterns (default is STDIN)", multiValued=true)
+    List<String> inputSpecs;
+
+    /** Parse the command line parameters and options. */
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        // Set the defaults.
+        this.help = false;
+        this.groupCols = new ArrayList<String>();
+        this.taxCol = "taxon_id";
+        this.debug = false;
+        this.cacheFile = null;
+        this.inputSpecs = new ArrayList<String>();
+        this.builder = null;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.help) {
+                parser.printUsage(System.err);
+            } else {
+                if (this.groupCols.isEmpty())
+                    this.groupCols.add("group_id");
+                this.inFiles = GenomeInput.expand(this.inputSpecs);
+                retVal = true;
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        return retVal;
+    }
+
+    public void run() {
+        try {
+            long start = System.currentTimeMillis();
+            if (this.inFiles.isEmpty()) {
+                this.readInput(GenomeInput.wrap(System.in, "Standard input"));
+            } else {
+                for (File inFile : this.inFiles) {
+                    if (debug) System.err.println("Reading genomes from " + inFile + ".");
+                    try {
+                        this.readInput(GenomeInput.open(inFile));
+                    } catch (IOException e) {
+                        throw new IOException(inFile + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            if (debug) System.err.println("Writing " + this.builder.size() + " genomes to " + this.cacheFile + ".");
+            this.builder.save(this.cacheFile);
+            if (debug) System.err.println("Cache built in " + (System.currentTimeMillis() - start) + " milliseconds.");
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Add the genomes from one input to the cache.  The first input's header determines the cached
+     * columns.
+     *
+     * @param inStream	input stream containing a header line and then genome records
+     *
+     * @throws IOException
+     */
+    private void readInput(InputStream inStream) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inStream, StandardCharsets.UTF_8),
+                1 << 20)) {
+            String header = reader.readLine();
+            if (header == null)
+                throw new IOException("Input file is empty.");
+            String[] headers = header.split("\t", -1);
+            int nCols = this.groupCols.size() + 1;
+            if (this.builder == null) {
+                // Resolve the column specifications to names.
+                this.colNames = new String[nCols];
+                this.colNames[0] = headers[TaxonomyProfileProcessor.findColumn(headers, this.taxCol)];
+                for (int i = 1; i < nCols; i++)
+                    this.colNames[i] = headers[TaxonomyProfileProcessor.findColumn(headers, this.groupCols.get(i - 1))];
+                String[] groupNames = new String[nCols - 1];
+                System.arraycopy(this.colNames, 1, groupNames, 0, nCols - 1);
+                this.builder = new GenomeCache.Builder(this.colNames[0], groupNames);
+            }
+            int[] colIdx = new int[nCols];
+            int maxCol = 0;
+            for (int i = 0; i < nCols; i++) {
+                colIdx[i] = TaxonomyProfileProcessor.findColumn(headers, this.colNames[i]);
+                maxCol = Math.max(maxCol, colIdx[i]);
+            }
+            String[] groups = new String[nCols - 1];
+            long linesRead = 1;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                linesRead++;
+                if (! line.isEmpty()) {
+                    // Split only as far as the last column needed.
+                    String[] fields = line.split("\t", maxCol + 2);
+                    if (fields.length <= maxCol)
+                        throw new IOException("Input line " + linesRead + " has too few columns.");
+                    int taxId;
+                    try {
+                        taxId = Integer.parseInt(fields[colIdx[0]]);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid taxonomic ID \"" + fields[colIdx[0]] + "\" in input line "
+                                + linesRead + ".");
+                    }
+                    for (int i = 1; i < nCols; i++)
+                        groups[i - 1] = fields[colIdx[i]];
+                    this.builder.add(taxId, groups);
+                    if (debug && linesRead % 1000000 == 0)
+                        System.err.println(linesRead + " records cached.");
+                }
+            }
+        }
+    }
+
+}
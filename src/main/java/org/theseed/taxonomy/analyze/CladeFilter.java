@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.util.List;
+
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This class filters genomes by clade.  It is built from a list of clades to include and a list of clades
+ * to exclude, each specified by the taxonomic ID of the clade's root.  A taxonomic ID is accepted if it is
+ * in at least one of the included clades (or there are none) and in none of the excluded clades.
+ *
+ * An ID that is not in the tree is in no clade, so it is rejected if there are included clades and
+ * accepted otherwise.  This insures the profile still counts it as invalid when only exclusions are used.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CladeFilter {
+
+    // FIELDS
+    /** taxonomy tree for the clades */
+    private TreeOfLife tree;
+    /** IDs of the clades to include */
+    private int[] includes;
+    /** IDs of the clades to exclude */
+    private int[] excludes;
+
+    /**
+     * Create a clade filter.
+     *
+     * @param tree		taxonomy tree for the clades
+     * @param includes	list of IDs for clades to include (empty to include everything)
+     * @param excludes	list of IDs for clades to exclude
+     *
+     * @throws IllegalArgumentException if one of the clades is not in the tree
+     */
+    public CladeFilter(TreeOfLife tree, List<Integer> includes, List<Integer> excludes) {
+        this.tree = tree;
+        this.includes = this.validate(includes);
+        this.excludes = this.validate(excludes);
+        // Build the tree index now, so the worker threads do not wait on it.
+        tree.buildLcaIndex();
+    }
+
+    /**
+     * @return an array of the clade IDs in a list, after verifying they are all in the tree
+     *
+     * @param clades	list of clade IDs
+     */
+    private int[] validate(List<Integer> clades) {
+        int[] retVal = new int[clades.size()];
+        for (int i = 0; i < retVal.length; i++) {
+            int cladeId = clades.get(i);
+            if (! this.tree.contains(cladeId))
+                throw new IllegalArgumentException("Clade " + cladeId + " is not in the taxonomy tree.");
+            retVal[i] = cladeId;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a taxonomic ID passes the filter
+     *
+     * @param taxId		taxonomic ID to check
+     */
+    public boolean accepts(int taxId) {
+        boolean retVal = (this.includes.length == 0);
+        for (int i = 0; i < this.includes.length && ! retVal; i++)
+            retVal = this.tree.isDescendant(taxId, this.includes[i]);
+        for (int i = 0; i < this.excludes.length && retVal; i++)
+            retVal = ! this.tree.isDescendant(taxId, this.excludes[i]);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+/**
+ * This class keeps running statistics for the diversity indices of a {@link TaxonomyCounter}.  For each
+ * rank, it tracks the total number of occurrences N, the sum of n log n and the sum of n squared over the
+ * count n of each grouping, and the number of groupings seen exactly once (singletons) or twice
+ * (doubletons).  These are updated whenever a grouping's count changes, so the Shannon, Simpson, and Chao1
+ * indices can be computed at any time without looking at the individual counts.
+ *
+ * The statistics are only meaningful for exact counts, since they depend on every grouping's true count.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DiversityStats {
+
+    // FIELDS
+    /** total number of occurrences at each rank */
+    private long[] totals;
+    /** sum of n log n at each rank */
+    private double[] sumNLogN;
+    /** sum of n squared at each rank */
+    private long[] sumSquares;
+    /** number of groupings with a count of 1 at each rank */
+    private int[] singletons;
+    /** number of groupings with a count of 2 at each rank */
+    private int[] doubletons;
+    /** precomputed values of n log n for small n */
+    private static final double[] N_LOG_N = new double[256];
+
+    static {
+        for (int n = 1; n < N_LOG_N.length; n++)
+            N_LOG_N[n] = n * Math.log(n);
+    }
+
+    /**
+     * Create empty statistics.
+     *
+     * @param nRanks	number of ranks to track
+     */
+    public DiversityStats(int nRanks) {
+        this.totals = new long[nRanks];
+        this.sumNLogN = new double[nRanks];
+        this.sumSquares = new long[nRanks];
+        this.singletons = new int[nRanks];
+        this.doubletons = new int[nRanks];
+    }
+
+    /**
+     * Record a change in the count of a grouping.
+     *
+     * @param rankIdx	index of the grouping's rank
+     * @param oldCount	count before the change
+     * @param newCount	count after the change
+     */
+    public void change(int rankIdx, int oldCount, int newCount) {
+        this.totals[rankIdx] += newCount - oldCount;
+        this.sumNLogN[rankIdx] += nLogN(newCount) - nLogN(oldCount);
+        this.sumSquares[rankIdx] += (long) newCount * newCount - (long) oldCount * oldCount;
+        if (oldCount == 1)
+            this.singletons[rankIdx]--;
+        else if (oldCount == 2)
+            this.doubletons[rankIdx]--;
+        if (newCount == 1)
+            this.singletons[rankIdx]++;
+        else if (newCount == 2)
+            this.doubletons[rankIdx]++;
+    }
+
+    /**
+     * @return n log n, or 0 if n is 0
+     *
+     * @param n		number of interest
+     */
+    private static double nLogN(int n) {
+        return (n < N_LOG_N.length ? N_LOG_N[n] : n * Math.log(n));
+    }
+
+    /**
+     * @return the Shannon index at a rank, using the natural logarithm, or 0 if there are no occurrences
+     *
+     * @param rankIdx	index of the rank of interest
+     */
+    public double shannon(int rankIdx) {
+        double retVal = 0.0;
+        long n = this.totals[rankIdx];
+        if (n > 0) {
+            retVal = Math.log(n) - this.sumNLogN[rankIdx] / n;
+            // Rounding can leave a tiny negative value for a single grouping.
+            if (retVal < 0.0) retVal = 0.0;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the Gini-Simpson index at a rank:  the probability that two occurrences drawn without
+     * 		   replacement belong to different groupings, or 0 if there are fewer than two occurrences
+     *
+     * @param rankIdx	index of the rank of interest
+     */
+    public double simpson(int rankIdx) {
+        double retVal = 0.0;
+        long n = this.totals[rankIdx];
+        if (n > 1)
+            retVal = 1.0 - (double) (this.sumSquares[rankIdx] - n) / ((double) n * (n - 1));
+        return retVal;
+    }
+
+    /**
+     * @return the bias-corrected Chao1 estimate of the number of groupings at a rank, including those
+     * 		   not yet seen
+     *
+     * @param rankIdx	index of the rank of interest
+     * @param observed	number of distinct groupings observed at the rank
+     */
+    public double chao1(int rankIdx, int observed) {
+        double f1 = this.singletons[rankIdx];
+        double f2 = this.doubletons[rankIdx];
+        return observed + f1 * (f1 - 1.0) / (2.0 * (f2 + 1.0));
+    }
+
+    /**
+     * @return the total number of occurrences at a rank
+     *
+     * @param rankIdx	index of the rank of interest
+     */
+    public long getTotal(int rankIdx) {
+        return this.totals[rankIdx];
+    }
+
+}
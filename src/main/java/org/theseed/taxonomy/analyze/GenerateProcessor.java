@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.theseed.taxonomy.SyntheticGenomes;
+import org.theseed.taxonomy.SyntheticTree;
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This command generates a synthetic taxonomy load file and, optionally, a matching genome input file for
+ * the profile command.  It is used to test and benchmark the taxonomy tools at realistic sizes without
+ * real NCBI data.  The same size, seed, and shape options always produce the same files.
+ *
+ * The positional parameter is the name of the taxonomy load file to create.
+ *
+ * The following command-line options are supported.
+ *
+ * -v	display progress on STDERR
+ *
+ * --size			approximate number of taxonomic groupings in the tree; the default is 2500000
+ * --seed			seed for the random number generator; the default is 42
+ * --fan-out		mean number of children per grouping; the default is computed from the size
+ * --no-rank		probability of inserting unranked groupings above a ranked grouping; the default is 0.1
+ * --no-rank-run	maximum number of consecutive unranked groupings; the default is 1
+ * --strain-levels	number of unranked strain levels below each species; the default is 1
+ * --hidden			probability that a grouping above the species level is hidden; the default is 0
+ * --density		fraction of the taxonomic ID space to use; the default is 0.82
+ *
+ * --genomes		if specified, the name of a genome input file to create
+ * --rows			number of genomes to write; the default is 1000000
+ * --groups			number of genome groups; the default is 10000
+ * --skew			Zipf exponent for the group sizes; the default is 1.1
+ * --invalid		fraction of genomes with taxonomic IDs not in the tree; the default is 0.001
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenerateProcessor {
+
+    // COMMAND LINE
+
+    /** help option */
+    @Option(name="-h", aliases={"--help"}, help=true)
+    private boolean help;
+
+    /** tracing display */
+    @Option(name="-v", aliases={"--debug", "verbose"}, usage="display progress messages on STDERR")
+    boolean debug;
+
+    /** approximate tree size */
+    @Option(name="--size", metaVar="2500000", usage="approximate number of taxonomic groupings")
+    int size;
+
+    /** random number seed */
+    @Option(name="--seed", metaVar="42", usage="seed for the random number generator")
+    long seed;
+
+    /** mean fan-out */
+    @Option(name="--fan-out", metaVar="4.5", usage="mean number of children per grouping (default computed from size)")
+    double fanOut;
+
+    /** unranked grouping probability */
+    @Option(name="--no-rank", metaVar="0.1", usage="probability of unranked groupings above a ranked grouping")
+    double noRankFraction;
+
+    /** maximum unranked run */
+    @Option(name="--no-rank-run", metaVar="1", usage="maximum number of consecutive unranked groupings")
+    int noRankRun;
+
+    /** number of strain levels */
+    @Option(name="--strain-levels", metaVar="1", usage="number of unranked strain levels below each species")
+    int strainLevels;
+
+    /** hidden grouping probability */
+    @Option(name="--hidden", metaVar="0.0", usage="probability that a grouping above the species level is hidden")
+    double hiddenFraction;
+
+    /** ID space density */
+    @Option(name="--density", metaVar="0.82", usage="fraction of the taxonomic ID space to use")
+    double idDensity;
+
+    /** genome output file */
+    @Option(name="--genomes", metaVar="genomes.tbl", usage="if specified, genome input file to create")
+    File genomeFile;
+
+    /** number of genomes */
+    @Option(name="--rows", metaVar="1000000", usage="number of genomes to write")
+    long rows;
+
+    /** number of groups */
+    @Option(name="--groups", metaVar="10000", usage="number of genome groups")
+    int groups;
+
+    /** group size skew */
+    @Option(name="--skew", metaVar="1.1", usage="Zipf exponent for the group sizes")
+    double skew;
+
+    /** invalid genome fraction */
+    @Option(name="--invalid", metaVar="0.001", usage="fraction of genomes with taxonomic IDs not in the tree")
+    double invalidFraction;
+
+    /** taxonomy output file */
+    @Argument(index=0, metaVar="taxonomy_file.dtx", usage="taxonomy load file to create", required=true)
+    File taxFile;
+
+    /** Parse the command line parameters and options. */
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        // Set the defaults.
+        this.help = false;
+        this.debug = false;
+        this.size = 2500000;
+        this.seed = 42;
+        this.fanOut = 0.0;
+        this.noRankFraction = 0.1;
+        this.noRankRun = 1;
+        this.strainLevels = 1;
+        this.hiddenFraction = 0.0;
+        this.idDensity = 0.82;
+        this.genomeFile = null;
+        this.rows = 1000000;
+        this.groups = 10000;
+        this.skew = 1.1;
+        this.invalidFraction = 0.001;
+        this.taxFile = null;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.size < 2)
+                throw UsageMessage.error(parser, "Tree size must be at least 2.");
+            if (this.rows < 0)
+                throw UsageMessage.error(parser, "Number of genomes cannot be negative.");
+            if (this.help) {
+                parser.printUsage(System.err);
+            } else {
+                retVal = true;
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+        }
+        return retVal;
+    }
+
+    public void run() {
+        try {
+            long start = System.currentTimeMillis();
+            SyntheticTree generator = this.createGenerator();
+            if (debug) System.err.println("Writing synthetic taxonomy tree to " + this.taxFile + ".");
+            generator.write(this.taxFile);
+            if (this.genomeFile != null) {
+                // Regenerating the tree from the same seed is faster than parsing the file we just wrote.
+                TreeOfLife tree = generator.build();
+                if (debug) System.err.println(tree.size() + " taxonomic groupings generated.  Writing " +
+                        this.rows + " genomes to " + this.genomeFile + ".");
+                SyntheticGenomes genomes = new SyntheticGenomes(tree, this.seed).setGroups(this.groups)
+                        .setSkew(this.skew).setInvalidFraction(this.invalidFraction);
+                genomes.write(this.genomeFile, this.rows);
+            }
+            if (debug) System.err.println("Generation complete in " + (System.currentTimeMillis() - start) +
+                    " milliseconds.");
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * @return a tree generator configured from the command-line options
+     */
+    private SyntheticTree createGenerator() {
+        return new SyntheticTree(this.size, this.seed).setNoRankFraction(this.noRankFraction)
+                .setNoRankRun(this.noRankRun).setStrainLevels(this.strainLevels)
+                .setHiddenFraction(this.hiddenFraction).setIdDensity(this.idDensity).setFanOut(this.fanOut);
+    }
+
+}
@@ -0,0 +1,357 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class is a columnar binary cache of a genome table.  It holds the taxonomic ID column as an array of
+ * integers, and any number of group ID columns, each dictionary-encoded as an array of integer codes with a
+ * table of the distinct group IDs.  A table that is profiled many times, with different group columns, can
+ * be converted once, and each profile run is then a loop over two integer columns with no text parsing.
+ *
+ * The cache file contains (0) a magic number, (1) the format version, (2) the number of rows N, (3) the
+ * number of group columns C, (4) the name of the taxonomic ID column, (5) for each group column, its name,
+ * the number of distinct group IDs, and the size in bytes of its dictionary, (6) padding to a multiple of
+ * four bytes, (7) N taxonomic IDs, (8) N group codes for each group column, and (9) the dictionary for each
+ * group column.  Each name and group ID is stored as a four-byte length followed by its UTF-8 bytes.
+ *
+ * On load, each integer column is memory-mapped separately, so the columns are not copied, and a column that
+ * is not used is never read.  The dictionaries are decoded the first time they are requested.  The header and
+ * the dictionaries are validated, but the group codes are not checked until they are counted, since that
+ * would mean reading every column at load time.
+ *
+ * Cache files are built with a {@link Builder}, which holds the columns in memory until the cache is saved.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeCache {
+
+    // FIELDS
+    /** cache file, for error messages */
+    private File cacheFile;
+    /** number of rows */
+    private int rows;
+    /** name of the taxonomic ID column */
+    private String taxColName;
+    /** names of the group columns */
+    private String[] groupColNames;
+    /** taxonomic ID column */
+    private IntBuffer taxIds;
+    /** code column for each group column */
+    private IntBuffer[] groupCodes;
+    /** mapped dictionary section for each group column */
+    private ByteBuffer[] dictBuffers;
+    /** number of group IDs in each dictionary */
+    private int[] dictSizes;
+    /** decoded dictionary for each group column, or NULL if it has not been decoded */
+    private String[][] dictionaries;
+    /** marker at the start of a cache file */
+    private static final int CACHE_MAGIC = 0x54474331;
+    /** version number of the cache file format */
+    private static final int CACHE_VERSION = 1;
+
+    /**
+     * This class accumulates the rows of a genome table and saves them to a cache file.
+     */
+    public static class Builder {
+
+        /** name of the taxonomic ID column */
+        private String taxColName;
+        /** names of the group columns */
+        private String[] groupColNames;
+        /** taxonomic ID column */
+        private int[] taxIds;
+        /** code column for each group column */
+        private int[][] groupCodes;
+        /** dictionary for each group column */
+        private GroupDictionary[] dictionaries;
+        /** number of rows */
+        private int rows;
+
+        /**
+         * Create a builder for a new cache.
+         *
+         * @param taxColName		name of the taxonomic ID column
+         * @param groupColNames		names of the group columns
+         */
+        public Builder(String taxColName, String[] groupColNames) {
+            int nCols = groupColNames.length;
+            this.taxColName = taxColName;
+            this.groupColNames = Arrays.copyOf(groupColNames, nCols);
+            this.taxIds = new int[1024];
+            this.groupCodes = new int[nCols][1024];
+            this.dictionaries = new GroupDictionary[nCols];
+            for (int i = 0; i < nCols; i++)
+                this.dictionaries[i] = new GroupDictionary();
+            this.rows = 0;
+        }
+
+        /**
+         * Add a row to the cache.
+         *
+         * @param taxId		taxonomic ID of the genome
+         * @param groups	group ID for each group column
+         */
+        public void add(int taxId, String[] groups) {
+            if (this.rows >= this.taxIds.length) {
+                int newLen = this.taxIds.length * 2;
+                this.taxIds = Arrays.copyOf(this.taxIds, newLen);
+                for (int i = 0; i < this.groupCodes.length; i++)
+                    this.groupCodes[i] = Arrays.copyOf(this.groupCodes[i], newLen);
+            }
+            this.taxIds[this.rows] = taxId;
+            for (int i = 0; i < this.groupCodes.length; i++)
+                this.groupCodes[i][this.rows] = this.dictionaries[i].intern(groups[i]);
+            this.rows++;
+        }
+
+        /**
+         * @return the number of rows added
+         */
+        public int size() {
+            return this.rows;
+        }
+
+        /**
+         * Write the cache to a file.
+         *
+         * @param cacheFile		file to receive the cache
+         *
+         * @throws IOException
+         */
+        public void save(File cacheFile) throws IOException {
+            int nCols = this.groupColNames.length;
+            // Encode the dictionaries first, since the header contains their sizes.
+            byte[][] dictBytes = new byte[nCols][];
+            for (int i = 0; i < nCols; i++) {
+                GroupDictionary dictionary = this.dictionaries[i];
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(dictionary.size() * 16);
+                DataOutputStream dictStream = new DataOutputStream(buffer);
+                for (int code = 0; code < dictionary.size(); code++)
+                    writeString(dictStream, dictionary.nameOf(code));
+                dictBytes[i] = buffer.toByteArray();
+            }
+            try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(cacheFile), 1 << 20))) {
+                outStream.writeInt(CACHE_MAGIC);
+                outStream.writeInt(CACHE_VERSION);
+                outStream.writeInt(this.rows);
+                outStream.writeInt(nCols);
+                writeString(outStream, this.taxColName);
+                for (int i = 0; i < nCols; i++) {
+                    writeString(outStream, this.groupColNames[i]);
+                    outStream.writeInt(this.dictionaries[i].size());
+                    outStream.writeInt(dictBytes[i].length);
+                }
+                // Align the integer columns.
+                while (outStream.size() % 4 != 0)
+                    outStream.writeByte(0);
+                for (int row = 0; row < this.rows; row++)
+                    outStream.writeInt(this.taxIds[row]);
+                for (int i = 0; i < nCols; i++) {
+                    int[] codes = this.groupCodes[i];
+                    for (int row = 0; row < this.rows; row++)
+                        outStream.writeInt(codes[row]);
+                }
+                for (int i = 0; i < nCols; i++)
+                    outStream.write(dictBytes[i]);
+            }
+        }
+
+    }
+
+    /**
+     * Write a string as a length followed by its UTF-8 bytes.
+     *
+     * @param outStream		output stream to receive the string
+     * @param string		string to write
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream outStream, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outStream.writeInt(bytes.length);
+        outStream.write(bytes);
+    }
+
+    /**
+     * @return a string read from a buffer as a length followed by its UTF-8 bytes
+     *
+     * @param buffer	buffer positioned at the start of the string
+     *
+     * @throws IOException
+     */
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int len = buffer.getInt();
+        if (len < 0 || len > buffer.remaining())
+            throw new IOException("Invalid string length in genome cache.");
+        byte[] bytes = new byte[len];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create an empty cache object.  Use {@link #load(File)} to read a cache file.
+     */
+    private GenomeCache() { }
+
+    /**
+     * Load a genome cache file.  The columns are memory-mapped, and are only read when they are used.
+     *
+     * @param cacheFile		cache file created by a {@link Builder}
+     *
+     * @return the genome cache
+     *
+     * @throws IOException
+     */
+    public static GenomeCache load(File cacheFile) throws IOException {
+        GenomeCache retVal = new GenomeCache();
+        retVal.cacheFile = cacheFile;
+        try (RandomAccessFile inFile = new RandomAccessFile(cacheFile, "r")) {
+            FileChannel channel = inFile.getChannel();
+            long fileSize = channel.size();
+            // The header is small, so it is read into the heap.
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(fileSize, 1 << 16));
+            channel.read(header, 0);
+            header.flip();
+            try {
+                if (header.getInt() != CACHE_MAGIC)
+                    throw new IOException(cacheFile + " is not a genome cache file.");
+                int version = header.getInt();
+                if (version != CACHE_VERSION)
+                    throw new IOException("Unsupported version " + version + " in genome cache " + cacheFile + ".");
+                retVal.rows = header.getInt();
+                int nCols = header.getInt();
+                if (retVal.rows < 0 || nCols < 0)
+                    throw new IOException("Invalid header in genome cache " + cacheFile + ".");
+                retVal.taxColName = readString(header);
+                retVal.groupColNames = new String[nCols];
+                retVal.dictSizes = new int[nCols];
+                int[] dictLens = new int[nCols];
+                for (int i = 0; i < nCols; i++) {
+                    retVal.groupColNames[i] = readString(header);
+                    retVal.dictSizes[i] = header.getInt();
+                    dictLens[i] = header.getInt();
+                    // Each group ID takes at least the four bytes of its length.
+                    if (retVal.dictSizes[i] < 0 || dictLens[i] < 0 || dictLens[i] / 4 < retVal.dictSizes[i])
+                        throw new IOException("Invalid dictionary size for column " + retVal.groupColNames[i]
+                                + " in genome cache " + cacheFile + ".");
+                }
+                // Compute the section offsets and verify the file is complete.
+                long columnLen = retVal.rows * 4L;
+                long pos = (header.position() + 3) & ~3L;
+                long dictPos = pos + columnLen * (nCols + 1);
+                long end = dictPos;
+                for (int i = 0; i < nCols; i++)
+                    end += dictLens[i];
+                if (end != fileSize)
+                    throw new IOException("Genome cache " + cacheFile + " is truncated or damaged.");
+                retVal.taxIds = channel.map(FileChannel.MapMode.READ_ONLY, pos, columnLen).asIntBuffer();
+                retVal.groupCodes = new IntBuffer[nCols];
+                retVal.dictBuffers = new ByteBuffer[nCols];
+                retVal.dictionaries = new String[nCols][];
+                for (int i = 0; i < nCols; i++) {
+                    pos += columnLen;
+                    retVal.groupCodes[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, columnLen).asIntBuffer();
+                    retVal.dictBuffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, dictPos, dictLens[i]);
+                    dictPos += dictLens[i];
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Genome cache " + cacheFile + " has an invalid header.");
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of rows in the cache
+     */
+    public int size() {
+        return this.rows;
+    }
+
+    /**
+     * @return the name of the taxonomic ID column
+     */
+    public String getTaxColName() {
+        return this.taxColName;
+    }
+
+    /**
+     * @return the names of the group columns
+     */
+    public String[] getGroupColNames() {
+        return Arrays.copyOf(this.groupColNames, this.groupColNames.length);
+    }
+
+    /**
+     * @return the index of a group column
+     *
+     * @param colSpec	name or 1-based index of the group column
+     *
+     * @throws IOException if the column is not in the cache
+     */
+    public int findGroupColumn(String colSpec) throws IOException {
+        return TaxonomyProfileProcessor.findColumn(this.groupColNames, colSpec);
+    }
+
+    /**
+     * @return the taxonomic ID column, as a buffer with its own position
+     */
+    public IntBuffer getTaxIds() {
+        return this.taxIds.duplicate();
+    }
+
+    /**
+     * @return the code column for a group column, as a buffer with its own position
+     *
+     * @param col	index of the group column
+     */
+    public IntBuffer getGroupCodes(int col) {
+        return this.groupCodes[col].duplicate();
+    }
+
+    /**
+     * @return the dictionary for a group column:  the group ID for each code
+     *
+     * @param col	index of the group column
+     *
+     * @throws IOException if the dictionary is damaged
+     */
+    public synchronized String[] getDictionary(int col) throws IOException {
+        String[] retVal = this.dictionaries[col];
+        if (retVal == null) {
+            ByteBuffer buffer = this.dictBuffers[col].duplicate();
+            retVal = new String[this.dictSizes[col]];
+            boolean damaged = false;
+            try {
+                for (int code = 0; code < retVal.length; code++)
+                    retVal[code] = readString(buffer);
+            } catch (IOException | BufferUnderflowException e) {
+                damaged = true;
+            }
+            // The group IDs must fill the dictionary section exactly.
+            if (damaged || buffer.hasRemaining())
+                throw new IOException("Dictionary for column " + this.groupColNames[col] + " in genome cache "
+                        + this.cacheFile + " is damaged.");
+            this.dictionaries[col] = retVal;
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * This class opens genome input files.  The compression of each file is detected from its first bytes, so
+ * gzip-compressed and Zstandard-compressed shards can be read directly, without piping them through an
+ * external decompressor.
+ *
+ * The input files can be specified as a list of file names, each of which may also be a glob pattern in its
+ * last path component (for example, "exports/genomes.*.tbl.gz").  A pattern is expanded in name order, so
+ * the shards are read in a predictable order.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeInput {
+
+    /** size of the compressed-data buffer for a gzip file */
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+    /** number of bytes examined to detect the compression */
+    private static final int MAGIC_LEN = 4;
+    /** characters that mark a file name as a glob pattern */
+    private static final String GLOB_CHARS = "*?[{";
+
+    /**
+     * Expand a list of input file specifications into a list of files.
+     *
+     * @param specs		file names or glob patterns
+     *
+     * @return the list of input files, in the order specified, with each pattern's matches in name order
+     *
+     * @throws IOException if a file does not exist or a pattern matches nothing
+     */
+    public static List<File> expand(List<String> specs) throws IOException {
+        List<File> retVal = new ArrayList<File>(specs.size());
+        for (String spec : specs) {
+            File file = new File(spec);
+            if (file.exists() && ! file.isDirectory()) {
+                retVal.add(file);
+            } else if (! isGlob(file.getName())) {
+                throw new IOException("Input file " + spec + " not found.");
+            } else {
+                File dir = file.getAbsoluteFile().getParentFile();
+                List<File> matches = new ArrayList<File>();
+                try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir.toPath(), file.getName())) {
+                    for (Path path : paths) {
+                        if (Files.isRegularFile(path))
+                            matches.add(new File(file.getParentFile(), path.getFileName().toString()));
+                    }
+                }
+                if (matches.isEmpty())
+                    throw new IOException("No input files match " + spec + ".");
+                Collections.sort(matches);
+                retVal.addAll(matches);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a file name is a glob pattern
+     *
+     * @param name	file name to check
+     */
+    private static boolean isGlob(String name) {
+        boolean retVal = false;
+        for (int i = 0; i < name.length() && ! retVal; i++)
+            retVal = (GLOB_CHARS.indexOf(name.charAt(i)) >= 0);
+        return retVal;
+    }
+
+    /**
+     * Open an input file, decompressing it if necessary.
+     *
+     * @param inFile	file to open
+     *
+     * @return a stream of the uncompressed data
+     *
+     * @throws IOException
+     */
+    public static InputStream open(File inFile) throws IOException {
+        InputStream raw = new FileInputStream(inFile);
+        InputStream retVal;
+        try {
+            retVal = wrap(raw, inFile.toString());
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+        return retVal;
+    }
+
+    /**
+     * Wrap a raw input stream so that it is decompressed if necessary.
+     *
+     * @param raw		input stream, which may be compressed
+     * @param label		name of the input, for error messages
+     *
+     * @return a stream of the uncompressed data
+     *
+     * @throws IOException
+     */
+    public static InputStream wrap(InputStream raw, String label) throws IOException {
+        PushbackInputStream inStream = new PushbackInputStream(raw, MAGIC_LEN);
+        byte[] magic = new byte[MAGIC_LEN];
+        int len = 0;
+        int n = 0;
+        while (n >= 0 && len < MAGIC_LEN) {
+            n = inStream.read(magic, len, MAGIC_LEN - len);
+            if (n > 0) len += n;
+        }
+        if (len > 0)
+            inStream.unread(magic, 0, len);
+        InputStream retVal = inStream;
+        if (len >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            retVal = new GZIPInputStream(inStream, GZIP_BUFFER_SIZE);
+        } else if (len >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5 && (magic[2] & 0xFF) == 0x2F
+                && (magic[3] & 0xFF) == 0xFD) {
+            retVal = new ZstdInputStream(inStream);
+        }
+        return retVal;
+    }
+
+}
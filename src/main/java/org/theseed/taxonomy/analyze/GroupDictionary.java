@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.util.Arrays;
+
+/**
+ * This class assigns dense integer IDs to group keys.  The first key seen is assigned 0, the next 1, and so
+ * on, so the IDs can be used to index arrays.  A key is found or added with a single probe sequence, and
+ * the key objects are kept only once, in an array indexed by ID.
+ *
+ * The table uses open addressing with linear probing on the keys' own hash codes, which strings cache.
+ * Keys interned by a {@link KeyTable} are the same objects each time, so they are usually matched by
+ * identity without comparing characters.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GroupDictionary {
+
+    // FIELDS
+    /** ID in each hash slot, or -1 for an empty slot */
+    private int[] slots;
+    /** key for each ID */
+    private String[] names;
+    /** number of keys */
+    private int size;
+
+    /**
+     * Create an empty dictionary.
+     */
+    public GroupDictionary() {
+        this.slots = new int[64];
+        Arrays.fill(this.slots, -1);
+        this.names = new String[32];
+        this.size = 0;
+    }
+
+    /**
+     * @return the ID for a key, adding the key if it is new
+     *
+     * @param key	key to find
+     */
+    public int intern(String key) {
+        int slot = this.slotOf(key);
+        int retVal = this.slots[slot];
+        if (retVal < 0) {
+            retVal = this.size++;
+            if (retVal >= this.names.length)
+                this.names = Arrays.copyOf(this.names, this.names.length * 2);
+            this.names[retVal] = key;
+            this.slots[slot] = retVal;
+            // Keep the load factor at or below one half.
+            if (this.size * 2 > this.slots.length)
+                this.rehash();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID for a key, or -1 if the key is not in the dictionary
+     *
+     * @param key	key to find
+     */
+    public int idOf(String key) {
+        return this.slots[this.slotOf(key)];
+    }
+
+    /**
+     * @return the key with the specified ID
+     *
+     * @param id	ID of the desired key
+     */
+    public String nameOf(int id) {
+        if (id < 0 || id >= this.size)
+            throw new IndexOutOfBoundsException("Invalid group ID " + id + ".");
+        return this.names[id];
+    }
+
+    /**
+     * @return the number of keys in the dictionary; this is also one more than the highest ID
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the hash slot containing a key, or the empty slot where it belongs
+     *
+     * @param key	key to find
+     */
+    private int slotOf(String key) {
+        int mask = this.slots.length - 1;
+        int retVal = TaxonCountMap.hash(key.hashCode()) & mask;
+        boolean found = false;
+        while (! found) {
+            int id = this.slots[retVal];
+            if (id < 0) {
+                found = true;
+            } else {
+                String name = this.names[id];
+                found = (name == key || name.equals(key));
+                if (! found)
+                    retVal = (retVal + 1) & mask;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Double the number of hash slots and reinsert the keys.
+     */
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        Arrays.fill(this.slots, -1);
+        int mask = this.slots.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int slot = TaxonCountMap.hash(this.names[id].hashCode()) & mask;
+            while (this.slots[slot] >= 0)
+                slot = (slot + 1) & mask;
+            this.slots[slot] = id;
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class sorts genome records by group ID using a bounded amount of memory.  Records are accumulated
+ * in memory until a specified number are present.  The records are then sorted and spilled to a temporary
+ * run file.  At the end, the runs are merged and the records are passed to a {@link StreamingProfiler} in
+ * group ID order.  If the input never fills memory, no temporary files are used.
+ *
+ * Each record in a run file consists of the group ID in modified UTF-8 followed by the taxonomic ID.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GroupSorter implements Closeable {
+
+    // FIELDS
+    /** maximum number of records to hold in memory */
+    private int limit;
+    /** directory for the temporary run files, or NULL for the default */
+    private File spillDir;
+    /** records in memory */
+    private Record[] records;
+    /** number of records in memory */
+    private int count;
+    /** list of run files */
+    private List<File> runs;
+    /** comparator for sorting records */
+    private static final Comparator<Record> BY_GROUP = new Comparator<Record>() {
+        @Override
+        public int compare(Record o1, Record o2) {
+            return o1.groupId.compareTo(o2.groupId);
+        }
+    };
+
+    /**
+     * This class holds a single genome record.
+     */
+    private static class Record {
+
+        /** group ID */
+        private String groupId;
+        /** taxonomic ID */
+        private int taxId;
+
+        /**
+         * Create a genome record.
+         *
+         * @param groupId	group ID
+         * @param taxId		taxonomic ID
+         */
+        private Record(String groupId, int taxId) {
+            this.groupId = groupId;
+            this.taxId = taxId;
+        }
+
+    }
+
+    /**
+     * This class reads the records from a run file during the merge.
+     */
+    private static class RunReader implements Closeable {
+
+        /** input stream for the run file */
+        private DataInputStream inStream;
+        /** current record, or NULL at end of file */
+        private Record current;
+
+        /**
+         * Open a run file and read its first record.
+         *
+         * @param runFile	run file to read
+         *
+         * @throws IOException
+         */
+        private RunReader(File runFile) throws IOException {
+            this.inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+            this.advance();
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @throws IOException
+         */
+        private void advance() throws IOException {
+            try {
+                String groupId = this.inStream.readUTF();
+                this.current = new Record(groupId, this.inStream.readInt());
+            } catch (EOFException e) {
+                this.current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.inStream.close();
+        }
+
+    }
+
+    /**
+     * Create a new group sorter.
+     *
+     * @param limit		maximum number of records to hold in memory
+     * @param spillDir	directory for temporary run files, or NULL to use the system default
+     */
+    public GroupSorter(int limit, File spillDir) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Sort memory limit must be at least 1 record.");
+        this.limit = limit;
+        this.spillDir = spillDir;
+        this.records = new Record[Math.min(limit, 1024)];
+        this.count = 0;
+        this.runs = new ArrayList<File>();
+    }
+
+    /**
+     * Add a record to the sort.
+     *
+     * @param groupId	group ID
+     * @param taxId		taxonomic ID
+     *
+     * @throws IOException
+     */
+    public void add(String groupId, int taxId) throws IOException {
+        if (this.count >= this.limit)
+            this.spill();
+        if (this.count >= this.records.length)
+            this.records = Arrays.copyOf(this.records, Math.min(this.limit, this.records.length * 2));
+        this.records[this.count++] = new Record(groupId, taxId);
+    }
+
+    /**
+     * Sort the records in memory and write them to a new run file.
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        Arrays.sort(this.records, 0, this.count, BY_GROUP);
+        File runFile = File.createTempFile("groups", ".run", this.spillDir);
+        runFile.deleteOnExit();
+        this.runs.add(runFile);
+        try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(runFile), 1 << 16))) {
+            for (int i = 0; i < this.count; i++) {
+                outStream.writeUTF(this.records[i].groupId);
+                outStream.writeInt(this.records[i].taxId);
+                this.records[i] = null;
+            }
+        }
+        this.count = 0;
+    }
+
+    /**
+     * @return the number of run files written
+     */
+    public int getRunCount() {
+        return this.runs.size();
+    }
+
+    /**
+     * Pass all the records to a streaming profiler in group ID order.
+     *
+     * @param profiler	profiler to receive the records
+     *
+     * @throws IOException
+     */
+    public void drain(StreamingProfiler profiler) throws IOException {
+        if (this.runs.isEmpty()) {
+            // Everything fits in memory.
+            Arrays.sort(this.records, 0, this.count, BY_GROUP);
+            for (int i = 0; i < this.count; i++)
+                profiler.register(this.records[i].groupId, this.records[i].taxId);
+            this.count = 0;
+        } else {
+            if (this.count > 0)
+                this.spill();
+            this.records = null;
+            PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(this.runs.size(),
+                    new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader o1, RunReader o2) {
+                    return BY_GROUP.compare(o1.current, o2.current);
+                }
+            });
+            List<RunReader> readers = new ArrayList<RunReader>(this.runs.size());
+            try {
+                for (File runFile : this.runs) {
+                    RunReader reader = new RunReader(runFile);
+                    readers.add(reader);
+                    if (reader.current != null)
+                        queue.add(reader);
+                }
+                while (! queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    profiler.register(reader.current.groupId, reader.current.taxId);
+                    reader.advance();
+                    if (reader.current != null)
+                        queue.add(reader);
+                }
+            } finally {
+                for (RunReader reader : readers)
+                    reader.close();
+            }
+        }
+    }
+
+    /**
+     * Delete the run files.
+     */
+    @Override
+    public void close() {
+        for (File runFile : this.runs)
+            runFile.delete();
+        this.runs.clear();
+    }
+
+}
@@ -0,0 +1,349 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This class is an approximate {@link TaxonTally} that estimates the number of distinct keys using the
+ * HyperLogLog algorithm.  Each key is hashed to 64 bits.  The high bits of the hash choose one of 2^p
+ * registers, and the register keeps the longest run of leading zeroes seen in the remaining bits.  The
+ * estimate has a relative standard error of about 1.04 / sqrt(2^p), and the registers take one byte each
+ * no matter how many keys are counted.
+ *
+ * Small tallies are kept exactly, in a set of the keys seen, until the set would take more memory than
+ * the registers.  Most groups in a profile are small, so most of them never pay for the registers and
+ * report exact distinct counts.
+ *
+ * By itself, this tally only counts distinct keys:  it cannot report the count of an individual key.  It
+ * can optionally wrap a second tally, such as a {@link SpaceSavingTally}, that answers the per-key queries.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class HyperLogLogTally implements TaxonTally {
+
+    // FIELDS
+    /** number of bits in the register index */
+    private int precision;
+    /** set of keys seen, or NULL if the registers are in use */
+    private TaxonCountMap sparse;
+    /** registers, or NULL if the exact key set is still in use */
+    private byte[] registers;
+    /** tally for the per-key queries, or NULL if there is none */
+    private TaxonTally inner;
+    /** type code for this kind of tally */
+    public static final int TALLY_TYPE = 2;
+    /** smallest permissible precision */
+    public static final int MIN_PRECISION = 4;
+    /** largest permissible precision */
+    public static final int MAX_PRECISION = 16;
+
+    /**
+     * Create a new, empty tally.
+     *
+     * @param precision		number of bits in the register index, from {@link #MIN_PRECISION} to
+     * 						{@link #MAX_PRECISION}
+     * @param inner			tally for the per-key queries, or NULL if only distinct counts are needed
+     */
+    public HyperLogLogTally(int precision, TaxonTally inner) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Invalid HyperLogLog precision " + precision + ".");
+        this.precision = precision;
+        this.sparse = new TaxonCountMap();
+        this.registers = null;
+        this.inner = inner;
+    }
+
+    /**
+     * @return the smallest precision whose relative standard error does not exceed a given bound
+     *
+     * @param error		desired relative standard error, between 0 and 1
+     */
+    public static int precisionFor(double error) {
+        if (error <= 0.0 || error >= 1.0)
+            throw new IllegalArgumentException("Error bound must be between 0 and 1.");
+        double registers = Math.pow(1.04 / error, 2);
+        int retVal = MIN_PRECISION;
+        while (retVal < MAX_PRECISION && (1 << retVal) < registers)
+            retVal++;
+        return retVal;
+    }
+
+    /**
+     * @return a factory for tallies of the specified precision
+     *
+     * @param precision		number of bits in the register index
+     * @param inner			factory for the per-key tallies, or NULL if only distinct counts are needed
+     */
+    public static TallyFactory factory(final int precision, final TallyFactory inner) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Invalid HyperLogLog precision " + precision + ".");
+        return new TallyFactory() {
+            @Override
+            public TaxonTally create() {
+                return new HyperLogLogTally(precision, (inner == null ? null : inner.create()));
+            }
+        };
+    }
+
+    @Override
+    public int count(int key) {
+        return this.count(key, 1);
+    }
+
+    @Override
+    public int count(int key, int num) {
+        if (key < 0)
+            throw new IllegalArgumentException("Invalid negative taxonomic ID " + key + ".");
+        this.add(key);
+        return (this.inner == null ? 0 : this.inner.count(key, num));
+    }
+
+    /**
+     * Record the presence of a key in the distinct count.
+     *
+     * @param key	key to record
+     */
+    private void add(int key) {
+        if (this.registers == null) {
+            this.sparse.count(key);
+            // Switch to the registers once the key set would be bigger.  Each key in the set costs about
+            // sixteen bytes, and each register costs one.
+            if (this.sparse.size() > (1 << this.precision) / 16)
+                this.densify();
+        } else {
+            long hash = mix(key);
+            int idx = (int) (hash >>> (64 - this.precision));
+            // The sentinel bit limits the run to the bits below the index.
+            int rho = Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1))) + 1;
+            if (rho > this.registers[idx])
+                this.registers[idx] = (byte) rho;
+        }
+    }
+
+    /**
+     * Convert the exact key set to registers.
+     */
+    private void densify() {
+        int[] keys = this.sparse.keys();
+        this.sparse = null;
+        this.registers = new byte[1 << this.precision];
+        for (int key : keys)
+            this.add(key);
+    }
+
+    /**
+     * @return a well-mixed 64-bit hash of a key
+     *
+     * @param key	key to hash
+     */
+    private static long mix(int key) {
+        // This is the finalizer from SplitMix64.
+        long z = key + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Occurrences cannot be removed from an approximate tally.
+     */
+    @Override
+    public int uncount(int key) {
+        throw new UnsupportedOperationException("Cannot remove occurrences from an approximate tally.");
+    }
+
+    /**
+     * Merge another tally into this one.  The other tally can be exact, in which case all its keys are
+     * added, or another HyperLogLog tally with the same precision, in which case the registers are
+     * combined.  If this tally has a per-key tally, the other one must have a compatible one.
+     */
+    @Override
+    public void merge(TaxonTally other) {
+        this.checkMerge(other);
+        TaxonTally otherInner;
+        if (other.isExact()) {
+            for (int key : other.keys())
+                this.add(key);
+            otherInner = other;
+        } else {
+            HyperLogLogTally otherTally = (HyperLogLogTally) other;
+            if (otherTally.registers == null) {
+                for (int key : otherTally.sparse.keys())
+                    this.add(key);
+            } else {
+                if (this.registers == null)
+                    this.densify();
+                for (int i = 0; i < this.registers.length; i++) {
+                    if (otherTally.registers[i] > this.registers[i])
+                        this.registers[i] = otherTally.registers[i];
+                }
+            }
+            otherInner = otherTally.inner;
+        }
+        if (this.inner != null)
+            this.inner.merge(otherInner);
+    }
+
+    @Override
+    public void checkMerge(TaxonTally other) {
+        TaxonTally otherInner;
+        if (other.isExact()) {
+            otherInner = other;
+        } else if (other instanceof HyperLogLogTally) {
+            HyperLogLogTally otherTally = (HyperLogLogTally) other;
+            if (otherTally.precision != this.precision)
+                throw new IllegalArgumentException("Cannot merge HyperLogLog tallies of different precisions.");
+            otherInner = otherTally.inner;
+        } else {
+            throw new IllegalArgumentException("Cannot merge this type of tally into a HyperLogLog tally.");
+        }
+        if (this.inner != null) {
+            if (otherInner == null)
+                throw new IllegalArgumentException("Cannot merge a distinct-only tally into a tally with key counts.");
+            this.inner.checkMerge(otherInner);
+        }
+    }
+
+    /**
+     * @return the count (or estimated count) for a key from the per-key tally, or 0 if there is none
+     */
+    @Override
+    public int getCount(int key) {
+        return (this.inner == null ? 0 : this.inner.getCount(key));
+    }
+
+    /**
+     * @return the number of distinct keys counted; this is exact until the registers are in use
+     */
+    @Override
+    public int size() {
+        int retVal;
+        if (this.registers == null)
+            retVal = this.sparse.size();
+        else
+            retVal = (int) Math.round(this.estimate());
+        return retVal;
+    }
+
+    /**
+     * @return the HyperLogLog estimate of the number of distinct keys
+     */
+    private double estimate() {
+        int m = this.registers.length;
+        double sum = 0.0;
+        int zeroes = 0;
+        for (byte reg : this.registers) {
+            sum += 1.0 / (1L << reg);
+            if (reg == 0) zeroes++;
+        }
+        double alpha;
+        switch (m) {
+        case 16 :
+            alpha = 0.673;
+            break;
+        case 32 :
+            alpha = 0.697;
+            break;
+        case 64 :
+            alpha = 0.709;
+            break;
+        default :
+            alpha = 0.7213 / (1.0 + 1.079 / m);
+        }
+        double retVal = alpha * m * m / sum;
+        // For small cardinalities, linear counting on the empty registers is more accurate.
+        if (retVal <= 2.5 * m && zeroes > 0)
+            retVal = m * Math.log((double) m / zeroes);
+        return retVal;
+    }
+
+    /**
+     * @return the keys tracked by the per-key tally, or an empty array if there is none
+     */
+    @Override
+    public int[] keys() {
+        return (this.inner == null ? new int[0] : this.inner.keys());
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public int getTallyType() {
+        return TALLY_TYPE;
+    }
+
+    /**
+     * @return the number of bits in the register index
+     */
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * @return TRUE if the distinct count is still exact
+     */
+    public boolean isSparse() {
+        return this.registers == null;
+    }
+
+    /**
+     * Write this tally to a binary output stream.  The tally is written as the precision and a flag
+     * indicating whether the exact key set or the registers follow.  The per-key tally, if any, comes next,
+     * preceded by its type code; otherwise, there is a type code of -1.
+     *
+     * @param outStream		output stream to receive the tally
+     *
+     * @throws IOException
+     */
+    @Override
+    public void write(DataOutputStream outStream) throws IOException {
+        outStream.writeByte(this.precision);
+        if (this.registers == null) {
+            outStream.writeBoolean(false);
+            this.sparse.write(outStream);
+        } else {
+            outStream.writeBoolean(true);
+            outStream.write(this.registers);
+        }
+        if (this.inner == null) {
+            outStream.writeByte(-1);
+        } else {
+            outStream.writeByte(this.inner.getTallyType());
+            this.inner.write(outStream);
+        }
+    }
+
+    /**
+     * Read a tally written by {@link #write(DataOutputStream)}.
+     *
+     * @param inStream		input stream containing the tally
+     *
+     * @return the tally read
+     *
+     * @throws IOException
+     */
+    public static HyperLogLogTally read(DataInputStream inStream) throws IOException {
+        int precision = inStream.readByte();
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IOException("Invalid HyperLogLog precision " + precision + " in partial file.");
+        HyperLogLogTally retVal = new HyperLogLogTally(precision, null);
+        if (! inStream.readBoolean()) {
+            retVal.sparse.read(inStream);
+        } else {
+            retVal.sparse = null;
+            retVal.registers = new byte[1 << precision];
+            inStream.readFully(retVal.registers);
+        }
+        retVal.inner = TaxonomyCounter.readTally(inStream);
+        return retVal;
+    }
+
+}
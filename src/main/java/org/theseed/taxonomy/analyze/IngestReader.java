@@ -0,0 +1,454 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class reads genome records from tab-delimited input without creating objects for each line.  The
+ * input is scanned directly in a large byte buffer.  Only the group ID and taxonomic ID columns are
+ * located, the taxonomic ID is parsed straight from the bytes, and the group ID is looked up in a
+ * {@link KeyTable}, which only builds a string the first time a group is seen.
+ *
+ * The reader can process a stream, in which case the first line is a header used to find the columns, or
+ * a single chunk of whole lines without a header.  The chunks are produced by {@link #readChunk(int)} on
+ * a stream reader, so that a single thread can read the input while other threads parse it.
+ *
+ * The group ID column is optional.  A reader without one can still be used to pass each line through
+ * unchanged with {@link #writeLine(OutputStream)}, which is how the annotate command uses it.
+ *
+ * A reader that interns its group IDs keeps every distinct group ID in memory.  When the input is read one
+ * group at a time, interning can be turned off with {@link #setInterning(boolean)}.  The reader then keeps
+ * only the current group ID, and builds a new string only when the group ID bytes change, so memory does
+ * not grow with the number of groups.
+ *
+ * Lines may end with a carriage return, which is ignored.  Blank lines are skipped.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class IngestReader implements Closeable {
+
+    // FIELDS
+    /** input stream, or NULL if the reader is processing a single chunk */
+    private InputStream inStream;
+    /** input buffer */
+    private byte[] buffer;
+    /** position of the next unprocessed byte in the buffer */
+    private int pos;
+    /** position past the last valid byte in the buffer */
+    private int limit;
+    /** TRUE if the input stream is exhausted */
+    private boolean eof;
+    /** header line, or NULL if the reader is processing a single chunk */
+    private String header;
+    /** index of the group ID column, or -1 if there is none */
+    private int groupColIdx;
+    /** index of the taxonomic ID column */
+    private int taxColIdx;
+    /** index of the last column needed */
+    private int maxCol;
+    /** table of interned group IDs, or NULL if group IDs are not interned */
+    private KeyTable keys;
+    /** most recent group ID returned when group IDs are not interned, or NULL if there is none */
+    private String lastGroup;
+    /** UTF-8 bytes of the most recent group ID returned when group IDs are not interned */
+    private byte[] lastGroupBytes;
+    /** number of lines read, including the header */
+    private long linesRead;
+    /** start of the current group ID in the buffer */
+    private int groupStart;
+    /** length of the current group ID */
+    private int groupLen;
+    /** taxonomic ID of the current record */
+    private int taxId;
+    /** start of the current line in the buffer */
+    private int lineStart;
+    /** position past the last data byte of the current line */
+    private int lineEnd;
+    /** default buffer size */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Open a reader on a stream.  The header line is read to find the columns.
+     *
+     * @param inStream	input stream containing a header line and then genome records
+     * @param groupCol	name or 1-based index of the group ID column, or NULL if there is none
+     * @param taxCol	name or 1-based index of the taxonomic ID column
+     *
+     * @throws IOException
+     */
+    public IngestReader(InputStream inStream, String groupCol, String taxCol) throws IOException {
+        this.inStream = inStream;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.pos = 0;
+        this.limit = 0;
+        this.eof = false;
+        this.keys = new KeyTable();
+        this.lastGroup = null;
+        this.lastGroupBytes = null;
+        this.linesRead = 0;
+        int end = this.findLineEnd(0);
+        if (end < 0)
+            throw new IOException("Input file is empty.");
+        int len = end - this.pos;
+        if (len > 0 && this.buffer[end - 1] == '\r') len--;
+        this.header = new String(this.buffer, this.pos, len, StandardCharsets.UTF_8);
+        this.pos = end + 1;
+        this.linesRead++;
+        String[] headers = this.header.split("\t", -1);
+        this.setColumns((groupCol == null ? -1 : TaxonomyProfileProcessor.findColumn(headers, groupCol)),
+                TaxonomyProfileProcessor.findColumn(headers, taxCol));
+    }
+
+    /**
+     * Open a reader on a stream that has no group ID column.  The header line is read to find the
+     * taxonomic ID column.
+     *
+     * @param inStream	input stream containing a header line and then genome records
+     * @param taxCol	name or 1-based index of the taxonomic ID column
+     *
+     * @throws IOException
+     */
+    public IngestReader(InputStream inStream, String taxCol) throws IOException {
+        this(inStream, null, taxCol);
+    }
+
+    /**
+     * Create a reader for a single chunk of whole lines with no header.
+     *
+     * @param chunk			buffer containing the lines
+     * @param len			number of bytes in the chunk
+     * @param groupColIdx	index of the group ID column, or -1 if there is none
+     * @param taxColIdx		index of the taxonomic ID column
+     * @param keys			table for interning the group IDs
+     * @param linesBefore	number of input lines preceding the chunk, for error messages
+     */
+    public IngestReader(byte[] chunk, int len, int groupColIdx, int taxColIdx, KeyTable keys, long linesBefore) {
+        this.inStream = null;
+        this.header = null;
+        this.buffer = chunk;
+        this.pos = 0;
+        this.limit = len;
+        this.eof = true;
+        this.keys = keys;
+        this.lastGroup = null;
+        this.lastGroupBytes = null;
+        this.linesRead = linesBefore;
+        this.setColumns(groupColIdx, taxColIdx);
+    }
+
+    /**
+     * Specify the columns to extract.
+     *
+     * @param groupColIdx	index of the group ID column
+     * @param taxColIdx		index of the taxonomic ID column
+     */
+    private void setColumns(int groupColIdx, int taxColIdx) {
+        this.groupColIdx = groupColIdx;
+        this.taxColIdx = taxColIdx;
+        this.maxCol = Math.max(groupColIdx, taxColIdx);
+    }
+
+    /**
+     * Advance to the next genome record.
+     *
+     * @return TRUE if a record was found, FALSE at end of input
+     *
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        boolean retVal = false;
+        int end = this.findLineEnd(0);
+        while (! retVal && end >= 0) {
+            int lineEnd = end;
+            if (lineEnd > this.pos && this.buffer[lineEnd - 1] == '\r') lineEnd--;
+            this.linesRead++;
+            if (lineEnd > this.pos) {
+                this.parseLine(lineEnd);
+                retVal = true;
+            }
+            this.pos = end + 1;
+            if (! retVal)
+                end = this.findLineEnd(0);
+        }
+        return retVal;
+    }
+
+    /**
+     * Locate the needed columns in the current line and parse the taxonomic ID.
+     *
+     * @param lineEnd	position past the last byte of the line's data
+     *
+     * @throws IOException
+     */
+    private void parseLine(int lineEnd) throws IOException {
+        int col = 0;
+        int colStart = this.pos;
+        boolean taxFound = false;
+        boolean groupFound = (this.groupColIdx < 0);
+        this.lineStart = this.pos;
+        this.lineEnd = lineEnd;
+        for (int i = this.pos; i <= lineEnd && col <= this.maxCol; i++) {
+            if (i == lineEnd || this.buffer[i] == '\t') {
+                if (col == this.groupColIdx) {
+                    this.groupStart = colStart;
+                    this.groupLen = i - colStart;
+                    groupFound = true;
+                }
+                if (col == this.taxColIdx) {
+                    this.taxId = this.parseInt(colStart, i);
+                    taxFound = true;
+                }
+                col++;
+                colStart = i + 1;
+            }
+        }
+        if (! taxFound || ! groupFound)
+            throw new IOException("Input line " + this.linesRead + " has too few columns.");
+    }
+
+    /**
+     * @return the integer in a range of the buffer
+     *
+     * @param start		position of the first byte
+     * @param end		position past the last byte
+     *
+     * @throws IOException if the range does not contain a valid integer
+     */
+    private int parseInt(int start, int end) throws IOException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (this.buffer[i] == '-' || this.buffer[i] == '+')) {
+            negative = (this.buffer[i] == '-');
+            i++;
+        }
+        boolean valid = (i < end);
+        // Accumulate as a negative number, so that the full range fits.
+        long value = 0;
+        for (; i < end && valid; i++) {
+            int digit = this.buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                valid = false;
+            } else {
+                value = value * 10 - digit;
+                valid = (value >= Integer.MIN_VALUE);
+            }
+        }
+        if (valid && ! negative) {
+            value = -value;
+            valid = (value <= Integer.MAX_VALUE);
+        }
+        if (! valid)
+            throw new IOException("Invalid taxonomic ID \"" + new String(this.buffer, start, end - start,
+                    StandardCharsets.UTF_8) + "\" in input line " + this.linesRead + ".");
+        return (int) value;
+    }
+
+    /**
+     * Find the end of the next line, refilling the buffer if necessary.  A final line without a
+     * terminator is given one.  The unprocessed data is never discarded, but it may be moved, so the
+     * caller must use the positions relative to {@link #pos}.
+     *
+     * @param from	number of bytes after the current position at which to start searching
+     *
+     * @return the position of the line's terminating new-line, or -1 at end of input
+     *
+     * @throws IOException
+     */
+    private int findLineEnd(int from) throws IOException {
+        int retVal = -1;
+        int scan = this.pos + from;
+        boolean done = false;
+        while (! done) {
+            while (scan < this.limit && this.buffer[scan] != '\n')
+                scan++;
+            if (scan < this.limit) {
+                retVal = scan;
+                done = true;
+            } else if (this.eof) {
+                if (scan > this.pos + from) {
+                    // Terminate the last line.
+                    if (this.limit == this.buffer.length)
+                        this.makeRoom();
+                    retVal = this.limit;
+                    this.buffer[this.limit++] = '\n';
+                }
+                done = true;
+            } else {
+                int offset = scan - this.pos;
+                this.fill();
+                scan = this.pos + offset;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Read more data into the buffer.
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        if (this.limit == this.buffer.length)
+            this.makeRoom();
+        int n = this.inStream.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        if (n < 0)
+            this.eof = true;
+        else
+            this.limit += n;
+    }
+
+    /**
+     * Make room at the end of a full buffer.  The unprocessed data is moved to the front, or if the whole
+     * buffer is unprocessed, the buffer is doubled in size.
+     */
+    private void makeRoom() {
+        int remaining = this.limit - this.pos;
+        if (this.pos > 0) {
+            System.arraycopy(this.buffer, this.pos, this.buffer, 0, remaining);
+        } else {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        this.pos = 0;
+        this.limit = remaining;
+    }
+
+    /**
+     * Read a chunk of whole lines from the stream.  The chunk is at least the target size, unless the end
+     * of the input is reached, but it may be larger to complete the last line.
+     *
+     * @param target	desired number of bytes in the chunk
+     *
+     * @return a buffer containing the lines read (trimmed to size), or NULL at end of input
+     *
+     * @throws IOException
+     */
+    public byte[] readChunk(int target) throws IOException {
+        byte[] retVal = null;
+        int chunkLen = 0;
+        boolean done = false;
+        while (! done) {
+            int end = this.findLineEnd(chunkLen);
+            if (end < 0) {
+                done = true;
+            } else {
+                chunkLen = end + 1 - this.pos;
+                this.linesRead++;
+                done = (chunkLen >= target);
+            }
+        }
+        if (chunkLen > 0) {
+            retVal = Arrays.copyOfRange(this.buffer, this.pos, this.pos + chunkLen);
+            this.pos += chunkLen;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the taxonomic ID of the current record
+     */
+    public int getTaxId() {
+        return this.taxId;
+    }
+
+    /**
+     * @return the group ID of the current record
+     */
+    public String getGroup() {
+        String retVal;
+        if (this.keys != null) {
+            retVal = this.keys.intern(this.buffer, this.groupStart, this.groupLen);
+        } else {
+            if (this.lastGroup == null || ! this.sameAsLastGroup()) {
+                this.lastGroupBytes = Arrays.copyOfRange(this.buffer, this.groupStart, this.groupStart + this.groupLen);
+                this.lastGroup = new String(this.lastGroupBytes, StandardCharsets.UTF_8);
+            }
+            retVal = this.lastGroup;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the current group ID bytes are the same as those of the most recent group ID returned
+     */
+    private boolean sameAsLastGroup() {
+        byte[] last = this.lastGroupBytes;
+        boolean retVal = (last.length == this.groupLen);
+        for (int i = 0; retVal && i < last.length; i++)
+            retVal = (last[i] == this.buffer[this.groupStart + i]);
+        return retVal;
+    }
+
+    /**
+     * Specify whether group IDs should be interned.  If they are not, only the current group ID is kept,
+     * and consecutive records with the same group ID return the same string.  This should be used when the
+     * input is sorted by group ID, so that memory does not grow with the number of groups.  It can only be
+     * used on a stream reader, since chunk readers share a table with other readers.
+     *
+     * @param flag	TRUE to intern group IDs, FALSE to keep only the current one
+     */
+    public void setInterning(boolean flag) {
+        if (this.inStream == null)
+            throw new IllegalStateException("Cannot change the group ID interning of a chunk reader.");
+        if (! flag) {
+            this.keys = null;
+        } else if (this.keys == null) {
+            this.keys = new KeyTable();
+        }
+        this.lastGroup = null;
+        this.lastGroupBytes = null;
+    }
+
+    /**
+     * Write the data of the current line, without its terminator, to an output stream.
+     *
+     * @param out	output stream to receive the line
+     *
+     * @throws IOException
+     */
+    public void writeLine(OutputStream out) throws IOException {
+        out.write(this.buffer, this.lineStart, this.lineEnd - this.lineStart);
+    }
+
+    /**
+     * @return the header line, without its terminator, or NULL if the reader is processing a single chunk
+     */
+    public String getHeader() {
+        return this.header;
+    }
+
+    /**
+     * @return the number of lines read, including the header and blank lines
+     */
+    public long getLinesRead() {
+        return this.linesRead;
+    }
+
+    /**
+     * @return the index of the group ID column, or -1 if there is none
+     */
+    public int getGroupColIdx() {
+        return this.groupColIdx;
+    }
+
+    /**
+     * @return the index of the taxonomic ID column
+     */
+    public int getTaxColIdx() {
+        return this.taxColIdx;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.inStream != null)
+            this.inStream.close();
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class interns group keys found in raw input bytes.  A key is presented as a slice of a byte buffer,
+ * and the table returns the same String object every time the same bytes are presented.  A String is only
+ * built the first time a key is seen, so looking up a known key allocates nothing.
+ *
+ * The table uses open addressing with linear probing.  The key bytes are stored end to end in a single
+ * pool, so each key costs only its bytes plus a few array slots.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class KeyTable {
+
+    // FIELDS
+    /** entry number in each hash slot, or -1 for an empty slot */
+    private int[] slots;
+    /** hash code of each entry */
+    private int[] hashes;
+    /** offset of each entry's bytes in the pool */
+    private int[] offsets;
+    /** length of each entry's bytes */
+    private int[] lengths;
+    /** interned string for each entry */
+    private String[] strings;
+    /** pool of key bytes */
+    private byte[] pool;
+    /** number of bytes used in the pool */
+    private int poolUsed;
+    /** number of entries */
+    private int size;
+
+    /**
+     * Create an empty key table.
+     */
+    public KeyTable() {
+        this.slots = new int[64];
+        Arrays.fill(this.slots, -1);
+        this.hashes = new int[32];
+        this.offsets = new int[32];
+        this.lengths = new int[32];
+        this.strings = new String[32];
+        this.pool = new byte[1024];
+        this.poolUsed = 0;
+        this.size = 0;
+    }
+
+    /**
+     * @return the interned string for a key
+     *
+     * @param buffer	buffer containing the key bytes (UTF-8)
+     * @param start		offset of the first key byte
+     * @param len		number of key bytes
+     */
+    public String intern(byte[] buffer, int start, int len) {
+        int hash = hash(buffer, start, len);
+        int mask = this.slots.length - 1;
+        int slot = hash & mask;
+        String retVal = null;
+        while (retVal == null) {
+            int entry = this.slots[slot];
+            if (entry < 0) {
+                retVal = this.add(slot, hash, buffer, start, len);
+            } else if (this.hashes[entry] == hash && this.matches(entry, buffer, start, len)) {
+                retVal = this.strings[entry];
+            } else {
+                slot = (slot + 1) & mask;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if an entry's bytes match a key
+     *
+     * @param entry		entry number
+     * @param buffer	buffer containing the key bytes
+     * @param start		offset of the first key byte
+     * @param len		number of key bytes
+     */
+    private boolean matches(int entry, byte[] buffer, int start, int len) {
+        boolean retVal = (this.lengths[entry] == len);
+        int offset = this.offsets[entry];
+        for (int i = 0; i < len && retVal; i++)
+            retVal = (this.pool[offset + i] == buffer[start + i]);
+        return retVal;
+    }
+
+    /**
+     * Add a new key to the table.
+     *
+     * @param slot		empty hash slot for the key
+     * @param hash		hash code of the key
+     * @param buffer	buffer containing the key bytes
+     * @param start		offset of the first key byte
+     * @param len		number of key bytes
+     *
+     * @return the interned string for the new key
+     */
+    private String add(int slot, int hash, byte[] buffer, int start, int len) {
+        int entry = this.size++;
+        if (entry >= this.strings.length) {
+            int newLen = this.strings.length * 2;
+            this.hashes = Arrays.copyOf(this.hashes, newLen);
+            this.offsets = Arrays.copyOf(this.offsets, newLen);
+            this.lengths = Arrays.copyOf(this.lengths, newLen);
+            this.strings = Arrays.copyOf(this.strings, newLen);
+        }
+        if (this.poolUsed + len > this.pool.length)
+            this.pool = Arrays.copyOf(this.pool, Math.max(this.pool.length * 2, this.poolUsed + len));
+        System.arraycopy(buffer, start, this.pool, this.poolUsed, len);
+        this.hashes[entry] = hash;
+        this.offsets[entry] = this.poolUsed;
+        this.lengths[entry] = len;
+        String retVal = new String(buffer, start, len, StandardCharsets.UTF_8);
+        this.strings[entry] = retVal;
+        this.poolUsed += len;
+        this.slots[slot] = entry;
+        // Keep the load factor at or below one half.
+        if (this.size * 2 > this.slots.length)
+            this.rehash();
+        return retVal;
+    }
+
+    /**
+     * Double the number of hash slots and reinsert the entries.
+     */
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        Arrays.fill(this.slots, -1);
+        int mask = this.slots.length - 1;
+        for (int entry = 0; entry < this.size; entry++) {
+            int slot = this.hashes[entry] & mask;
+            while (this.slots[slot] >= 0)
+                slot = (slot + 1) & mask;
+            this.slots[slot] = entry;
+        }
+    }
+
+    /**
+     * @return a hash code for a byte slice
+     *
+     * @param buffer	buffer containing the bytes
+     * @param start		offset of the first byte
+     * @param len		number of bytes
+     */
+    private static int hash(byte[] buffer, int start, int len) {
+        int retVal = 0;
+        for (int i = start; i < start + len; i++)
+            retVal = retVal * 31 + buffer[i];
+        // Spread the high bits into the low ones, since the slot is taken from the low bits.
+        return TaxonCountMap.hash(retVal);
+    }
+
+    /**
+     * @return the number of distinct keys in the table
+     */
+    public int size() {
+        return this.size;
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.theseed.taxonomy.Rank;
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This class appends lineage columns to genome records.  For each selected rank, a record gets the ID
+ * and/or the name of its taxonomic grouping's ancestor at that rank, taken from the tree's lineage index.
+ * If the grouping has no ancestor at a rank, or it is not in the tree, the columns for that rank are empty.
+ *
+ * The appended columns depend only on the taxonomic ID, so they are encoded once per ID and kept in a
+ * fixed-size cache.  Genome tables have far fewer distinct IDs than rows, so most records are annotated by
+ * copying one cached byte array.  The cache is direct-mapped, with each slot holding an immutable entry,
+ * so a single annotator can be shared by several threads without locking.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LineageAnnotator {
+
+    // FIELDS
+    /** tree containing the lineages */
+    private final TreeOfLife tree;
+    /** ranks to annotate, in order */
+    private final Rank[] ranks;
+    /** TRUE to include ancestor IDs */
+    private final boolean ids;
+    /** TRUE to include ancestor names */
+    private final boolean names;
+    /** cache of encoded column suffixes */
+    private final Entry[] cache;
+    /** mask for converting a taxonomic ID into a cache slot */
+    private final int cacheMask;
+    /** encoded column suffix for a grouping that is not in the tree */
+    private final byte[] emptySuffix;
+    /** default number of cache slots */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 18;
+
+    /**
+     * This class is an immutable cache entry.
+     */
+    private static class Entry {
+
+        /** taxonomic ID of the grouping */
+        private final int taxId;
+        /** encoded column suffix for the grouping */
+        private final byte[] suffix;
+
+        /**
+         * Create a cache entry.
+         *
+         * @param taxId		taxonomic ID of the grouping
+         * @param suffix	encoded column suffix
+         */
+        private Entry(int taxId, byte[] suffix) {
+            this.taxId = taxId;
+            this.suffix = suffix;
+        }
+
+    }
+
+    /**
+     * Create an annotator.  The tree's lineage index is built if it does not already exist.
+     *
+     * @param tree		tree containing the lineages
+     * @param ranks		set of good ranks to annotate
+     * @param ids		TRUE to include the ancestor IDs
+     * @param names		TRUE to include the ancestor names
+     */
+    public LineageAnnotator(TreeOfLife tree, Set<Rank> ranks, boolean ids, boolean names) {
+        this.tree = tree;
+        // The ranks are kept in enum order, which is the order from domain down to species.
+        this.ranks = new Rank[ranks.size()];
+        int n = 0;
+        for (Rank rank : Rank.values()) {
+            if (ranks.contains(rank)) {
+                if (rank == Rank.OTHER)
+                    throw new IllegalArgumentException("Cannot annotate unranked groupings.");
+                this.ranks[n++] = rank;
+            }
+        }
+        this.ids = ids;
+        this.names = names;
+        this.cache = new Entry[DEFAULT_CACHE_SIZE];
+        this.cacheMask = DEFAULT_CACHE_SIZE - 1;
+        this.emptySuffix = this.encode(null);
+        tree.buildLineageIndex();
+    }
+
+    /**
+     * @return the headers of the appended columns, each preceded by a tab
+     */
+    public String getHeaderSuffix() {
+        StringBuilder retVal = new StringBuilder(this.ranks.length * 24);
+        for (Rank rank : this.ranks) {
+            if (this.ids)
+                retVal.append('\t').append(rank).append("_id");
+            if (this.names)
+                retVal.append('\t').append(rank).append("_name");
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * @return the encoded columns to append for a taxonomic ID, each preceded by a tab
+     *
+     * @param taxId		taxonomic ID of the record
+     */
+    public byte[] suffix(int taxId) {
+        byte[] retVal;
+        int slot = TaxonCountMap.hash(taxId) & this.cacheMask;
+        Entry entry = this.cache[slot];
+        if (entry != null && entry.taxId == taxId) {
+            retVal = entry.suffix;
+        } else {
+            int[] lineage = new int[TreeOfLife.LINEAGE_WIDTH];
+            if (this.tree.getLineage(taxId, lineage))
+                retVal = this.encode(lineage);
+            else
+                retVal = this.emptySuffix;
+            this.cache[slot] = new Entry(taxId, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the encoded columns for a lineage
+     *
+     * @param lineage	ancestor ID at each good rank, or NULL if the grouping is not in the tree
+     */
+    private byte[] encode(int[] lineage) {
+        StringBuilder buffer = new StringBuilder(this.ranks.length * 24);
+        for (Rank rank : this.ranks) {
+            int ancestor = (lineage == null ? -1 : lineage[rank.ordinal()]);
+            if (this.ids) {
+                buffer.append('\t');
+                if (ancestor >= 0) buffer.append(ancestor);
+            }
+            if (this.names) {
+                buffer.append('\t');
+                if (ancestor >= 0) buffer.append(this.tree.find(ancestor).getName());
+            }
+        }
+        return buffer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Annotate a chunk of input lines.  Each non-blank line is copied to the output with the lineage
+     * columns appended and a new-line terminator.
+     *
+     * @param chunk			buffer containing whole input lines
+     * @param len			number of bytes in the chunk
+     * @param taxColIdx		index of the taxonomic ID column
+     * @param linesBefore	number of input lines preceding the chunk, for error messages
+     *
+     * @return the annotated lines
+     *
+     * @throws IOException
+     */
+    public byte[] annotate(byte[] chunk, int len, int taxColIdx, long linesBefore) throws IOException {
+        IngestReader reader = new IngestReader(chunk, len, -1, taxColIdx, null, linesBefore);
+        ByteArrayOutputStream retVal = new ByteArrayOutputStream(len + len / 2);
+        while (reader.next()) {
+            reader.writeLine(retVal);
+            byte[] suffix = this.suffix(reader.getTaxId());
+            retVal.write(suffix, 0, suffix.length);
+            retVal.write('\n');
+        }
+        return retVal.toByteArray();
+    }
+
+}
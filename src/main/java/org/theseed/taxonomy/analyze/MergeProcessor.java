@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This command merges partial profile files produced by the profile command into a single profile.  This
+ * allows the input to be split across several machines, with only the small partial files brought together
+ * at the end.
+ *
+ * The positional parameters are the name of the load file (or snapshot) for the taxonomy tree, followed by
+ * the names of the partial files to merge.  The standard output will contain the formatted report.
+ *
+ * The following command-line options are supported.
+ *
+ * -o	if specified, the name of a partial file to which the merged profiler state should be written instead
+ * 		of producing a report
+ * -v	display progress on STDERR
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MergeProcessor {
+
+    // FIELDS
+    /** main taxonomy tree */
+    TreeOfLife taxTree;
+    /** merged taxonomy profiler */
+    TaxonomyProfiler profiler;
+
+    // COMMAND LINE
+
+    /** help option */
+    @Option(name="-h", aliases={"--help"}, help=true)
+    private boolean help;
+
+    /** tracing display */
+    @Option(name="-v", aliases={"--debug", "verbose"}, usage="display progress messages on STDERR")
+    boolean debug;
+
+    /** partial output file */
+    @Option(name="-o", aliases={"--partial"}, metaVar="partial.ser", usage="save merged state to a partial file instead of writing a report")
+    File partialFile;
+
+    /** tree of life input file */
+    @Argument(index=0, metaVar="taxonomy_file.dtx", usage="file containing full taxonomy tree (load file or snapshot)", required=true)
+    File taxFile;
+
+    /** partial input files */
+    @Argument(index=1, metaVar="partial1 partial2 ...", usage="partial files to merge", required=true, multiValued=true)
+    List<File> inFiles;
+
+    /** Parse the command line parameters and options. */
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        // Set the defaults.
+        this.help = false;
+        this.debug = false;
+        this.partialFile = null;
+        this.taxFile = null;
+        this.inFiles = null;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.help) {
+                parser.printUsage(System.err);
+            } else {
+                // Read in the taxonomy file.
+                if (debug) System.err.println("Reading taxonomy tree from " + this.taxFile + ".");
+                this.taxTree = TreeOfLife.open(this.taxFile);
+                if (debug) System.err.println("Taxonomy tree read in " + this.taxTree.getLoadTime() +
+                        " milliseconds from " + this.taxTree.getLoadRows() + " records.");
+                retVal = true;
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        return retVal;
+    }
+
+    public void run() {
+        try {
+            // Nothing is removed here, so the partial files need not track their members.
+            this.profiler = new TaxonomyProfiler(this.taxTree, TallyFactory.EXACT, false);
+            for (File inFile : this.inFiles) {
+                if (debug) System.err.println("Merging partial file " + inFile + ".");
+                this.profiler.load(inFile);
+            }
+            if (debug) System.err.println(this.profiler.size() + " groups merged from " + this.inFiles.size() +
+                    " partial files.");
+            if (this.partialFile != null) {
+                if (debug) System.err.println("Writing partial profile to " + this.partialFile + ".");
+                this.profiler.save(this.partialFile);
+            } else {
+                ProfileReport report = new ProfileReport(System.out);
+                report.write(this.profiler);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+}
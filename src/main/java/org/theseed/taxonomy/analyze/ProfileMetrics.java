@@ -0,0 +1,334 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * This class collects performance metrics for a run of the profile command.  It keeps a wall-clock timer
+ * for each phase of the run, counts the input rows, and tracks the peak heap use.  The registration
+ * statistics come from the profiler's {@link RegisterStats}.
+ *
+ * The row counter is checked against a reporting interval, so that a progress line can be written while
+ * the input is being read.  Reading the clock on every row would be expensive, so the clock is only
+ * checked once every {@link #CHECK_ROWS} rows.
+ *
+ * At the end of the run, the metrics can be written to a JSON file.  The time inside the registrations is
+ * estimated from a sample.  When the registrations run on the same thread as another phase (ingest, or sort
+ * for an external sort), that time is taken out of the other phase, so the phases do not overlap.  With
+ * worker threads, the register time is the sum over all the workers, and the ingest phase is the
+ * wall-clock time to read and count the whole input.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ProfileMetrics {
+
+    /**
+     * This enumeration describes the timed phases of a run.
+     */
+    public static enum Phase {
+        LOAD("load"), INGEST("ingest"), REGISTER("register"), MERGE("merge"), SORT("sort"), REPORT("report");
+
+        /** label used in the output */
+        private String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return this.label;
+        }
+
+    }
+
+    // FIELDS
+    /** nanoseconds spent in each phase */
+    private long[] phaseNanos;
+    /** start time of each phase in progress, or 0 if it is not in progress */
+    private long[] phaseStarts;
+    /** start time of the run */
+    private long startNanos;
+    /** number of input rows read */
+    private long rows;
+    /** number of input rows rejected by the clade filter */
+    private long filtered;
+    /** registration statistics, or NULL if none have been provided */
+    private RegisterStats stats;
+    /** number of groups with counts */
+    private long groups;
+    /** number of distinct group IDs seen */
+    private long keys;
+    /** peak heap use observed, in bytes */
+    private long peakHeap;
+    /** interval between progress reports, in nanoseconds, or 0 for no reports */
+    private long intervalNanos;
+    /** time of the next progress report */
+    private long nextReport;
+    /** time of the last progress report */
+    private long lastReport;
+    /** number of rows read at the last progress report */
+    private long lastRows;
+    /** stream for progress reports */
+    private PrintStream progress;
+    /** number of rows between clock checks; must be a power of 2 */
+    public static final int CHECK_ROWS = 4096;
+    /** number of bytes in a megabyte */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    /**
+     * Create a metrics collector.  The run's clock starts immediately.
+     *
+     * @param intervalSeconds	number of seconds between progress reports, or 0 for no reports
+     * @param progress			stream for progress reports
+     */
+    public ProfileMetrics(int intervalSeconds, PrintStream progress) {
+        int nPhases = Phase.values().length;
+        this.phaseNanos = new long[nPhases];
+        this.phaseStarts = new long[nPhases];
+        this.startNanos = System.nanoTime();
+        this.rows = 0;
+        this.filtered = 0;
+        this.stats = null;
+        this.groups = 0;
+        this.keys = 0;
+        this.peakHeap = 0;
+        this.intervalNanos = intervalSeconds * 1000000000L;
+        this.nextReport = this.startNanos + this.intervalNanos;
+        this.lastReport = this.startNanos;
+        this.lastRows = 0;
+        this.progress = progress;
+        this.sampleHeap();
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @param phase		phase to start
+     */
+    public void start(Phase phase) {
+        this.phaseStarts[phase.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Stop timing a phase.  The heap use is sampled as well.
+     *
+     * @param phase		phase to stop
+     */
+    public void stop(Phase phase) {
+        int i = phase.ordinal();
+        if (this.phaseStarts[i] != 0) {
+            this.phaseNanos[i] += System.nanoTime() - this.phaseStarts[i];
+            this.phaseStarts[i] = 0;
+        }
+        this.sampleHeap();
+    }
+
+    /**
+     * Count an input row.
+     *
+     * @return TRUE if a progress report is due
+     */
+    public boolean countRow() {
+        this.rows++;
+        return ((this.rows & (CHECK_ROWS - 1)) == 0 && this.isReportDue());
+    }
+
+    /**
+     * Count a batch of input rows.
+     *
+     * @param n		number of rows read
+     *
+     * @return TRUE if a progress report is due
+     */
+    public boolean countRows(long n) {
+        this.rows += n;
+        return this.isReportDue();
+    }
+
+    /**
+     * Count input rows rejected by the clade filter.
+     *
+     * @param n		number of rows rejected
+     */
+    public void countFiltered(long n) {
+        this.filtered += n;
+    }
+
+    /**
+     * Correct the number of input rows read.  This is used when the rows are counted approximately during
+     * the run, for example by counting whole lines in multi-threaded mode.
+     *
+     * @param rows	number of input rows read
+     */
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return TRUE if a progress report is due
+     */
+    private boolean isReportDue() {
+        return (this.intervalNanos > 0 && System.nanoTime() >= this.nextReport);
+    }
+
+    /**
+     * Record the current state of the profiler.
+     *
+     * @param stats		registration statistics, or NULL if they are not available
+     * @param groups	number of groups with counts, or -1 if it is not available
+     * @param keys		number of distinct group IDs seen, or -1 if it is not available
+     */
+    public void update(RegisterStats stats, long groups, long keys) {
+        this.stats = stats;
+        this.groups = groups;
+        this.keys = keys;
+    }
+
+    /**
+     * Write a progress report.
+     */
+    public void report() {
+        long now = System.nanoTime();
+        this.sampleHeap();
+        double seconds = (now - this.startNanos) / 1e9;
+        double recentSeconds = (now - this.lastReport) / 1e9;
+        StringBuilder line = new StringBuilder(160);
+        line.append(String.format(Locale.ROOT, "%d rows in %.1f seconds, %.0f rows/second overall, %.0f recently",
+                this.rows, seconds, this.rowsPerSecond(this.rows, seconds),
+                this.rowsPerSecond(this.rows - this.lastRows, recentSeconds)));
+        if (this.groups >= 0)
+            line.append(", ").append(this.groups).append(" groups");
+        if (this.stats != null)
+            line.append(String.format(Locale.ROOT, ", %.3f%% invalid", this.getInvalidRate() * 100.0));
+        line.append(String.format(Locale.ROOT, ", heap %.1f MB.", this.usedHeap() / MEGABYTE));
+        this.progress.println(line);
+        this.lastReport = now;
+        this.lastRows = this.rows;
+        this.nextReport = now + this.intervalNanos;
+    }
+
+    /**
+     * @return a rate in rows per second, or 0 if no time has passed
+     *
+     * @param n			number of rows
+     * @param seconds	number of seconds
+     */
+    private double rowsPerSecond(long n, double seconds) {
+        return (seconds > 0.0 ? n / seconds : 0.0);
+    }
+
+    /**
+     * @return the fraction of registrations with invalid taxonomic IDs
+     */
+    public double getInvalidRate() {
+        double retVal = 0.0;
+        if (this.stats != null && this.stats.getRegistrations() > 0)
+            retVal = (double) this.stats.getInvalid() / this.stats.getRegistrations();
+        return retVal;
+    }
+
+    /**
+     * Record the time spent registering, as estimated from the registration statistics.
+     *
+     * @param outer		phase during which the registrations ran on the same thread, so that their time
+     * 					should be removed from it, or NULL if they ran on other threads
+     */
+    public void setRegisterTime(Phase outer) {
+        long nanos = (this.stats == null ? 0 : this.stats.getEstimatedNanos());
+        this.phaseNanos[Phase.REGISTER.ordinal()] = nanos;
+        if (outer != null) {
+            int i = outer.ordinal();
+            this.phaseNanos[i] = Math.max(0, this.phaseNanos[i] - nanos);
+        }
+    }
+
+    /**
+     * @return the number of heap bytes currently in use
+     */
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Update the peak heap use.
+     */
+    private void sampleHeap() {
+        long used = this.usedHeap();
+        if (used > this.peakHeap)
+            this.peakHeap = used;
+    }
+
+    /**
+     * @return the number of milliseconds spent in a phase
+     *
+     * @param phase		phase of interest
+     */
+    public double getPhaseMillis(Phase phase) {
+        return this.phaseNanos[phase.ordinal()] / 1e6;
+    }
+
+    /**
+     * @return the number of input rows read
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Write the metrics to a JSON file.
+     *
+     * @param outFile	file to receive the metrics
+     * @param threads	number of worker threads used
+     *
+     * @throws IOException
+     */
+    public void writeJson(File outFile, int threads) throws IOException {
+        this.sampleHeap();
+        double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+        long registrations = (this.stats == null ? 0 : this.stats.getRegistrations());
+        long invalid = (this.stats == null ? 0 : this.stats.getInvalid());
+        double updatesPerRegister = (registrations - invalid > 0 ?
+                (double) this.stats.getRankUpdates() / (registrations - invalid) : 0.0);
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(outFile),
+                StandardCharsets.UTF_8));
+        try {
+            writer.println("{");
+            writer.format(Locale.ROOT, "  \"elapsed_ms\": %.1f,%n", seconds * 1000.0);
+            writer.format(Locale.ROOT, "  \"threads\": %d,%n", threads);
+            writer.format(Locale.ROOT, "  \"rows\": %d,%n", this.rows);
+            writer.format(Locale.ROOT, "  \"rows_per_second\": %.1f,%n", this.rowsPerSecond(this.rows, seconds));
+            writer.format(Locale.ROOT, "  \"filtered\": %d,%n", this.filtered);
+            writer.format(Locale.ROOT, "  \"registrations\": %d,%n", registrations);
+            writer.format(Locale.ROOT, "  \"invalid\": %d,%n", invalid);
+            writer.format(Locale.ROOT, "  \"invalid_rate\": %.6f,%n", this.getInvalidRate());
+            writer.format(Locale.ROOT, "  \"rank_updates_per_register\": %.3f,%n", updatesPerRegister);
+            writer.format(Locale.ROOT, "  \"groups\": %d,%n", this.groups);
+            writer.format(Locale.ROOT, "  \"group_keys\": %d,%n", this.keys);
+            writer.format(Locale.ROOT, "  \"heap_peak_mb\": %.1f,%n", this.peakHeap / MEGABYTE);
+            writer.format(Locale.ROOT, "  \"heap_max_mb\": %.1f,%n", Runtime.getRuntime().maxMemory() / MEGABYTE);
+            writer.println("  \"phases_ms\": {");
+            Phase[] phases = Phase.values();
+            for (int i = 0; i < phases.length; i++) {
+                writer.format(Locale.ROOT, "    \"%s\": %.1f%s%n", phases[i], this.getPhaseMillis(phases[i]),
+                        (i < phases.length - 1 ? "," : ""));
+            }
+            writer.println("  }");
+            writer.println("}");
+        } finally {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.theseed.taxonomy.LineageRenderer;
+import org.theseed.taxonomy.Rank;
+
+/**
+ * This class writes the taxonomic profile report.  The report is tab-delimited, with a header line and
+ * one line per group.  For each group, it shows the number of members, the number of distinct families,
+ * genera, and species, and the number of members with invalid taxonomic IDs.  The last two columns
+ * are the ID of the group's lowest common ancestor (the smallest taxonomic grouping containing all
+ * the valid members) and the rank of that grouping.  If the common ancestor is unranked, the rank of its
+ * nearest ranked ancestor is shown instead, or "no rank" if there is none.  Both columns are empty if the
+ * group has no valid members.
+ *
+ * Optionally, the report can include a column listing the most frequent taxonomic groupings at a chosen
+ * rank.  Each entry is a taxonomic ID and a count separated by a colon, and the entries are separated by
+ * commas, from most frequent to least frequent.  For approximate counters, the counts are estimates.
+ *
+ * The report can also include diversity columns for one or more ranks:  the Shannon index, the
+ * Gini-Simpson index, and the Chao1 estimate of the total number of groupings.  These come before the
+ * top-taxa column, and require exact counters.
+ *
+ * Finally, the report can include a taxonomy string for each group, either for its lowest common ancestor
+ * or for its most frequent grouping at a chosen rank.  This also comes before the top-taxa column.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ProfileReport {
+
+    // FIELDS
+    /** output stream for the report */
+    private PrintStream output;
+    /** rank for the top-taxa column, or NULL if there is none */
+    private Rank topRank;
+    /** number of groupings in the top-taxa column */
+    private int topTaxa;
+    /** ranks for the diversity columns */
+    private List<Rank> diversityRanks;
+    /** renderer for the taxonomy string column, or NULL if there is none */
+    private LineageRenderer lineageRenderer;
+    /** rank of the grouping whose taxonomy string is shown, or NULL to show the lowest common ancestor's */
+    private Rank lineageRank;
+
+    /**
+     * Create a report writer.
+     *
+     * @param output	output stream for the report
+     */
+    public ProfileReport(PrintStream output) {
+        this.output = output;
+        this.topRank = null;
+        this.topTaxa = 0;
+        this.diversityRanks = new ArrayList<Rank>();
+        this.lineageRenderer = null;
+        this.lineageRank = null;
+    }
+
+    /**
+     * Add a column listing the most frequent groupings at a rank.
+     *
+     * @param rank		rank of the groupings to list (must be a good rank)
+     * @param topTaxa	maximum number of groupings to list
+     */
+    public void setTopTaxa(Rank rank, int topTaxa) {
+        if (rank == Rank.OTHER)
+            throw new IllegalArgumentException("Top taxa must be at a major rank.");
+        if (topTaxa < 1)
+            throw new IllegalArgumentException("Number of top taxa must be at least 1.");
+        this.topRank = rank;
+        this.topTaxa = topTaxa;
+    }
+
+    /**
+     * Add diversity columns for a rank.
+     *
+     * @param rank		rank of the groupings whose diversity is to be shown (must be a good rank)
+     */
+    public void addDiversity(Rank rank) {
+        if (rank == Rank.OTHER)
+            throw new IllegalArgumentException("Diversity must be at a major rank.");
+        this.diversityRanks.add(rank);
+    }
+
+    /**
+     * Add a taxonomy string column.
+     *
+     * @param renderer	renderer for the taxonomy strings
+     * @param rank		rank of the grouping whose taxonomy string is to be shown (the group's most frequent
+     * 					at that rank), or NULL to show the taxonomy string of the lowest common ancestor
+     */
+    public void setLineage(LineageRenderer renderer, Rank rank) {
+        if (rank == Rank.OTHER)
+            throw new IllegalArgumentException("Taxonomy strings must be for a major rank.");
+        this.lineageRenderer = renderer;
+        this.lineageRank = rank;
+    }
+
+    /**
+     * Write the header line.
+     */
+    public void writeHeader() {
+        String header = "group_id\tmembers\tfamilies\tgenera\tspecies\tinvalid\tlca\tlca_rank";
+        for (Rank rank : this.diversityRanks)
+            header += "\tshannon_" + rank + "\tsimpson_" + rank + "\tchao1_" + rank;
+        if (this.lineageRenderer != null)
+            header += "\t" + (this.lineageRank == null ? "lca" : this.lineageRank.toString()) + "_lineage";
+        if (this.topRank != null)
+            header += "\ttop_" + this.topRank;
+        this.output.println(header);
+    }
+
+    /**
+     * Write the report line for a single group.
+     *
+     * @param counter	taxonomy counter for the group
+     */
+    public void writeRow(TaxonomyCounter counter) {
+        int lca = counter.getLcaId();
+        String lcaId = "";
+        String lcaRank = "";
+        if (lca >= 0) {
+            lcaId = Integer.toString(lca);
+            Rank rank = counter.getLcaRank();
+            lcaRank = (rank == Rank.OTHER ? "no rank" : rank.toString());
+        }
+        this.output.format("%s\t%d\t%d\t%d\t%d\t%d\t%s\t%s", counter.getName(), counter.getTotal(),
+                counter.typesOf(Rank.FAMILY), counter.typesOf(Rank.GENUS),
+                counter.typesOf(Rank.SPECIES), counter.getInvalid(), lcaId, lcaRank);
+        for (Rank rank : this.diversityRanks)
+            this.output.format("\t%.4f\t%.4f\t%.1f", counter.shannonOf(rank), counter.simpsonOf(rank),
+                    counter.chao1Of(rank));
+        if (this.lineageRenderer != null) {
+            int taxId = lca;
+            if (this.lineageRank != null) {
+                List<TaxonomyCounter.Count> best = counter.topCounts(this.lineageRank, 1);
+                taxId = (best.isEmpty() ? -1 : best.get(0).getKey().getId());
+            }
+            String lineage = (taxId < 0 ? null : this.lineageRenderer.render(taxId));
+            this.output.print("\t");
+            if (lineage != null)
+                this.output.print(lineage);
+        }
+        if (this.topRank != null) {
+            StringBuilder topList = new StringBuilder(this.topTaxa * 12);
+            for (TaxonomyCounter.Count count : counter.topCounts(this.topRank, this.topTaxa)) {
+                if (topList.length() > 0)
+                    topList.append(',');
+                topList.append(count.getKey().getId()).append(':').append(count.getCount());
+            }
+            this.output.print("\t");
+            this.output.print(topList);
+        }
+        this.output.println();
+    }
+
+    /**
+     * Write the full report for a profiler, with the groups sorted from most frequent to least frequent.
+     *
+     * @param profiler	profiler containing the groups
+     */
+    public void write(TaxonomyProfiler profiler) {
+        this.write(profiler, 0);
+    }
+
+    /**
+     * Write the report for the largest groups in a profiler, sorted from most frequent to least frequent.
+     *
+     * @param profiler	profiler containing the groups
+     * @param limit		maximum number of groups to write, or 0 to write all of them
+     */
+    public void write(TaxonomyProfiler profiler, int limit) {
+        this.write(profiler.sortedProfiles(), limit);
+    }
+
+    /**
+     * Write the report for the first groups in a sorted list.
+     *
+     * @param profiles	list of group counters, sorted from most frequent to least frequent
+     * @param limit		maximum number of groups to write, or 0 to write all of them
+     */
+    public void write(List<TaxonomyCounter> profiles, int limit) {
+        this.writeHeader();
+        int n = (limit > 0 ? Math.min(limit, profiles.size()) : profiles.size());
+        for (TaxonomyCounter counter : profiles.subList(0, n)) {
+            this.writeRow(counter);
+        }
+        this.flush();
+    }
+
+    /**
+     * Flush the report output.
+     */
+    public void flush() {
+        this.output.flush();
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+/**
+ * This class accumulates statistics about the registrations made by a profiler:  the number of
+ * registrations, the number with invalid taxonomic IDs, and the number of rank tallies updated.  The time
+ * spent registering is also tracked, but to keep the cost off the hot path, only one registration in
+ * {@link #SAMPLE_RATE} is timed, and the total is estimated from the sample.  Each timed registration is
+ * capped, so that a pause caught by the sample does not distort the estimate.
+ *
+ * The statistics describe the work done in the current run.  They are combined when profilers are merged,
+ * but they are not saved in partial files.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RegisterStats {
+
+    // FIELDS
+    /** number of registrations */
+    private long registrations;
+    /** number of registrations with taxonomic IDs not in the tree */
+    private long invalid;
+    /** number of rank tallies updated */
+    private long rankUpdates;
+    /** number of registrations timed */
+    private long samples;
+    /** total nanoseconds spent in the timed registrations */
+    private long sampleNanos;
+    /** one registration in this many is timed; must be a power of 2 */
+    public static final int SAMPLE_RATE = 64;
+    /** maximum nanoseconds credited to a single timed registration; a longer time is almost always a
+     *  garbage collection or compilation pause, which would be magnified by the sampling */
+    private static final long MAX_SAMPLE_NANOS = 50000;
+
+    /**
+     * Create empty statistics.
+     */
+    public RegisterStats() {
+        this.registrations = 0;
+        this.invalid = 0;
+        this.rankUpdates = 0;
+        this.samples = 0;
+        this.sampleNanos = 0;
+    }
+
+    /**
+     * @return TRUE if the next registration should be timed
+     */
+    public boolean isSampling() {
+        return (this.registrations & (SAMPLE_RATE - 1)) == 0;
+    }
+
+    /**
+     * Record a registration.
+     *
+     * @param result	number of rank tallies updated, or -1 if the taxonomic ID was invalid
+     */
+    public void record(int result) {
+        this.registrations++;
+        if (result < 0)
+            this.invalid++;
+        else
+            this.rankUpdates += result;
+    }
+
+    /**
+     * Record a timed registration.
+     *
+     * @param result	number of rank tallies updated, or -1 if the taxonomic ID was invalid
+     * @param nanos		nanoseconds spent in the registration
+     */
+    public void record(int result, long nanos) {
+        this.record(result);
+        this.samples++;
+        this.sampleNanos += Math.min(nanos, MAX_SAMPLE_NANOS);
+    }
+
+    /**
+     * Add the statistics from another object to this one.
+     *
+     * @param other		statistics to add
+     */
+    public void add(RegisterStats other) {
+        this.registrations += other.registrations;
+        this.invalid += other.invalid;
+        this.rankUpdates += other.rankUpdates;
+        this.samples += other.samples;
+        this.sampleNanos += other.sampleNanos;
+    }
+
+    /**
+     * @return the number of registrations
+     */
+    public long getRegistrations() {
+        return this.registrations;
+    }
+
+    /**
+     * @return the number of registrations with taxonomic IDs not in the tree
+     */
+    public long getInvalid() {
+        return this.invalid;
+    }
+
+    /**
+     * @return the number of rank tallies updated
+     */
+    public long getRankUpdates() {
+        return this.rankUpdates;
+    }
+
+    /**
+     * @return the estimated total nanoseconds spent registering
+     */
+    public long getEstimatedNanos() {
+        long retVal = 0;
+        if (this.samples > 0)
+            retVal = (long) ((double) this.sampleNanos / this.samples * this.registrations);
+        return retVal;
+    }
+
+}
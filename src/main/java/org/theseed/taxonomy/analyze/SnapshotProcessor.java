@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This command converts a taxonomy load file into a binary snapshot.  The snapshot can be used anywhere
+ * a taxonomy load file is expected, and loads in a small fraction of the time.
+ *
+ * The positional parameters are the name of the load file for the taxonomy tree and the name of the
+ * snapshot file to create.
+ *
+ * The following command-line options are supported.
+ *
+ * -v	display progress on STDERR
+ * -l	include the lineage index in the snapshot
+ * -n	include the name search index in the snapshot
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SnapshotProcessor {
+
+    // FIELDS
+    /** main taxonomy tree */
+    TreeOfLife taxTree;
+
+    // COMMAND LINE
+
+    /** help option */
+    @Option(name="-h", aliases={"--help"}, help=true)
+    private boolean help;
+
+    /** tracing display */
+    @Option(name="-v", aliases={"--debug", "verbose"}, usage="display progress messages on STDERR")
+    boolean debug;
+
+    /** lineage index option */
+    @Option(name="-l", aliases={"--lineage"}, usage="include lineage index in snapshot")
+    boolean lineageFlag;
+
+    /** name index option */
+    @Option(name="-n", aliases={"--names"}, usage="include name search index in snapshot")
+    boolean namesFlag;
+
+    /** tree of life input file */
+    @Argument(index=0, metaVar="taxonomy_file.dtx", usage="file containing full taxonomy tree", required=true)
+    File taxFile;
+
+    /** snapshot output file */
+    @Argument(index=1, metaVar="snapshot_file", usage="output file for the binary snapshot", required=true)
+    File snapFile;
+
+    /** Parse the command line parameters and options. */
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        // Set the defaults.
+        this.help = false;
+        this.debug = false;
+        this.lineageFlag = false;
+        this.namesFlag = false;
+        this.taxFile = null;
+        this.snapFile = null;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.help) {
+                parser.printUsage(System.err);
+            } else {
+                // Read in the taxonomy file.
+                if (debug) System.err.println("Reading taxonomy tree from " + this.taxFile + ".");
+                this.taxTree = TreeOfLife.open(this.taxFile);
+                if (debug) System.err.println("Taxonomy tree read in " + this.taxTree.getLoadTime() +
+                        " milliseconds from " + this.taxTree.getLoadRows() + " records.");
+                retVal = true;
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        return retVal;
+    }
+
+    public void run() {
+        try {
+            long start = System.currentTimeMillis();
+            if (this.lineageFlag) {
+                if (debug) System.err.println("Building lineage index.");
+                this.taxTree.buildLineageIndex();
+            }
+            if (this.namesFlag) {
+                if (debug) System.err.println("Building name index.");
+                this.taxTree.buildNameIndex();
+            }
+            if (debug) System.err.println("Writing snapshot to " + this.snapFile + ".");
+            this.taxTree.save(this.snapFile);
+            if (debug) System.err.println(this.taxTree.size() + " taxonomic groupings written in " +
+                    (System.currentTimeMillis() - start) + " milliseconds.");
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+}
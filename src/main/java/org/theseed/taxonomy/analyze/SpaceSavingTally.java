@@ -0,0 +1,491 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is an approximate {@link TaxonTally} that tracks the most frequent keys in a fixed amount of
+ * memory, using the Space-Saving algorithm.  At most a fixed number of keys are monitored.  When a new key
+ * arrives and the tally is full, the monitored key with the lowest count is replaced by the new key, which
+ * inherits that count as its possible overestimate.
+ *
+ * Every key whose true count is greater than the total number of occurrences divided by the capacity is
+ * guaranteed to be monitored, and the estimated count of a monitored key exceeds its true count by at most
+ * its recorded error.  Until the tally overflows, all of the counts are exact.
+ *
+ * The monitored keys are kept in a min-heap on count, with a small open-addressing index from key to heap
+ * position, so each occurrence takes logarithmic time in the capacity.  The heap starts small and doubles
+ * as keys arrive, up to the capacity, so a tally with only a few keys costs little more than an exact one.
+ * While the heap is small, it is searched linearly and there is no index.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpaceSavingTally implements TaxonTally {
+
+    // FIELDS
+    /** maximum number of keys monitored */
+    private int capacity;
+    /** monitored keys, in heap order */
+    private int[] heapKeys;
+    /** estimated count of each monitored key */
+    private int[] heapCounts;
+    /** maximum overestimate of each monitored key's count */
+    private int[] heapErrors;
+    /** number of keys monitored */
+    private int size;
+    /** TRUE if a key has ever been replaced */
+    private boolean overflowed;
+    /** index slots containing keys, or {@link #EMPTY}; NULL if the heap is small enough to search linearly */
+    private int[] indexKeys;
+    /** heap position of the key in each index slot */
+    private int[] indexPositions;
+    /** type code for this kind of tally */
+    public static final int TALLY_TYPE = 1;
+    /** marker for an empty index slot */
+    private static final int EMPTY = -1;
+    /** initial length of the heap arrays */
+    private static final int INITIAL_SIZE = 2;
+    /** maximum length of heap arrays that are searched linearly instead of through an index */
+    private static final int SMALL_LIMIT = 8;
+
+    /**
+     * Create a new, empty tally.
+     *
+     * @param capacity	maximum number of keys to monitor
+     */
+    public SpaceSavingTally(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Tally capacity must be at least 1.");
+        this.capacity = capacity;
+        int len = Math.min(capacity, INITIAL_SIZE);
+        this.heapKeys = new int[len];
+        this.heapCounts = new int[len];
+        this.heapErrors = new int[len];
+        this.size = 0;
+        this.overflowed = false;
+        this.indexKeys = null;
+        this.indexPositions = null;
+    }
+
+    /**
+     * @return a factory for tallies of the specified capacity
+     *
+     * @param capacity	maximum number of keys to monitor in each tally
+     */
+    public static TallyFactory factory(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Tally capacity must be at least 1.");
+        return new TallyFactory() {
+            @Override
+            public TaxonTally create() {
+                return new SpaceSavingTally(capacity);
+            }
+        };
+    }
+
+    @Override
+    public int count(int key) {
+        return this.count(key, 1);
+    }
+
+    @Override
+    public int count(int key, int num) {
+        if (key < 0)
+            throw new IllegalArgumentException("Invalid negative taxonomic ID " + key + ".");
+        int pos = this.positionOf(key);
+        if (pos < 0) {
+            if (this.size < this.capacity) {
+                if (this.size == this.heapKeys.length) {
+                    this.resize(Math.min(this.capacity, this.size * 2));
+                    this.buildIndex();
+                }
+                pos = this.size++;
+                this.heapKeys[pos] = key;
+                this.heapCounts[pos] = 0;
+                this.heapErrors[pos] = 0;
+                this.indexPut(key, pos);
+            } else {
+                // Replace the key with the lowest count.  The new key may have been among the occurrences
+                // counted for the old one.
+                pos = 0;
+                this.indexRemove(this.heapKeys[0]);
+                this.heapKeys[0] = key;
+                this.heapErrors[0] = this.heapCounts[0];
+                this.indexPut(key, 0);
+                this.overflowed = true;
+            }
+        }
+        this.heapCounts[pos] += num;
+        int retVal = this.heapCounts[pos];
+        // The count went up, so the key can only move down the heap.
+        this.siftDown(pos);
+        return retVal;
+    }
+
+    /**
+     * Occurrences cannot be removed from an approximate tally.
+     */
+    @Override
+    public int uncount(int key) {
+        throw new UnsupportedOperationException("Cannot remove occurrences from an approximate tally.");
+    }
+
+    /**
+     * Merge another tally into this one.  A key missing from one of the tallies is assumed to have that
+     * tally's minimum count if the tally has overflowed, so the merged counts remain overestimates.
+     * Afterward, only the keys with the highest counts are kept.
+     */
+    @Override
+    public void merge(TaxonTally other) {
+        int[] otherKeys = other.keys();
+        SpaceSavingTally otherTally = (other instanceof SpaceSavingTally ? (SpaceSavingTally) other : null);
+        int otherMin = 0;
+        if (otherTally != null && otherTally.overflowed && otherTally.size > 0)
+            otherMin = otherTally.heapCounts[0];
+        int thisMin = (this.overflowed && this.size > 0 ? this.heapCounts[0] : 0);
+        // Build the combined list of keys.
+        int n = this.size;
+        int[] keys = Arrays.copyOf(this.heapKeys, n + otherKeys.length);
+        int[] counts = Arrays.copyOf(this.heapCounts, n + otherKeys.length);
+        int[] errors = Arrays.copyOf(this.heapErrors, n + otherKeys.length);
+        boolean[] matched = new boolean[n];
+        for (int otherKey : otherKeys) {
+            int otherCount = other.getCount(otherKey);
+            int otherError = (otherTally == null ? 0 : otherCount - otherTally.getMinimum(otherKey));
+            int pos = this.positionOf(otherKey);
+            if (pos >= 0) {
+                counts[pos] += otherCount;
+                errors[pos] += otherError;
+                matched[pos] = true;
+            } else {
+                keys[n] = otherKey;
+                counts[n] = otherCount + thisMin;
+                errors[n] = otherError + thisMin;
+                n++;
+            }
+        }
+        for (int i = 0; i < this.size; i++) {
+            if (! matched[i]) {
+                counts[i] += otherMin;
+                errors[i] += otherMin;
+            }
+        }
+        boolean overflow = this.overflowed || (otherTally != null && otherTally.overflowed);
+        this.rebuild(keys, counts, errors, n, overflow);
+    }
+
+    /**
+     * Any tally can be merged into a space-saving tally, since only its keys and counts are used.
+     */
+    @Override
+    public void checkMerge(TaxonTally other) { }
+
+    /**
+     * Replace the contents of this tally with the highest-count keys from a list.
+     *
+     * @param keys		array of keys
+     * @param counts	array of counts, parallel to the keys
+     * @param errors	array of errors, parallel to the keys
+     * @param n			number of keys in the arrays
+     * @param overflow	TRUE if the source tallies overflowed
+     */
+    private void rebuild(int[] keys, int[] counts, int[] errors, int n, boolean overflow) {
+        // Sort the positions by descending count.  Packing the count and the position into a long lets us
+        // use a primitive sort.
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++)
+            order[i] = ((long) counts[i] << 32) | i;
+        Arrays.sort(order);
+        int keep = Math.min(n, this.capacity);
+        this.size = 0;
+        this.overflowed = overflow || (n > this.capacity);
+        if (keep > this.heapKeys.length)
+            this.resize(keep);
+        for (int i = n - 1; i >= n - keep; i--) {
+            int src = (int) order[i];
+            int pos = this.size++;
+            this.heapKeys[pos] = keys[src];
+            this.heapCounts[pos] = counts[src];
+            this.heapErrors[pos] = errors[src];
+        }
+        // The keys are in descending order, so reverse them to get a valid min-heap.
+        for (int i = 0, j = this.size - 1; i < j; i++, j--) {
+            this.swap(i, j);
+        }
+        this.buildIndex();
+    }
+
+    /**
+     * Change the length of the heap arrays.  The monitored keys are kept, but the index must be rebuilt
+     * afterward.
+     *
+     * @param len	new length of the heap arrays; this must not be less than the number of keys monitored
+     */
+    private void resize(int len) {
+        this.heapKeys = Arrays.copyOf(this.heapKeys, len);
+        this.heapCounts = Arrays.copyOf(this.heapCounts, len);
+        this.heapErrors = Arrays.copyOf(this.heapErrors, len);
+    }
+
+    /**
+     * Build the index for the monitored keys.  The index has room for twice the length of the heap arrays,
+     * and is only built if the heap arrays are too long to search linearly.
+     */
+    private void buildIndex() {
+        int len = this.heapKeys.length;
+        if (len <= SMALL_LIMIT) {
+            this.indexKeys = null;
+            this.indexPositions = null;
+        } else {
+            int indexLen = Integer.highestOneBit(len * 2 - 1) << 1;
+            this.indexKeys = new int[indexLen];
+            Arrays.fill(this.indexKeys, EMPTY);
+            this.indexPositions = new int[indexLen];
+            for (int i = 0; i < this.size; i++)
+                this.indexPut(this.heapKeys[i], i);
+        }
+    }
+
+    @Override
+    public int getCount(int key) {
+        int pos = this.positionOf(key);
+        return (pos < 0 ? 0 : this.heapCounts[pos]);
+    }
+
+    /**
+     * @return the guaranteed minimum count for a key, or 0 if the key is not monitored
+     *
+     * @param key	key of interest
+     */
+    public int getMinimum(int key) {
+        int pos = this.positionOf(key);
+        return (pos < 0 ? 0 : this.heapCounts[pos] - this.heapErrors[pos]);
+    }
+
+    /**
+     * @return the number of keys monitored; this is the number of distinct keys counted unless the tally
+     * 		   has overflowed, in which case it is a lower bound
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int[] keys() {
+        return Arrays.copyOf(this.heapKeys, this.size);
+    }
+
+    /**
+     * @return TRUE if a key has been replaced, so that the counts are estimates
+     */
+    public boolean isOverflowed() {
+        return this.overflowed;
+    }
+
+    /**
+     * @return the maximum number of keys monitored
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of keys that can be monitored before the heap must grow
+     */
+    public int getAllocated() {
+        return this.heapKeys.length;
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public int getTallyType() {
+        return TALLY_TYPE;
+    }
+
+    /**
+     * Write this tally to a binary output stream.  The tally is written as the capacity, the overflow flag,
+     * the number of keys, and then a key, count, and error for each.
+     *
+     * @param outStream		output stream to receive the tally
+     *
+     * @throws IOException
+     */
+    @Override
+    public void write(DataOutputStream outStream) throws IOException {
+        outStream.writeInt(this.capacity);
+        outStream.writeBoolean(this.overflowed);
+        outStream.writeInt(this.size);
+        for (int i = 0; i < this.size; i++) {
+            outStream.writeInt(this.heapKeys[i]);
+            outStream.writeInt(this.heapCounts[i]);
+            outStream.writeInt(this.heapErrors[i]);
+        }
+    }
+
+    /**
+     * Read a tally written by {@link #write(DataOutputStream)}.
+     *
+     * @param inStream		input stream containing the tally
+     *
+     * @return the tally read
+     *
+     * @throws IOException
+     */
+    public static SpaceSavingTally read(DataInputStream inStream) throws IOException {
+        int capacity = inStream.readInt();
+        boolean overflowed = inStream.readBoolean();
+        int n = inStream.readInt();
+        if (capacity < 1 || n < 0 || n > capacity)
+            throw new IOException("Invalid approximate tally in partial file.");
+        SpaceSavingTally retVal = new SpaceSavingTally(capacity);
+        int[] keys = new int[n];
+        int[] counts = new int[n];
+        int[] errors = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = inStream.readInt();
+            counts[i] = inStream.readInt();
+            errors[i] = inStream.readInt();
+        }
+        retVal.rebuild(keys, counts, errors, n, overflowed);
+        return retVal;
+    }
+
+    /**
+     * Move a heap entry down until both its children have higher counts.
+     *
+     * @param pos	heap position of the entry
+     */
+    private void siftDown(int pos) {
+        boolean done = false;
+        while (! done) {
+            int child = pos * 2 + 1;
+            if (child >= this.size) {
+                done = true;
+            } else {
+                if (child + 1 < this.size && this.heapCounts[child + 1] < this.heapCounts[child])
+                    child++;
+                if (this.heapCounts[child] < this.heapCounts[pos]) {
+                    this.swap(pos, child);
+                    pos = child;
+                } else {
+                    done = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Exchange two heap entries, updating the index.
+     *
+     * @param i		first heap position
+     * @param j		second heap position
+     */
+    private void swap(int i, int j) {
+        int key = this.heapKeys[i];
+        int count = this.heapCounts[i];
+        int error = this.heapErrors[i];
+        this.heapKeys[i] = this.heapKeys[j];
+        this.heapCounts[i] = this.heapCounts[j];
+        this.heapErrors[i] = this.heapErrors[j];
+        this.heapKeys[j] = key;
+        this.heapCounts[j] = count;
+        this.heapErrors[j] = error;
+        this.indexUpdate(this.heapKeys[i], i);
+        this.indexUpdate(this.heapKeys[j], j);
+    }
+
+    /**
+     * @return the index slot for a key, or the empty slot where it belongs if it is not in the index
+     *
+     * @param key	key to find
+     */
+    private int indexSlot(int key) {
+        int mask = this.indexKeys.length - 1;
+        int retVal = TaxonCountMap.hash(key) & mask;
+        while (this.indexKeys[retVal] != EMPTY && this.indexKeys[retVal] != key)
+            retVal = (retVal + 1) & mask;
+        return retVal;
+    }
+
+    /**
+     * @return the heap position of a key, or -1 if it is not monitored
+     *
+     * @param key	key to find
+     */
+    private int positionOf(int key) {
+        int retVal = -1;
+        if (this.indexKeys == null) {
+            for (int i = 0; i < this.size && retVal < 0; i++) {
+                if (this.heapKeys[i] == key)
+                    retVal = i;
+            }
+        } else {
+            int slot = this.indexSlot(key);
+            if (this.indexKeys[slot] != EMPTY)
+                retVal = this.indexPositions[slot];
+        }
+        return retVal;
+    }
+
+    /**
+     * Add a key to the index, if there is one.
+     *
+     * @param key	key to add
+     * @param pos	heap position of the key
+     */
+    private void indexPut(int key, int pos) {
+        if (this.indexKeys != null) {
+            int slot = this.indexSlot(key);
+            this.indexKeys[slot] = key;
+            this.indexPositions[slot] = pos;
+        }
+    }
+
+    /**
+     * Change the heap position of a key in the index, if there is one.  The key must be in the index.
+     *
+     * @param key	key to update
+     * @param pos	new heap position of the key
+     */
+    private void indexUpdate(int key, int pos) {
+        if (this.indexKeys != null)
+            this.indexPositions[this.indexSlot(key)] = pos;
+    }
+
+    /**
+     * Remove a key from the index, if there is one.  Following entries in the probe run are shifted back
+     * so they can still be found.
+     *
+     * @param key	key to remove
+     */
+    private void indexRemove(int key) {
+        if (this.indexKeys != null) {
+            int mask = this.indexKeys.length - 1;
+            int hole = this.indexSlot(key);
+            int next = (hole + 1) & mask;
+            while (this.indexKeys[next] != EMPTY) {
+                int home = TaxonCountMap.hash(this.indexKeys[next]) & mask;
+                boolean reachable = (hole <= next ? (home > hole && home <= next) : (home > hole || home <= next));
+                if (! reachable) {
+                    this.indexKeys[hole] = this.indexKeys[next];
+                    this.indexPositions[hole] = this.indexPositions[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            this.indexKeys[hole] = EMPTY;
+        }
+    }
+
+}
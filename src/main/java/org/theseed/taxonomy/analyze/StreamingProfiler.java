@@ -0,0 +1,161 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.theseed.taxonomy.TreeOfLife;
+
+/**
+ * This class profiles input that is grouped by group ID.  Only the current group is kept in memory.  When
+ * the group ID changes, the finished group is written to the report and released.  The report rows are
+ * therefore in group ID order rather than sorted by size.
+ *
+ * Alternatively, the profiler can keep only the largest groups.  In this case, the finished groups are
+ * kept in a bounded priority queue, and at the end the survivors are written to the report sorted from
+ * most frequent to least frequent, exactly as they would appear at the top of the full report.
+ *
+ * The group IDs must arrive in ascending order, so that a group that reappears after another group is
+ * detected as an error instead of producing two report rows.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class StreamingProfiler {
+
+    // FIELDS
+    /** taxonomic tree for the counters */
+    private TreeOfLife tree;
+    /** factory for the rank tallies of the counters */
+    private TallyFactory factory;
+    /** report to receive the finished groups */
+    private ProfileReport report;
+    /** maximum number of groups to keep, or 0 to write every group as it completes */
+    private int topLimit;
+    /** largest groups found so far, with the smallest at the head, if a limit is in effect */
+    private PriorityQueue<TaxonomyCounter> topGroups;
+    /** counter for the current group, or NULL if there is none */
+    private TaxonomyCounter current;
+    /** number of groups finished */
+    private int groupCount;
+    /** statistics about the registrations */
+    private RegisterStats stats;
+
+    /**
+     * Create a streaming profiler with exact counters.
+     *
+     * @param tree		taxonomic tree for the counters
+     * @param report	report to receive the finished groups; its header is written immediately if there
+     * 					is no group limit
+     * @param topLimit	maximum number of groups to report, or 0 to report every group
+     */
+    public StreamingProfiler(TreeOfLife tree, ProfileReport report, int topLimit) {
+        this(tree, report, topLimit, TallyFactory.EXACT);
+    }
+
+    /**
+     * Create a streaming profiler.
+     *
+     * @param tree		taxonomic tree for the counters
+     * @param report	report to receive the finished groups; its header is written immediately if there
+     * 					is no group limit
+     * @param topLimit	maximum number of groups to report, or 0 to report every group
+     * @param factory	factory for the rank tallies of the counters
+     */
+    public StreamingProfiler(TreeOfLife tree, ProfileReport report, int topLimit, TallyFactory factory) {
+        this.tree = tree;
+        this.factory = factory;
+        this.report = report;
+        this.topLimit = topLimit;
+        this.current = null;
+        this.groupCount = 0;
+        this.stats = new RegisterStats();
+        if (topLimit > 0) {
+            // The natural order puts the largest group first, so we reverse it to keep the smallest at the head.
+            this.topGroups = new PriorityQueue<TaxonomyCounter>(topLimit + 1, Collections.reverseOrder());
+        } else {
+            this.topGroups = null;
+            report.writeHeader();
+        }
+    }
+
+    /**
+     * Count a taxonomic grouping for a group.
+     *
+     * @param key		ID of the group
+     * @param taxId		taxonomic ID of the grouping
+     *
+     * @throws IOException if the group IDs are out of order
+     */
+    public void register(String key, int taxId) throws IOException {
+        if (this.current == null || ! this.current.getName().equals(key)) {
+            if (this.current != null) {
+                if (key.compareTo(this.current.getName()) < 0)
+                    throw new IOException("Input is not sorted by group ID:  \"" + key + "\" found after \"" +
+                            this.current.getName() + "\".");
+                this.finishGroup();
+            }
+            this.current = new TaxonomyCounter(key, this.tree, this.factory, false);
+        }
+        if (this.stats.isSampling()) {
+            long start = System.nanoTime();
+            int result = this.current.register(taxId);
+            this.stats.record(result, System.nanoTime() - start);
+        } else {
+            this.stats.record(this.current.register(taxId));
+        }
+    }
+
+    /**
+     * Finish the current group, passing it to the report or to the top-group queue.
+     */
+    private void finishGroup() {
+        if (this.topGroups == null) {
+            this.report.writeRow(this.current);
+        } else {
+            this.topGroups.add(this.current);
+            if (this.topGroups.size() > this.topLimit)
+                this.topGroups.poll();
+        }
+        this.current = null;
+        this.groupCount++;
+    }
+
+    /**
+     * Finish the input.  The last group is completed, and if a group limit is in effect, the largest
+     * groups are written to the report.
+     */
+    public void finish() {
+        if (this.current != null)
+            this.finishGroup();
+        if (this.topGroups != null) {
+            List<TaxonomyCounter> survivors = new ArrayList<TaxonomyCounter>(this.topGroups);
+            survivors.sort(null);
+            this.report.writeHeader();
+            for (TaxonomyCounter counter : survivors)
+                this.report.writeRow(counter);
+            this.topGroups.clear();
+        }
+        this.report.flush();
+    }
+
+    /**
+     * @return the number of groups finished
+     */
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+
+    /**
+     * @return the statistics about the registrations
+     */
+    public RegisterStats getStats() {
+        return this.stats;
+    }
+
+}
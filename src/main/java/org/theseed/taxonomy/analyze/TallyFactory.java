@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+/**
+ * This interface describes an object that creates the rank tallies for new taxonomy counters.  It
+ * determines whether the counters are exact or approximate.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface TallyFactory {
+
+    /** factory for exact tallies */
+    public static final TallyFactory EXACT = new TallyFactory() {
+        @Override
+        public TaxonTally create() {
+            return new TaxonCountMap();
+        }
+    };
+
+    /**
+     * @return a new, empty tally
+     */
+    public TaxonTally create();
+
+}
@@ -0,0 +1,350 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class counts occurrences of taxonomic IDs.  It is a specialized map from non-negative integer
+ * keys to integer counts that stores everything in primitive arrays.  A small map keeps its entries in
+ * a packed list that is searched linearly.  Once it grows past {@link #SMALL_LIMIT} entries, it switches
+ * to an open-addressing hash table with linear probing.
+ *
+ * This is the exact {@link TaxonTally}.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TaxonCountMap implements TaxonTally {
+
+    // FIELDS
+    /** array of keys; in hash mode, empty slots contain {@link #EMPTY} */
+    private int[] keys;
+    /** array of counts, parallel to the keys */
+    private int[] counts;
+    /** number of keys in the map */
+    private int size;
+    /** TRUE if the map is in hash mode */
+    private boolean hashed;
+    /** largest number of entries kept in the packed list */
+    private static final int SMALL_LIMIT = 8;
+    /** initial size of the packed list */
+    private static final int INITIAL_SIZE = 2;
+    /** marker for an empty slot */
+    private static final int EMPTY = -1;
+    /** type code for this kind of tally */
+    public static final int TALLY_TYPE = 0;
+
+    /**
+     * Create a new, empty count map.
+     */
+    public TaxonCountMap() {
+        this.keys = new int[INITIAL_SIZE];
+        this.counts = new int[INITIAL_SIZE];
+        this.size = 0;
+        this.hashed = false;
+    }
+
+    /**
+     * Increment the count for a key.
+     *
+     * @param key	key to count (must be non-negative)
+     *
+     * @return the new count
+     */
+    @Override
+    public int count(int key) {
+        return this.count(key, 1);
+    }
+
+    /**
+     * Add a value to the count for a key.
+     *
+     * @param key	key to count (must be non-negative)
+     * @param num	value to add
+     *
+     * @return the new count
+     */
+    @Override
+    public int count(int key, int num) {
+        int slot = this.find(key);
+        if (slot < 0) {
+            slot = this.insert(key);
+        }
+        this.counts[slot] += num;
+        return this.counts[slot];
+    }
+
+    /**
+     * Decrement the count for a key.  If the count reaches zero, the key is removed from the map.
+     *
+     * @param key	key to decrement
+     *
+     * @return the new count, or -1 if the key was not in the map
+     */
+    @Override
+    public int uncount(int key) {
+        int retVal = -1;
+        int slot = this.find(key);
+        if (slot >= 0) {
+            retVal = this.counts[slot] - 1;
+            if (retVal > 0) {
+                this.counts[slot] = retVal;
+            } else {
+                this.remove(slot);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Add all the counts from another map to this one.  The other tally must be exact.
+     *
+     * @param other		map whose counts are to be added
+     */
+    @Override
+    public void merge(TaxonTally other) {
+        this.checkMerge(other);
+        TaxonCountMap otherMap = (TaxonCountMap) other;
+        int n = (otherMap.hashed ? otherMap.keys.length : otherMap.size);
+        for (int i = 0; i < n; i++) {
+            int key = otherMap.keys[i];
+            if (key != EMPTY)
+                this.count(key, otherMap.counts[i]);
+        }
+    }
+
+    @Override
+    public void checkMerge(TaxonTally other) {
+        if (! (other instanceof TaxonCountMap))
+            throw new IllegalArgumentException("Cannot merge an approximate tally into an exact one.");
+    }
+
+    /**
+     * @return the count for a key, or 0 if the key is not in the map
+     *
+     * @param key	key of interest
+     */
+    @Override
+    public int getCount(int key) {
+        int slot = this.find(key);
+        return (slot < 0 ? 0 : this.counts[slot]);
+    }
+
+    /**
+     * @return the number of keys in the map
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return an array of the keys in the map, in no particular order
+     */
+    @Override
+    public int[] keys() {
+        int[] retVal = new int[this.size];
+        if (! this.hashed) {
+            System.arraycopy(this.keys, 0, retVal, 0, this.size);
+        } else {
+            int pos = 0;
+            for (int key : this.keys) {
+                if (key != EMPTY)
+                    retVal[pos++] = key;
+            }
+        }
+        return retVal;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public int getTallyType() {
+        return TALLY_TYPE;
+    }
+
+    /**
+     * Write this map to a binary output stream.  The map is written as the number of keys followed by
+     * a key and a count for each.
+     *
+     * @param outStream		output stream to receive the map
+     *
+     * @throws IOException
+     */
+    @Override
+    public void write(DataOutputStream outStream) throws IOException {
+        outStream.writeInt(this.size);
+        int n = (this.hashed ? this.keys.length : this.size);
+        for (int i = 0; i < n; i++) {
+            int key = this.keys[i];
+            if (key != EMPTY) {
+                outStream.writeInt(key);
+                outStream.writeInt(this.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Add counts from a map written by {@link #write(DataOutputStream)} to this map.
+     *
+     * @param inStream		input stream containing the map
+     *
+     * @throws IOException
+     */
+    public void read(DataInputStream inStream) throws IOException {
+        int n = inStream.readInt();
+        for (int i = 0; i < n; i++) {
+            int key = inStream.readInt();
+            int num = inStream.readInt();
+            this.count(key, num);
+        }
+    }
+
+    /**
+     * @return the slot containing a key, or -1 if the key is not in the map
+     *
+     * @param key	key to find
+     */
+    private int find(int key) {
+        int retVal = -1;
+        if (! this.hashed) {
+            for (int i = 0; i < this.size && retVal < 0; i++) {
+                if (this.keys[i] == key)
+                    retVal = i;
+            }
+        } else {
+            int mask = this.keys.length - 1;
+            int slot = hash(key) & mask;
+            while (retVal < 0 && this.keys[slot] != EMPTY) {
+                if (this.keys[slot] == key)
+                    retVal = slot;
+                else
+                    slot = (slot + 1) & mask;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Add a new key to the map with a count of zero.
+     *
+     * @param key	key to add (must not be in the map)
+     *
+     * @return the slot containing the new key
+     */
+    private int insert(int key) {
+        if (key < 0)
+            throw new IllegalArgumentException("Invalid negative taxonomic ID " + key + ".");
+        int retVal;
+        if (! this.hashed && this.size < SMALL_LIMIT) {
+            // Add to the packed list, growing it if necessary.
+            if (this.size >= this.keys.length) {
+                int newLen = Math.min(SMALL_LIMIT, this.keys.length * 2);
+                this.keys = Arrays.copyOf(this.keys, newLen);
+                this.counts = Arrays.copyOf(this.counts, newLen);
+            }
+            retVal = this.size;
+            this.keys[retVal] = key;
+        } else {
+            if (! this.hashed) {
+                // The packed list is full, so switch to hash mode.
+                this.rehash(SMALL_LIMIT * 4);
+            } else if ((this.size + 1) * 4 > this.keys.length * 3) {
+                // Keep the load factor below 75%.
+                this.rehash(this.keys.length * 2);
+            }
+            retVal = this.placeKey(key);
+        }
+        this.counts[retVal] = 0;
+        this.size++;
+        return retVal;
+    }
+
+    /**
+     * Remove the entry in the specified slot.
+     *
+     * @param slot	slot containing the entry to remove
+     */
+    private void remove(int slot) {
+        if (! this.hashed) {
+            // Move the last entry into the hole.
+            int last = this.size - 1;
+            this.keys[slot] = this.keys[last];
+            this.counts[slot] = this.counts[last];
+        } else {
+            // Shift back any following entries in the probe run that would not be found past the hole.
+            int mask = this.keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (this.keys[next] != EMPTY) {
+                int home = hash(this.keys[next]) & mask;
+                boolean reachable = (hole <= next ? (home > hole && home <= next) : (home > hole || home <= next));
+                if (! reachable) {
+                    this.keys[hole] = this.keys[next];
+                    this.counts[hole] = this.counts[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            this.keys[hole] = EMPTY;
+        }
+        this.size--;
+    }
+
+    /**
+     * Move the entries to a new hash table.
+     *
+     * @param newLen	number of slots in the new table (must be a power of 2)
+     */
+    private void rehash(int newLen) {
+        int[] oldKeys = this.keys;
+        int[] oldCounts = this.counts;
+        int oldLen = (this.hashed ? oldKeys.length : this.size);
+        this.keys = new int[newLen];
+        Arrays.fill(this.keys, EMPTY);
+        this.counts = new int[newLen];
+        this.hashed = true;
+        for (int i = 0; i < oldLen; i++) {
+            int key = oldKeys[i];
+            if (key != EMPTY) {
+                int slot = this.placeKey(key);
+                this.counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Store a key in the first empty slot of its probe sequence.
+     *
+     * @param key	key to store
+     *
+     * @return the slot used
+     */
+    private int placeKey(int key) {
+        int mask = this.keys.length - 1;
+        int retVal = hash(key) & mask;
+        while (this.keys[retVal] != EMPTY)
+            retVal = (retVal + 1) & mask;
+        this.keys[retVal] = key;
+        return retVal;
+    }
+
+    /**
+     * @return a scrambled hash code for a key, so that runs of consecutive IDs spread across the table
+     *
+     * @param key	key to hash
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
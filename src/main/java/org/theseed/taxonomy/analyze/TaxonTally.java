@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This interface describes an object that tallies occurrences of taxonomic IDs for a single rank of a
+ * {@link TaxonomyCounter}.  An exact tally knows every ID and its count.  An approximate tally uses a
+ * fixed amount of memory, and can only estimate some of its results.  Approximate tallies cannot remove
+ * occurrences.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface TaxonTally {
+
+    /**
+     * Add one occurrence of a key.
+     *
+     * @param key	key to count (must be non-negative)
+     *
+     * @return the new count (or estimated count) for the key
+     */
+    public int count(int key);
+
+    /**
+     * Add occurrences of a key.
+     *
+     * @param key	key to count (must be non-negative)
+     * @param num	number of occurrences to add
+     *
+     * @return the new count (or estimated count) for the key
+     */
+    public int count(int key, int num);
+
+    /**
+     * Remove one occurrence of a key.
+     *
+     * @param key	key to remove
+     *
+     * @return the new count, or -1 if the key was not in the tally
+     *
+     * @throws UnsupportedOperationException if the tally is approximate
+     */
+    public int uncount(int key);
+
+    /**
+     * Add all the occurrences from another tally to this one.
+     *
+     * @param other		tally to merge into this one
+     *
+     * @throws IllegalArgumentException if the other tally cannot be merged into this type of tally
+     */
+    public void merge(TaxonTally other);
+
+    /**
+     * Verify that another tally can be merged into this one, without changing either tally.
+     *
+     * @param other		tally to check
+     *
+     * @throws IllegalArgumentException if the other tally cannot be merged into this type of tally
+     */
+    public void checkMerge(TaxonTally other);
+
+    /**
+     * @return the count (or estimated count) for a key, or 0 if the key is not tracked
+     *
+     * @param key	key of interest
+     */
+    public int getCount(int key);
+
+    /**
+     * @return the number (or estimated number) of distinct keys counted
+     */
+    public int size();
+
+    /**
+     * @return an array of the keys tracked, in no particular order; for an approximate tally, these are
+     * 		   the most frequent keys
+     */
+    public int[] keys();
+
+    /**
+     * @return TRUE if this tally is exact
+     */
+    public boolean isExact();
+
+    /**
+     * @return the type code used to identify this kind of tally in a partial file
+     */
+    public int getTallyType();
+
+    /**
+     * Write this tally to a binary output stream.  The type code is not included.
+     *
+     * @param outStream		output stream to receive the tally
+     *
+     * @throws IOException
+     */
+    public void write(DataOutputStream outStream) throws IOException;
+
+}
@@ -3,10 +3,16 @@
  */
 package org.theseed.taxonomy.analyze;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 
-import org.theseed.counters.CountMap;
 import org.theseed.taxonomy.Rank;
+import org.theseed.taxonomy.SubtreeTotals;
 import org.theseed.taxonomy.TreeOfLife;
 import org.theseed.taxonomy.TreeOfLife.Taxon;
 
@@ -15,15 +21,42 @@ import org.theseed.taxonomy.TreeOfLife.Taxon;
  * it with taxonomic IDs, and these are stored in the object.  At any time, the number of distinct values
  * found at each ranking level can be interrogated.
  *
+ * The counts are kept in primitive maps keyed by taxonomic ID, so a counter for a small group costs
+ * only a few small arrays.
+ *
+ * The counter also reports the lowest common ancestor of the group:  the smallest taxonomic grouping that
+ * contains all of its members.  By default, an exact counter is removable:  it tracks the valid taxonomic
+ * IDs registered, so that registrations can be taken out again with {@link #unregister(int)}, and the
+ * lowest common ancestor is computed from the members when it is requested and kept until the counter
+ * changes.  A counter that will never have registrations removed can be created without the member map,
+ * which saves memory.  In that case, the lowest common ancestor is updated with each registration.  Only
+ * exact counters can be removable.
+ *
+ * The counts for each rank are kept in a {@link TaxonTally} created by a {@link TallyFactory}.  By default,
+ * the tallies are exact.  An approximate counter uses fixed-size tallies instead, so its memory does not
+ * grow with the diversity of the group.  If the tallies are {@link HyperLogLogTally} objects, the distinct
+ * counts are estimated from a few hundred bytes per rank, no matter how large the group.
+ *
+ * An exact counter also keeps running {@link DiversityStats} for each rank, so the Shannon, Simpson, and
+ * Chao1 indices are available at any time without a second pass over the counts.
+ *
  * @author Bruce Parrello
  *
  */
 public class TaxonomyCounter implements Comparable<TaxonomyCounter> {
 
     // FIELDS
-    /** array of bags, one per rank, containing the taxonomies found at each rank and how many
+    /** array of bags, one per rank, containing the IDs of the taxonomies found at each rank and how many
      * times each one was found */
-    private CountMap<Taxon> counters[];
+    private TaxonTally[] counters;
+    /** map of the valid taxonomic IDs registered to the number of times each was registered, or NULL if
+     *  the counter is not removable */
+    private TaxonCountMap members;
+    /** ID of the lowest common ancestor of the members, -1 if there is none, or {@link #STALE} if it
+     *  needs to be recomputed */
+    private int lcaId;
+    /** marker for a lowest common ancestor that needs to be recomputed */
+    private static final int STALE = -2;
     /** taxonomic tree for this counter */
     private TreeOfLife mainTree;
     /** number of invalid group registrations presented */
@@ -32,20 +65,106 @@ public class TaxonomyCounter implements Comparable<TaxonomyCounter> {
     private int totalCount;
     /** name of this counter */
     private String name;
+    /** running statistics for the diversity indices, or NULL if the counter is approximate */
+    private DiversityStats diversity;
+    /** buffer for retrieving lineages from the tree */
+    private int[] lineage;
 
     /**
-     * Construct an empty taxonomic counter for a single group.
+     * This class represents the count for a single taxonomic grouping.
+     */
+    public static class Count implements Comparable<Count> {
+
+        /** taxonomic grouping counted */
+        private Taxon key;
+        /** number of occurrences */
+        private int count;
+
+        /**
+         * Create a count record.
+         *
+         * @param key		taxonomic grouping counted
+         * @param count		number of occurrences
+         */
+        public Count(Taxon key, int count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        /**
+         * @return the taxonomic grouping counted
+         */
+        public Taxon getKey() {
+            return this.key;
+        }
+
+        /**
+         * @return the number of occurrences
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+        /**
+         * Sort by highest count, then by taxonomic ID.
+         */
+        @Override
+        public int compareTo(Count o) {
+            int retVal = o.count - this.count;
+            if (retVal == 0) {
+                retVal = this.key.compareTo(o.key);
+            }
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Construct an empty, exact, removable taxonomic counter for a single group.
      *
+     * @param name	name of the group
      * @param tree	taxonomic tree relevant to this counter
      */
-    @SuppressWarnings("unchecked")
     public TaxonomyCounter(String name, TreeOfLife tree) {
-        this.counters = (CountMap<Taxon>[]) new CountMap[Rank.nGood()];
+        this(name, tree, TallyFactory.EXACT);
+    }
+
+    /**
+     * Construct an empty taxonomic counter for a single group.  The counter is removable if it is exact.
+     *
+     * @param name		name of the group
+     * @param tree		taxonomic tree relevant to this counter
+     * @param factory	factory for creating the rank tallies
+     */
+    public TaxonomyCounter(String name, TreeOfLife tree, TallyFactory factory) {
+        this(name, tree, factory, true);
+    }
+
+    /**
+     * Construct an empty taxonomic counter for a single group.
+     *
+     * @param name		name of the group
+     * @param tree		taxonomic tree relevant to this counter
+     * @param factory	factory for creating the rank tallies
+     * @param removable	TRUE if registrations must be removable; this is ignored if the tallies are
+     * 					approximate
+     */
+    public TaxonomyCounter(String name, TreeOfLife tree, TallyFactory factory, boolean removable) {
+        this.counters = new TaxonTally[Rank.nGood()];
         for (int i = 0; i < this.counters.length; i++) {
-            this.counters[i] = new CountMap<Taxon>();
+            this.counters[i] = factory.create();
         }
+        if (this.counters[0].isExact()) {
+            this.members = (removable ? new TaxonCountMap() : null);
+            this.diversity = new DiversityStats(this.counters.length);
+        } else {
+            this.members = null;
+            this.diversity = null;
+        }
+        this.lcaId = -1;
         this.name = name;
         this.mainTree = tree;
+        this.lineage = new int[TreeOfLife.LINEAGE_WIDTH];
         this.invalidCount = 0;
         this.totalCount = 0;
     }
@@ -54,30 +173,243 @@ public class TaxonomyCounter implements Comparable<TaxonomyCounter> {
      * Register the occurrence of a member of a particular taxonomic grouping.
      *
      * @param taxId		taxonomic ID of the low-level grouping whose member was encountered
+     *
+     * @return the number of rank tallies updated, or -1 if the taxonomic ID is not in the tree
      */
-    public void register(int taxId) {
-        // Get the taxon object for this grouping.
-        Taxon found = mainTree.find(taxId);
-        // We should always find one, but there are a few glitches always.
-        if (found == null) {
+    public int register(int taxId) {
+        int retVal = -1;
+        // Get the ranked lineage for this grouping.  We should always find one, but there are a few
+        // glitches always.
+        if (! mainTree.getLineage(taxId, this.lineage)) {
             this.invalidCount++;
         } else {
-            // Loop until we fall off the tree.
-            while (found != null) {
-                // Count this group.
-                if (found.getRank() != Rank.OTHER) {
-                    this.counters[found.getRank().getIdx()].count(found);
+            retVal = 0;
+            // Count the ancestor at each rank.
+            for (int i = 0; i < this.counters.length; i++) {
+                int ancestorId = this.lineage[i];
+                if (ancestorId >= 0) {
+                    int newCount = this.counters[i].count(ancestorId);
+                    if (this.diversity != null)
+                        this.diversity.change(i, newCount - 1, newCount);
+                    retVal++;
                 }
-                // Percolate to the parent.
-                found = found.getParent();
             }
+            this.registerMember(taxId);
             // Add to the total count.
             this.totalCount++;
         }
+        return retVal;
+    }
+
+    /**
+     * Record a valid registration for the lowest common ancestor.
+     *
+     * @param taxId		taxonomic ID registered
+     */
+    private void registerMember(int taxId) {
+        if (this.members != null) {
+            this.members.count(taxId);
+            this.lcaId = STALE;
+        } else if (this.totalCount == 0) {
+            this.lcaId = taxId;
+        } else if (this.lcaId >= 0) {
+            this.lcaId = this.mainTree.getLca(this.lcaId, taxId);
+        }
     }
 
     /**
-     * @return the number of distinct groups at the specified rank level.
+     * Remove a previous registration of a member of a particular taxonomic grouping.  This is the inverse
+     * of {@link #register(int)}.
+     *
+     * @param taxId		taxonomic ID of the low-level grouping whose member was removed
+     *
+     * @return TRUE if successful, FALSE if no matching registration was found
+     *
+     * @throws UnsupportedOperationException if this counter is not removable
+     */
+    public boolean unregister(int taxId) {
+        if (this.members == null)
+            throw new UnsupportedOperationException("Cannot remove registrations from a counter that is not "
+                    + "removable.");
+        boolean retVal;
+        if (! mainTree.getLineage(taxId, this.lineage)) {
+            retVal = (this.invalidCount > 0);
+            if (retVal) this.invalidCount--;
+        } else {
+            // Verify the registration is here before changing anything.
+            retVal = (this.members.getCount(taxId) > 0);
+            for (int i = 0; i < this.counters.length && retVal; i++) {
+                int ancestorId = this.lineage[i];
+                if (ancestorId >= 0 && this.counters[i].getCount(ancestorId) == 0)
+                    retVal = false;
+            }
+            if (retVal) {
+                for (int i = 0; i < this.counters.length; i++) {
+                    int ancestorId = this.lineage[i];
+                    if (ancestorId >= 0) {
+                        int newCount = this.counters[i].uncount(ancestorId);
+                        this.diversity.change(i, newCount + 1, newCount);
+                    }
+                }
+                this.members.uncount(taxId);
+                this.lcaId = STALE;
+                this.totalCount--;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Add the counts from another counter to this one.  The result is the same as if all the taxonomic
+     * IDs registered with the other counter had been registered with this one, subject to the accuracy of
+     * an approximate counter.  An approximate counter cannot be merged into an exact one.  If this counter
+     * is removable and the other is not, this counter stops being removable.
+     *
+     * @param other		counter to merge into this one
+     *
+     * @throws IllegalArgumentException if the other counter cannot be merged into this one, in which case
+     * 									this counter is unchanged
+     */
+    public void merge(TaxonomyCounter other) {
+        // Verify every rank can be merged before anything changes.
+        for (int i = 0; i < this.counters.length; i++)
+            this.counters[i].checkMerge(other.counters[i]);
+        for (int i = 0; i < this.counters.length; i++) {
+            if (this.diversity != null) {
+                // Update the statistics for each grouping in the other counter before its count changes.
+                TaxonTally otherCounter = other.counters[i];
+                for (int taxId : otherCounter.keys()) {
+                    int oldCount = this.counters[i].getCount(taxId);
+                    this.diversity.change(i, oldCount, oldCount + otherCounter.getCount(taxId));
+                }
+            }
+            this.counters[i].merge(other.counters[i]);
+        }
+        if (this.members != null && other.members == null) {
+            // The other counter's members are unknown, so this one falls back to the incremental ancestor.
+            this.lcaId = this.getLcaId();
+            this.members = null;
+        }
+        if (this.members != null) {
+            this.members.merge(other.members);
+            this.lcaId = STALE;
+        } else if (other.totalCount > 0) {
+            int otherLca = other.getLcaId();
+            if (this.totalCount == 0)
+                this.lcaId = otherLca;
+            else if (this.lcaId >= 0 && otherLca >= 0)
+                this.lcaId = this.mainTree.getLca(this.lcaId, otherLca);
+            else
+                this.lcaId = -1;
+        }
+        this.invalidCount += other.invalidCount;
+        this.totalCount += other.totalCount;
+    }
+
+    /**
+     * Write the state of this counter to a binary output stream.  Each rank tally is preceded by its
+     * type code.  A removable counter ends with a flag of 1 and its member map, and any other counter
+     * with a flag of 0 and its lowest common ancestor.
+     *
+     * @param outStream		output stream to receive the counter
+     *
+     * @throws IOException
+     */
+    public void write(DataOutputStream outStream) throws IOException {
+        outStream.writeUTF(this.name);
+        outStream.writeInt(this.totalCount);
+        outStream.writeInt(this.invalidCount);
+        for (TaxonTally rankCounter : this.counters) {
+            outStream.writeByte(rankCounter.getTallyType());
+            rankCounter.write(outStream);
+        }
+        if (this.members != null) {
+            outStream.writeByte(1);
+            this.members.write(outStream);
+        } else {
+            outStream.writeByte(0);
+            outStream.writeInt(this.getLcaId());
+        }
+    }
+
+    /**
+     * Read a counter written by {@link #write(DataOutputStream)}.
+     *
+     * @param inStream		input stream containing the counter
+     * @param tree			taxonomic tree relevant to the counter
+     *
+     * @return the counter read
+     *
+     * @throws IOException
+     */
+    public static TaxonomyCounter read(DataInputStream inStream, TreeOfLife tree) throws IOException {
+        String name = inStream.readUTF();
+        TaxonomyCounter retVal = new TaxonomyCounter(name, tree, TallyFactory.EXACT, false);
+        retVal.totalCount = inStream.readInt();
+        retVal.invalidCount = inStream.readInt();
+        for (int i = 0; i < retVal.counters.length; i++) {
+            retVal.counters[i] = readTally(inStream);
+            if (retVal.counters[i] == null)
+                throw new IOException("Missing rank tally for group " + name + " in partial file.");
+        }
+        if (inStream.readByte() != 0) {
+            if (! retVal.counters[0].isExact())
+                throw new IOException("Approximate group " + name + " has a member map in partial file.");
+            retVal.members = new TaxonCountMap();
+            retVal.members.read(inStream);
+            retVal.lcaId = STALE;
+        } else {
+            retVal.lcaId = inStream.readInt();
+        }
+        if (retVal.counters[0].isExact()) {
+            // The diversity statistics are not saved, so we recompute them from the counts.
+            for (int i = 0; i < retVal.counters.length; i++) {
+                TaxonTally rankCounter = retVal.counters[i];
+                for (int taxId : rankCounter.keys())
+                    retVal.diversity.change(i, 0, rankCounter.getCount(taxId));
+            }
+        } else {
+            retVal.diversity = null;
+        }
+        return retVal;
+    }
+
+    /**
+     * Read a rank tally and its type code.
+     *
+     * @param inStream		input stream containing the tally
+     *
+     * @return the tally read, or NULL if the type code is -1
+     *
+     * @throws IOException
+     */
+    static TaxonTally readTally(DataInputStream inStream) throws IOException {
+        TaxonTally retVal;
+        int type = inStream.readByte();
+        switch (type) {
+        case TaxonCountMap.TALLY_TYPE :
+            TaxonCountMap map = new TaxonCountMap();
+            map.read(inStream);
+            retVal = map;
+            break;
+        case SpaceSavingTally.TALLY_TYPE :
+            retVal = SpaceSavingTally.read(inStream);
+            break;
+        case HyperLogLogTally.TALLY_TYPE :
+            retVal = HyperLogLogTally.read(inStream);
+            break;
+        case -1 :
+            retVal = null;
+            break;
+        default :
+            throw new IOException("Unknown tally type " + type + " in partial file.");
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of distinct groups at the specified rank level; for an approximate counter, this
+     * 		   may be an estimate
      *
      * @param rnk	rank level of interest
      */
@@ -93,7 +425,11 @@ public class TaxonomyCounter implements Comparable<TaxonomyCounter> {
      */
     public int countOf(Taxon taxon) {
         Rank rnk = taxon.getRank();
-        return this.counters[rnk.getIdx()].getCount(taxon);
+        int retVal = 0;
+        if (rnk != Rank.OTHER) {
+            retVal = this.counters[rnk.getIdx()].getCount(taxon.getId());
+        }
+        return retVal;
     }
 
     /**
@@ -112,12 +448,167 @@ public class TaxonomyCounter implements Comparable<TaxonomyCounter> {
 
     /**
      * @return the individual counts for the specified rank, sorted from most frequent to least
-     * 		   frequent
+     * 		   frequent; for an approximate counter, only the most frequent groupings are included, and the
+     * 		   counts are estimates
+     *
+     * @param rnk	rank of interest
+     */
+    public List<Count> sortedCounts(Rank rnk) {
+        TaxonTally rankCounter = this.counters[rnk.getIdx()];
+        int[] taxIds = rankCounter.keys();
+        List<Count> retVal = new ArrayList<Count>(taxIds.length);
+        for (int taxId : taxIds) {
+            retVal.add(new Count(mainTree.find(taxId), rankCounter.getCount(taxId)));
+        }
+        retVal.sort(null);
+        return retVal;
+    }
+
+    /**
+     * @return the ID of the lowest common ancestor of the valid taxonomic IDs registered, or -1 if there
+     * 		   are none
+     */
+    public int getLcaId() {
+        if (this.lcaId == STALE)
+            this.lcaId = this.mainTree.getLca(this.members.keys());
+        return this.lcaId;
+    }
+
+    /**
+     * @return the lowest common ancestor of the valid taxonomic IDs registered, or NULL if there are none
+     */
+    public Taxon getLca() {
+        int lcaId = this.getLcaId();
+        return (lcaId < 0 ? null : this.mainTree.find(lcaId));
+    }
+
+    /**
+     * @return the rank of the lowest common ancestor, or of its nearest ranked ancestor if it is unranked;
+     * 		   OTHER if there is no ranked ancestor, or NULL if there are no valid members
+     */
+    public Rank getLcaRank() {
+        Rank retVal = null;
+        int lcaId = this.getLcaId();
+        if (lcaId >= 0) {
+            retVal = Rank.OTHER;
+            this.mainTree.getLineage(lcaId, this.lineage);
+            for (int i = this.lineage.length - 1; i >= 0 && retVal == Rank.OTHER; i--) {
+                if (this.lineage[i] >= 0)
+                    retVal = Rank.values()[i];
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the counts for the most frequent groupings at the specified rank, sorted from most frequent
+     * 		   to least frequent
+     *
+     * @param rnk	rank of interest
+     * @param k		maximum number of groupings to return
+     */
+    public List<Count> topCounts(Rank rnk, int k) {
+        TaxonTally rankCounter = this.counters[rnk.getIdx()];
+        // Keep the best k in a heap with the worst at the head, so we never sort the whole tally.
+        PriorityQueue<Count> best = new PriorityQueue<Count>(k + 1, Collections.reverseOrder());
+        for (int taxId : rankCounter.keys()) {
+            Count count = new Count(mainTree.find(taxId), rankCounter.getCount(taxId));
+            best.add(count);
+            if (best.size() > k)
+                best.poll();
+        }
+        List<Count> retVal = new ArrayList<Count>(best);
+        retVal.sort(null);
+        return retVal;
+    }
+
+    /**
+     * @return the Shannon diversity index (natural log) of the groupings at the specified rank
      *
      * @param rnk	rank of interest
+     *
+     * @throws UnsupportedOperationException if this counter is approximate
+     */
+    public double shannonOf(Rank rnk) {
+        return this.getDiversity().shannon(rnk.getIdx());
+    }
+
+    /**
+     * @return the Gini-Simpson diversity index of the groupings at the specified rank
+     *
+     * @param rnk	rank of interest
+     *
+     * @throws UnsupportedOperationException if this counter is approximate
+     */
+    public double simpsonOf(Rank rnk) {
+        return this.getDiversity().simpson(rnk.getIdx());
+    }
+
+    /**
+     * @return the Chao1 estimate of the total number of groupings at the specified rank, including those
+     * 		   not observed
+     *
+     * @param rnk	rank of interest
+     *
+     * @throws UnsupportedOperationException if this counter is approximate
+     */
+    public double chao1Of(Rank rnk) {
+        return this.getDiversity().chao1(rnk.getIdx(), this.typesOf(rnk));
+    }
+
+    /**
+     * @return the diversity statistics for this counter
+     *
+     * @throws UnsupportedOperationException if this counter is approximate
+     */
+    private DiversityStats getDiversity() {
+        if (this.diversity == null)
+            throw new UnsupportedOperationException("Diversity indices require an exact counter.");
+        return this.diversity;
+    }
+
+    /**
+     * Add this counter's registrations to a set of subtree totals.  Each valid registration is credited to its
+     * deepest ranked grouping, so after a rollup the totals give the number of registrations under every
+     * grouping at or above a member's deepest ranked grouping (for example, the number of genomes under every
+     * order or family).  The counts come from the rank tallies, so this works whether or not the counter is
+     * removable.  Registrations with no ranked grouping at all are not credited.
+     *
+     * @param totals	subtree totals to update
+     *
+     * @throws UnsupportedOperationException if this counter is approximate
+     */
+    public void addTo(SubtreeTotals totals) {
+        if (this.diversity == null)
+            throw new UnsupportedOperationException("Subtree totals require an exact counter.");
+        for (int i = 0; i < this.counters.length; i++) {
+            TaxonTally rankCounter = this.counters[i];
+            for (int taxId : rankCounter.keys()) {
+                // A grouping's tally includes the registrations credited below it.  Those are taken back out of
+                // the nearest ranked ancestor, so each registration is left at its deepest ranked grouping.
+                int count = rankCounter.getCount(taxId);
+                totals.add(taxId, count);
+                this.mainTree.getLineage(taxId, this.lineage);
+                int j = i - 1;
+                while (j >= 0 && this.lineage[j] < 0) j--;
+                if (j >= 0)
+                    totals.add(this.lineage[j], -count);
+            }
+        }
+    }
+
+    /**
+     * @return TRUE if this counter is exact, FALSE if it is approximate
+     */
+    public boolean isExact() {
+        return this.diversity != null;
+    }
+
+    /**
+     * @return TRUE if registrations can be removed from this counter
      */
-    public List<CountMap<Taxon>.Count> sortedCounts(Rank rnk) {
-        return this.counters[rnk.getIdx()].sortedCounts();
+    public boolean isRemovable() {
+        return this.members != null;
     }
 
     /**
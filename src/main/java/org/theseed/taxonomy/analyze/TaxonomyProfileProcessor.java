@@ -5,13 +5,30 @@ package org.theseed.taxonomy.analyze;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
-import org.theseed.io.TabbedLineReader;
+import org.theseed.taxonomy.LineageRenderer;
 import org.theseed.taxonomy.Rank;
 import org.theseed.taxonomy.TreeOfLife;
 
@@ -19,9 +36,14 @@ import org.theseed.taxonomy.TreeOfLife;
  * This is the main execution class for taxonomy analysis.  It reads through a file of genomes with
  * taxonomic information and builds a profile based on a group ID.
  *
- * The positional parameter is the name of the load file for the taxonomy tree.  The standard input should
- * contain the genomes in the groups to be profiled.  It must be tab-delimited, with one genome per line,
- * and a header line.  The standard output will contain a formatted report.
+ * The first positional parameter is the name of the load file for the taxonomy tree.  This can also be a
+ * binary snapshot of the tree produced by the "snapshot" command, in which case it is memory-mapped rather
+ * than parsed.  The remaining positional parameters are the files containing the genomes in the groups to be
+ * profiled; each may be a glob pattern in its last path component (for example, "shards/part-*.tbl.gz").  If
+ * there are no input files, the genomes are read from the standard input.  The input must be tab-delimited,
+ * with one genome per line, and each file must have a header line.  Each input is checked for compression,
+ * and gzip or Zstandard input is decompressed automatically.  The standard output will contain a formatted
+ * report.
  *
  * The following command-line options are supported.
  *
@@ -29,6 +51,82 @@ import org.theseed.taxonomy.TreeOfLife;
  * -t	the index (1-based) or name of the input column containing the taxonomy ID; the default is "taxon_id"
  * -v	display progress on STDERR
  *
+ * -o	if specified, the name of a partial file to which the profiler state should be written instead of
+ * 		producing a report; partial files can be combined into a report with the "merge" command
+ *
+ * --threads	number of worker threads for parsing and counting the input; the default is 1, which processes
+ * 				the input on the main thread
+ * --state		if specified, the name of a partial file containing a previously-saved profiler state; the
+ * 				input genomes are added to this state
+ * --removed	if specified, the name of a tab-delimited file of genomes to remove from the profile; it must
+ * 				have a header line and the same group ID and taxonomy ID columns as the standard input
+ * --removable	track the members of each group, so genomes can be removed from the profile; this is implied
+ * 				by --removed, and is needed when saving a partial file that will later be loaded with --state
+ * 				in a run that removes genomes
+ *
+ * --include-clade	taxonomic ID of a clade to include; only genomes in one of the included clades are profiled;
+ * 					may be specified more than once
+ * --exclude-clade	taxonomic ID of a clade to exclude; genomes in an excluded clade are not profiled; may be
+ * 					specified more than once
+ *
+ * --top				if specified, the maximum number of groups to report; only the largest groups are kept
+ * --sorted-input	the input is sorted by group ID; each group is reported as soon as it is complete, and only
+ * 					one group is kept in memory
+ * --external-sort	the input is not sorted, but it is sorted on disk by group ID and then processed as in
+ * 					--sorted-input mode
+ * --sort-limit		maximum number of genomes to hold in memory during an external sort; the default is 1000000
+ * --spill-dir		directory for the temporary files of an external sort; the default is the system
+ * 					temporary directory
+ *
+ * --top-taxa		if specified, the number of most frequent taxonomic groupings to list for each group
+ * --taxa-rank		rank of the groupings listed by --top-taxa or used by "--lineage dominant"; the default is
+ * 					"genus"
+ * --sketch			if specified, the counters are approximate:  each rank of each group tracks only this many of
+ * 					its most frequent groupings, so memory does not grow with diversity
+ * --diversity		add columns for the Shannon index, Gini-Simpson index, and Chao1 richness estimate of the
+ * 					groupings at this rank; may be repeated for multiple ranks
+ * --lineage		add a taxonomy string column:  "lca" for the lowest common ancestor of each group, or "dominant"
+ * 					for the group's most frequent grouping at the --taxa-rank rank
+ * --lineage-rank	rank to include in the taxonomy strings; may be repeated, and the default is to include all
+ * 					groupings that are not hidden
+ * --approximate	estimate the distinct counts in the family, genus, and species columns with a HyperLogLog
+ * 					for each rank of each group, so memory does not grow with diversity
+ * --error			relative standard error of the --approximate estimates; the default is 0.05
+ *
+ * --metrics			if specified, the name of a file to receive a JSON summary of the run:  the time in each phase
+ * 					(load, ingest, register, merge, sort, and report), the rows per second, the rank tallies
+ * 					updated per registration, the number of groups and group IDs, the invalid taxonomic ID
+ * 					rate, and the peak heap use
+ * --metrics-interval	if specified, the number of seconds between progress reports on STDERR with the rows read,
+ * 					the throughput, the number of groups, the invalid rate, and the heap use
+ *
+ * --cache		if specified, a genome cache file created by the "cache" command; the genomes are read from the
+ * 				cache instead of from input files, and the -c option names one of the cached group columns
+ *
+ * The --state and --removed options support incremental updates.  The profiler state is saved with "-o", and each
+ * subsequent run applies a delta file of new genomes (and optionally a file of removed genomes) to it.  Genomes can
+ * only be removed from a state that tracks the members of its groups, so if removals are expected, the state
+ * must be saved with --removable.  A run with --removed does this automatically.
+ *
+ * In multi-threaded mode, the main thread reads the input in batches of lines.  Each worker parses the
+ * batches it receives and registers them in its own partial profiler, and the partial profilers are merged
+ * at the end.  The report is the same as in single-threaded mode.  When there are several input files, the
+ * workers instead claim whole files:  each worker decompresses, parses, and counts one shard at a time, so
+ * the decompression is spread over the threads as well.  With --cache, each worker counts a contiguous range
+ * of the cached rows directly from the memory-mapped columns.
+ *
+ * In the streaming modes (--sorted-input and --external-sort), the report rows are in group ID order
+ * instead of being sorted by size, unless --top is specified.  The group IDs must sort in Java string
+ * order (for example, "LC_ALL=C sort").  Streaming cannot be combined with multiple threads or with the
+ * options that use profiler state files.
+ *
+ * In --sketch mode, the top-taxa counts are estimates, and the distinct counts in the family, genus, and
+ * species columns are lower bounds once a group has more distinct groupings at a rank than the sketch size,
+ * unless --approximate is also specified.  In --approximate mode, the distinct counts are exact for small
+ * groups and estimates for large ones.  Without --sketch, an --approximate counter keeps only the distinct
+ * counts, so --top-taxa requires both options.  Genomes cannot be removed from approximate counters, so
+ * --removed is not allowed with either option.
+ *
  *
  * @author Bruce Parrello
  *
@@ -40,6 +138,22 @@ public class TaxonomyProfileProcessor {
     TreeOfLife taxTree;
     /** main taxonomy profiler */
     TaxonomyProfiler profiler;
+    /** clade filter, or NULL if all genomes are profiled */
+    CladeFilter cladeFilter;
+    /** performance metrics for this run */
+    ProfileMetrics metrics;
+    /** list of input files; if empty, the standard input is read */
+    List<File> inFiles;
+    /** genome cache, or NULL if the genomes are read from text input */
+    GenomeCache genomeCache;
+    /** index of the group column in the genome cache */
+    int cacheCol;
+    /** number of bytes of input in each batch passed to a worker thread */
+    private static final int CHUNK_SIZE = 1 << 19;
+    /** number of milliseconds to wait for a shard worker between progress checks */
+    private static final long PROGRESS_WAIT = 250;
+    /** empty batch used to tell a worker thread the input is exhausted */
+    private static final Batch END_OF_INPUT = new Batch(new byte[0], 0);
 
     // COMMAND LINE
 
@@ -59,10 +173,109 @@ public class TaxonomyProfileProcessor {
     @Option(name="-v", aliases={"--debug", "verbose"}, usage="display progress messages on STDERR")
     boolean debug;
 
+    /** partial output file */
+    @Option(name="-o", aliases={"--partial"}, metaVar="partial.ser", usage="save profiler state to a partial file instead of writing a report")
+    File partialFile;
+
+    /** number of worker threads */
+    @Option(name="--threads", metaVar="1", usage="number of worker threads for processing the input")
+    int threads;
+
+    /** previous profiler state file */
+    @Option(name="--state", metaVar="old.ser", usage="partial file containing previous profiler state")
+    File stateFile;
+
+    /** file of genomes to remove */
+    @Option(name="--removed", metaVar="removed.tbl", usage="file of genomes to remove from the profile")
+    File removedFile;
+
+    /** TRUE to track the group members so genomes can be removed */
+    @Option(name="--removable", usage="track group members so that genomes can be removed later")
+    boolean removable;
+
+    /** clades to include */
+    @Option(name="--include-clade", metaVar="1224", usage="taxonomic ID of a clade to include (may repeat)")
+    List<Integer> includeClades;
+
+    /** clades to exclude */
+    @Option(name="--exclude-clade", metaVar="32199", usage="taxonomic ID of a clade to exclude (may repeat)")
+    List<Integer> excludeClades;
+
+    /** maximum number of groups to report */
+    @Option(name="--top", metaVar="100", usage="if specified, report only the largest groups")
+    int topLimit;
+
+    /** sorted streaming mode */
+    @Option(name="--sorted-input", usage="input is sorted by group ID; stream groups with bounded memory")
+    boolean sortedInput;
+
+    /** external sort mode */
+    @Option(name="--external-sort", usage="sort unsorted input on disk, then stream groups with bounded memory")
+    boolean externalSort;
+
+    /** external sort memory limit */
+    @Option(name="--sort-limit", metaVar="1000000", usage="maximum genomes in memory during an external sort")
+    int sortLimit;
+
+    /** external sort spill directory */
+    @Option(name="--spill-dir", metaVar="/tmp", usage="directory for external sort temporary files")
+    File spillDir;
+
+    /** number of top taxa to list */
+    @Option(name="--top-taxa", metaVar="10", usage="if specified, list the most frequent groupings for each group")
+    int topTaxa;
+
+    /** rank for the top taxa */
+    @Option(name="--taxa-rank", metaVar="genus", usage="rank of the groupings listed by --top-taxa")
+    String taxaRank;
+
+    /** sketch size for approximate counters */
+    @Option(name="--sketch", metaVar="100", usage="if specified, track only this many groupings per rank per group")
+    int sketchSize;
+
+    /** ranks for the diversity columns */
+    @Option(name="--diversity", metaVar="genus", usage="add Shannon, Simpson, and Chao1 columns for a rank (may repeat)")
+    List<String> diversityRanks;
+
+    /** source of the taxonomy string column */
+    @Option(name="--lineage", metaVar="lca", usage="add a taxonomy string for each group's LCA (lca) or its most frequent grouping at --taxa-rank (dominant)")
+    String lineageMode;
+
+    /** ranks to include in the taxonomy strings */
+    @Option(name="--lineage-rank", metaVar="genus", usage="rank to include in the taxonomy strings (may repeat; default is all ranks)")
+    List<String> lineageRanks;
+
+    /** TRUE to estimate the distinct counts */
+    @Option(name="--approximate", usage="estimate the distinct counts for each group in a fixed amount of memory")
+    boolean approximate;
+
+    /** relative standard error for the distinct-count estimates */
+    @Option(name="--error", metaVar="0.05", usage="relative standard error of the --approximate distinct counts")
+    double errorBound;
+
+    /** JSON metrics summary file */
+    @Option(name="--metrics", metaVar="metrics.json", usage="if specified, write a JSON summary of the run metrics to this file")
+    File metricsFile;
+
+    /** progress report interval */
+    @Option(name="--metrics-interval", metaVar="60", usage="if specified, report progress metrics on STDERR every this many seconds")
+    int metricsInterval;
+
+    /** genome cache file */
+    @Option(name="--cache", metaVar="genomes.cache", usage="if specified, read the genomes from a cache built by the cache command")
+    File cacheFile;
+
+    /** tally factory for new counters */
+    private TallyFactory tallyFactory;
+
     /** tree of life input file */
-    @Argument(index=0, metaVar="taxonomy_file.dtx", usage="file containing full taxonomy tree", required=true)
+    @Argument(index=0, metaVar="taxonomy_file.dtx", usage="file containing full taxonomy tree (load file or snapshot)", required=true)
     File taxFile;
 
+    /** genome input files */
+    @Argument(index=1, metaVar="genomes.tbl ...", usage="genome input files or glob patterns (default is STDIN)", multiValued=true)
+    List<String> inputSpecs;
+
     /** Parse the command line parameters and options. */
     public boolean parseCommand(String[] args) {
         boolean retVal = false;
@@ -71,19 +284,123 @@ public class TaxonomyProfileProcessor {
         this.groupCol = "group_id";
         this.taxCol = "taxon_id";
         this.debug = false;
+        this.threads = 1;
+        this.partialFile = null;
+        this.stateFile = null;
+        this.removedFile = null;
+        this.removable = false;
+        this.includeClades = new ArrayList<Integer>();
+        this.excludeClades = new ArrayList<Integer>();
+        this.cladeFilter = null;
+        this.topLimit = 0;
+        this.sortedInput = false;
+        this.externalSort = false;
+        this.sortLimit = 1000000;
+        this.spillDir = null;
+        this.topTaxa = 0;
+        this.taxaRank = "genus";
+        this.sketchSize = 0;
+        this.diversityRanks = new ArrayList<String>();
+        this.lineageMode = null;
+        this.lineageRanks = new ArrayList<String>();
+        this.approximate = false;
+        this.errorBound = 0.05;
+        this.metricsFile = null;
+        this.metricsInterval = 0;
+        this.cacheFile = null;
+        this.genomeCache = null;
+        this.tallyFactory = TallyFactory.EXACT;
         this.taxFile = null;
+        this.inputSpecs = new ArrayList<String>();
         CmdLineParser parser = new CmdLineParser(this);
         try {
             parser.parseArgument(args);
+            if (this.threads < 1)
+                throw UsageMessage.error(parser, "Number of threads must be at least 1.");
+            if (this.topLimit < 0)
+                throw UsageMessage.error(parser, "Top-group limit cannot be negative.");
+            if (this.sortLimit < 1)
+                throw UsageMessage.error(parser, "Sort limit must be at least 1.");
+            if (this.topTaxa < 0)
+                throw UsageMessage.error(parser, "Number of top taxa cannot be negative.");
+            if (this.topTaxa > 0 && Rank.rankOf(this.taxaRank) == Rank.OTHER)
+                throw UsageMessage.error(parser, "Invalid rank \"" + this.taxaRank + "\" for top taxa.");
+            for (String rank : this.diversityRanks) {
+                if (Rank.rankOf(rank) == Rank.OTHER)
+                    throw UsageMessage.error(parser, "Invalid rank \"" + rank + "\" for diversity.");
+            }
+            if (! this.diversityRanks.isEmpty() && (this.sketchSize > 0 || this.approximate))
+                throw UsageMessage.error(parser, "Diversity columns cannot be combined with --sketch or --approximate.");
+            if (this.lineageMode != null && ! this.lineageMode.equals("lca") && ! this.lineageMode.equals("dominant"))
+                throw UsageMessage.error(parser, "Lineage mode must be \"lca\" or \"dominant\".");
+            if (this.lineageMode != null && this.lineageMode.equals("dominant") && Rank.rankOf(this.taxaRank) == Rank.OTHER)
+                throw UsageMessage.error(parser, "Invalid rank \"" + this.taxaRank + "\" for dominant lineage.");
+            if (this.lineageMode != null && this.approximate && this.sketchSize == 0 && this.lineageMode.equals("dominant"))
+                throw UsageMessage.error(parser, "Dominant lineage requires --sketch in --approximate mode.");
+            if (this.sketchSize < 0)
+                throw UsageMessage.error(parser, "Sketch size cannot be negative.");
+            if (this.metricsInterval < 0)
+                throw UsageMessage.error(parser, "Metrics interval cannot be negative.");
+            if (this.removedFile != null)
+                this.removable = true;
+            if (this.sketchSize > 0) {
+                if (this.removable)
+                    throw UsageMessage.error(parser, "Cannot remove genomes in --sketch mode.");
+                this.tallyFactory = SpaceSavingTally.factory(this.sketchSize);
+            }
+            if (this.approximate) {
+                if (this.errorBound <= 0.0 || this.errorBound >= 1.0)
+                    throw UsageMessage.error(parser, "Error bound must be between 0 and 1.");
+                if (this.removable)
+                    throw UsageMessage.error(parser, "Cannot remove genomes in --approximate mode.");
+                if (this.topTaxa > 0 && this.sketchSize == 0)
+                    throw UsageMessage.error(parser, "--top-taxa requires --sketch in --approximate mode.");
+                // Without a sketch, the counters keep only the distinct counts.
+                TallyFactory inner = (this.sketchSize > 0 ? this.tallyFactory : null);
+                this.tallyFactory = HyperLogLogTally.factory(HyperLogLogTally.precisionFor(this.errorBound), inner);
+            }
+            if (this.sortedInput && this.externalSort)
+                throw UsageMessage.error(parser, "Cannot specify both --sorted-input and --external-sort.");
+            if (this.sortedInput || this.externalSort) {
+                if (this.threads > 1 || this.partialFile != null || this.stateFile != null || this.removedFile != null)
+                    throw UsageMessage.error(parser, "Streaming modes cannot be combined with --threads, -o, --state, or --removed.");
+            } else if (this.topLimit > 0 && this.partialFile != null) {
+                throw UsageMessage.error(parser, "Cannot specify both --top and -o.");
+            }
+            if (this.cacheFile != null) {
+                if (this.sortedInput || this.externalSort)
+                    throw UsageMessage.error(parser, "Streaming modes cannot be combined with --cache.");
+                if (! this.inputSpecs.isEmpty())
+                    throw UsageMessage.error(parser, "Cannot specify both input files and --cache.");
+            }
             if (this.help) {
                 parser.printUsage(System.err);
             } else {
+                this.inFiles = GenomeInput.expand(this.inputSpecs);
+                if (debug && ! this.inFiles.isEmpty())
+                    System.err.println(this.inFiles.size() + " input files specified.");
+                this.metrics = new ProfileMetrics(this.metricsInterval, System.err);
                 // Read in the taxonomy file.
+                this.metrics.start(ProfileMetrics.Phase.LOAD);
                 if (debug) System.err.println("Reading taxonomy tree from " + this.taxFile + ".");
-                long start = System.currentTimeMillis();
-                this.taxTree = TreeOfLife.load(this.taxFile);
-                long duration = (System.currentTimeMillis() - start) / 1000;
-                if (debug) System.err.println("Taxonomy tree read in " + duration + " seconds.");
+                this.taxTree = TreeOfLife.open(this.taxFile);
+                if (debug) System.err.println("Taxonomy tree read in " + this.taxTree.getLoadTime() +
+                        " milliseconds from " + this.taxTree.getLoadRows() + " records.");
+                if (! this.includeClades.isEmpty() || ! this.excludeClades.isEmpty()) {
+                    try {
+                        this.cladeFilter = new CladeFilter(this.taxTree, this.includeClades, this.excludeClades);
+                    } catch (IllegalArgumentException e) {
+                        throw UsageMessage.error(parser, e.getMessage());
+                    }
+                }
+                if (this.cacheFile != null) {
+                    if (debug) System.err.println("Opening genome cache " + this.cacheFile + ".");
+                    this.genomeCache = GenomeCache.load(this.cacheFile);
+                    this.cacheCol = this.genomeCache.findGroupColumn(this.groupCol);
+                }
+                // Build the lineage index now, so its cost is not counted in the first registration.
+                this.taxTree.buildLineageIndex();
+                this.metrics.stop(ProfileMetrics.Phase.LOAD);
                 retVal = true;
             }
         } catch (CmdLineException e) {
@@ -97,36 +414,768 @@ public class TaxonomyProfileProcessor {
 
     public void run() {
         try {
-            // Create the profiler.
-            this.profiler = new TaxonomyProfiler(this.taxTree);
-            // Open the input file and find the columns.
-            TabbedLineReader reader = new TabbedLineReader(System.in);
-            int groupColIdx = reader.findField(this.groupCol);
-            int taxColIdx = reader.findField(this.taxCol);
-            // Loop through the input.
-            for (TabbedLineReader.Line line : reader) {
-                // Get the group ID and the taxon ID from this line.
-                int taxId = line.getInt(taxColIdx);
-                String groupId = line.get(groupColIdx);
-                profiler.register(groupId, taxId);
-                if (debug && reader.linesRead() % 5000 == 0) {
-                    System.err.println(reader.linesRead() + " records processed.");
-                }
+            if (this.sortedInput || this.externalSort) {
+                this.runStreaming();
+            } else {
+                this.runProfiler();
             }
-            reader.close();
-            if (debug)
-                System.err.println(reader.linesRead() + " total lines processed.");
-            // Now we create the output report. To start, we only do family, genus, and species.
-            System.out.println("group_id\tmembers\tfamilies\tgenera\tspecies\tinvalid");
-            List<TaxonomyCounter> profiles = this.profiler.sortedProfiles();
-            for (TaxonomyCounter counter : profiles) {
-                System.out.format("%s\t%d\t%d\t%d\t%d\t%d%n", counter.getName(), counter.getTotal(),
-                        counter.typesOf(Rank.FAMILY), counter.typesOf(Rank.GENUS),
-                        counter.typesOf(Rank.SPECIES), counter.getInvalid());
+            if (this.metricsFile != null) {
+                if (debug) System.err.println("Writing metrics to " + this.metricsFile + ".");
+                this.metrics.writeJson(this.metricsFile, this.threads);
             }
         } catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Build a profiler for the whole input, then write the report or save the profiler state.
+     *
+     * @throws IOException
+     */
+    private void runProfiler() throws IOException {
+        // Create the profiler from the input.
+        if (this.genomeCache != null) {
+            this.profiler = this.readCache();
+        } else if (this.threads > 1 && this.inFiles.size() > 1) {
+            this.profiler = this.readShards();
+        } else if (this.threads > 1) {
+            this.profiler = this.readParallel();
+        } else {
+            this.profiler = this.readSerial();
+        }
+        // Apply the input to the previous state, if any.
+        if (this.stateFile != null) {
+            if (debug) System.err.println("Loading previous profiler state from " + this.stateFile + ".");
+            this.metrics.start(ProfileMetrics.Phase.MERGE);
+            this.profiler.load(this.stateFile);
+            this.metrics.stop(ProfileMetrics.Phase.MERGE);
+        }
+        if (this.removedFile != null) {
+            this.metrics.start(ProfileMetrics.Phase.INGEST);
+            this.removeGenomes();
+            this.metrics.stop(ProfileMetrics.Phase.INGEST);
+        }
+        if (this.partialFile != null) {
+            // Save the profiler state for a later merge.
+            if (debug) System.err.println("Writing partial profile to " + this.partialFile + ".");
+            this.metrics.start(ProfileMetrics.Phase.REPORT);
+            this.profiler.save(this.partialFile);
+            this.metrics.stop(ProfileMetrics.Phase.REPORT);
+        } else {
+            // Now we create the output report.
+            ProfileReport report = this.createReport();
+            this.metrics.start(ProfileMetrics.Phase.SORT);
+            List<TaxonomyCounter> profiles = this.profiler.sortedProfiles();
+            this.metrics.stop(ProfileMetrics.Phase.SORT);
+            this.metrics.start(ProfileMetrics.Phase.REPORT);
+            report.write(profiles, this.topLimit);
+            this.metrics.stop(ProfileMetrics.Phase.REPORT);
+        }
+        this.metrics.update(this.profiler.getStats(), this.profiler.size(), this.profiler.keyCount());
+        this.metrics.setRegisterTime(this.threads > 1 ? null : ProfileMetrics.Phase.INGEST);
+    }
+
+    /**
+     * Process the input one group at a time, writing each group when it is complete.  If the input is
+     * not sorted, it is sorted on disk first.
+     *
+     * @throws IOException
+     */
+    private void runStreaming() throws IOException {
+        StreamingProfiler streamer = new StreamingProfiler(this.taxTree, this.createReport(), this.topLimit,
+                this.tallyFactory);
+        GroupSorter sorter = (this.externalSort ? new GroupSorter(this.sortLimit, this.spillDir) : null);
+        long linesRead = 0;
+        try {
+            this.metrics.start(ProfileMetrics.Phase.INGEST);
+            for (int i = 0; i < this.inputCount(); i++) {
+                IngestReader reader = this.openInput(i);
+                // Only the current group is needed, so the group IDs are not interned.
+                reader.setInterning(false);
+                try {
+                    while (reader.next()) {
+                        int taxId = reader.getTaxId();
+                        if (this.accepts(taxId)) {
+                            String groupId = reader.getGroup();
+                            if (sorter == null)
+                                streamer.register(groupId, taxId);
+                            else
+                                sorter.add(groupId, taxId);
+                        } else {
+                            this.metrics.countFiltered(1);
+                        }
+                        if (this.metrics.countRow()) {
+                            this.metrics.update(streamer.getStats(), streamer.getGroupCount(), -1);
+                            this.metrics.report();
+                        }
+                        if (debug && reader.getLinesRead() % 100000 == 0) {
+                            System.err.println(reader.getLinesRead() + " records processed.");
+                        }
+                    }
+                } catch (IOException e) {
+                    throw this.inputError(i, e);
+                } finally {
+                    reader.close();
+                }
+                linesRead += reader.getLinesRead();
+            }
+            this.metrics.stop(ProfileMetrics.Phase.INGEST);
+            if (sorter != null) {
+                if (debug) System.err.println("Merging " + sorter.getRunCount() + " sorted runs.");
+                this.metrics.start(ProfileMetrics.Phase.SORT);
+                sorter.drain(streamer);
+                this.metrics.stop(ProfileMetrics.Phase.SORT);
+            }
+            this.metrics.start(ProfileMetrics.Phase.REPORT);
+            streamer.finish();
+            this.metrics.stop(ProfileMetrics.Phase.REPORT);
+        } finally {
+            if (sorter != null)
+                sorter.close();
+        }
+        if (debug)
+            System.err.println(linesRead + " total lines processed in " + streamer.getGroupCount() + " groups.");
+        this.metrics.update(streamer.getStats(), streamer.getGroupCount(), streamer.getGroupCount());
+        this.metrics.setRegisterTime(sorter == null ? ProfileMetrics.Phase.INGEST : ProfileMetrics.Phase.SORT);
+    }
+
+    /**
+     * @return an empty profiler configured from the command-line options
+     */
+    private TaxonomyProfiler createProfiler() {
+        return new TaxonomyProfiler(this.taxTree, this.tallyFactory, this.removable);
+    }
+
+    /**
+     * @return a report writer for the standard output, configured from the command-line options
+     */
+    private ProfileReport createReport() {
+        ProfileReport retVal = new ProfileReport(System.out);
+        if (this.topTaxa > 0)
+            retVal.setTopTaxa(Rank.rankOf(this.taxaRank), this.topTaxa);
+        for (String rank : this.diversityRanks)
+            retVal.addDiversity(Rank.rankOf(rank));
+        if (this.lineageMode != null) {
+            LineageRenderer renderer;
+            if (this.lineageRanks.isEmpty()) {
+                renderer = new LineageRenderer(this.taxTree);
+            } else {
+                Set<Rank> ranks = EnumSet.noneOf(Rank.class);
+                for (String rank : this.lineageRanks)
+                    ranks.add(Rank.rankOf(rank));
+                renderer = new LineageRenderer(this.taxTree, ranks, "; ", LineageRenderer.DEFAULT_CACHE_SIZE);
+            }
+            Rank rank = (this.lineageMode.equals("dominant") ? Rank.rankOf(this.taxaRank) : null);
+            retVal.setLineage(renderer, rank);
+        }
+        return retVal;
+    }
+
+    /**
+     * Read the input on the current thread and build a profiler from it.
+     *
+     * @return a profiler containing all the input genomes
+     *
+     * @throws IOException
+     */
+    private TaxonomyProfiler readSerial() throws IOException {
+        TaxonomyProfiler retVal = this.createProfiler();
+        long linesRead = 0;
+        this.metrics.start(ProfileMetrics.Phase.INGEST);
+        for (int i = 0; i < this.inputCount(); i++) {
+            // Open the input and find the columns.
+            IngestReader reader = this.openInput(i);
+            try {
+                // Loop through the input.
+                while (reader.next()) {
+                    // Get the group ID and the taxon ID from this line.
+                    int taxId = reader.getTaxId();
+                    if (this.accepts(taxId)) {
+                        String groupId = reader.getGroup();
+                        retVal.register(groupId, taxId);
+                    } else {
+                        this.metrics.countFiltered(1);
+                    }
+                    if (this.metrics.countRow()) {
+                        this.metrics.update(retVal.getStats(), retVal.size(), retVal.keyCount());
+                        this.metrics.report();
+                    }
+                    if (debug && reader.getLinesRead() % 5000 == 0) {
+                        System.err.println(reader.getLinesRead() + " records processed.");
+                    }
+                }
+            } catch (IOException e) {
+                throw this.inputError(i, e);
+            } finally {
+                reader.close();
+            }
+            linesRead += reader.getLinesRead();
+        }
+        this.metrics.stop(ProfileMetrics.Phase.INGEST);
+        if (debug)
+            System.err.println(linesRead + " total lines processed.");
+        return retVal;
+    }
+
+    /**
+     * Remove the genomes in the removed-genome file from the profiler.
+     *
+     * @throws IOException
+     */
+    private void removeGenomes() throws IOException {
+        if (debug) System.err.println("Removing genomes listed in " + this.removedFile + ".");
+        IngestReader reader = new IngestReader(GenomeInput.open(this.removedFile), this.groupCol, this.taxCol);
+        int removed = 0;
+        int unmatched = 0;
+        while (reader.next()) {
+            int taxId = reader.getTaxId();
+            // Genomes outside the clade filter were never added, so they are skipped here as well.
+            if (this.accepts(taxId)) {
+                String groupId = reader.getGroup();
+                if (this.profiler.unregister(groupId, taxId)) {
+                    removed++;
+                } else {
+                    unmatched++;
+                }
+            }
+        }
+        reader.close();
+        if (debug) System.err.println(removed + " genomes removed, " + unmatched + " not found in the profile.");
+    }
+
+    /**
+     * Read the input in chunks and pass them to worker threads.  Each worker builds a partial profiler,
+     * and these are merged to form the result.
+     *
+     * @return a profiler containing all the input genomes
+     *
+     * @throws IOException
+     */
+    private TaxonomyProfiler readParallel() throws IOException {
+        TaxonomyProfiler retVal = null;
+        IngestReader reader = this.openInput(0);
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            // Start the workers.
+            this.metrics.start(ProfileMetrics.Phase.INGEST);
+            BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(this.threads * 2);
+            List<IngestWorker> workers = new ArrayList<IngestWorker>(this.threads);
+            List<Future<TaxonomyProfiler>> partials = new ArrayList<Future<TaxonomyProfiler>>(this.threads);
+            for (int i = 0; i < this.threads; i++) {
+                IngestWorker worker = new IngestWorker(queue, reader.getGroupColIdx(), reader.getTaxColIdx());
+                workers.add(worker);
+                partials.add(executor.submit(worker));
+            }
+            // Read the input and queue the chunks.
+            long linesBefore = reader.getLinesRead();
+            long nextReport = 100000;
+            for (byte[] chunk = reader.readChunk(CHUNK_SIZE); chunk != null; chunk = reader.readChunk(CHUNK_SIZE)) {
+                queue.put(new Batch(chunk, linesBefore));
+                if (this.metrics.countRows(reader.getLinesRead() - linesBefore)) {
+                    // The worker state is private, so only the input counts are available here.
+                    this.metrics.update(null, -1, -1);
+                    this.metrics.report();
+                }
+                linesBefore = reader.getLinesRead();
+                if (debug && linesBefore >= nextReport) {
+                    System.err.println(linesBefore + " records read.");
+                    nextReport += 100000;
+                }
+            }
+            for (int i = 0; i < this.threads; i++)
+                queue.put(END_OF_INPUT);
+            if (debug)
+                System.err.println(reader.getLinesRead() + " total lines read.");
+            // Wait for the workers to finish.
+            List<TaxonomyProfiler> partialProfilers = new ArrayList<TaxonomyProfiler>(this.threads);
+            for (Future<TaxonomyProfiler> partial : partials)
+                partialProfilers.add(partial.get());
+            this.metrics.stop(ProfileMetrics.Phase.INGEST);
+            long filtered = 0;
+            for (IngestWorker worker : workers)
+                filtered += worker.filtered;
+            retVal = this.mergePartials(partialProfilers, filtered);
+        } catch (InterruptedException e) {
+            throw new IOException("Input processing interrupted.", e);
+        } catch (ExecutionException e) {
+            throw this.inputError(0, new IOException("Error processing input: " + e.getCause().getMessage(),
+                    e.getCause()));
+        } finally {
+            executor.shutdownNow();
+            reader.close();
+        }
+        return retVal;
+    }
+
+    /**
+     * Read several input files in parallel.  Each worker thread claims one file at a time, and decompresses,
+     * parses, and counts it in a private profiler.  The partial profilers are merged to form the result.
+     *
+     * @return a profiler containing all the input genomes
+     *
+     * @throws IOException
+     */
+    private TaxonomyProfiler readShards() throws IOException {
+        TaxonomyProfiler retVal = null;
+        int nWorkers = Math.min(this.threads, this.inFiles.size());
+        ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+        try {
+            // Start the workers.
+            this.metrics.start(ProfileMetrics.Phase.INGEST);
+            AtomicInteger nextShard = new AtomicInteger(0);
+            AtomicLong rowCounter = new AtomicLong(0);
+            List<ShardWorker> workers = new ArrayList<ShardWorker>(nWorkers);
+            List<Future<TaxonomyProfiler>> partials = new ArrayList<Future<TaxonomyProfiler>>(nWorkers);
+            for (int i = 0; i < nWorkers; i++) {
+                ShardWorker worker = new ShardWorker(nextShard, rowCounter);
+                workers.add(worker);
+                partials.add(executor.submit(worker));
+            }
+            // Wait for the workers to finish, reporting progress while they run.
+            List<TaxonomyProfiler> partialProfilers = new ArrayList<TaxonomyProfiler>(nWorkers);
+            long rowsCounted = 0;
+            for (Future<TaxonomyProfiler> partial : partials) {
+                TaxonomyProfiler partialProfiler = null;
+                while (partialProfiler == null) {
+                    try {
+                        partialProfiler = partial.get(PROGRESS_WAIT, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        // The worker is still running.
+                    }
+                    long rows = rowCounter.get();
+                    if (this.metrics.countRows(rows - rowsCounted)) {
+                        this.metrics.update(null, -1, -1);
+                        this.metrics.report();
+                    }
+                    rowsCounted = rows;
+                }
+                partialProfilers.add(partialProfiler);
+            }
+            this.metrics.stop(ProfileMetrics.Phase.INGEST);
+            long filtered = 0;
+            for (ShardWorker worker : workers)
+                filtered += worker.filtered;
+            retVal = this.mergePartials(partialProfilers, filtered);
+        } catch (InterruptedException e) {
+            throw new IOException("Input processing interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Error processing input: " + cause.getMessage(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return retVal;
+    }
+
+    /**
+     * Count the genomes in the genome cache.  With one thread, the rows are counted on the main thread.
+     * Otherwise, the rows are split into one contiguous range per thread, each range is counted in a private
+     * profiler, and the partial profilers are merged.
+     *
+     * @return a profiler containing all the cached genomes
+     *
+     * @throws IOException
+     */
+    private TaxonomyProfiler readCache() throws IOException {
+        TaxonomyProfiler retVal = null;
+        int rows = this.genomeCache.size();
+        String[] dictionary = this.genomeCache.getDictionary(this.cacheCol);
+        if (debug) System.err.println("Counting " + rows + " cached genomes in " + dictionary.length + " groups.");
+        this.metrics.start(ProfileMetrics.Phase.INGEST);
+        if (this.threads == 1) {
+            CacheWorker worker = new CacheWorker(dictionary, 0, rows, true);
+            retVal = worker.count();
+            this.metrics.stop(ProfileMetrics.Phase.INGEST);
+            this.metrics.countFiltered(worker.filtered);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+            try {
+                List<CacheWorker> workers = new ArrayList<CacheWorker>(this.threads);
+                List<Future<TaxonomyProfiler>> partials = new ArrayList<Future<TaxonomyProfiler>>(this.threads);
+                for (int i = 0; i < this.threads; i++) {
+                    int lo = (int) ((long) rows * i / this.threads);
+                    int hi = (int) ((long) rows * (i + 1) / this.threads);
+                    CacheWorker worker = new CacheWorker(dictionary, lo, hi, false);
+                    workers.add(worker);
+                    partials.add(executor.submit(worker));
+                }
+                List<TaxonomyProfiler> partialProfilers = new ArrayList<TaxonomyProfiler>(this.threads);
+                for (Future<TaxonomyProfiler> partial : partials)
+                    partialProfilers.add(partial.get());
+                this.metrics.stop(ProfileMetrics.Phase.INGEST);
+                long filtered = 0;
+                for (CacheWorker worker : workers)
+                    filtered += worker.filtered;
+                retVal = this.mergePartials(partialProfilers, filtered);
+            } catch (InterruptedException e) {
+                throw new IOException("Cache processing interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error processing genome cache: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Merge the partial profilers built by worker threads.
+     *
+     * @param partialProfilers	list of partial profilers
+     * @param filtered			number of records rejected by the clade filter in all the workers
+     *
+     * @return the merged profiler
+     */
+    private TaxonomyProfiler mergePartials(List<TaxonomyProfiler> partialProfilers, long filtered) {
+        TaxonomyProfiler retVal = null;
+        this.metrics.start(ProfileMetrics.Phase.MERGE);
+        for (TaxonomyProfiler partialProfiler : partialProfilers) {
+            if (retVal == null) {
+                retVal = partialProfiler;
+            } else {
+                retVal.merge(partialProfiler);
+            }
+        }
+        this.metrics.stop(ProfileMetrics.Phase.MERGE);
+        // Replace the line count with an exact record count.
+        this.metrics.countFiltered(filtered);
+        this.metrics.setRows(retVal.getStats().getRegistrations() + filtered);
+        if (debug)
+            System.err.println(retVal.size() + " groups found.");
+        return retVal;
+    }
+
+    /**
+     * @return the number of inputs to read; the standard input counts as a single input
+     */
+    private int inputCount() {
+        return Math.max(1, this.inFiles.size());
+    }
+
+    /**
+     * Open a reader for one of the inputs.  If there are no input files, the reader is opened on the
+     * standard input.
+     *
+     * @param i		index of the input file to open
+     *
+     * @return a reader positioned after the input's header line
+     *
+     * @throws IOException
+     */
+    private IngestReader openInput(int i) throws IOException {
+        IngestReader retVal;
+        if (this.inFiles.isEmpty()) {
+            retVal = new IngestReader(GenomeInput.wrap(System.in, "Standard input"), this.groupCol, this.taxCol);
+        } else {
+            File inFile = this.inFiles.get(i);
+            if (debug) System.err.println("Reading genomes from " + inFile + ".");
+            InputStream inStream = GenomeInput.open(inFile);
+            try {
+                retVal = new IngestReader(inStream, this.groupCol, this.taxCol);
+            } catch (IOException e) {
+                inStream.close();
+                throw this.inputError(i, e);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return an input error with the name of the input file added, if there is one
+     *
+     * @param i		index of the input file being read
+     * @param e		error that occurred
+     */
+    private IOException inputError(int i, IOException e) {
+        IOException retVal = e;
+        if (! this.inFiles.isEmpty())
+            retVal = new IOException(this.inFiles.get(i) + ": " + e.getMessage(), e);
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a genome with the specified taxonomic ID should be profiled
+     *
+     * @param taxId		taxonomic ID of the genome
+     */
+    private boolean accepts(int taxId) {
+        return (this.cladeFilter == null || this.cladeFilter.accepts(taxId));
+    }
+
+    /**
+     * @return the index of the column with the specified name or 1-based index
+     *
+     * @param headers	array of column headers
+     * @param colSpec	column name or 1-based column index
+     *
+     * @throws IOException
+     */
+    static int findColumn(String[] headers, String colSpec) throws IOException {
+        int retVal = -1;
+        for (int i = 0; i < headers.length && retVal < 0; i++) {
+            if (headers[i].equals(colSpec))
+                retVal = i;
+        }
+        if (retVal < 0) {
+            try {
+                int colNum = Integer.parseInt(colSpec);
+                if (colNum >= 1 && colNum <= headers.length)
+                    retVal = colNum - 1;
+            } catch (NumberFormatException e) {
+                // Not a number, so the column is not found.
+            }
+        }
+        if (retVal < 0)
+            throw new IOException("Input column \"" + colSpec + "\" not found.");
+        return retVal;
+    }
+
+    /**
+     * This class holds a chunk of input lines passed to a worker thread.
+     */
+    private static class Batch {
+
+        /** input lines */
+        private byte[] chunk;
+        /** number of input lines before the chunk */
+        private long linesBefore;
+
+        /**
+         * Create a batch.
+         *
+         * @param chunk			input lines
+         * @param linesBefore	number of input lines before the chunk
+         */
+        private Batch(byte[] chunk, long linesBefore) {
+            this.chunk = chunk;
+            this.linesBefore = linesBefore;
+        }
+
+    }
+
+    /**
+     * This class parses batches of input lines and counts them in a private profiler.  Each worker has its
+     * own table of group IDs, so the parsing needs no synchronization.
+     */
+    private class IngestWorker implements Callable<TaxonomyProfiler> {
+
+        /** queue of incoming batches */
+        private BlockingQueue<Batch> queue;
+        /** index of the group ID column */
+        private int groupColIdx;
+        /** index of the taxonomic ID column */
+        private int taxColIdx;
+        /** table of group IDs seen by this worker */
+        private KeyTable keys;
+        /** number of records rejected by the clade filter */
+        private long filtered;
+
+        /**
+         * Create a worker.
+         *
+         * @param queue			queue of incoming batches
+         * @param groupColIdx	index of the group ID column
+         * @param taxColIdx		index of the taxonomic ID column
+         */
+        private IngestWorker(BlockingQueue<Batch> queue, int groupColIdx, int taxColIdx) {
+            this.queue = queue;
+            this.groupColIdx = groupColIdx;
+            this.taxColIdx = taxColIdx;
+            this.keys = new KeyTable();
+            this.filtered = 0;
+        }
+
+        /**
+         * Process batches until the input is exhausted.  If an error occurs, the remaining batches are
+         * drained without processing, so that the reader is not blocked.
+         */
+        @Override
+        public TaxonomyProfiler call() throws Exception {
+            TaxonomyProfiler retVal = createProfiler();
+            Exception error = null;
+            for (Batch batch = this.queue.take(); batch != END_OF_INPUT; batch = this.queue.take()) {
+                if (error == null) {
+                    try {
+                        this.processBatch(batch, retVal);
+                    } catch (IOException | RuntimeException e) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null)
+                throw error;
+            return retVal;
+        }
+
+        /**
+         * Parse a batch of input lines and count them.
+         *
+         * @param batch		batch of input lines
+         * @param profiler	profiler in which to count the genomes
+         *
+         * @throws IOException
+         */
+        private void processBatch(Batch batch, TaxonomyProfiler profiler) throws IOException {
+            IngestReader reader = new IngestReader(batch.chunk, batch.chunk.length, this.groupColIdx,
+                    this.taxColIdx, this.keys, batch.linesBefore);
+            while (reader.next()) {
+                int taxId = reader.getTaxId();
+                if (accepts(taxId))
+                    profiler.register(reader.getGroup(), taxId);
+                else
+                    this.filtered++;
+            }
+        }
+
+    }
+
+
+    /**
+     * This class reads whole input files and counts them in a private profiler.  The workers share a
+     * counter of the next file to claim, so each file is read by exactly one worker, and a worker that
+     * finishes a small file moves on to the next one.
+     */
+    private class ShardWorker implements Callable<TaxonomyProfiler> {
+
+        /** index of the next input file to claim */
+        private AtomicInteger nextShard;
+        /** number of records read by all the workers */
+        private AtomicLong rowCounter;
+        /** number of records rejected by the clade filter */
+        private long filtered;
+
+        /**
+         * Create a worker.
+         *
+         * @param nextShard		index of the next input file to claim
+         * @param rowCounter	number of records read by all the workers
+         */
+        private ShardWorker(AtomicInteger nextShard, AtomicLong rowCounter) {
+            this.nextShard = nextShard;
+            this.rowCounter = rowCounter;
+            this.filtered = 0;
+        }
+
+        /**
+         * Process input files until there are none left.  The shared row counter is only updated
+         * periodically, to keep the workers from contending for it.
+         */
+        @Override
+        public TaxonomyProfiler call() throws Exception {
+            TaxonomyProfiler retVal = createProfiler();
+            int nFiles = inFiles.size();
+            for (int i = this.nextShard.getAndIncrement(); i < nFiles && ! Thread.currentThread().isInterrupted();
+                    i = this.nextShard.getAndIncrement()) {
+                IngestReader reader = openInput(i);
+                long rows = 0;
+                try {
+                    while (reader.next()) {
+                        int taxId = reader.getTaxId();
+                        if (accepts(taxId))
+                            retVal.register(reader.getGroup(), taxId);
+                        else
+                            this.filtered++;
+                        if (++rows == ProfileMetrics.CHECK_ROWS) {
+                            this.rowCounter.addAndGet(rows);
+                            rows = 0;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw inputError(i, e);
+                } finally {
+                    reader.close();
+                }
+                this.rowCounter.addAndGet(rows);
+            }
+            return retVal;
+        }
+
+    }
+
+
+    /**
+     * This class counts a range of rows from the genome cache in a private profiler.  The cached group codes
+     * are translated to the profiler's group numbers through a table, so each group ID is only looked up
+     * once, and the inner loop does no hashing or parsing.
+     */
+    private class CacheWorker implements Callable<TaxonomyProfiler> {
+
+        /** group ID for each cached group code */
+        private String[] dictionary;
+        /** first row to count */
+        private int lo;
+        /** row past the last row to count */
+        private int hi;
+        /** TRUE if this worker runs on the main thread and should report progress */
+        private boolean reporting;
+        /** number of records rejected by the clade filter */
+        private long filtered;
+
+        /**
+         * Create a worker.
+         *
+         * @param dictionary	group ID for each cached group code
+         * @param lo			first row to count
+         * @param hi			row past the last row to count
+         * @param reporting		TRUE to count the rows in the metrics and report progress
+         */
+        private CacheWorker(String[] dictionary, int lo, int hi, boolean reporting) {
+            this.dictionary = dictionary;
+            this.lo = lo;
+            this.hi = hi;
+            this.reporting = reporting;
+            this.filtered = 0;
+        }
+
+        @Override
+        public TaxonomyProfiler call() throws IOException {
+            return this.count();
+        }
+
+        /**
+         * Count the rows in this worker's range.  The rows are processed in blocks, so the progress
+         * reporting is kept out of the inner loop.
+         *
+         * @return a profiler containing the genomes in the range
+         *
+         * @throws IOException if a group code is not in the dictionary
+         */
+        private TaxonomyProfiler count() throws IOException {
+            TaxonomyProfiler retVal = createProfiler();
+            IntBuffer taxIds = genomeCache.getTaxIds();
+            IntBuffer codes = genomeCache.getGroupCodes(cacheCol);
+            int[] groupNums = new int[this.dictionary.length];
+            Arrays.fill(groupNums, -1);
+            for (int start = this.lo; start < this.hi; start += ProfileMetrics.CHECK_ROWS) {
+                int end = Math.min(this.hi, start + ProfileMetrics.CHECK_ROWS);
+                for (int row = start; row < end; row++) {
+                    int taxId = taxIds.get(row);
+                    if (accepts(taxId)) {
+                        int code = codes.get(row);
+                        if (code < 0 || code >= groupNums.length)
+                            throw new IOException("Invalid group code " + code + " in row " + (row + 1)
+                                    + " of genome cache " + cacheFile + ".");
+                        int groupNum = groupNums[code];
+                        if (groupNum < 0) {
+                            groupNum = retVal.groupNumOf(this.dictionary[code]);
+                            groupNums[code] = groupNum;
+                        }
+                        retVal.register(groupNum, taxId);
+                    } else {
+                        this.filtered++;
+                    }
+                }
+                if (this.reporting && metrics.countRows(end - start)) {
+                    metrics.update(retVal.getStats(), retVal.size(), retVal.keyCount());
+                    metrics.report();
+                }
+            }
+            return retVal;
+        }
+
+    }
+
+}
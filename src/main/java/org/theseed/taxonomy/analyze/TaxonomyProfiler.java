@@ -3,10 +3,19 @@
  */
 package org.theseed.taxonomy.analyze;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
+import org.theseed.taxonomy.SubtreeTotals;
 import org.theseed.taxonomy.TreeOfLife;
 
 /**
@@ -14,37 +23,271 @@ import org.theseed.taxonomy.TreeOfLife;
  * For each such group, it uses a TaxonomyCounter to determine the number of entries
  * for every taxonomic grouping at each major taxonomy rank.
  *
+ * The group keys are assigned dense integer IDs by a {@link GroupDictionary}, and the counters are kept in
+ * an array indexed by group ID, so registering a genome takes a single hash lookup.  Each counter shares
+ * its name with the dictionary.
+ *
+ * The state of a profiler can be saved to a binary partial file.  Partial files built from different
+ * parts of the input can be loaded and merged to produce the profile of the whole input.
+ *
+ * By default, the profiler is removable:  its exact counters track their individual members, so genomes can
+ * be removed from it.  A profiler for a run that never removes genomes can be created without the member
+ * maps, since they double the memory of an exact counter.
+ *
  * @author Bruce Parrello
  *
  */
 public class TaxonomyProfiler {
 
     // FIELDS
-    /** map of group ID to taxonomy counter */
-    private HashMap<String, TaxonomyCounter> groupMap;
+    /** dictionary of group keys */
+    private GroupDictionary groups;
+    /** taxonomy counter for each group ID, or NULL if the group is empty */
+    private TaxonomyCounter[] counters;
+    /** number of non-empty groups */
+    private int groupCount;
     /** taxonomic tree of interest */
     private TreeOfLife tree;
+    /** factory for the rank tallies of new counters */
+    private TallyFactory factory;
+    /** TRUE if registrations must be removable */
+    private boolean removable;
+    /** statistics about the registrations in this run */
+    private RegisterStats stats;
+    /** marker at the start of a partial file */
+    private static final int PARTIAL_MAGIC = 0x54505246;
+    /** version number of the partial file format */
+    private static final int PARTIAL_VERSION = 4;
 
     /**
-     * Initialize a blank, empty profiler.
+     * Initialize a blank, empty, removable profiler with exact counters.
      */
     public TaxonomyProfiler(TreeOfLife taxTree) {
-        this.groupMap = new HashMap<String, TaxonomyCounter>();
+        this(taxTree, TallyFactory.EXACT);
+    }
+
+    /**
+     * Initialize a blank, empty, removable profiler.
+     *
+     * @param taxTree	taxonomic tree of interest
+     * @param factory	factory for the rank tallies of new counters
+     */
+    public TaxonomyProfiler(TreeOfLife taxTree, TallyFactory factory) {
+        this(taxTree, factory, true);
+    }
+
+    /**
+     * Initialize a blank, empty profiler.
+     *
+     * @param taxTree	taxonomic tree of interest
+     * @param factory	factory for the rank tallies of new counters
+     * @param removable	TRUE if registrations must be removable
+     */
+    public TaxonomyProfiler(TreeOfLife taxTree, TallyFactory factory, boolean removable) {
+        this.groups = new GroupDictionary();
+        this.counters = new TaxonomyCounter[16];
+        this.groupCount = 0;
         this.tree = taxTree;
+        this.factory = factory;
+        this.removable = removable;
+        this.stats = new RegisterStats();
     }
 
     /**
      * Count a taxonomic grouping for a particular group ID.
+     *
+     * @param key		ID of the relevant group
+     * @param taxId		taxonomic ID of the grouping
      */
     public void register(String key, int taxId) {
-        TaxonomyCounter groupCounter;
-        if (! groupMap.containsKey(key)) {
-            groupCounter = new TaxonomyCounter(key, this.tree);
-            this.groupMap.put(key, groupCounter);
+        this.register(this.groups.intern(key), taxId);
+    }
+
+    /**
+     * Count a taxonomic grouping for a group identified by its dense group number.
+     *
+     * @param groupNum	group number returned by {@link #groupNumOf(String)}
+     * @param taxId		taxonomic ID of the grouping
+     */
+    public void register(int groupNum, int taxId) {
+        if (this.stats.isSampling()) {
+            long start = System.nanoTime();
+            int result = this.counterFor(groupNum).register(taxId);
+            this.stats.record(result, System.nanoTime() - start);
         } else {
-            groupCounter = this.groupMap.get(key);
+            this.stats.record(this.counterFor(groupNum).register(taxId));
         }
-        groupCounter.register(taxId);
+    }
+
+    /**
+     * @return the dense group number for a group ID, assigning a new one if necessary
+     *
+     * @param key	ID of the relevant group
+     */
+    public int groupNumOf(String key) {
+        return this.groups.intern(key);
+    }
+
+    /**
+     * @return the counter for a group number, creating it if necessary
+     *
+     * @param groupNum	number of the relevant group
+     */
+    private TaxonomyCounter counterFor(int groupNum) {
+        this.ensureCapacity(groupNum);
+        TaxonomyCounter retVal = this.counters[groupNum];
+        if (retVal == null) {
+            retVal = new TaxonomyCounter(this.groups.nameOf(groupNum), this.tree, this.factory,
+                    this.removable);
+            this.counters[groupNum] = retVal;
+            this.groupCount++;
+        }
+        return retVal;
+    }
+
+    /**
+     * Insure the counter array has room for a group number.
+     *
+     * @param groupNum	group number that must fit
+     */
+    private void ensureCapacity(int groupNum) {
+        if (groupNum >= this.counters.length)
+            this.counters = Arrays.copyOf(this.counters, Math.max(groupNum + 1, this.counters.length * 2));
+    }
+
+    /**
+     * Add a counter to this profiler.  If the counter's group is new, the counter is taken over directly;
+     * otherwise, it is merged into the existing counter for the group.
+     *
+     * @param newCounter	counter to add
+     *
+     * @throws IllegalArgumentException if the counter cannot be merged into the existing one
+     */
+    private void absorb(TaxonomyCounter newCounter) {
+        int groupNum = this.groups.intern(newCounter.getName());
+        this.ensureCapacity(groupNum);
+        TaxonomyCounter groupCounter = this.counters[groupNum];
+        if (groupCounter == null) {
+            this.counters[groupNum] = newCounter;
+            this.groupCount++;
+        } else {
+            groupCounter.merge(newCounter);
+        }
+    }
+
+    /**
+     * Merge the profiles from another profiler into this one.  Groups that are new to this profiler are
+     * taken over directly, so the other profiler should not be used afterward.
+     *
+     * @param other		profiler to merge into this one
+     */
+    public void merge(TaxonomyProfiler other) {
+        for (int i = 0; i < other.groups.size(); i++) {
+            TaxonomyCounter otherCounter = other.counters[i];
+            if (otherCounter != null)
+                this.absorb(otherCounter);
+        }
+        this.stats.add(other.stats);
+    }
+
+    /**
+     * Save the state of this profiler to a binary partial file.  The file contains (0) a magic number,
+     * (1) the format version, (2) the number of groups, and (3) the state of each group's counter.
+     *
+     * @param outFile	file to which the profiler should be saved
+     *
+     * @throws IOException
+     */
+    public void save(File outFile) throws IOException {
+        try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(outFile), 1 << 16))) {
+            outStream.writeInt(PARTIAL_MAGIC);
+            outStream.writeInt(PARTIAL_VERSION);
+            outStream.writeInt(this.groupCount);
+            for (int i = 0; i < this.groups.size(); i++) {
+                if (this.counters[i] != null)
+                    this.counters[i].write(outStream);
+            }
+        }
+    }
+
+    /**
+     * Load the groups in a partial file and merge them into this profiler.  If this profiler is removable,
+     * the exact groups in the file must be removable as well.
+     *
+     * @param inFile	partial file created by {@link #save(File)}
+     *
+     * @throws IOException
+     */
+    public void load(File inFile) throws IOException {
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(inFile), 1 << 16))) {
+            if (inStream.readInt() != PARTIAL_MAGIC)
+                throw new IOException(inFile + " is not a taxonomy profile partial file.");
+            int version = inStream.readInt();
+            if (version != PARTIAL_VERSION)
+                throw new IOException("Unsupported version " + version + " in partial file " + inFile + ".");
+            int n = inStream.readInt();
+            for (int i = 0; i < n; i++) {
+                TaxonomyCounter newCounter = TaxonomyCounter.read(inStream, this.tree);
+                if (this.removable && newCounter.isExact() && ! newCounter.isRemovable())
+                    throw new IOException("Group " + newCounter.getName() + " in " + inFile + " does not track "
+                            + "its members, so genomes cannot be removed from it.");
+                try {
+                    this.absorb(newCounter);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Cannot merge group " + newCounter.getName() + " from " + inFile +
+                            ":  " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the statistics about the registrations made in this run
+     */
+    public RegisterStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * @return the number of distinct group IDs seen, including groups that have since been emptied
+     */
+    public int keyCount() {
+        return this.groups.size();
+    }
+
+    /**
+     * @return the number of groups in this profiler
+     */
+    public int size() {
+        return this.groupCount;
+    }
+
+    /**
+     * Remove a previous registration of a taxonomic grouping for a particular group ID.  If the group
+     * becomes empty, it is removed.
+     *
+     * @param key		ID of the relevant group
+     * @param taxId		taxonomic ID of the grouping to remove
+     *
+     * @return TRUE if successful, FALSE if no matching registration was found
+     *
+     * @throws UnsupportedOperationException if the group's counter is not removable
+     */
+    public boolean unregister(String key, int taxId) {
+        boolean retVal = false;
+        int groupNum = this.groups.idOf(key);
+        TaxonomyCounter groupCounter = (groupNum < 0 ? null : this.counters[groupNum]);
+        if (groupCounter != null) {
+            retVal = groupCounter.unregister(taxId);
+            if (groupCounter.getTotal() == 0 && groupCounter.getInvalid() == 0) {
+                // The group number stays reserved, in case the group reappears.
+                this.counters[groupNum] = null;
+                this.groupCount--;
+            }
+        }
+        return retVal;
     }
 
     /**
@@ -53,14 +296,36 @@ public class TaxonomyProfiler {
      * @param key	ID of the relevant group
      */
     public TaxonomyCounter profileOf(String key) {
-        return this.groupMap.get(key);
+        int groupNum = this.groups.idOf(key);
+        return (groupNum < 0 ? null : this.counters[groupNum]);
+    }
+
+    /**
+     * @return the subtree totals of the genomes in all the groups, rolled up over the whole tree
+     *
+     * @param threads	number of threads to use for the rollup
+     *
+     * @throws UnsupportedOperationException if the counters are approximate
+     */
+    public SubtreeTotals subtreeTotals(int threads) {
+        SubtreeTotals retVal = new SubtreeTotals(this.tree);
+        for (int i = 0; i < this.groups.size(); i++) {
+            if (this.counters[i] != null)
+                this.counters[i].addTo(retVal);
+        }
+        retVal.rollup(threads);
+        return retVal;
     }
 
     /**
      * @return a sorted list of all profiles, from most frequent to least frequent
      */
     public List<TaxonomyCounter> sortedProfiles() {
-        ArrayList<TaxonomyCounter> retVal = new ArrayList<TaxonomyCounter>(this.groupMap.values());
+        ArrayList<TaxonomyCounter> retVal = new ArrayList<TaxonomyCounter>(this.groupCount);
+        for (int i = 0; i < this.groups.size(); i++) {
+            if (this.counters[i] != null)
+                retVal.add(this.counters[i]);
+        }
         retVal.sort(null);
         return retVal;
     }
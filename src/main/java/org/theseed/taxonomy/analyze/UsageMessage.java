@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package org.theseed.taxonomy.analyze;
+
+import java.util.Locale;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Localizable;
+
+/**
+ * This class is a command-line error message that is displayed as written, in every locale.  The command
+ * processors use it to report invalid parameters through the {@link CmdLineException} constructor that
+ * takes a {@link Localizable}.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class UsageMessage implements Localizable {
+
+    // FIELDS
+    /** text of the message */
+    private String message;
+
+    /**
+     * Create a message.
+     *
+     * @param message	text of the message
+     */
+    private UsageMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return an exception reporting an invalid command-line parameter
+     *
+     * @param parser	parser for the command line
+     * @param message	text of the error message
+     */
+    static CmdLineException error(CmdLineParser parser, String message) {
+        return new CmdLineException(parser, new UsageMessage(message));
+    }
+
+    @Override
+    public String formatWithLocale(Locale locale, Object... args) {
+        return this.message;
+    }
+
+    @Override
+    public String format(Object... args) {
+        return this.message;
+    }
+
+}
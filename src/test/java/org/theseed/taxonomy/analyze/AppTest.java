@@ -8,15 +8,38 @@ import junit.framework.TestSuite;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
-import org.theseed.counters.CountMap;
+import org.theseed.taxonomy.LineageRenderer;
 import org.theseed.taxonomy.Rank;
+import org.theseed.taxonomy.SubtreeTotals;
+import org.theseed.taxonomy.SyntheticGenomes;
+import org.theseed.taxonomy.SyntheticTree;
 import org.theseed.taxonomy.TreeOfLife;
 import org.theseed.taxonomy.TreeOfLife.Taxon;
 
+import com.github.luben.zstd.ZstdOutputStream;
+
 
 /**
  * Unit test for simple App.
@@ -70,32 +93,32 @@ public class AppTest
         assertThat("Root has a parent.", root.getParent(), equalTo(null));
         assertThat("Root has wrong name.", root.getName(), equalTo("root"));
         assertThat("Root has wrong ID.", root.getId(), equalTo(1));
-        assertSame("Root not found in map.", root, mainTree.find(1));
+        assertEquals("Root not found in map.", root, mainTree.find(1));
         assertTrue("Root is not hidden.", root.isHidden());
         Taxon proteo = mainTree.findOrInsert(1224, 2, "phylum", "Proteobacteria", false);
         Taxon bacteria = proteo.getParent();
         assertThat("Proteo has no parent", bacteria, notNullValue());
         assertThat("Proteo has wrong parent.", bacteria.getId(), equalTo(2));
-        assertSame("Proteo parent not in map.", mainTree.find(2), bacteria);
+        assertEquals("Proteo parent not in map.", mainTree.find(2), bacteria);
         assertThat("Proteo has wrong name.", proteo.getName(), equalTo("Proteobacteria"));
         assertThat("Proteo has wrong ID.", proteo.getId(), equalTo(1224));
-        assertSame("Proteo not found in map.", proteo, mainTree.find(1224));
+        assertEquals("Proteo not found in map.", proteo, mainTree.find(1224));
         assertFalse("Proteo is hidden.", proteo.isHidden());
         assertThat("Proteo is not a phylum.", proteo.getRank(), equalTo(Rank.PHYLUM));
         Taxon bacteria2 = mainTree.findOrInsert(2, 1, "superkingdom", "Bacteria", false);
-        assertSame("Bacteria not reused.", bacteria, bacteria2);
-        assertSame("Bacteria is not under root.", root, bacteria.getParent());
+        assertEquals("Bacteria not reused.", bacteria, bacteria2);
+        assertEquals("Bacteria is not under root.", root, bacteria.getParent());
         assertThat("Bacteria has wrong name.", bacteria.getName(), equalTo("Bacteria"));
         assertFalse("Bacteria is hidden.", bacteria.isHidden());
         assertThat("Bacteria not domain.", bacteria.getRank(), equalTo(Rank.DOMAIN));
-        assertSame("Proteo has moved to wrong parent.", proteo.getParent(), bacteria);
+        assertEquals("Proteo has moved to wrong parent.", proteo.getParent(), bacteria);
         mainTree = TreeOfLife.load(new File("src/test", "taxonSmall.txt"));
         Taxon marinus = mainTree.find(1219);
         assertThat("Marinus not found.", marinus.getName(), equalTo("Prochlorococcus marinus"));
         assertThat("Marinus wrong rank.", marinus.getRank(), equalTo(Rank.SPECIES));
         assertTrue("Marinus not hidden.", marinus.isHidden());
         assertEquals("Marinus wrong parent.", 1218, marinus.getParent().getId());
-        assertSame("Marinus parent duplicated.", mainTree.find(1218), marinus.getParent());
+        assertEquals("Marinus parent duplicated.", mainTree.find(1218), marinus.getParent());
         proteo = mainTree.find(1224);
         assertThat("Proteo has wrong name.", proteo.getName(), equalTo("Proteobacteria"));
         assertThat("Proteo has wrong ID.", proteo.getId(), equalTo(1224));
@@ -104,6 +127,189 @@ public class AppTest
         assertNull("Found taxon not in input.", mainTree.find(83333));
     }
 
+    /**
+     * Test the fast tree loader against the scanner-based loader.
+     *
+     * @throws IOException
+     */
+    public void testFastLoad() throws IOException {
+        File taxFile = new File("src/test", "taxonMedium.dtx");
+        TreeOfLife oldTree = TreeOfLife.loadScanner(taxFile);
+        TreeOfLife newTree = TreeOfLife.load(taxFile);
+        assertThat("Wrong row count.", newTree.getLoadRows(), equalTo(53));
+        assertThat("Row counts differ.", newTree.getLoadRows(), equalTo(oldTree.getLoadRows()));
+        checkSameTree(oldTree, newTree);
+        // An out-of-range number fails the load, instead of wrapping to a wrong ID.
+        File badFile = File.createTempFile("badId", ".dtx");
+        badFile.deleteOnExit();
+        String goodLine = "2\t1\t0\t1\tsuperkingdom\tBacteria\n";
+        String[] badLines = new String[] { "4294967298\t2\t0\t1\tspecies\tWrapped\n",
+                "2147483648\t2\t0\t1\tspecies\tTooBig\n", "3\t-2147483649\t0\t1\tspecies\tTooSmall\n",
+                "99999999999999999999\t2\t0\t1\tspecies\tHuge\n" };
+        for (String badLine : badLines) {
+            Files.write(badFile.toPath(), (goodLine + badLine).getBytes(StandardCharsets.UTF_8));
+            try {
+                TreeOfLife.load(badFile);
+                fail("Out-of-range number accepted in " + badLine.trim() + ".");
+            } catch (IOException e) {
+                assertThat("Wrong load error.", e.getMessage(), containsString("out of range in line 2"));
+            }
+        }
+    }
+
+    /**
+     * Test the binary snapshot of the tree.
+     *
+     * @throws IOException
+     */
+    public void testSnapshot() throws IOException {
+        File taxFile = new File("src/test", "taxonMedium.dtx");
+        assertFalse("Load file is a snapshot.", TreeOfLife.isSnapshot(taxFile));
+        TreeOfLife oldTree = TreeOfLife.load(taxFile);
+        File snapFile = File.createTempFile("taxon", ".snap");
+        snapFile.deleteOnExit();
+        oldTree.save(snapFile);
+        assertTrue("Snapshot not recognized.", TreeOfLife.isSnapshot(snapFile));
+        TreeOfLife newTree = TreeOfLife.open(snapFile);
+        assertThat("Wrong row count.", newTree.getLoadRows(), equalTo(oldTree.size()));
+        checkSameTree(oldTree, newTree);
+        Taxon buchnera = newTree.find(107806);
+        assertThat("Buchnera has wrong name.", buchnera.getName(),
+                equalTo("Buchnera aphidicola str. APS (Acyrthosiphon pisum)"));
+        assertThat("Buchnera has wrong grandparent.", buchnera.getParent().getParent().getId(), equalTo(9));
+        assertNull("Root has a parent.", newTree.find(1).getParent());
+        // A truncated snapshot fails with an IOException.
+        byte[] snapData = Files.readAllBytes(snapFile.toPath());
+        File badFile = File.createTempFile("bad", ".snap");
+        badFile.deleteOnExit();
+        for (int len = 0; len < snapData.length; len += (len < 64 ? 1 : 97)) {
+            Files.write(badFile.toPath(), Arrays.copyOf(snapData, len));
+            assertFalse("Truncated snapshot of length " + len + " loaded.", loadsAsSnapshot(badFile));
+        }
+        // So does a snapshot with a damaged size.
+        int n = oldTree.size();
+        int poolPos = 12 + n * 13 + ((n + 63) / 64) * 8;
+        for (int[] damage : new int[][] { { 8, -1 }, { 8, Integer.MAX_VALUE }, { 8, n + 1 }, { poolPos, -5 },
+                { poolPos, Integer.MAX_VALUE }, { 12, -1 } }) {
+            byte[] badData = snapData.clone();
+            ByteBuffer.wrap(badData).putInt(damage[0], damage[1]);
+            Files.write(badFile.toPath(), badData);
+            assertFalse("Damaged snapshot loaded with " + damage[1] + " at " + damage[0] + ".",
+                    loadsAsSnapshot(badFile));
+        }
+        assertTrue("Undamaged snapshot did not load.", loadsAsSnapshot(snapFile));
+    }
+
+    /**
+     * @return TRUE if a file loads successfully as a taxonomy snapshot
+     *
+     * @param snapFile	file to load
+     */
+    private boolean loadsAsSnapshot(File snapFile) {
+        boolean retVal = true;
+        try {
+            TreeOfLife.loadSnapshot(snapFile);
+        } catch (IOException e) {
+            retVal = false;
+        }
+        return retVal;
+    }
+
+    /**
+     * Test the lineage index.
+     *
+     * @throws IOException
+     */
+    public void testLineage() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        assertFalse("Lineage index built early.", ncbi.hasLineageIndex());
+        int[] lineage = new int[TreeOfLife.LINEAGE_WIDTH];
+        assertTrue("Buchnera not found.", ncbi.getLineage(107806, lineage));
+        assertTrue("Lineage index not built.", ncbi.hasLineageIndex());
+        assertThat("Wrong domain.", lineage[Rank.DOMAIN.getIdx()], equalTo(2));
+        assertThat("Wrong kingdom.", lineage[Rank.KINGDOM.getIdx()], equalTo(-1));
+        assertThat("Wrong phylum.", lineage[Rank.PHYLUM.getIdx()], equalTo(1224));
+        assertThat("Wrong class.", lineage[Rank.CLASS.getIdx()], equalTo(1236));
+        assertThat("Wrong order.", lineage[Rank.ORDER.getIdx()], equalTo(91347));
+        assertThat("Wrong family.", lineage[Rank.FAMILY.getIdx()], equalTo(1903409));
+        assertThat("Wrong genus.", lineage[Rank.GENUS.getIdx()], equalTo(32199));
+        assertThat("Wrong species.", lineage[Rank.SPECIES.getIdx()], equalTo(9));
+        assertFalse("Invalid taxon found.", ncbi.getLineage(666666, lineage));
+        assertThat("Wrong ancestor for invalid taxon.", ncbi.getAncestor(666666, Rank.GENUS), equalTo(-1));
+        // Verify the whole index against a walk up the tree.
+        for (Taxon taxon : ncbi) {
+            for (Rank rank : Rank.values()) {
+                int expected = -1;
+                if (rank != Rank.OTHER) {
+                    for (Taxon t = taxon; t != null && expected < 0; t = t.getParent()) {
+                        if (t.getRank() == rank) expected = t.getId();
+                    }
+                }
+                assertThat("Wrong " + rank + " for " + taxon + ".", ncbi.getAncestor(taxon.getId(), rank),
+                        equalTo(expected));
+            }
+        }
+        // Verify that the index survives a snapshot.
+        File snapFile = File.createTempFile("taxon", ".snap");
+        snapFile.deleteOnExit();
+        ncbi.save(snapFile);
+        TreeOfLife snapTree = TreeOfLife.open(snapFile);
+        assertTrue("Lineage index not in snapshot.", snapTree.hasLineageIndex());
+        assertThat("Wrong species from snapshot.", snapTree.getAncestor(1129793, Rank.SPECIES), equalTo(222814));
+        assertThat("Wrong order from snapshot.", snapTree.getAncestor(1129793, Rank.ORDER), equalTo(135622));
+    }
+
+    /**
+     * Verify that two trees contain the same taxonomic groupings.
+     *
+     * @param oldTree	expected tree
+     * @param newTree	tree to check
+     */
+    private void checkSameTree(TreeOfLife oldTree, TreeOfLife newTree) {
+        assertThat("Tree sizes differ.", newTree.size(), equalTo(oldTree.size()));
+        int count = 0;
+        for (Taxon oldTaxon : oldTree) {
+            Taxon newTaxon = newTree.find(oldTaxon.getId());
+            assertThat("Taxon " + oldTaxon + " not found.", newTaxon, notNullValue());
+            assertThat("Name differs for " + oldTaxon + ".", newTaxon.getName(), equalTo(oldTaxon.getName()));
+            assertThat("Rank differs for " + oldTaxon + ".", newTaxon.getRank(), equalTo(oldTaxon.getRank()));
+            assertThat("Hidden flag differs for " + oldTaxon + ".", newTaxon.isHidden(), equalTo(oldTaxon.isHidden()));
+            Taxon oldParent = oldTaxon.getParent();
+            Taxon newParent = newTaxon.getParent();
+            if (oldParent == null) {
+                assertNull("Parent differs for " + oldTaxon + ".", newParent);
+            } else {
+                assertThat("Parent differs for " + oldTaxon + ".", newParent.getId(), equalTo(oldParent.getId()));
+            }
+            count++;
+        }
+        assertThat("Iteration count wrong.", count, equalTo(oldTree.size()));
+    }
+
+    /**
+     * Test the primitive count map.
+     */
+    public void testTaxonCountMap() {
+        TaxonCountMap counts = new TaxonCountMap();
+        assertThat("New map not empty.", counts.size(), equalTo(0));
+        assertThat("Count found in empty map.", counts.getCount(100), equalTo(0));
+        // Fill past the packed-list limit so the map switches to hashing.
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j <= i % 5; j++)
+                counts.count(i * 7);
+        }
+        assertThat("Wrong map size.", counts.size(), equalTo(1000));
+        for (int i = 0; i < 1000; i++)
+            assertThat("Wrong count for " + i * 7 + ".", counts.getCount(i * 7), equalTo(i % 5 + 1));
+        assertThat("Count found for missing key.", counts.getCount(8), equalTo(0));
+        assertThat("Wrong count after add.", counts.count(14, 10), equalTo(13));
+        int[] keys = counts.keys();
+        assertThat("Wrong key count.", keys.length, equalTo(1000));
+        Arrays.sort(keys);
+        assertThat("Wrong first key.", keys[0], equalTo(0));
+        assertThat("Wrong last key.", keys[999], equalTo(6993));
+    }
+
     public void testTaxonomyCounter() throws IOException {
         TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
         TaxonomyCounter newCounter = new TaxonomyCounter("test", ncbi);
@@ -130,7 +336,7 @@ public class AppTest
         assertThat("Invalid count wrong.", newCounter.getInvalid(), equalTo(0));
         newCounter.register(1420916);
         newCounter.register(119174);
-        List<CountMap<Taxon>.Count> familyCounts = newCounter.sortedCounts(Rank.FAMILY);
+        List<TaxonomyCounter.Count> familyCounts = newCounter.sortedCounts(Rank.FAMILY);
         assertThat("Incorrect big family count ID.", familyCounts.get(0).getKey().getId(), equalTo(72275));
         assertThat("Incorrect big family count value.", familyCounts.get(0).getCount(), equalTo(3));
         assertThat("Incorrect small family count ID.", familyCounts.get(1).getKey().getId(), equalTo(4210));
@@ -179,4 +385,1524 @@ public class AppTest
         Taxon family72275 = ncbi.find(72275);
         assertThat("Profile 4A has wrong family count.", profile1.countOf(family72275), equalTo(2));
     }
+
+    /**
+     * Test merging of profilers.
+     *
+     * @throws IOException
+     */
+    public void testProfilerMerge() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        int[] taxIds = new int[] { 107806, 1129793, 1420916, 119174, 666666, 1420916, 107806 };
+        String[] groups = new String[] { "g1", "g2", "g1", "g3", "g1", "g2", "g1" };
+        TaxonomyProfiler whole = new TaxonomyProfiler(ncbi);
+        TaxonomyProfiler part1 = new TaxonomyProfiler(ncbi);
+        TaxonomyProfiler part2 = new TaxonomyProfiler(ncbi);
+        for (int i = 0; i < taxIds.length; i++) {
+            whole.register(groups[i], taxIds[i]);
+            if (i % 2 == 0)
+                part1.register(groups[i], taxIds[i]);
+            else
+                part2.register(groups[i], taxIds[i]);
+        }
+        part1.merge(part2);
+        assertThat("Wrong group count.", part1.size(), equalTo(whole.size()));
+        List<TaxonomyCounter> expected = whole.sortedProfiles();
+        List<TaxonomyCounter> merged = part1.sortedProfiles();
+        for (int i = 0; i < expected.size(); i++) {
+            TaxonomyCounter e = expected.get(i);
+            TaxonomyCounter m = merged.get(i);
+            assertThat("Wrong name at " + i + ".", m.getName(), equalTo(e.getName()));
+            assertThat("Wrong total for " + e.getName() + ".", m.getTotal(), equalTo(e.getTotal()));
+            assertThat("Wrong invalid for " + e.getName() + ".", m.getInvalid(), equalTo(e.getInvalid()));
+            for (Rank rank : Rank.values()) {
+                if (rank != Rank.OTHER) {
+                    assertThat("Wrong " + rank + " types for " + e.getName() + ".", m.typesOf(rank),
+                            equalTo(e.typesOf(rank)));
+                    List<TaxonomyCounter.Count> eCounts = e.sortedCounts(rank);
+                    List<TaxonomyCounter.Count> mCounts = m.sortedCounts(rank);
+                    for (int j = 0; j < eCounts.size(); j++) {
+                        assertThat("Wrong " + rank + " key for " + e.getName() + ".", mCounts.get(j).getKey(),
+                                equalTo(eCounts.get(j).getKey()));
+                        assertThat("Wrong " + rank + " count for " + e.getName() + ".", mCounts.get(j).getCount(),
+                                equalTo(eCounts.get(j).getCount()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test saving and loading profiler partial files.
+     *
+     * @throws IOException
+     */
+    public void testPartialFiles() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyProfiler part1 = new TaxonomyProfiler(ncbi);
+        part1.register("g1", 107806);
+        part1.register("g1", 1129793);
+        part1.register("g2", 666666);
+        TaxonomyProfiler part2 = new TaxonomyProfiler(ncbi);
+        part2.register("g1", 107806);
+        part2.register("g3", 1420916);
+        File file1 = File.createTempFile("part", ".ser");
+        file1.deleteOnExit();
+        File file2 = File.createTempFile("part", ".ser");
+        file2.deleteOnExit();
+        part1.save(file1);
+        part2.save(file2);
+        TaxonomyProfiler merged = new TaxonomyProfiler(ncbi);
+        merged.load(file1);
+        merged.load(file2);
+        assertThat("Wrong group count.", merged.size(), equalTo(3));
+        TaxonomyCounter g1 = merged.profileOf("g1");
+        assertThat("Wrong g1 total.", g1.getTotal(), equalTo(3));
+        assertThat("Wrong g1 species.", g1.typesOf(Rank.SPECIES), equalTo(2));
+        assertThat("Wrong g1 Buchnera count.", g1.countOf(ncbi.find(9)), equalTo(2));
+        assertThat("Wrong g1 class count.", g1.countOf(ncbi.find(1236)), equalTo(3));
+        TaxonomyCounter g2 = merged.profileOf("g2");
+        assertThat("Wrong g2 total.", g2.getTotal(), equalTo(0));
+        assertThat("Wrong g2 invalid.", g2.getInvalid(), equalTo(1));
+        assertThat("Wrong g3 total.", merged.profileOf("g3").getTotal(), equalTo(1));
+        assertFalse("Load file accepted as partial.", loadsAsPartial(merged, new File("src/test", "taxonMedium.dtx")));
+    }
+
+    /**
+     * @return TRUE if a file loads successfully as a partial file
+     *
+     * @param profiler	profiler into which the file should be loaded
+     * @param inFile	file to load
+     */
+    private boolean loadsAsPartial(TaxonomyProfiler profiler, File inFile) {
+        boolean retVal = true;
+        try {
+            profiler.load(inFile);
+        } catch (IOException e) {
+            retVal = false;
+        }
+        return retVal;
+    }
+
+    /**
+     * Test removing registrations.
+     *
+     * @throws IOException
+     */
+    public void testUnregister() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyCounter counter = new TaxonomyCounter("test", ncbi);
+        counter.register(1129793);
+        counter.register(1420916);
+        counter.register(1420916);
+        counter.register(119174);
+        counter.register(666666);
+        Taxon family72275 = ncbi.find(72275);
+        Taxon species1420916 = ncbi.find(1420916);
+        assertThat("Wrong family count.", counter.countOf(family72275), equalTo(3));
+        assertTrue("Unregister failed.", counter.unregister(1420916));
+        assertThat("Wrong family count after removal.", counter.countOf(family72275), equalTo(2));
+        assertThat("Wrong species count after removal.", counter.countOf(species1420916), equalTo(1));
+        assertThat("Wrong species types after removal.", counter.typesOf(Rank.SPECIES), equalTo(2));
+        assertTrue("Second unregister failed.", counter.unregister(1420916));
+        assertThat("Species still counted.", counter.countOf(species1420916), equalTo(0));
+        assertThat("Wrong species types after second removal.", counter.typesOf(Rank.SPECIES), equalTo(1));
+        assertFalse("Unregistered a missing taxon.", counter.unregister(1420916));
+        assertFalse("Unregistered an unregistered taxon.", counter.unregister(107806));
+        assertThat("Wrong total.", counter.getTotal(), equalTo(2));
+        assertTrue("Invalid unregister failed.", counter.unregister(666666));
+        assertFalse("Invalid unregister repeated.", counter.unregister(666666));
+        assertThat("Wrong invalid count.", counter.getInvalid(), equalTo(0));
+        // Verify removal in a large count map.
+        TaxonCountMap counts = new TaxonCountMap();
+        for (int i = 0; i < 500; i++) {
+            counts.count(i * 3);
+            counts.count(i * 3);
+        }
+        for (int i = 0; i < 500; i += 2) {
+            assertThat("Wrong count after uncount of " + i * 3 + ".", counts.uncount(i * 3), equalTo(1));
+            assertThat("Wrong count after removal of " + i * 3 + ".", counts.uncount(i * 3), equalTo(0));
+        }
+        assertThat("Removed a missing key.", counts.uncount(1), equalTo(-1));
+        assertThat("Wrong size after removals.", counts.size(), equalTo(250));
+        for (int i = 0; i < 500; i++)
+            assertThat("Wrong count for " + i * 3 + ".", counts.getCount(i * 3), equalTo(i % 2 == 0 ? 0 : 2));
+        // Verify that empty groups are removed from a profiler.
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        profiler.register("g1", 107806);
+        profiler.register("g2", 107806);
+        assertTrue("Profiler unregister failed.", profiler.unregister("g1", 107806));
+        assertNull("Empty group not removed.", profiler.profileOf("g1"));
+        assertFalse("Unregistered from missing group.", profiler.unregister("g3", 107806));
+        assertThat("Wrong group count.", profiler.size(), equalTo(1));
+        // Verify an incremental update with the profile command.
+        String treeName = new File("src/test", "taxonMedium.dtx").toString();
+        String header = "genome_id\tgroup_id\ttaxon_id\n";
+        File oldFile = tempTable("old", header + "a.1\tg1\t1420916\na.2\tg1\t107806\na.3\tg2\t1129793\n");
+        File removedFile = tempTable("removed", header + "a.2\tg1\t107806\n");
+        File deltaFile = tempTable("delta", header + "b.1\tg1\t1129793\nb.2\tg3\t119174\n");
+        File finalFile = tempTable("final", header + "a.1\tg1\t1420916\na.3\tg2\t1129793\n"
+                + "b.1\tg1\t1129793\nb.2\tg3\t119174\n");
+        File stateFile = File.createTempFile("state", ".ser");
+        stateFile.deleteOnExit();
+        String expected = new String(runCommand(null, "profile", treeName, finalFile.toString()),
+                StandardCharsets.UTF_8);
+        assertThat("Missing final report.", expected, containsString("g3"));
+        runCommand(null, "profile", "--removable", "-o", stateFile.toString(), treeName, oldFile.toString());
+        String actual = new String(runCommand(null, "profile", "--state", stateFile.toString(), "--removed",
+                removedFile.toString(), treeName, deltaFile.toString()), StandardCharsets.UTF_8);
+        assertThat("Wrong incremental report.", actual, equalTo(expected));
+        // Without --removable, the saved state cannot have genomes removed.
+        runCommand(null, "profile", "-o", stateFile.toString(), treeName, oldFile.toString());
+        byte[] report = runCommand(null, "profile", "--state", stateFile.toString(), "--removed",
+                removedFile.toString(), treeName, deltaFile.toString());
+        assertThat("Report produced from a state that is not removable.", report.length, equalTo(0));
+    }
+
+    /**
+     * Test the synthetic tree and genome generators.
+     *
+     * @throws IOException
+     */
+    public void testSynthetic() throws IOException {
+        SyntheticTree generator = new SyntheticTree(5000, 1234).setStrainLevels(2).setNoRankRun(3)
+                .setHiddenFraction(0.2);
+        TreeOfLife built = generator.build();
+        assertThat("Tree too big.", built.size(), lessThanOrEqualTo(5000));
+        assertThat("Tree too small.", built.size(), greaterThan(4000));
+        File dtxFile = File.createTempFile("synth", ".dtx");
+        dtxFile.deleteOnExit();
+        generator.write(dtxFile);
+        TreeOfLife loaded = TreeOfLife.load(dtxFile);
+        checkSameTree(built, loaded);
+        int species = 0;
+        int deepest = 0;
+        for (Taxon taxon : loaded) {
+            if (taxon.getRank() == Rank.SPECIES) {
+                species++;
+                assertTrue("Species " + taxon + " is not hidden.", taxon.isHidden());
+            }
+            int depth = 0;
+            for (Taxon t = taxon; t.getParent() != null; t = t.getParent())
+                depth++;
+            deepest = Math.max(deepest, depth);
+        }
+        assertThat("No species generated.", species, greaterThan(0));
+        assertThat("Tree too shallow.", deepest, greaterThan(9));
+        File genomeFile = File.createTempFile("synth", ".tbl");
+        genomeFile.deleteOnExit();
+        new SyntheticGenomes(loaded, 1234).setGroups(50).setInvalidFraction(0.0).write(genomeFile, 1000);
+        List<String> lines = Files.readAllLines(genomeFile.toPath());
+        assertThat("Wrong genome count.", lines.size(), equalTo(1001));
+        assertThat("Wrong header.", lines.get(0), equalTo("genome_id\tgroup_id\ttaxon_id"));
+        int[] groupSizes = new int[51];
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t");
+            assertTrue("Invalid taxon in " + line + ".", loaded.contains(Integer.parseInt(fields[2])));
+            groupSizes[Integer.parseInt(fields[1].substring(1))]++;
+        }
+        assertThat("Group sizes not skewed.", groupSizes[1], greaterThan(groupSizes[50] * 5));
+    }
+
+    /**
+     * Test lowest common ancestors.
+     *
+     * @throws IOException
+     */
+    public void testLca() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        assertFalse("LCA index built too soon.", ncbi.hasLcaIndex());
+        assertThat("Wrong family LCA.", ncbi.getLca(1129793, 1420916), equalTo(72275));
+        assertTrue("LCA index not built.", ncbi.hasLcaIndex());
+        assertThat("Wrong class LCA.", ncbi.getLca(107806, 1420916), equalTo(1236));
+        assertThat("Wrong domain-crossing LCA.", ncbi.getLca(119174, 9), equalTo(131567));
+        assertThat("Wrong ancestor LCA.", ncbi.getLca(107806, 32199), equalTo(32199));
+        assertThat("Wrong self LCA.", ncbi.getLca(9, 9), equalTo(9));
+        assertThat("Wrong invalid LCA.", ncbi.getLca(9, 666666), equalTo(-1));
+        assertThat("Wrong set LCA.", ncbi.getLca(new int[] { 1129793, 666666, 2742, 222814 }), equalTo(72275));
+        assertThat("Wrong single LCA.", ncbi.getLca(new int[] { 2742 }), equalTo(2742));
+        assertThat("Wrong empty LCA.", ncbi.getLca(new int[] { 666666 }), equalTo(-1));
+        // Insert a second root and verify there is no common ancestor across the trees.
+        ncbi.findOrInsert(700001, 700001, "no rank", "other root", false);
+        ncbi.findOrInsert(700002, 700001, "species", "other species", false);
+        assertFalse("LCA index not invalidated.", ncbi.hasLcaIndex());
+        assertThat("Wrong cross-tree LCA.", ncbi.getLca(700002, 9), equalTo(-1));
+        assertThat("Wrong second-tree LCA.", ncbi.getLca(700002, 700001), equalTo(700001));
+        // Compare against a brute-force search on a synthetic tree.
+        TreeOfLife synth = new SyntheticTree(20000, 99).setNoRankRun(3).build();
+        int[] ids = new int[synth.size()];
+        int n = 0;
+        for (Taxon taxon : synth)
+            ids[n++] = taxon.getId();
+        Random rand = new Random(17);
+        for (int i = 0; i < 2000; i++) {
+            int id1 = ids[rand.nextInt(n)];
+            int id2 = ids[rand.nextInt(n)];
+            Set<Integer> ancestors = new HashSet<Integer>();
+            for (int a = id1; a >= 0; a = synth.getParentId(a))
+                ancestors.add(a);
+            int expected = id2;
+            while (! ancestors.contains(expected))
+                expected = synth.getParentId(expected);
+            assertThat("Wrong LCA for " + id1 + " and " + id2 + ".", synth.getLca(id1, id2), equalTo(expected));
+        }
+        // Verify the group LCA in a counter.
+        TaxonomyCounter counter = new TaxonomyCounter("test", ncbi);
+        assertThat("Wrong empty group LCA.", counter.getLcaId(), equalTo(-1));
+        assertNull("Wrong empty group LCA rank.", counter.getLcaRank());
+        counter.register(1129793);
+        assertThat("Wrong single-member LCA.", counter.getLcaId(), equalTo(1129793));
+        assertThat("Wrong single-member LCA rank.", counter.getLcaRank(), equalTo(Rank.SPECIES));
+        counter.register(1420916);
+        counter.register(666666);
+        assertThat("Wrong group LCA.", counter.getLca().getId(), equalTo(72275));
+        assertThat("Wrong group LCA rank.", counter.getLcaRank(), equalTo(Rank.FAMILY));
+        counter.register(107806);
+        assertThat("Wrong wider group LCA.", counter.getLcaId(), equalTo(1236));
+        assertTrue("Unregister failed.", counter.unregister(107806));
+        assertThat("Wrong LCA after removal.", counter.getLcaId(), equalTo(72275));
+        counter.register(119174);
+        assertThat("Wrong cross-domain LCA rank.", counter.getLcaRank(), equalTo(Rank.OTHER));
+    }
+
+    /**
+     * Test counters that do not track their members.
+     *
+     * @throws IOException
+     */
+    public void testLeanCounters() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyCounter lean = new TaxonomyCounter("test", ncbi, TallyFactory.EXACT, false);
+        TaxonomyCounter full = new TaxonomyCounter("test", ncbi);
+        assertFalse("Lean counter is removable.", lean.isRemovable());
+        assertTrue("Default counter is not removable.", full.isRemovable());
+        assertThat("Wrong empty group LCA.", lean.getLcaId(), equalTo(-1));
+        // The lowest common ancestor is updated with each registration.
+        int[] taxIds = new int[] { 1129793, 1420916, 666666, 1420916, 107806 };
+        int[] lcaIds = new int[] { 1129793, 72275, 72275, 72275, 1236 };
+        for (int i = 0; i < taxIds.length; i++) {
+            lean.register(taxIds[i]);
+            full.register(taxIds[i]);
+            assertThat("Wrong LCA after " + taxIds[i] + ".", lean.getLcaId(), equalTo(lcaIds[i]));
+            assertThat("Wrong removable LCA after " + taxIds[i] + ".", full.getLcaId(), equalTo(lcaIds[i]));
+        }
+        assertThat("Wrong LCA rank.", lean.getLcaRank(), equalTo(Rank.CLASS));
+        for (Rank rank : Rank.values()) {
+            if (rank != Rank.OTHER)
+                assertThat("Wrong " + rank + " count.", lean.typesOf(rank), equalTo(full.typesOf(rank)));
+        }
+        assertThat("Wrong total.", lean.getTotal(), equalTo(4));
+        assertThat("Wrong invalid count.", lean.getInvalid(), equalTo(1));
+        try {
+            lean.unregister(107806);
+            fail("Removed a registration from a counter that is not removable.");
+        } catch (UnsupportedOperationException e) {
+            assertThat("Wrong removal error.", e.getMessage(), containsString("not removable"));
+        }
+        assertThat("Failed removal changed the total.", lean.getTotal(), equalTo(4));
+        // Merging a lean counter into a removable one keeps the counts, but not the members.
+        TaxonomyCounter other = new TaxonomyCounter("test", ncbi, TallyFactory.EXACT, false);
+        other.register(119174);
+        full.merge(other);
+        assertFalse("Merged counter still removable.", full.isRemovable());
+        assertThat("Wrong merged total.", full.getTotal(), equalTo(5));
+        assertThat("Wrong merged LCA rank.", full.getLcaRank(), equalTo(Rank.OTHER));
+        // A lean profiler saves the lowest common ancestor instead of the members.
+        TaxonomyProfiler leanProfiler = new TaxonomyProfiler(ncbi, TallyFactory.EXACT, false);
+        TaxonomyProfiler fullProfiler = new TaxonomyProfiler(ncbi);
+        for (TaxonomyProfiler profiler : new TaxonomyProfiler[] { leanProfiler, fullProfiler }) {
+            profiler.register("g1", 1420916);
+            profiler.register("g1", 1129793);
+            profiler.register("g2", 107806);
+        }
+        File leanFile = File.createTempFile("lean", ".ser");
+        leanFile.deleteOnExit();
+        leanProfiler.save(leanFile);
+        File fullFile = File.createTempFile("full", ".ser");
+        fullFile.deleteOnExit();
+        fullProfiler.save(fullFile);
+        assertThat("Lean partial file not smaller.", leanFile.length(), lessThan(fullFile.length()));
+        TaxonomyProfiler loaded = new TaxonomyProfiler(ncbi, TallyFactory.EXACT, false);
+        loaded.load(leanFile);
+        TaxonomyCounter g1 = loaded.profileOf("g1");
+        assertFalse("Loaded lean group is removable.", g1.isRemovable());
+        assertThat("Wrong loaded LCA.", g1.getLcaId(), equalTo(72275));
+        assertThat("Wrong loaded total.", g1.getTotal(), equalTo(2));
+        // A lean profiler can merge in removable groups.
+        loaded.load(fullFile);
+        assertThat("Wrong merged group total.", loaded.profileOf("g1").getTotal(), equalTo(4));
+        assertThat("Wrong merged group LCA.", loaded.profileOf("g1").getLcaId(), equalTo(72275));
+        // A removable profiler keeps the members from a partial file, and rejects groups without them.
+        TaxonomyProfiler removable = new TaxonomyProfiler(ncbi);
+        removable.load(fullFile);
+        assertTrue("Loaded group not removable.", removable.profileOf("g1").isRemovable());
+        assertTrue("Loaded unregister failed.", removable.unregister("g1", 1129793));
+        assertThat("Wrong LCA after loaded removal.", removable.profileOf("g1").getLcaId(), equalTo(1420916));
+        try {
+            removable.load(leanFile);
+            fail("Loaded a group that is not removable into a removable profiler.");
+        } catch (IOException e) {
+            assertThat("Wrong load error.", e.getMessage(), containsString("does not track its members"));
+        }
+    }
+
+    /**
+     * Test descendant checks and clade filters.
+     *
+     * @throws IOException
+     */
+    public void testClades() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        assertTrue("Strain not in phylum.", ncbi.isDescendant(107806, 1224));
+        assertTrue("Taxon not its own descendant.", ncbi.isDescendant(1224, 1224));
+        assertFalse("Phylum in strain.", ncbi.isDescendant(1224, 107806));
+        assertFalse("Plant in bacteria.", ncbi.isDescendant(119174, 2));
+        assertFalse("Sibling genus in genus.", ncbi.isDescendant(2742, 1621534));
+        assertFalse("Invalid taxon in root.", ncbi.isDescendant(666666, 1));
+        // Compare against a brute-force search on a synthetic tree.
+        TreeOfLife synth = new SyntheticTree(20000, 77).setNoRankRun(2).build();
+        int[] ids = new int[synth.size()];
+        int n = 0;
+        for (Taxon taxon : synth)
+            ids[n++] = taxon.getId();
+        Random rand = new Random(31);
+        for (int i = 0; i < 2000; i++) {
+            int id = ids[rand.nextInt(n)];
+            // Half the time, pick a real ancestor.
+            int other = ids[rand.nextInt(n)];
+            if (rand.nextBoolean()) {
+                other = id;
+                for (int steps = rand.nextInt(6); steps > 0 && synth.getParentId(other) >= 0; steps--)
+                    other = synth.getParentId(other);
+            }
+            boolean expected = false;
+            for (int a = id; a >= 0 && ! expected; a = synth.getParentId(a))
+                expected = (a == other);
+            assertThat("Wrong descendant check for " + id + " in " + other + ".", synth.isDescendant(id, other),
+                    equalTo(expected));
+        }
+        // Test the filters.
+        CladeFilter filter = new CladeFilter(ncbi, Arrays.asList(1224), Arrays.asList(32199));
+        assertTrue("Marinobacter rejected.", filter.accepts(1420916));
+        assertFalse("Buchnera accepted.", filter.accepts(107806));
+        assertFalse("Plant accepted.", filter.accepts(119174));
+        assertFalse("Invalid ID accepted with includes.", filter.accepts(666666));
+        filter = new CladeFilter(ncbi, Arrays.<Integer>asList(), Arrays.asList(2759));
+        assertTrue("Bacterium rejected.", filter.accepts(107806));
+        assertFalse("Plant accepted.", filter.accepts(119174));
+        assertTrue("Invalid ID rejected with excludes only.", filter.accepts(666666));
+        try {
+            new CladeFilter(ncbi, Arrays.asList(666666), Arrays.<Integer>asList());
+            fail("Invalid clade accepted.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Test streaming profiles and the external group sort.
+     *
+     * @throws IOException
+     */
+    public void testStreaming() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        String[] groups = new String[] { "g3", "g1", "g2", "g1", "g4", "g3", "g1", "g2", "g1" };
+        int[] taxIds = new int[] { 107806, 1129793, 1420916, 107806, 119174, 666666, 1420916, 2742, 9 };
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        for (int i = 0; i < groups.length; i++)
+            profiler.register(groups[i], taxIds[i]);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new ProfileReport(new PrintStream(expected)).write(profiler, 2);
+        // Sort the records through several spill files and keep the top two groups.
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        StreamingProfiler streamer = new StreamingProfiler(ncbi, new ProfileReport(new PrintStream(actual)), 2);
+        try (GroupSorter sorter = new GroupSorter(2, null)) {
+            for (int i = 0; i < groups.length; i++)
+                sorter.add(groups[i], taxIds[i]);
+            assertThat("Wrong number of runs.", sorter.getRunCount(), equalTo(4));
+            sorter.drain(streamer);
+        }
+        streamer.finish();
+        assertThat("Wrong group count.", streamer.getGroupCount(), equalTo(4));
+        assertThat("Wrong top-group report.", actual.toString(), equalTo(expected.toString()));
+        // Stream the groups without a limit.  They come out in group ID order.
+        actual = new ByteArrayOutputStream();
+        streamer = new StreamingProfiler(ncbi, new ProfileReport(new PrintStream(actual)), 0);
+        try (GroupSorter sorter = new GroupSorter(100, null)) {
+            for (int i = 0; i < groups.length; i++)
+                sorter.add(groups[i], taxIds[i]);
+            assertThat("Spilled in memory.", sorter.getRunCount(), equalTo(0));
+            sorter.drain(streamer);
+        }
+        streamer.finish();
+        String[] lines = actual.toString().split("\\r?\\n");
+        assertThat("Wrong line count.", lines.length, equalTo(5));
+        assertThat("Wrong first group.", lines[1], startsWith("g1\t4\t"));
+        assertThat("Wrong last group.", lines[4], startsWith("g4\t1\t"));
+        // Verify that unsorted input is detected.
+        streamer = new StreamingProfiler(ncbi, new ProfileReport(new PrintStream(new ByteArrayOutputStream())), 0);
+        streamer.register("g2", 9);
+        try {
+            streamer.register("g1", 9);
+            fail("Unsorted input accepted.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Test the approximate heavy-hitter tallies.
+     *
+     * @throws IOException
+     */
+    public void testHeavyHitters() throws IOException {
+        // Count a skewed stream in two halves, with exact counts for comparison.
+        SpaceSavingTally tally1 = new SpaceSavingTally(20);
+        SpaceSavingTally tally2 = new SpaceSavingTally(20);
+        TaxonCountMap exact = new TaxonCountMap();
+        Random rand = new Random(42);
+        int total = 20000;
+        for (int i = 0; i < total; i++) {
+            // Keys 0 through 4 are heavy hitters; the rest are spread over a thousand light keys.
+            int key = (rand.nextInt(2) == 0 ? rand.nextInt(5) : 5 + rand.nextInt(1000));
+                if (i % 2 == 0)
+                tally1.count(key);
+            else
+                tally2.count(key);
+            exact.count(key);
+        }
+        assertTrue("Tally did not overflow.", tally1.isOverflowed());
+        assertThat("Wrong tally size.", tally1.size(), equalTo(20));
+        tally1.merge(tally2);
+        assertThat("Wrong merged size.", tally1.size(), equalTo(20));
+        for (int key = 0; key < 5; key++) {
+            int count = tally1.getCount(key);
+            assertThat("Heavy hitter " + key + " undercounted.", count, greaterThanOrEqualTo(exact.getCount(key)));
+            assertThat("Heavy hitter " + key + " minimum too high.", tally1.getMinimum(key),
+                    lessThanOrEqualTo(exact.getCount(key)));
+            assertThat("Heavy hitter " + key + " overcounted.", count - exact.getCount(key),
+                    lessThanOrEqualTo(2 * total / 20));
+        }
+        try {
+            tally1.uncount(0);
+            fail("Approximate uncount allowed.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+        // Small tallies are exact.
+        SpaceSavingTally small = new SpaceSavingTally(10);
+        small.count(5, 3);
+        small.count(7);
+        small.count(5);
+        assertFalse("Small tally overflowed.", small.isOverflowed());
+        assertThat("Wrong small count.", small.getCount(5), equalTo(4));
+        assertThat("Wrong missing count.", small.getCount(6), equalTo(0));
+        // A tally with few keys stays small, and grows as keys arrive.
+        assertThat("Small tally allocated too much.", small.getAllocated(), lessThanOrEqualTo(2));
+        SpaceSavingTally other = new SpaceSavingTally(10);
+        other.count(8);
+        small.merge(other);
+        assertThat("Wrong merged small size.", small.size(), equalTo(3));
+        assertThat("Merged small tally allocated too much.", small.getAllocated(), lessThanOrEqualTo(4));
+        SpaceSavingTally growing = new SpaceSavingTally(1000);
+        TaxonCountMap growingExact = new TaxonCountMap();
+        for (int i = 0; i < 900; i++) {
+            int key = (i * 7) % 300;
+            growing.count(key);
+            growingExact.count(key);
+        }
+        assertFalse("Growing tally overflowed.", growing.isOverflowed());
+        assertThat("Wrong growing size.", growing.size(), equalTo(300));
+        assertThat("Growing tally allocated too much.", growing.getAllocated(), lessThan(600));
+        for (int key = 0; key < 300; key++)
+            assertThat("Wrong growing count for " + key + ".", growing.getCount(key),
+                    equalTo(growingExact.getCount(key)));
+        for (int key = 300; key < 2000; key++)
+            growing.count(key);
+        assertTrue("Full tally did not overflow.", growing.isOverflowed());
+        assertThat("Wrong full size.", growing.size(), equalTo(1000));
+        assertThat("Wrong full allocation.", growing.getAllocated(), equalTo(1000));
+        // Test an approximate counter and its round trip through a partial file.
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi, SpaceSavingTally.factory(1));
+        profiler.register("g1", 1129793);
+        profiler.register("g1", 1420916);
+        profiler.register("g1", 1420916);
+        profiler.register("g1", 666666);
+        TaxonomyCounter g1 = profiler.profileOf("g1");
+        assertFalse("Counter is exact.", g1.isExact());
+        assertThat("Wrong approximate LCA.", g1.getLcaId(), equalTo(72275));
+        List<TaxonomyCounter.Count> genera = g1.topCounts(Rank.GENUS, 5);
+        assertThat("Wrong number of top genera.", genera.size(), equalTo(1));
+        assertThat("Wrong top genus.", genera.get(0).getKey().getId(), equalTo(2742));
+        assertThat("Wrong top genus count.", genera.get(0).getCount(), equalTo(3));
+        File partFile = File.createTempFile("sketch", ".ser");
+        partFile.deleteOnExit();
+        profiler.save(partFile);
+        TaxonomyProfiler loaded = new TaxonomyProfiler(ncbi);
+        loaded.load(partFile);
+        g1 = loaded.profileOf("g1");
+        assertFalse("Loaded counter is exact.", g1.isExact());
+        assertThat("Wrong loaded LCA.", g1.getLcaId(), equalTo(72275));
+        assertThat("Wrong loaded total.", g1.getTotal(), equalTo(3));
+        assertThat("Wrong loaded invalid.", g1.getInvalid(), equalTo(1));
+        assertThat("Wrong loaded family.", g1.countOf(ncbi.find(72275)), equalTo(3));
+        // Exact counters cannot absorb approximate ones.
+        TaxonomyProfiler exactProfiler = new TaxonomyProfiler(ncbi);
+        exactProfiler.register("g1", 9);
+        exactProfiler.register("g1", 119174);
+        TaxonomyCounter exactG1 = exactProfiler.profileOf("g1");
+        int[] typesBefore = new int[Rank.nGood()];
+        double[] simpsonBefore = new double[Rank.nGood()];
+        for (int i = 0; i < simpsonBefore.length; i++) {
+            typesBefore[i] = exactG1.typesOf(Rank.values()[i]);
+            simpsonBefore[i] = exactG1.simpsonOf(Rank.values()[i]);
+        }
+        assertFalse("Approximate partial merged into exact profile.", loadsAsPartial(exactProfiler, partFile));
+        // The failed merge leaves the exact counter unchanged.
+        assertThat("Wrong total after failed merge.", exactG1.getTotal(), equalTo(2));
+        assertThat("Wrong invalid count after failed merge.", exactG1.getInvalid(), equalTo(0));
+        for (int i = 0; i < simpsonBefore.length; i++) {
+            Rank rank = Rank.values()[i];
+            assertThat("Wrong " + rank + " types after failed merge.", exactG1.typesOf(rank),
+                    equalTo(typesBefore[i]));
+            assertThat("Wrong " + rank + " diversity after failed merge.", exactG1.simpsonOf(rank),
+                    equalTo(simpsonBefore[i]));
+        }
+        // Test the top-taxa report column on an exact profile.
+        exactProfiler.register("g1", 1420916);
+        exactProfiler.register("g1", 2742);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ProfileReport report = new ProfileReport(new PrintStream(output));
+        report.setTopTaxa(Rank.GENUS, 1);
+        report.write(exactProfiler);
+        String[] lines = output.toString().split("\\r?\\n");
+        assertThat("Wrong header.", lines[0], endsWith("\tlca_rank\ttop_genus"));
+        assertThat("Wrong top-taxa column.", lines[1], endsWith("\t2742:2"));
+    }
+
+    /**
+     * Test the approximate distinct counts.
+     *
+     * @throws IOException
+     */
+    public void testDistinctEstimates() throws IOException {
+        assertThat("Wrong precision for 5%.", HyperLogLogTally.precisionFor(0.05), equalTo(9));
+        assertThat("Wrong precision for 1%.", HyperLogLogTally.precisionFor(0.01), equalTo(14));
+        // Small tallies are exact.
+        HyperLogLogTally small = new HyperLogLogTally(10, null);
+        for (int i = 0; i < 100; i++)
+            small.count(i % 20);
+        assertTrue("Small tally is not sparse.", small.isSparse());
+        assertThat("Wrong small distinct count.", small.size(), equalTo(20));
+        // Count two overlapping halves of a large set of keys.
+        HyperLogLogTally tally1 = new HyperLogLogTally(12, null);
+        HyperLogLogTally tally2 = new HyperLogLogTally(12, null);
+        for (int i = 0; i < 60000; i++)
+            tally1.count(i * 7 + 3);
+        for (int i = 40000; i < 100000; i++)
+            tally2.count(i * 7 + 3);
+        assertFalse("Large tally is sparse.", tally1.isSparse());
+        assertThat("Half estimate too far off.", Math.abs(tally1.size() - 60000), lessThan(3000));
+        tally1.merge(tally2);
+        assertThat("Merged estimate too far off.", Math.abs(tally1.size() - 100000), lessThan(5000));
+        HyperLogLogTally small2 = new HyperLogLogTally(10, null);
+        for (int i = 10; i < 30; i++)
+            small2.count(i);
+        small.merge(small2);
+        assertTrue("Merged small tally is not sparse.", small.isSparse());
+        assertThat("Wrong merged small count.", small.size(), equalTo(30));
+        assertThat("Distinct-only tally has keys.", tally1.keys().length, equalTo(0));
+        // Test a counter with estimated distinct counts and exact key counts, and its round trip.
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi, HyperLogLogTally.factory(9, TallyFactory.EXACT));
+        profiler.register("g1", 1129793);
+        profiler.register("g1", 1420916);
+        profiler.register("g1", 1420916);
+        TaxonomyCounter exact = new TaxonomyCounter("g1", ncbi);
+        exact.register(2742);
+        profiler.profileOf("g1").merge(exact);
+        File partFile = File.createTempFile("distinct", ".ser");
+        partFile.deleteOnExit();
+        profiler.save(partFile);
+        TaxonomyProfiler loaded = new TaxonomyProfiler(ncbi);
+        loaded.load(partFile);
+        TaxonomyCounter g1 = loaded.profileOf("g1");
+        assertFalse("Loaded counter is exact.", g1.isExact());
+        assertThat("Wrong total.", g1.getTotal(), equalTo(4));
+        // Small counters are exact, so they should match an exact counter fed the same taxa.
+        TaxonomyCounter expected = new TaxonomyCounter("g1", ncbi);
+        expected.register(1129793);
+        expected.register(1420916);
+        expected.register(1420916);
+        expected.merge(exact);
+        for (Rank rank : new Rank[] { Rank.FAMILY, Rank.GENUS, Rank.SPECIES })
+            assertThat("Wrong " + rank + " count.", g1.typesOf(rank), equalTo(expected.typesOf(rank)));
+        assertThat("Wrong genus occurrences.", g1.countOf(ncbi.find(2742)),
+                equalTo(expected.countOf(ncbi.find(2742))));
+        assertThat("Wrong LCA.", g1.getLcaId(), equalTo(expected.getLcaId()));
+        // A distinct-only counter cannot absorb one with key counts.
+        TaxonomyCounter distinctOnly = new TaxonomyCounter("g2", ncbi, HyperLogLogTally.factory(9, null));
+        distinctOnly.register(1129793);
+        distinctOnly.merge(exact);
+        assertThat("Wrong distinct-only genus count.", distinctOnly.typesOf(Rank.GENUS), equalTo(2));
+        assertThat("Distinct-only counter has key counts.", distinctOnly.countOf(ncbi.find(2742)), equalTo(0));
+        int[] typesBefore = new int[Rank.nGood()];
+        for (int i = 0; i < typesBefore.length; i++)
+            typesBefore[i] = g1.typesOf(Rank.values()[i]);
+        int totalBefore = g1.getTotal();
+        try {
+            g1.merge(distinctOnly);
+            fail("Distinct-only counter merged into counter with key counts.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        // The failed merge leaves the counter unchanged.
+        assertThat("Wrong total after failed merge.", g1.getTotal(), equalTo(totalBefore));
+        for (int i = 0; i < typesBefore.length; i++)
+            assertThat("Wrong " + Rank.values()[i] + " count after failed merge.", g1.typesOf(Rank.values()[i]),
+                    equalTo(typesBefore[i]));
+    }
+
+    /**
+     * Test the diversity indices.
+     *
+     * @throws IOException
+     */
+    public void testDiversity() throws IOException {
+        // Build a random group from the medium tree, in two halves.
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        List<Integer> taxIds = new ArrayList<Integer>(ncbi.size());
+        for (Taxon taxon : ncbi)
+            taxIds.add(taxon.getId());
+        Random rand = new Random(42);
+        TaxonomyCounter half1 = new TaxonomyCounter("g1", ncbi);
+        TaxonomyCounter half2 = new TaxonomyCounter("g1", ncbi);
+        int[] registered = new int[400];
+        for (int i = 0; i < registered.length; i++) {
+            registered[i] = taxIds.get(rand.nextInt(rand.nextBoolean() ? 20 : taxIds.size()));
+            if (i < 200)
+                half1.register(registered[i]);
+            else
+                half2.register(registered[i]);
+        }
+        half1.merge(half2);
+        // Remove some registrations to exercise the reverse updates.
+        for (int i = 0; i < 50; i++)
+            assertTrue("Registration not found.", half1.unregister(registered[i]));
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        for (int i = 50; i < registered.length; i++)
+            profiler.register("g1", registered[i]);
+        File partFile = File.createTempFile("diversity", ".ser");
+        partFile.deleteOnExit();
+        profiler.save(partFile);
+        TaxonomyProfiler loaded = new TaxonomyProfiler(ncbi);
+        loaded.load(partFile);
+        TaxonomyCounter g1 = loaded.profileOf("g1");
+        for (TaxonomyCounter counter : new TaxonomyCounter[] { half1, g1 }) {
+            for (Rank rank : new Rank[] { Rank.FAMILY, Rank.GENUS, Rank.SPECIES }) {
+                // Compute the indices directly from the counts.
+                List<TaxonomyCounter.Count> counts = counter.sortedCounts(rank);
+                double n = 0.0;
+                double sumNLogN = 0.0;
+                double sumSquares = 0.0;
+                int f1 = 0;
+                int f2 = 0;
+                for (TaxonomyCounter.Count count : counts) {
+                    int c = count.getCount();
+                    n += c;
+                    sumNLogN += c * Math.log(c);
+                    sumSquares += (double) c * c;
+                    if (c == 1) f1++;
+                    if (c == 2) f2++;
+                }
+                assertThat("Too few " + rank + " counts.", n, greaterThan(1.0));
+                assertThat("Wrong Shannon at " + rank + ".", counter.shannonOf(rank),
+                        closeTo(Math.log(n) - sumNLogN / n, 1e-9));
+                assertThat("Wrong Simpson at " + rank + ".", counter.simpsonOf(rank),
+                        closeTo(1.0 - (sumSquares - n) / (n * (n - 1)), 1e-9));
+                assertThat("Wrong Chao1 at " + rank + ".", counter.chao1Of(rank),
+                        closeTo(counts.size() + f1 * (f1 - 1.0) / (2.0 * (f2 + 1)), 1e-9));
+            }
+        }
+        // A single grouping has no diversity.
+        TaxonomyCounter single = new TaxonomyCounter("g2", ncbi);
+        single.register(1420916);
+        single.register(1420916);
+        assertThat("Wrong single Shannon.", single.shannonOf(Rank.SPECIES), equalTo(0.0));
+        assertThat("Wrong single Simpson.", single.simpsonOf(Rank.SPECIES), equalTo(0.0));
+        assertThat("Wrong single Chao1.", single.chao1Of(Rank.SPECIES), equalTo(1.0));
+        try {
+            new TaxonomyCounter("g3", ncbi, SpaceSavingTally.factory(10)).shannonOf(Rank.GENUS);
+            fail("Diversity computed for approximate counter.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+        // Test the report columns.
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ProfileReport report = new ProfileReport(new PrintStream(output));
+        report.addDiversity(Rank.SPECIES);
+        report.writeHeader();
+        report.writeRow(single);
+        String[] lines = output.toString().split("\\r?\\n");
+        assertThat("Wrong header.", lines[0], endsWith("\tlca_rank\tshannon_species\tsimpson_species\tchao1_species"));
+        assertThat("Wrong diversity columns.", lines[1], endsWith("\t0.0000\t0.0000\t1.0"));
+    }
+
+    /**
+     * Test the ingest reader and the group key table.
+     *
+     * @throws IOException
+     */
+    public void testIngestReader() throws IOException {
+        // Build an input file big enough to span several buffers, with some awkward lines.
+        StringBuilder input = new StringBuilder(3000000);
+        input.append("genome_id\ttaxon_id\textra\tgroup_id\r\n");
+        int n = 120000;
+        for (int i = 0; i < n; i++) {
+            input.append(i).append(".1\t").append(i * 7 - 5).append("\tfiller text\tgroup").append(i % 97);
+            input.append(i % 3 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0)
+                input.append("\n");
+        }
+        // Leave the last line unterminated.
+        input.setLength(input.length() - 1);
+        byte[] data = input.toString().getBytes(StandardCharsets.UTF_8);
+        IngestReader reader = new IngestReader(new ByteArrayInputStream(data), "group_id", "2");
+        assertThat("Wrong group column.", reader.getGroupColIdx(), equalTo(3));
+        assertThat("Wrong taxon column.", reader.getTaxColIdx(), equalTo(1));
+        int count = 0;
+        String group0 = null;
+        while (reader.next()) {
+            assertThat("Wrong taxon ID.", reader.getTaxId(), equalTo(count * 7 - 5));
+            String group = reader.getGroup();
+            assertThat("Wrong group ID.", group, equalTo("group" + (count % 97)));
+            if (count == 0)
+                group0 = group;
+            else if (count % 97 == 0)
+                assertThat("Group ID not interned.", group, sameInstance(group0));
+            count++;
+        }
+        reader.close();
+        assertThat("Wrong record count.", count, equalTo(n));
+        // Read the same input in chunks and parse them separately.
+        reader = new IngestReader(new ByteArrayInputStream(data), "group_id", "taxon_id");
+        KeyTable keys = new KeyTable();
+        count = 0;
+        int chunks = 0;
+        long linesBefore = reader.getLinesRead();
+        for (byte[] chunk = reader.readChunk(100000); chunk != null; chunk = reader.readChunk(100000)) {
+            assertThat("Chunk does not end with a whole line.", chunk[chunk.length - 1], equalTo((byte) '\n'));
+            IngestReader chunkReader = new IngestReader(chunk, chunk.length, 3, 1, keys, linesBefore);
+            while (chunkReader.next()) {
+                assertThat("Wrong chunk taxon ID.", chunkReader.getTaxId(), equalTo(count * 7 - 5));
+                assertThat("Wrong chunk group ID.", chunkReader.getGroup(), equalTo("group" + (count % 97)));
+                count++;
+            }
+            assertThat("Wrong chunk line count.", chunkReader.getLinesRead(), equalTo(reader.getLinesRead()));
+            linesBefore = reader.getLinesRead();
+            chunks++;
+        }
+        assertThat("Wrong chunked record count.", count, equalTo(n));
+        assertThat("Too few chunks.", chunks, greaterThan(20));
+        assertThat("Wrong number of keys.", keys.size(), equalTo(97));
+        // Without interning, consecutive records share a group ID string, but a new group gets a new one.
+        StringBuilder sorted = new StringBuilder(3000000);
+        sorted.append("genome_id\tgroup_id\ttaxon_id\n");
+        for (int i = 0; i < n; i++)
+            sorted.append(i).append(".1\tgroup").append(i / 1000).append('\t').append(i).append('\n');
+        reader = new IngestReader(new ByteArrayInputStream(sorted.toString().getBytes(StandardCharsets.UTF_8)),
+                "group_id", "taxon_id");
+        reader.setInterning(false);
+        count = 0;
+        String previous = null;
+        while (reader.next()) {
+            String group = reader.getGroup();
+            assertThat("Wrong sorted group ID.", group, equalTo("group" + (count / 1000)));
+            if (count % 1000 == 0)
+                assertThat("Group ID reused.", group, not(sameInstance(previous)));
+            else
+                assertThat("Group ID not shared.", group, sameInstance(previous));
+            previous = group;
+            count++;
+        }
+        reader.close();
+        assertThat("Wrong sorted record count.", count, equalTo(n));
+        // Verify the errors.
+        byte[] bad = "group_id\ttaxon_id\nA\t12\nB\t1x\n".getBytes(StandardCharsets.UTF_8);
+        reader = new IngestReader(new ByteArrayInputStream(bad), "group_id", "taxon_id");
+        assertTrue("Good line rejected.", reader.next());
+        try {
+            reader.next();
+            fail("Invalid taxon ID accepted.");
+        } catch (IOException e) {
+            assertThat("Wrong error message.", e.getMessage(), containsString("line 3"));
+        }
+        bad = "group_id\ttaxon_id\nA\t99999999999\n".getBytes(StandardCharsets.UTF_8);
+        reader = new IngestReader(new ByteArrayInputStream(bad), "group_id", "taxon_id");
+        try {
+            reader.next();
+            fail("Overflowing taxon ID accepted.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        bad = "group_id\ttaxon_id\nA\n".getBytes(StandardCharsets.UTF_8);
+        reader = new IngestReader(new ByteArrayInputStream(bad), "group_id", "taxon_id");
+        try {
+            reader.next();
+            fail("Short line accepted.");
+        } catch (IOException e) {
+            assertThat("Wrong error message.", e.getMessage(), containsString("too few columns"));
+        }
+    }
+
+    /**
+     * Test the group dictionary and the profiler's use of it.
+     *
+     * @throws IOException
+     */
+    public void testGroupDictionary() throws IOException {
+        GroupDictionary groups = new GroupDictionary();
+        for (int i = 0; i < 1000; i++)
+            assertThat("Wrong new ID.", groups.intern("group" + i), equalTo(i));
+        assertThat("Wrong size.", groups.size(), equalTo(1000));
+        for (int i = 999; i >= 0; i--) {
+            assertThat("Wrong existing ID.", groups.intern("group" + i), equalTo(i));
+            assertThat("Wrong lookup ID.", groups.idOf("group" + i), equalTo(i));
+            assertThat("Wrong name.", groups.nameOf(i), equalTo("group" + i));
+        }
+        assertThat("Missing key found.", groups.idOf("group1000"), equalTo(-1));
+        assertThat("Lookup added a key.", groups.size(), equalTo(1000));
+        // Verify that empty groups disappear from the profiler and can come back.
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        profiler.register("g1", 1420916);
+        int g2 = profiler.groupNumOf("g2");
+        profiler.register(g2, 1129793);
+        profiler.register("g2", 1129793);
+        assertThat("Wrong group count.", profiler.size(), equalTo(2));
+        assertThat("Wrong g2 total.", profiler.profileOf("g2").getTotal(), equalTo(2));
+        assertTrue("Removal failed.", profiler.unregister("g1", 1420916));
+        assertThat("Empty group not removed.", profiler.profileOf("g1"), nullValue());
+        assertThat("Wrong count after removal.", profiler.size(), equalTo(1));
+        assertFalse("Missing group removal succeeded.", profiler.unregister("g3", 1420916));
+        profiler.register("g1", 2742);
+        assertThat("Group did not return.", profiler.profileOf("g1").getTotal(), equalTo(1));
+        List<TaxonomyCounter> profiles = profiler.sortedProfiles();
+        assertThat("Wrong profile count.", profiles.size(), equalTo(2));
+        assertThat("Wrong first profile.", profiles.get(0).getName(), equalTo("g2"));
+        // Round-trip through a partial file.
+        File partFile = File.createTempFile("groups", ".ser");
+        partFile.deleteOnExit();
+        profiler.save(partFile);
+        TaxonomyProfiler loaded = new TaxonomyProfiler(ncbi);
+        loaded.register("g3", 9);
+        loaded.load(partFile);
+        assertThat("Wrong loaded count.", loaded.size(), equalTo(3));
+        assertThat("Wrong loaded g2 total.", loaded.profileOf("g2").getTotal(), equalTo(2));
+    }
+
+    /**
+     * Compute a taxonomy string by walking up the tree.
+     *
+     * @param taxon		taxonomic grouping of interest
+     * @param ranks		set of ranks to include, or NULL for all ranks
+     *
+     * @return the names of the non-hidden groupings in the lineage, from the top down
+     */
+    private static String walkLineage(Taxon taxon, Set<Rank> ranks) {
+        List<String> names = new ArrayList<String>();
+        for (Taxon t = taxon; t != null; t = t.getParent()) {
+            if (! t.isHidden() && (ranks == null || ranks.contains(t.getRank())))
+                names.add(0, t.getName());
+        }
+        StringBuilder retVal = new StringBuilder();
+        for (String name : names) {
+            if (retVal.length() > 0) retVal.append("; ");
+            retVal.append(name);
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * Test the taxonomy strings.
+     *
+     * @throws IOException
+     */
+    public void testLineageStrings() throws IOException {
+        Set<Rank> major = EnumSet.of(Rank.DOMAIN, Rank.PHYLUM, Rank.CLASS, Rank.ORDER, Rank.FAMILY, Rank.GENUS);
+        // Check every taxon in a synthetic tree, which has hidden groupings at all levels.
+        TreeOfLife synth = new SyntheticTree(3000, 99).setNoRankRun(2).setHiddenFraction(0.3).build();
+        // A tiny cache forces constant evictions.
+        LineageRenderer tiny = new LineageRenderer(synth, major, "; ", 4);
+        LineageRenderer ranked = new LineageRenderer(synth, major, "; ", 1024);
+        for (int pass = 0; pass < 2; pass++) {
+            // The second pass mostly uses the cached strings.
+            for (Taxon taxon : synth) {
+                String expected = walkLineage(taxon, null);
+                assertThat("Wrong lineage for " + taxon + ".", synth.lineageString(taxon.getId()), equalTo(expected));
+                expected = walkLineage(taxon, major);
+                assertThat("Wrong ranked lineage for " + taxon + ".", ranked.render(taxon.getId()), equalTo(expected));
+                assertThat("Wrong tiny-cache lineage for " + taxon + ".", tiny.render(taxon.getId()), equalTo(expected));
+            }
+        }
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        ranked = new LineageRenderer(ncbi, major, "; ", 1024);
+        assertThat("Missing taxon rendered.", ncbi.lineageString(999999999), nullValue());
+        assertThat("Wrong species lineage.", ncbi.lineageString(1420916),
+                equalTo("root; Bacteria; Proteobacteria; Gammaproteobacteria; Alteromonadales; Alteromonadaceae; Marinobacter"));
+        // Test the report column.
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        profiler.register("A", 1420916);
+        profiler.register("A", 1129793);
+        profiler.register("A", 1129793);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ProfileReport report = new ProfileReport(new PrintStream(output));
+        report.setLineage(ranked, Rank.GENUS);
+        report.write(profiler);
+        String[] lines = output.toString().split("\\r?\\n");
+        assertThat("Wrong header.", lines[0], endsWith("\tlca_rank\tgenus_lineage"));
+        assertThat("Wrong dominant lineage.", lines[1], endsWith("\tBacteria; Proteobacteria; Gammaproteobacteria; Alteromonadales; Alteromonadaceae; Paraglaciecola"));
+        output.reset();
+        report.setLineage(ranked, null);
+        report.write(profiler);
+        lines = output.toString().split("\\r?\\n");
+        assertThat("Wrong LCA lineage.", lines[1], endsWith("\tfamily\tBacteria; Proteobacteria; Gammaproteobacteria; Alteromonadales; Alteromonadaceae"));
+    }
+
+    /**
+     * Test lineage annotation.
+     *
+     * @throws IOException
+     */
+    public void testAnnotation() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        LineageAnnotator annotator = new LineageAnnotator(ncbi, EnumSet.of(Rank.SPECIES, Rank.DOMAIN, Rank.GENUS),
+                true, true);
+        assertThat("Wrong header suffix.", annotator.getHeaderSuffix(),
+                equalTo("\tdomain_id\tdomain_name\tgenus_id\tgenus_name\tspecies_id\tspecies_name"));
+        byte[] chunk = ("g1\t1420916\r\n\ng2\t2742\ng3\t999999999\n").getBytes(StandardCharsets.UTF_8);
+        String[] lines = new String(annotator.annotate(chunk, chunk.length, 1, 1), StandardCharsets.UTF_8).split("\n", -1);
+        assertThat("Wrong line count.", lines.length, equalTo(4));
+        assertThat("Wrong species annotation.", lines[0],
+                equalTo("g1\t1420916\t2\tBacteria\t2742\tMarinobacter\t1420916\tMarinobacter similis"));
+        assertThat("Wrong genus annotation.", lines[1], equalTo("g2\t2742\t2\tBacteria\t2742\tMarinobacter\t\t"));
+        assertThat("Wrong missing annotation.", lines[2], equalTo("g3\t999999999\t\t\t\t\t\t"));
+        // Verify the cache returns the same suffix.
+        assertThat("Suffix not cached.", annotator.suffix(1420916), sameInstance(annotator.suffix(1420916)));
+        // Annotate many lines with IDs only and compare to the lineage index.
+        annotator = new LineageAnnotator(ncbi, EnumSet.of(Rank.FAMILY), true, false);
+        List<Integer> taxIds = new ArrayList<Integer>();
+        for (Taxon taxon : ncbi)
+            taxIds.add(taxon.getId());
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            input.append(taxIds.get(i % taxIds.size())).append("\n");
+        chunk = input.toString().getBytes(StandardCharsets.UTF_8);
+        lines = new String(annotator.annotate(chunk, chunk.length, 0, 1), StandardCharsets.UTF_8).split("\n");
+        assertThat("Wrong bulk line count.", lines.length, equalTo(5000));
+        for (int i = 0; i < 5000; i++) {
+            int taxId = taxIds.get(i % taxIds.size());
+            int family = ncbi.getAncestor(taxId, Rank.FAMILY);
+            assertThat("Wrong family annotation.", lines[i], equalTo(taxId + "\t" + (family < 0 ? "" : family)));
+        }
+    }
+
+    /**
+     * Test that the annotate command writes the same output with multiple threads as with one.
+     *
+     * @throws IOException
+     */
+    public void testAnnotateThreads() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        List<Integer> taxIds = new ArrayList<Integer>();
+        for (Taxon taxon : ncbi)
+            taxIds.add(taxon.getId());
+        taxIds.add(999999999);
+        // The input spans many batches, so more batches are read than can be in flight at once.
+        StringBuilder input = new StringBuilder(6000000);
+        input.append("genome_id\ttaxon_id\tcomment\n");
+        int n = 200000;
+        for (int i = 0; i < n; i++) {
+            input.append(i).append(".1\t").append(taxIds.get(i % taxIds.size())).append("\tline ").append(i)
+                    .append('\n');
+            if (i % 9999 == 0)
+                input.append('\n');
+        }
+        byte[] inputBytes = input.toString().getBytes(StandardCharsets.UTF_8);
+        assertThat("Input too small.", inputBytes.length, greaterThan(8 << 19));
+        String treeName = new File("src/test", "taxonMedium.dtx").toString();
+        byte[] expected = runCommand(inputBytes, "annotate", "--threads", "1", treeName);
+        String[] lines = new String(expected, StandardCharsets.UTF_8).split("\n");
+        assertThat("Wrong line count.", lines.length, equalTo(n + 1));
+        assertThat("Wrong last line.", lines[n], startsWith((n - 1) + ".1\t"));
+        byte[] actual = runCommand(inputBytes, "annotate", "--threads", "4", treeName);
+        assertTrue("Parallel output differs.", Arrays.equals(expected, actual));
+    }
+
+    /**
+     * Test the child index and subtree totals.
+     *
+     * @throws IOException
+     */
+    public void testSubtreeTotals() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        assertThat("Wrong child count.", ncbi.getChildCount(2742), equalTo(1));
+        assertThat("Wrong children.", ncbi.getChildren(2742)[0], equalTo(1420916));
+        assertThat("Missing taxon has children.", ncbi.getChildren(666666), nullValue());
+        assertThat("Wrong leaf subtree size.", ncbi.getSubtreeSize(1420916), equalTo(1));
+        // Total the genomes in a profile.
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        profiler.register("A", 1420916);
+        profiler.register("A", 1129793);
+        profiler.register("B", 1129793);
+        profiler.register("B", 666666);
+        SubtreeTotals totals = profiler.subtreeTotals(2);
+        assertThat("Wrong family total.", totals.get(72275), equalTo(3L));
+        assertThat("Wrong genus total.", totals.get(2742), equalTo(1L));
+        assertThat("Wrong root total.", totals.get(1), equalTo(3L));
+        assertThat("Wrong missing total.", totals.get(666666), equalTo(0L));
+        try {
+            totals.add(2742, 1);
+            fail("Add after rollup allowed.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        // Approximate counters cannot be totaled.
+        TaxonomyProfiler sketched = new TaxonomyProfiler(ncbi, SpaceSavingTally.factory(10));
+        sketched.register("A", 1420916);
+        try {
+            sketched.subtreeTotals(1);
+            fail("Totaled an approximate profile.");
+        } catch (UnsupportedOperationException e) {
+            assertThat("Wrong totals error.", e.getMessage(), containsString("exact counter"));
+        }
+        // Compare serial and parallel rollups against a brute-force walk on a tree bigger than one task.
+        TreeOfLife synth = new SyntheticTree(100000, 55).setNoRankRun(2).build();
+        int[] ids = new int[synth.size()];
+        int n = 0;
+        for (Taxon taxon : synth)
+            ids[n++] = taxon.getId();
+        long[] expected = new long[n];
+        int[] leaves = new int[n];
+        SubtreeTotals serial = new SubtreeTotals(synth);
+        SubtreeTotals parallel = new SubtreeTotals(synth);
+        SubtreeTotals leafTotals = new SubtreeTotals(synth);
+        leafTotals.addLeaves();
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>(n * 2);
+        for (int i = 0; i < n; i++)
+            positions.put(ids[i], i);
+        Random rand = new Random(17);
+        int childLinks = 0;
+        for (int i = 0; i < n; i++) {
+            int id = ids[i];
+            int count = rand.nextInt(5);
+            serial.add(id, count);
+            parallel.add(id, count);
+            boolean leaf = (synth.getChildCount(id) == 0);
+            for (int a = id; a >= 0; a = synth.getParentId(a)) {
+                int pos = positions.get(a);
+                expected[pos] += count;
+                if (leaf) leaves[pos]++;
+            }
+            for (int child : synth.getChildren(id)) {
+                assertThat("Wrong child parent.", synth.getParentId(child), equalTo(id));
+                childLinks++;
+            }
+        }
+        assertThat("Child links missing.", childLinks, equalTo(n - 1));
+        serial.rollup(1);
+        parallel.rollup(4);
+        leafTotals.rollup(3);
+        for (int i = 0; i < n; i++) {
+            assertThat("Wrong serial total for " + ids[i] + ".", serial.get(ids[i]), equalTo(expected[i]));
+            assertThat("Wrong parallel total for " + ids[i] + ".", parallel.get(ids[i]), equalTo(expected[i]));
+            assertThat("Wrong leaf total for " + ids[i] + ".", leafTotals.get(ids[i]), equalTo((long) leaves[i]));
+        }
+        // Lean and removable profilers give the same totals, and these are right for every ranked grouping.
+        TaxonomyProfiler lean = new TaxonomyProfiler(synth, TallyFactory.EXACT, false);
+        profiler = new TaxonomyProfiler(synth);
+        Map<Integer, Long> rankedCounts = new HashMap<Integer, Long>();
+        int[] lineage = new int[TreeOfLife.LINEAGE_WIDTH];
+        for (int i = 0; i < 5000; i++) {
+            int taxId = ids[rand.nextInt(n)];
+            String group = "G" + rand.nextInt(20);
+            lean.register(group, taxId);
+            profiler.register(group, taxId);
+            synth.getLineage(taxId, lineage);
+            for (int ancestorId : lineage) {
+                if (ancestorId >= 0) {
+                    Long old = rankedCounts.get(ancestorId);
+                    rankedCounts.put(ancestorId, (old == null ? 1L : old + 1L));
+                }
+            }
+        }
+        SubtreeTotals leanTotals = lean.subtreeTotals(1);
+        totals = profiler.subtreeTotals(4);
+        int rankedCount = 0;
+        for (Taxon taxon : synth) {
+            if (taxon.getRank() != Rank.OTHER) {
+                Long count = rankedCounts.get(taxon.getId());
+                long expectedCount = (count == null ? 0L : count);
+                assertThat("Wrong lean total for " + taxon + ".", leanTotals.get(taxon.getId()),
+                        equalTo(expectedCount));
+                assertThat("Wrong total for " + taxon + ".", totals.get(taxon.getId()), equalTo(expectedCount));
+                rankedCount++;
+            }
+        }
+        assertThat("Too few ranked groupings checked.", rankedCount, greaterThan(1000));
+        // A parent cycle is treated as a subtree with one member as the root.
+        TreeOfLife cyclic = new TreeOfLife(10);
+        cyclic.findOrInsert(1, 1, "no rank", "root", false);
+        cyclic.findOrInsert(2, 3, "genus", "A", false);
+        cyclic.findOrInsert(3, 2, "genus", "B", false);
+        cyclic.findOrInsert(4, 3, "species", "C", false);
+        totals = new SubtreeTotals(cyclic);
+        for (int id = 1; id <= 4; id++)
+            totals.add(id, id);
+        totals.rollup();
+        assertThat("Wrong cycle total.", totals.get(1) + Math.max(totals.get(2), totals.get(3)), equalTo(10L));
+    }
+
+    /**
+     * Test the run metrics.
+     *
+     * @throws IOException
+     */
+    public void testMetrics() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        ProfileMetrics metrics = new ProfileMetrics(1, new PrintStream(progress));
+        metrics.start(ProfileMetrics.Phase.INGEST);
+        TaxonomyProfiler profiler = new TaxonomyProfiler(ncbi);
+        int[] taxIds = new int[] { 1420916, 1129793, 666666, 2742 };
+        for (int i = 0; i < 1000; i++) {
+            profiler.register("g" + (i % 7), taxIds[i % 4]);
+            metrics.countRow();
+        }
+        metrics.stop(ProfileMetrics.Phase.INGEST);
+        RegisterStats stats = profiler.getStats();
+        assertThat("Wrong registration count.", stats.getRegistrations(), equalTo(1000L));
+        assertThat("Wrong invalid count.", stats.getInvalid(), equalTo(250L));
+        assertThat("Rank updates not counted.", stats.getRankUpdates(), greaterThan(0L));
+        // Merged profilers combine their statistics.
+        TaxonomyProfiler other = new TaxonomyProfiler(ncbi);
+        other.register("g1", 666666);
+        profiler.merge(other);
+        assertThat("Wrong merged invalid count.", stats.getInvalid(), equalTo(251L));
+        metrics.update(stats, profiler.size(), profiler.keyCount());
+        metrics.setRegisterTime(ProfileMetrics.Phase.INGEST);
+        assertThat("Wrong invalid rate.", metrics.getInvalidRate(), closeTo(251.0 / 1001.0, 1e-9));
+        metrics.report();
+        assertThat("Wrong progress line.", progress.toString(), containsString("1000 rows in"));
+        File jsonFile = File.createTempFile("metrics", ".json");
+        jsonFile.deleteOnExit();
+        metrics.writeJson(jsonFile, 1);
+        String json = new String(Files.readAllBytes(jsonFile.toPath()), StandardCharsets.UTF_8);
+        assertThat("Rows missing.", json, containsString("\"rows\": 1000,"));
+        assertThat("Groups missing.", json, containsString("\"groups\": 7,"));
+        assertThat("Phases missing.", json, containsString("\"register\": "));
+        assertThat("Unbalanced JSON.", json.trim(), endsWith("}\n}"));
+    }
+
+    /**
+     * Test the name search index.
+     *
+     * @throws IOException
+     */
+    public void testNameIndex() throws IOException {
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        assertFalse("Name index built early.", ncbi.hasNameIndex());
+        assertThat("Wrong genus found.", ncbi.findByName("Marinobacter"), equalTo(new int[] { 2742 }));
+        assertTrue("Name index not built.", ncbi.hasNameIndex());
+        assertThat("Case ignored in exact search.", ncbi.findByName("marinobacter").length, equalTo(0));
+        assertThat("Missing name found.", ncbi.findByName("Marinobacterium").length, equalTo(0));
+        assertThat("Wrong case-insensitive result.", ncbi.findByNameIgnoreCase("MARINOBACTER"),
+                equalTo(new int[] { 2742 }));
+        assertThat("Wrong prefix result.", ncbi.findByNamePrefix("marino", true, 10),
+                equalTo(new int[] { 2742, 1420916 }));
+        assertThat("Case ignored in prefix search.", ncbi.findByNamePrefix("marino", false, 10).length, equalTo(0));
+        assertThat("Prefix limit ignored.", ncbi.findByNamePrefix("Marino", false, 1), equalTo(new int[] { 2742 }));
+        // Verify every name in the tree can be found.  Exact matches come back in ID order.
+        for (Taxon taxon : ncbi) {
+            int[] found = ncbi.findByName(taxon.getName());
+            assertTrue("Name of " + taxon + " not found.", Arrays.binarySearch(found, taxon.getId()) >= 0);
+        }
+        // A change to the tree discards the index, and names differing only in case are both found.
+        ncbi.findOrInsert(666666, 2742, "species", "marinobacter", false);
+        assertFalse("Name index not discarded.", ncbi.hasNameIndex());
+        assertThat("Wrong exact result after insert.", ncbi.findByName("marinobacter"), equalTo(new int[] { 666666 }));
+        assertThat("Wrong case-insensitive result after insert.", ncbi.findByNameIgnoreCase("Marinobacter"),
+                equalTo(new int[] { 2742, 666666 }));
+        // Verify that the index survives a snapshot.
+        File snapFile = File.createTempFile("taxon", ".snap");
+        snapFile.deleteOnExit();
+        ncbi.save(snapFile);
+        TreeOfLife snapTree = TreeOfLife.open(snapFile);
+        assertTrue("Name index not in snapshot.", snapTree.hasNameIndex());
+        assertThat("Wrong prefix result from snapshot.", snapTree.findByNamePrefix("PARAGLACIECOLA P", true, 10),
+                equalTo(new int[] { 222814, 1129793 }));
+        assertThat("Wrong case-insensitive result from snapshot.", snapTree.findByNameIgnoreCase("marinobacter"),
+                equalTo(new int[] { 2742, 666666 }));
+    }
+
+    /**
+     * Test compressed and multi-file genome input.
+     *
+     * @throws IOException
+     */
+    public void testGenomeInput() throws IOException {
+        File dir = Files.createTempDirectory("shards").toFile();
+        File plainFile = new File(dir, "part-1.tbl");
+        File gzipFile = new File(dir, "part-2.tbl.gz");
+        File otherFile = new File(dir, "other.txt");
+        File zstdFile = new File(dir, "part-3.tbl.zst");
+        File[] files = new File[] { plainFile, gzipFile, otherFile, zstdFile };
+        for (File file : files)
+            file.deleteOnExit();
+        dir.deleteOnExit();
+        byte[] data = "genome_id\tgroup_id\ttaxon_id\n1.1\tG1\t9\n2.1\tG2\t32199\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(plainFile.toPath(), data);
+        Files.write(otherFile.toPath(), data);
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            gzipStream.write(data);
+        }
+        try (ZstdOutputStream zstdStream = new ZstdOutputStream(new FileOutputStream(zstdFile))) {
+            zstdStream.write(data);
+        }
+        // A pattern is expanded in name order, and a plain name is kept as it is.
+        List<File> inFiles = GenomeInput.expand(Arrays.asList(new File(dir, "part-*.tbl*").toString(),
+                otherFile.toString()));
+        assertThat("Wrong files found.", inFiles, contains(plainFile, gzipFile, zstdFile, otherFile));
+        // The plain and compressed files read the same.
+        for (File inFile : inFiles) {
+            IngestReader reader = new IngestReader(GenomeInput.open(inFile), "group_id", "taxon_id");
+            assertTrue("First record missing in " + inFile + ".", reader.next());
+            assertThat("Wrong first group in " + inFile + ".", reader.getGroup(), equalTo("G1"));
+            assertTrue("Second record missing in " + inFile + ".", reader.next());
+            assertThat("Wrong second taxon in " + inFile + ".", reader.getTaxId(), equalTo(32199));
+            assertFalse("Extra record in " + inFile + ".", reader.next());
+            reader.close();
+        }
+        try {
+            GenomeInput.expand(Arrays.asList(new File(dir, "missing-*.tbl").toString()));
+            fail("Empty pattern accepted.");
+        } catch (IOException e) {
+            assertThat("Wrong pattern error.", e.getMessage(), containsString("No input files match"));
+        }
+        // A short stream is passed through unchanged.
+        InputStream shortStream = GenomeInput.wrap(new ByteArrayInputStream(new byte[] { 'x' }), "short");
+        assertThat("Short stream changed.", shortStream.read(), equalTo((int) 'x'));
+        assertThat("Short stream too long.", shortStream.read(), equalTo(-1));
+    }
+
+    /**
+     * Test the columnar genome cache.
+     *
+     * @throws IOException
+     */
+    public void testGenomeCache() throws IOException {
+        File tblFile = File.createTempFile("genomes", ".tbl");
+        tblFile.deleteOnExit();
+        File cacheFile = File.createTempFile("genomes", ".cache");
+        cacheFile.deleteOnExit();
+        StringBuilder input = new StringBuilder(100000);
+        input.append("genome_id\tproject\ttaxon_id\tsample\n");
+        int[] taxIds = new int[] { 1420916, 1129793, 666666, 2742 };
+        int n = 5000;
+        for (int i = 0; i < n; i++) {
+            input.append(i).append(".1\tP").append(i % 7).append('\t').append(taxIds[i % 4]).append("\tS")
+                    .append(i % 11).append('\n');
+            if (i % 1000 == 0)
+                input.append('\n');
+        }
+        Files.write(tblFile.toPath(), input.toString().getBytes(StandardCharsets.UTF_8));
+        CacheProcessor processor = new CacheProcessor();
+        assertTrue("Cache command rejected.", processor.parseCommand(new String[] { "-c", "project", "-c", "4",
+                cacheFile.toString(), tblFile.toString() }));
+        processor.run();
+        GenomeCache cache = GenomeCache.load(cacheFile);
+        assertThat("Wrong row count.", cache.size(), equalTo(n));
+        assertThat("Wrong taxon column.", cache.getTaxColName(), equalTo("taxon_id"));
+        assertThat("Wrong group columns.", cache.getGroupColNames(), arrayContaining("project", "sample"));
+        int sampleCol = cache.findGroupColumn("sample");
+        assertThat("Wrong sample column.", sampleCol, equalTo(1));
+        String[] samples = cache.getDictionary(sampleCol);
+        assertThat("Wrong sample count.", samples.length, equalTo(11));
+        // Profile the cached sample column and compare it to a profile of the text.
+        IntBuffer cachedTaxIds = cache.getTaxIds();
+        IntBuffer codes = cache.getGroupCodes(sampleCol);
+        TreeOfLife ncbi = TreeOfLife.load(new File("src/test", "taxonMedium.dtx"));
+        TaxonomyProfiler cached = new TaxonomyProfiler(ncbi);
+        TaxonomyProfiler expected = new TaxonomyProfiler(ncbi);
+        for (int i = 0; i < n; i++) {
+            assertThat("Wrong taxon ID in row " + i + ".", cachedTaxIds.get(i), equalTo(taxIds[i % 4]));
+            cached.register(samples[codes.get(i)], cachedTaxIds.get(i));
+            expected.register("S" + (i % 11), taxIds[i % 4]);
+        }
+        for (TaxonomyCounter counter : expected.sortedProfiles()) {
+            TaxonomyCounter other = cached.profileOf(counter.getName());
+            assertThat("Wrong size for " + counter.getName() + ".", other.getTotal(), equalTo(counter.getTotal()));
+            assertThat("Wrong invalid count for " + counter.getName() + ".", other.getInvalid(),
+                    equalTo(counter.getInvalid()));
+        }
+        try {
+            cache.findGroupColumn("genome_id");
+            fail("Uncached column found.");
+        } catch (IOException e) {
+            assertThat("Wrong column error.", e.getMessage(), containsString("genome_id"));
+        }
+        // A damaged cache is rejected.
+        byte[] cacheData = Files.readAllBytes(cacheFile.toPath());
+        Files.write(cacheFile.toPath(), Arrays.copyOf(cacheData, cacheData.length - 3));
+        try {
+            GenomeCache.load(cacheFile);
+            fail("Truncated cache loaded.");
+        } catch (IOException e) {
+            assertThat("Wrong truncation error.", e.getMessage(), containsString("truncated"));
+        }
+    }
+
+    /**
+     * Test profiling from a genome cache against profiling from the text table.
+     *
+     * @throws IOException
+     */
+    public void testCacheProfile() throws IOException {
+        File tblFile = File.createTempFile("genomes", ".tbl");
+        tblFile.deleteOnExit();
+        File cacheFile = File.createTempFile("genomes", ".cache");
+        cacheFile.deleteOnExit();
+        File metricsFile = File.createTempFile("metrics", ".json");
+        metricsFile.deleteOnExit();
+        String treeName = new File("src/test", "taxonMedium.dtx").toString();
+        // The projects are contiguous, so each thread sees a different subset of the group codes.
+        StringBuilder input = new StringBuilder(1000000);
+        input.append("genome_id\tproject\ttaxon_id\tsample\n");
+        int[] taxIds = new int[] { 1420916, 1129793, 666666, 2742, 999999999 };
+        int n = 40000;
+        for (int i = 0; i < n; i++)
+            input.append(i).append(".1\tP").append(i / 4000).append('\t').append(taxIds[i % 5]).append("\tS")
+                    .append(i * 7 % 13).append('\n');
+        Files.write(tblFile.toPath(), input.toString().getBytes(StandardCharsets.UTF_8));
+        runCommand(null, "cache", "-c", "project", "-c", "sample", cacheFile.toString(), tblFile.toString());
+        String[][] optionSets = new String[][] { { "-c", "sample" }, { "-c", "project", "--include-clade", "72275" } };
+        for (String[] options : optionSets) {
+            String label = Arrays.toString(options);
+            List<String> command = new ArrayList<String>(Arrays.asList("profile", "--metrics",
+                    metricsFile.toString()));
+            command.addAll(Arrays.asList(options));
+            List<String> textCommand = new ArrayList<String>(command);
+            textCommand.addAll(Arrays.asList(treeName, tblFile.toString()));
+            String expected = new String(runCommand(null, textCommand.toArray(new String[0])),
+                    StandardCharsets.UTF_8);
+            List<String> expectedCounts = metricCounts(metricsFile);
+            assertThat("No groups in report for " + label + ".", expected.split("\n").length, greaterThan(2));
+            for (String threads : new String[] { "1", "4" }) {
+                List<String> cacheCommand = new ArrayList<String>(command);
+                cacheCommand.addAll(Arrays.asList("--threads", threads, "--cache", cacheFile.toString(), treeName));
+                String actual = new String(runCommand(null, cacheCommand.toArray(new String[0])),
+                        StandardCharsets.UTF_8);
+                assertThat("Wrong cached report for " + label + " with " + threads + " threads.", actual,
+                        equalTo(expected));
+                assertThat("Wrong cached counts for " + label + " with " + threads + " threads.",
+                        metricCounts(metricsFile), equalTo(expectedCounts));
+            }
+        }
+        // Only the clade run filters records.
+        assertThat("No records filtered.", metricCounts(metricsFile), not(hasItem(containsString("\"filtered\": 0,"))));
+        // A group code outside the dictionary is reported as damage.  The last sample code precedes both
+        // dictionaries.
+        GenomeCache cache = GenomeCache.load(cacheFile);
+        String[] samples = cache.getDictionary(1);
+        int dictLen = 0;
+        for (int col = 0; col < 2; col++) {
+            for (String group : cache.getDictionary(col))
+                dictLen += 4 + group.length();
+        }
+        byte[] cacheData = Files.readAllBytes(cacheFile.toPath());
+        ByteBuffer.wrap(cacheData).putInt(cacheData.length - dictLen - 4, samples.length);
+        Files.write(cacheFile.toPath(), cacheData);
+        for (String threads : new String[] { "1", "4" }) {
+            PrintStream oldErr = System.err;
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            byte[] report;
+            try {
+                System.setErr(new PrintStream(errors));
+                report = runCommand(null, "profile", "-c", "sample", "--threads", threads, "--cache",
+                        cacheFile.toString(), treeName);
+            } finally {
+                System.setErr(oldErr);
+            }
+            assertThat("Report written for damaged cache.", report.length, equalTo(0));
+            assertThat("Wrong damaged code error.", errors.toString(),
+                    containsString("Invalid group code " + samples.length));
+        }
+        // A damaged dictionary is rejected.
+        ByteBuffer.wrap(cacheData).putInt(cacheData.length - 4 - samples[samples.length - 1].length(), 100);
+        Files.write(cacheFile.toPath(), cacheData);
+        cache = GenomeCache.load(cacheFile);
+        try {
+            cache.getDictionary(1);
+            fail("Damaged dictionary decoded.");
+        } catch (IOException e) {
+            assertThat("Wrong dictionary error.", e.getMessage(), containsString("damaged"));
+        }
+    }
+
+    /**
+     * @return the count lines from a metrics file
+     *
+     * @param metricsFile	JSON metrics file written by the profile command
+     *
+     * @throws IOException
+     */
+    private static List<String> metricCounts(File metricsFile) throws IOException {
+        List<String> retVal = new ArrayList<String>();
+        for (String line : Files.readAllLines(metricsFile.toPath(), StandardCharsets.UTF_8)) {
+            if (line.matches("\\s*\"(rows|filtered|registrations|invalid)\":.*"))
+                retVal.add(line);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a temporary file containing the specified text
+     *
+     * @param prefix	prefix for the file name
+     * @param text		text to put in the file
+     *
+     * @throws IOException
+     */
+    private static File tempTable(String prefix, String text) throws IOException {
+        File retVal = File.createTempFile(prefix, ".tbl");
+        retVal.deleteOnExit();
+        Files.write(retVal.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return retVal;
+    }
+
+    /**
+     * Run a command of the main application and capture its standard output.
+     *
+     * @param input		data for the standard input, or NULL to leave the standard input unchanged
+     * @param args		command name and parameters
+     *
+     * @return the bytes written to the standard output
+     */
+    private static byte[] runCommand(byte[] input, String... args) {
+        PrintStream oldOut = System.out;
+        InputStream oldIn = System.in;
+        ByteArrayOutputStream retVal = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(retVal));
+            if (input != null)
+                System.setIn(new ByteArrayInputStream(input));
+            App.main(args);
+            System.out.flush();
+        } finally {
+            System.setOut(oldOut);
+            System.setIn(oldIn);
+        }
+        return retVal.toByteArray();
+    }
 }